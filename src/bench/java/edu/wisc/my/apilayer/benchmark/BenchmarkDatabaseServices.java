@@ -0,0 +1,126 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import edu.wisc.my.apilayer.internal.IDatabaseServices;
+import edu.wisc.my.apilayer.rdbm.IDatabaseServer;
+
+
+/**
+ * Stand-in {@link IDatabaseServices} whose servers hand out a shared no-op
+ * {@link Connection} so benchmarks measure only the resolution path.
+ */
+public class BenchmarkDatabaseServices implements IDatabaseServices {
+    private final IDatabaseServer defaultServer = new BenchmarkDatabaseServer();
+    private final Map<String, IDatabaseServer> servers = new HashMap<String, IDatabaseServer>();
+
+    public BenchmarkDatabaseServices(final String... serverNames) {
+        for (final String serverName : serverNames) {
+            this.servers.put(serverName, new BenchmarkDatabaseServer());
+        }
+    }
+
+    public IDatabaseServer getDefaultServer() {
+        return this.defaultServer;
+    }
+
+    public IDatabaseServer getServer(final String name) {
+        return this.servers.get(name);
+    }
+
+    public String[] getServerNames() {
+        return this.servers.keySet().toArray(new String[this.servers.size()]);
+    }
+
+
+    private static final class BenchmarkDatabaseServer implements IDatabaseServer {
+        private final DataSource dataSource = new BenchmarkDataSource();
+
+        public DataSource getDataSource() {
+            return this.dataSource;
+        }
+
+        public boolean supportsOuterJoins() {
+            return true;
+        }
+
+        public boolean supportsTransactions() {
+            return true;
+        }
+    }
+
+    private static final class BenchmarkDataSource implements DataSource {
+        private final Connection connection = (Connection)Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        return null;
+                    }
+                });
+
+        public Connection getConnection() throws SQLException {
+            return this.connection;
+        }
+
+        public Connection getConnection(final String username, final String password) throws SQLException {
+            return this.connection;
+        }
+
+        public PrintWriter getLogWriter() throws SQLException {
+            return null;
+        }
+
+        public void setLogWriter(final PrintWriter out) throws SQLException {
+        }
+
+        public void setLoginTimeout(final int seconds) throws SQLException {
+        }
+
+        public int getLoginTimeout() throws SQLException {
+            return 0;
+        }
+
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        public <T> T unwrap(final Class<T> iface) throws SQLException {
+            throw new SQLException("Not a wrapper");
+        }
+
+        public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+            return false;
+        }
+    }
+}
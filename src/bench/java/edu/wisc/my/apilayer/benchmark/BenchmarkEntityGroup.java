@@ -0,0 +1,196 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.naming.Name;
+
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IEntity;
+import edu.wisc.my.apilayer.groups.IEntityGroup;
+import edu.wisc.my.apilayer.groups.IGroupMember;
+import edu.wisc.my.apilayer.groups.IIndividualGroupService;
+
+
+/**
+ * Group for {@link DeepMembershipBenchmark}. Memberships are held as object
+ * references and deep membership is found by a recursive walk of the
+ * members. The groups in {@link edu.wisc.my.apilayer.memory} answer deep
+ * membership from precomputed ancestors so they can't stand in for a store
+ * that walks.
+ */
+public class BenchmarkEntityGroup extends BenchmarkGroupMember implements IEntityGroup {
+    private final List<BenchmarkGroupMember> members = new ArrayList<BenchmarkGroupMember>();
+    private String name;
+    private String description;
+    private String creatorId;
+
+    public BenchmarkEntityGroup(final String key, final String name, final Class<? extends IBasicEntity> leafType) {
+        super(new BenchmarkEntityIdentifier(key, IEntityGroup.class), leafType);
+        this.name = name;
+    }
+
+    public boolean isGroup() {
+        return true;
+    }
+
+    public void addMember(final IGroupMember gm) throws GroupsException {
+        final BenchmarkGroupMember member = (BenchmarkGroupMember)gm;
+        if (!this.members.contains(member)) {
+            this.members.add(member);
+            member.containingGroups.add(this);
+        }
+    }
+
+    public void removeMember(final IGroupMember gm) throws GroupsException {
+        final BenchmarkGroupMember member = (BenchmarkGroupMember)gm;
+        if (this.members.remove(member)) {
+            member.containingGroups.remove(this);
+        }
+    }
+
+    @Override
+    public boolean contains(final IGroupMember gm) throws GroupsException {
+        return this.members.contains(gm);
+    }
+
+    @Override
+    public boolean deepContains(final IGroupMember gm) throws GroupsException {
+        for (final BenchmarkGroupMember member : this.members) {
+            if (member.equals(gm) || (member.isGroup() && member.deepContains(gm))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<IGroupMember> getMembers() throws GroupsException {
+        return Collections.<IGroupMember>unmodifiableList(this.members).iterator();
+    }
+
+    @Override
+    public Iterator<IGroupMember> getAllMembers() throws GroupsException {
+        final Set<IGroupMember> allMembers = new LinkedHashSet<IGroupMember>();
+        this.collectMembers(allMembers);
+        return allMembers.iterator();
+    }
+
+    private void collectMembers(final Set<IGroupMember> allMembers) {
+        for (final BenchmarkGroupMember member : this.members) {
+            if (allMembers.add(member) && member.isGroup()) {
+                ((BenchmarkEntityGroup)member).collectMembers(allMembers);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<IEntity> getEntities() throws GroupsException {
+        final List<IEntity> entities = new ArrayList<IEntity>();
+        for (final BenchmarkGroupMember member : this.members) {
+            if (!member.isGroup()) {
+                entities.add((IEntity)member);
+            }
+        }
+        return entities.iterator();
+    }
+
+    @Override
+    public Iterator<IEntity> getAllEntities() throws GroupsException {
+        final List<IEntity> entities = new ArrayList<IEntity>();
+        for (final Iterator<IGroupMember> memberItr = this.getAllMembers(); memberItr.hasNext();) {
+            final IGroupMember member = memberItr.next();
+            if (!member.isGroup()) {
+                entities.add((IEntity)member);
+            }
+        }
+        return entities.iterator();
+    }
+
+    @Override
+    public IEntityGroup getMemberGroupNamed(final String groupName) throws GroupsException {
+        for (final BenchmarkGroupMember member : this.members) {
+            if (member.isGroup() && groupName.equals(((IEntityGroup)member).getName())) {
+                return (IEntityGroup)member;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasMembers() throws GroupsException {
+        return !this.members.isEmpty();
+    }
+
+    public void delete() throws GroupsException {
+    }
+
+    public void update() throws GroupsException {
+    }
+
+    public void updateMembers() throws GroupsException {
+    }
+
+    public String getCreatorID() {
+        return this.creatorId;
+    }
+
+    public void setCreatorID(final String userID) {
+        this.creatorId = userID;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public void setDescription(final String description) {
+        this.description = description;
+    }
+
+    public String getLocalKey() {
+        return this.getKey();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(final String name) throws GroupsException {
+        this.name = name;
+    }
+
+    public Name getServiceName() {
+        return null;
+    }
+
+    public boolean isEditable() throws GroupsException {
+        return true;
+    }
+
+    public void setLocalGroupService(final IIndividualGroupService groupService) throws GroupsException {
+    }
+}
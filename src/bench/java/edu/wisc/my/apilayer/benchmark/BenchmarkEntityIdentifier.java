@@ -0,0 +1,68 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IEntityIdentifier;
+
+
+/**
+ * Minimal {@link IEntityIdentifier} for benchmarks.
+ */
+public final class BenchmarkEntityIdentifier implements IEntityIdentifier {
+    private final String key;
+    private final Class<? extends IBasicEntity> type;
+
+    public BenchmarkEntityIdentifier(final String key, final Class<? extends IBasicEntity> type) {
+        this.key = key;
+        this.type = type;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public Class<? extends IBasicEntity> getType() {
+        return this.type;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof IEntityIdentifier)) {
+            return false;
+        }
+
+        final IEntityIdentifier other = (IEntityIdentifier)o;
+        return this.type == other.getType() && this.key.equals(other.getKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.type.hashCode() + this.key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.type.getName() + "(" + this.key + ")";
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IEntity;
+import edu.wisc.my.apilayer.groups.IEntityGroup;
+import edu.wisc.my.apilayer.groups.IEntityIdentifier;
+import edu.wisc.my.apilayer.groups.IGroupMember;
+
+
+/**
+ * Behavior shared by the benchmark groups and entities. Deep membership is
+ * answered the way a store backed implementation does, by walking the
+ * membership graph on every call.
+ */
+public abstract class BenchmarkGroupMember implements IGroupMember {
+    private final IEntityIdentifier identifier;
+    private final Class<? extends IBasicEntity> leafType;
+    final List<BenchmarkEntityGroup> containingGroups = new ArrayList<BenchmarkEntityGroup>();
+
+    protected BenchmarkGroupMember(final IEntityIdentifier identifier, final Class<? extends IBasicEntity> leafType) {
+        this.identifier = identifier;
+        this.leafType = leafType;
+    }
+
+    public boolean contains(final IGroupMember gm) throws GroupsException {
+        return false;
+    }
+
+    public boolean deepContains(final IGroupMember gm) throws GroupsException {
+        return false;
+    }
+
+    public Iterator<IEntityGroup> getAllContainingGroups() throws GroupsException {
+        final Set<IEntityGroup> groups = new LinkedHashSet<IEntityGroup>();
+        this.collectContainingGroups(groups);
+        return groups.iterator();
+    }
+
+    void collectContainingGroups(final Set<IEntityGroup> groups) {
+        for (final BenchmarkEntityGroup group : this.containingGroups) {
+            if (groups.add(group)) {
+                group.collectContainingGroups(groups);
+            }
+        }
+    }
+
+    public Iterator<IEntity> getAllEntities() throws GroupsException {
+        return Collections.<IEntity>emptyList().iterator();
+    }
+
+    public Iterator<IGroupMember> getAllMembers() throws GroupsException {
+        return Collections.<IGroupMember>emptyList().iterator();
+    }
+
+    public Iterator<IEntityGroup> getContainingGroups() throws GroupsException {
+        return Collections.<IEntityGroup>unmodifiableList(this.containingGroups).iterator();
+    }
+
+    public Iterator<IEntity> getEntities() throws GroupsException {
+        return Collections.<IEntity>emptyList().iterator();
+    }
+
+    public Class<? extends IBasicEntity> getEntityType() {
+        return this.leafType;
+    }
+
+    public String getKey() {
+        return this.identifier.getKey();
+    }
+
+    public Class<? extends IBasicEntity> getLeafType() {
+        return this.leafType;
+    }
+
+    public IEntityGroup getMemberGroupNamed(final String name) throws GroupsException {
+        return null;
+    }
+
+    public Iterator<IGroupMember> getMembers() throws GroupsException {
+        return Collections.<IGroupMember>emptyList().iterator();
+    }
+
+    public Class<? extends IBasicEntity> getType() {
+        return this.identifier.getType();
+    }
+
+    public IEntityIdentifier getUnderlyingEntityIdentifier() {
+        return this.identifier;
+    }
+
+    public IEntityIdentifier getEntityIdentifier() {
+        return this.identifier;
+    }
+
+    public boolean hasMembers() throws GroupsException {
+        return false;
+    }
+
+    public boolean isDeepMemberOf(final IGroupMember gm) throws GroupsException {
+        return gm.deepContains(this);
+    }
+
+    public boolean isEntity() {
+        return !this.isGroup();
+    }
+
+    public boolean isMemberOf(final IGroupMember gm) throws GroupsException {
+        return gm.contains(this);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof IGroupMember && this.identifier.equals(((IGroupMember)o).getUnderlyingEntityIdentifier());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.identifier.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.identifier.toString();
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import edu.wisc.my.apilayer.internal.IDatabaseServices;
+import edu.wisc.my.apilayer.internal.IGroupServices;
+import edu.wisc.my.apilayer.internal.ILdapServices;
+import edu.wisc.my.apilayer.internal.IPersonServices;
+import edu.wisc.my.apilayer.internal.IPortalServices;
+import edu.wisc.my.apilayer.internal.PortalServicesLocator;
+
+
+/**
+ * {@link IPortalServices} assembled from any services, for benchmarks that
+ * wrap the in-memory services or need to choose how the locator resolves them.
+ */
+public class BenchmarkPortalServices implements IPortalServices {
+    private final IDatabaseServices databaseServices;
+    private final ILdapServices ldapServices;
+    private final IPersonServices personServices;
+    private final IGroupServices groupServices;
+
+    public BenchmarkPortalServices(final IDatabaseServices databaseServices, final ILdapServices ldapServices, final IPersonServices personServices, final IGroupServices groupServices) {
+        this.databaseServices = databaseServices;
+        this.ldapServices = ldapServices;
+        this.personServices = personServices;
+        this.groupServices = groupServices;
+    }
+
+    /**
+     * Registers these services with the {@link PortalServicesLocator}.
+     */
+    public void install() {
+        PortalServicesLocator.setPortalServices(this);
+    }
+
+    /**
+     * Registers these services with the {@link PortalServicesLocator}.
+     * 
+     * @param resolve If the locator resolves the services once.
+     */
+    public void install(final boolean resolve) {
+        PortalServicesLocator.setPortalServices(this, resolve);
+    }
+
+    public IDatabaseServices getDatabaseServices() {
+        return this.databaseServices;
+    }
+
+    public ILdapServices getLdapServices() {
+        return this.ldapServices;
+    }
+
+    public IPersonServices getPersonServices() {
+        return this.personServices;
+    }
+
+    public IGroupServices getGroupServices() {
+        return this.groupServices;
+    }
+}
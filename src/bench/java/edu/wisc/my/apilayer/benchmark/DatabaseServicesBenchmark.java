@@ -0,0 +1,71 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wisc.my.apilayer.rdbm.DatabaseServicesDataSource;
+
+
+/**
+ * How long {@link DatabaseServicesDataSource#getConnection()} takes to
+ * resolve the portal's {@link javax.sql.DataSource}, the stand-in data
+ * source hands back a shared connection. The bound runs resolve the data
+ * source once instead of on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DatabaseServicesBenchmark {
+    @Param({ "false", "true" })
+    public boolean bound;
+
+    private DatabaseServicesDataSource defaultDataSource;
+    private DatabaseServicesDataSource namedDataSource;
+
+    @Setup
+    public void setup() {
+        new BenchmarkPortalServices(new BenchmarkDatabaseServices("personDb", "groupDb", "reportingDb"), null, null, null).install();
+
+        this.defaultDataSource = new DatabaseServicesDataSource(null, this.bound);
+        this.namedDataSource = new DatabaseServicesDataSource("reportingDb", this.bound);
+    }
+
+    @Benchmark
+    public Connection defaultServer() throws SQLException {
+        return this.defaultDataSource.getConnection();
+    }
+
+    @Benchmark
+    public Connection namedServer() throws SQLException {
+        return this.namedDataSource.getConnection();
+    }
+}
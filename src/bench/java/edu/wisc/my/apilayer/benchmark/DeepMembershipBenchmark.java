@@ -0,0 +1,106 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wisc.my.apilayer.groups.GroupMembershipIndex;
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.person.IPerson;
+
+
+/**
+ * {@link edu.wisc.my.apilayer.groups.IGroupMember#deepContains(edu.wisc.my.apilayer.groups.IGroupMember)}
+ * on a deep hierarchy, walking the members versus probing a {@link GroupMembershipIndex}.
+ * <p>
+ * The hierarchy is a chain of <code>depth</code> groups. Every group in the
+ * chain also holds <code>fanOut</code> entities and <code>fanOut</code> other
+ * groups so a walk has to look at them on the way down. The member is at the
+ * bottom of the chain and the outsider is in no group.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeepMembershipBenchmark {
+    @Param({ "4", "16" })
+    public int depth;
+
+    @Param({ "8" })
+    public int fanOut;
+
+    private BenchmarkEntityGroup top;
+    private BenchmarkEntity member;
+    private BenchmarkEntity outsider;
+    private GroupMembershipIndex index;
+
+    @Setup
+    public void setup() throws GroupsException {
+        this.top = new BenchmarkEntityGroup("chain.0", "Chain 0", IPerson.class);
+
+        BenchmarkEntityGroup parent = this.top;
+        for (int level = 1; level <= this.depth; level++) {
+            for (int sibling = 0; sibling < this.fanOut; sibling++) {
+                parent.addMember(new BenchmarkEntity("person." + level + "." + sibling, IPerson.class));
+                parent.addMember(new BenchmarkEntityGroup("sibling." + level + "." + sibling, "Sibling " + level + "." + sibling, IPerson.class));
+            }
+
+            final BenchmarkEntityGroup child = new BenchmarkEntityGroup("chain." + level, "Chain " + level, IPerson.class);
+            parent.addMember(child);
+            parent = child;
+        }
+
+        this.member = new BenchmarkEntity("member", IPerson.class);
+        parent.addMember(this.member);
+        this.outsider = new BenchmarkEntity("outsider", IPerson.class);
+
+        this.index = new GroupMembershipIndex();
+        this.index.getAncestorGroupKeys(this.member);
+        this.index.getAncestorGroupKeys(this.outsider);
+    }
+
+    @Benchmark
+    public boolean walkMember() throws GroupsException {
+        return this.top.deepContains(this.member);
+    }
+
+    @Benchmark
+    public boolean walkOutsider() throws GroupsException {
+        return this.top.deepContains(this.outsider);
+    }
+
+    @Benchmark
+    public boolean indexMember() throws GroupsException {
+        return this.index.deepContains(this.top, this.member);
+    }
+
+    @Benchmark
+    public boolean indexOutsider() throws GroupsException {
+        return this.index.deepContains(this.top, this.outsider);
+    }
+}
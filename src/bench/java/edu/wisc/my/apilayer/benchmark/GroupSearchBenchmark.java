@@ -0,0 +1,113 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wisc.my.apilayer.groups.GroupNameSearchIndex;
+import edu.wisc.my.apilayer.groups.GroupService;
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IEntityIdentifier;
+import edu.wisc.my.apilayer.groups.SearchMethod;
+import edu.wisc.my.apilayer.memory.InMemoryGroupServices;
+import edu.wisc.my.apilayer.memory.InMemoryGroupStore;
+import edu.wisc.my.apilayer.person.IPerson;
+
+
+/**
+ * {@link GroupService#searchForGroups(String, SearchMethod, Class)} through
+ * the locator to an {@link InMemoryGroupServices} versus a
+ * {@link GroupNameSearchIndex} queried directly, for each
+ * {@link SearchMethod}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GroupSearchBenchmark {
+    private static final String[] PREFIXES = { "Dept of", "College of", "School of", "Office of", "Center for" };
+    private static final String[] SUBJECTS = { "Mathematics", "Chemistry", "History", "Engineering", "Nursing", "Music", "Physics" };
+    private static final String[] SUFFIXES = { "Faculty", "Staff", "Students", "Advisors", "Admins" };
+
+    @Param({ "100000" })
+    public int groupCount;
+
+    @Param({ "IS", "STARTS_WITH", "ENDS_WITH", "CONTAINS" })
+    public String method;
+
+    private SearchMethod searchMethod;
+    private String query;
+    private GroupNameSearchIndex index;
+
+    @Setup
+    public void setup() throws GroupsException {
+        final InMemoryGroupServices groupServices = new InMemoryGroupServices();
+        final InMemoryGroupStore.Loader loader = groupServices.getStore().newLoader();
+        for (int ordinal = 0; ordinal < this.groupCount; ordinal++) {
+            final String name = PREFIXES[ordinal % PREFIXES.length] + " " + SUBJECTS[ordinal % SUBJECTS.length] + " " + ordinal + " " + SUFFIXES[ordinal % SUFFIXES.length];
+            loader.addGroup("local." + ordinal, name, IPerson.class);
+        }
+        loader.commit();
+        new BenchmarkPortalServices(null, null, null, groupServices).install();
+
+        this.index = new GroupNameSearchIndex();
+        for (int ordinal = 0; ordinal < this.groupCount; ordinal++) {
+            this.index.add(groupServices.findGroup("local." + ordinal));
+        }
+
+        if ("IS".equals(this.method)) {
+            this.searchMethod = SearchMethod.IS;
+            this.query = "school of mathematics 42 students";
+        }
+        else if ("STARTS_WITH".equals(this.method)) {
+            this.searchMethod = SearchMethod.STARTS_WITH;
+            this.query = "center for music 1";
+        }
+        else if ("ENDS_WITH".equals(this.method)) {
+            this.searchMethod = SearchMethod.ENDS_WITH;
+            this.query = "98 advisors";
+        }
+        else {
+            this.searchMethod = SearchMethod.CONTAINS;
+            this.query = "nursing 12";
+        }
+
+        //Build the index structures outside of the measurement
+        this.index.searchForGroups(this.query, this.searchMethod, IPerson.class);
+    }
+
+    @Benchmark
+    public IEntityIdentifier[] service() throws GroupsException {
+        return GroupService.searchForGroups(this.query, this.searchMethod, IPerson.class);
+    }
+
+    @Benchmark
+    public IEntityIdentifier[] indexed() {
+        return this.index.searchForGroups(this.query, this.searchMethod, IPerson.class);
+    }
+}
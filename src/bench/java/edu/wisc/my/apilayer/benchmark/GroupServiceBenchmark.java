@@ -0,0 +1,87 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wisc.my.apilayer.groups.CachingGroupServices;
+import edu.wisc.my.apilayer.groups.GroupService;
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IEntityGroup;
+import edu.wisc.my.apilayer.memory.InMemoryGroupServices;
+import edu.wisc.my.apilayer.memory.InMemoryGroupStore;
+import edu.wisc.my.apilayer.person.IPerson;
+
+
+/**
+ * {@link GroupService#findGroup(String)} through the locator, with and
+ * without {@link CachingGroupServices} in front of an
+ * {@link InMemoryGroupServices}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GroupServiceBenchmark {
+    @Param({ "1000", "100000" })
+    public int groupCount;
+
+    @Param({ "false", "true" })
+    public boolean cached;
+
+    private String[] keys;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws GroupsException {
+        final InMemoryGroupServices groupServices = new InMemoryGroupServices();
+        final InMemoryGroupStore.Loader loader = groupServices.getStore().newLoader();
+        for (int index = 0; index < this.groupCount; index++) {
+            loader.addGroup("local." + index, "Group " + index, IPerson.class);
+        }
+        loader.commit();
+
+        //A working set of popular groups, as during a login storm
+        this.keys = new String[1024];
+        for (int index = 0; index < this.keys.length; index++) {
+            this.keys[index] = "local." + ((index * 7919) % this.groupCount);
+        }
+
+        if (this.cached) {
+            new BenchmarkPortalServices(null, null, null, new CachingGroupServices(groupServices, this.keys.length * 2, 5, 1, TimeUnit.MINUTES)).install();
+        }
+        else {
+            new BenchmarkPortalServices(null, null, null, groupServices).install();
+        }
+    }
+
+    @Benchmark
+    public IEntityGroup findGroup() throws GroupsException {
+        return GroupService.findGroup(this.keys[this.next++ & (this.keys.length - 1)]);
+    }
+}
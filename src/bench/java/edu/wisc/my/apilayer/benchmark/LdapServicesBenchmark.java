@@ -0,0 +1,65 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wisc.my.apilayer.ldap.ILdapServer;
+import edu.wisc.my.apilayer.ldap.LdapServices;
+import edu.wisc.my.apilayer.memory.InMemoryLdapServer;
+import edu.wisc.my.apilayer.memory.InMemoryLdapServices;
+import edu.wisc.my.apilayer.memory.InMemoryPersonServices;
+
+
+/**
+ * How long the {@link LdapServices} facade takes to resolve a server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LdapServicesBenchmark {
+    @Setup
+    public void setup() {
+        final InMemoryPersonServices personServices = new InMemoryPersonServices();
+        final InMemoryLdapServices ldapServices = new InMemoryLdapServices(new InMemoryLdapServer(personServices, "dc=example,dc=edu", "uid"));
+        for (final String serverName : new String[] { "campus", "people", "groups" }) {
+            ldapServices.addServer(serverName, new InMemoryLdapServer(personServices, "dc=example,dc=edu", "uid"));
+        }
+        new BenchmarkPortalServices(null, ldapServices, null, null).install();
+    }
+
+    @Benchmark
+    public ILdapServer defaultServer() {
+        return LdapServices.getDefaultServer();
+    }
+
+    @Benchmark
+    public ILdapServer namedServer() {
+        return LdapServices.getServer("people");
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wisc.my.apilayer.memory.InMemoryPerson;
+import edu.wisc.my.apilayer.memory.InMemoryPersonServices;
+import edu.wisc.my.apilayer.person.IPerson;
+import edu.wisc.my.apilayer.person.PersonServices;
+
+
+/**
+ * {@link PersonServices#getPersonByUserName(String)} through the locator to
+ * an {@link InMemoryPersonServices}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PersonServicesBenchmark {
+    @Param({ "10000" })
+    public int personCount;
+
+    private String[] userNames;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        final InMemoryPersonServices personServices = new InMemoryPersonServices(this.personCount);
+        for (int index = 0; index < this.personCount; index++) {
+            final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>();
+            attributes.put("uid", singleton("user" + index));
+            attributes.put("mail", singleton("user" + index + "@example.edu"));
+            attributes.put("eduPersonAffiliation", singleton(index % 3 == 0 ? "faculty" : "student"));
+
+            personServices.addPerson(new InMemoryPerson("key" + index, "user" + index, attributes));
+        }
+        new BenchmarkPortalServices(null, null, personServices, null).install();
+
+        this.userNames = new String[1024];
+        for (int index = 0; index < this.userNames.length; index++) {
+            this.userNames[index] = "user" + ((index * 7919) % this.personCount);
+        }
+    }
+
+    private static List<Object> singleton(final Object value) {
+        final List<Object> values = new ArrayList<Object>(1);
+        values.add(value);
+        return values;
+    }
+
+    @Benchmark
+    public IPerson getPersonByUserName() {
+        return PersonServices.getPersonByUserName(this.userNames[this.next++ & (this.userNames.length - 1)]);
+    }
+}
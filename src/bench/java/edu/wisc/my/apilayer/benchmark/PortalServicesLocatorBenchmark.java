@@ -0,0 +1,98 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import edu.wisc.my.apilayer.internal.IPersonServices;
+import edu.wisc.my.apilayer.internal.IPortalServices;
+import edu.wisc.my.apilayer.internal.PortalServicesLocator;
+import edu.wisc.my.apilayer.memory.InMemoryPersonServices;
+
+
+/**
+ * How long the facades take to reach their delegate. The legacyLocator runs
+ * are the baseline, a copy of the locator before 1.3 that reads a plain
+ * static field and calls the portal's getter. The portalServices runs take
+ * that path through {@link PortalServicesLocator#getPortalServices()}, the
+ * bundle runs take the path the facades use now. The resolved runs publish
+ * a bundle that calls the portal's getters once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class PortalServicesLocatorBenchmark {
+    @Param({ "false", "true" })
+    public boolean resolved;
+
+    @Setup
+    public void setup() {
+        final BenchmarkPortalServices portalServices = new BenchmarkPortalServices(null, null, new InMemoryPersonServices(), null);
+        portalServices.install(this.resolved);
+        LegacyLocator.setPortalServices(portalServices);
+    }
+
+    @Benchmark
+    public IPersonServices legacyLocator() {
+        return LegacyLocator.getPortalServices().getPersonServices();
+    }
+
+    @Benchmark
+    public IPersonServices portalServices() {
+        return PortalServicesLocator.getPortalServices().getPersonServices();
+    }
+
+    @Benchmark
+    public IPersonServices bundle() {
+        return PortalServicesLocator.getServices().getPersonServices();
+    }
+
+
+
+    /**
+     * The locator as it was before 1.3, a non-volatile static field.
+     */
+    private static final class LegacyLocator {
+        private static IPortalServices servicesRef = null;
+
+        public static void setPortalServices(final IPortalServices portalServices) {
+            servicesRef = portalServices;
+        }
+
+        public static IPortalServices getPortalServices() {
+            if (servicesRef == null) {
+                throw new IllegalStateException("A IPortalServices refrence must be set by calling setPortalServices(IPortalServices) with a valid reference before getPortalServices() is called.");
+            }
+
+            return servicesRef;
+        }
+    }
+}
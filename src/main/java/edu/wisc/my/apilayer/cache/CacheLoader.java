@@ -0,0 +1,40 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.cache;
+
+
+/**
+ * Loads the value for a key that was not found in an {@link ExpiringLruCache}.
+ * 
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @param <E> The checked exception the load may throw.
+ * @since 1.3
+ */
+public interface CacheLoader<K, V, E extends Exception> {
+    /**
+     * Loads the value for the key.
+     * 
+     * @param key The key to load the value for.
+     * @return The value for the key, <code>null</code> if it doesn't exist.
+     * @throws E If the load fails, nothing is cached in this case.
+     */
+    public V load(K key) throws E;
+}
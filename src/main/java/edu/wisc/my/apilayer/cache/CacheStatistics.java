@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.cache;
+
+
+/**
+ * Immutable snapshot of the counters of an {@link ExpiringLruCache}.
+ * 
+ * @since 1.3
+ */
+public final class CacheStatistics {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long loadCount;
+    private final long totalLoadTime;
+    private final int size;
+
+    public CacheStatistics(final long hitCount, final long missCount, final long evictionCount, final long expirationCount, final long loadCount, final long totalLoadTime, final int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.loadCount = loadCount;
+        this.totalLoadTime = totalLoadTime;
+        this.size = size;
+    }
+
+    /**
+     * @return Number of lookups answered from the cache, including cached <code>null</code> values.
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return Number of lookups not found in the cache or found expired.
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * @return Number of entries removed to keep the cache within its size bound.
+     */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * @return Number of entries discarded because their time to live had passed.
+     */
+    public long getExpirationCount() {
+        return this.expirationCount;
+    }
+
+    /**
+     * @return Number of values loaded by a {@link CacheLoader}.
+     */
+    public long getLoadCount() {
+        return this.loadCount;
+    }
+
+    /**
+     * @return Total time spent in {@link CacheLoader#load(Object)}, in nanoseconds.
+     */
+    public long getTotalLoadTime() {
+        return this.totalLoadTime;
+    }
+
+    /**
+     * @return Average time per load in nanoseconds, 0 if nothing has been loaded.
+     */
+    public double getAverageLoadTime() {
+        return this.loadCount == 0 ? 0 : (double)this.totalLoadTime / this.loadCount;
+    }
+
+    /**
+     * @return Fraction of lookups that were hits, 1 if there have been no lookups.
+     */
+    public double getHitRatio() {
+        final long requestCount = this.hitCount + this.missCount;
+        return requestCount == 0 ? 1 : (double)this.hitCount / requestCount;
+    }
+
+    /**
+     * @return Number of entries in the cache when the snapshot was taken.
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /* 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "CacheStatistics[hits=" + this.hitCount + ", misses=" + this.missCount +
+            ", evictions=" + this.evictionCount + ", expirations=" + this.expirationCount +
+            ", loads=" + this.loadCount + ", totalLoadTime=" + this.totalLoadTime +
+            "ns, size=" + this.size + "]";
+    }
+}
@@ -0,0 +1,441 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A size bounded, least recently used cache with per entry time to live.
+ * <p>
+ * The cache is split into independently locked segments so concurrent
+ * callers looking up different keys rarely contend. Each segment evicts
+ * its least recently used entry when it grows past its share of the
+ * maximum size. <code>null</code> values may be cached with their own,
+ * usually shorter, time to live so repeated lookups for missing keys
+ * don't reach the backing service every time.
+ * <p>
+ * Values loaded through {@link #get(Object, CacheLoader)} are loaded once
+ * per key no matter how many callers miss on it at the same time.
+ * {@link #containsKey(Object)} peeks at an entry without making it the most
+ * recently used, so probing the cache doesn't change what it evicts.
+ * 
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @since 1.3
+ */
+public class ExpiringLruCache<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final long timeToLive;
+    private final long negativeTimeToLive;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expirationCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    /**
+     * Creates a cache that does not cache <code>null</code> values.
+     * 
+     * @param maxSize The maximum number of entries to hold.
+     * @param timeToLive How long an entry is valid after being stored, 0 for entries that never expire.
+     * @param unit The unit of <code>timeToLive</code>.
+     */
+    public ExpiringLruCache(final int maxSize, final long timeToLive, final TimeUnit unit) {
+        this(maxSize, timeToLive, 0, unit);
+    }
+
+    /**
+     * @param maxSize The maximum number of entries to hold.
+     * @param timeToLive How long an entry is valid after being stored, 0 for entries that never expire.
+     * @param negativeTimeToLive How long a <code>null</code> value is valid after being stored, 0 to not cache <code>null</code> values.
+     * @param unit The unit of <code>timeToLive</code> and <code>negativeTimeToLive</code>.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ExpiringLruCache(final int maxSize, final long timeToLive, final long negativeTimeToLive, final TimeUnit unit) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        if (timeToLive < 0 || negativeTimeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive and negativeTimeToLive may not be negative");
+        }
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 <= maxSize) {
+            segmentCount *= 2;
+        }
+
+        this.segments = new Segment[segmentCount];
+        final int segmentSize = (maxSize + segmentCount - 1) / segmentCount;
+        for (int index = 0; index < segmentCount; index++) {
+            this.segments[index] = new Segment<K, V>(this, segmentSize);
+        }
+
+        this.segmentMask = segmentCount - 1;
+        this.timeToLive = unit.toNanos(timeToLive);
+        this.negativeTimeToLive = unit.toNanos(negativeTimeToLive);
+    }
+
+    /**
+     * Gets the cached value for the key.
+     * 
+     * @param key The key to look up.
+     * @return The cached value, <code>null</code> if it isn't cached, has expired or a <code>null</code> value was cached.
+     */
+    public V get(final K key) {
+        final CacheEntry<V> entry = this.getEntry(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Gets the cached value for the key, loading and caching it with the
+     * loader if it isn't cached or has expired. Concurrent misses on the same
+     * key wait for the first caller's load and share its value or exception,
+     * so the loaders used with one cache should throw the same exception
+     * type. If the key is removed or stored, or the cache cleared, while the
+     * load runs the loaded value is returned but not cached.
+     * 
+     * @param key The key to look up.
+     * @param loader Loads the value if it isn't cached.
+     * @return The cached or loaded value, may be <code>null</code>.
+     * @throws E If the loader fails.
+     * @throws IllegalStateException If the loader looks up the key it is loading, which would wait for itself.
+     */
+    public <E extends Exception> V get(final K key, final CacheLoader<? super K, ? extends V, E> loader) throws E {
+        final CacheEntry<V> entry = this.getEntry(key);
+        if (entry != null) {
+            return entry.value;
+        }
+
+        final Segment<K, V> segment = this.segmentFor(key);
+        final Load<V> running;
+        final Load<V> load;
+        synchronized (segment) {
+            running = segment.loads.get(key);
+            if (running == null) {
+                //Another caller's load may have finished since the entry was looked up
+                final CacheEntry<V> loaded = segment.touch(key);
+                if (loaded != null && !loaded.isExpired(System.nanoTime())) {
+                    return loaded.value;
+                }
+
+                load = new Load<V>(new Callable<V>() {
+                    public V call() throws Exception {
+                        return loader.load(key);
+                    }
+                });
+                segment.loads.put(key, load);
+            }
+            else {
+                load = null;
+            }
+        }
+
+        if (running != null) {
+            if (running.owner == Thread.currentThread()) {
+                throw new IllegalStateException("The loader for " + key + " looked up the same key");
+            }
+            return ExpiringLruCache.<V, E>await(running);
+        }
+
+        try {
+            final long start = System.nanoTime();
+            load.run();
+            this.totalLoadTime.addAndGet(System.nanoTime() - start);
+            this.loadCount.incrementAndGet();
+
+            final V value = ExpiringLruCache.<V, E>await(load);
+            synchronized (segment) {
+                //A remove or put while loading replaces the load
+                if (segment.loads.get(key) == load) {
+                    this.store(segment, key, value);
+                }
+            }
+            return value;
+        }
+        finally {
+            synchronized (segment) {
+                if (segment.loads.get(key) == load) {
+                    segment.loads.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers if the key has a live entry in the cache, which may be a cached
+     * <code>null</code>. Does not affect the recency of the entry or the statistics.
+     */
+    public boolean containsKey(final K key) {
+        final Segment<K, V> segment = this.segmentFor(key);
+        synchronized (segment) {
+            final CacheEntry<V> entry = segment.get(key);
+            return entry != null && !entry.isExpired(System.nanoTime());
+        }
+    }
+
+    /**
+     * Stores the value for the key. A <code>null</code> value is ignored if the
+     * cache was created without a negative time to live.
+     */
+    public void put(final K key, final V value) {
+        final Segment<K, V> segment = this.segmentFor(key);
+        synchronized (segment) {
+            segment.loads.remove(key);
+            this.store(segment, key, value);
+        }
+    }
+
+    /**
+     * Removes the entry for the key.
+     * 
+     * @return The value that was removed, <code>null</code> if there was none.
+     */
+    public V remove(final K key) {
+        final Segment<K, V> segment = this.segmentFor(key);
+        synchronized (segment) {
+            segment.loads.remove(key);
+            final CacheEntry<V> entry = segment.remove(key);
+            return entry == null ? null : entry.value;
+        }
+    }
+
+    /**
+     * Removes all entries from the cache. Statistics are not reset.
+     */
+    public void clear() {
+        for (final Segment<K, V> segment : this.segments) {
+            synchronized (segment) {
+                segment.loads.clear();
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return A snapshot of the keys currently in the cache, including expired entries not yet discarded.
+     */
+    public List<K> keys() {
+        final List<K> keys = new ArrayList<K>();
+        for (final Segment<K, V> segment : this.segments) {
+            synchronized (segment) {
+                keys.addAll(segment.keySet());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return The number of entries in the cache, including expired entries not yet discarded.
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment<K, V> segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return A snapshot of the cache's counters.
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(this.hitCount.get(), this.missCount.get(), this.evictionCount.get(), this.expirationCount.get(), this.loadCount.get(), this.totalLoadTime.get(), this.size());
+    }
+
+
+    private CacheEntry<V> getEntry(final K key) {
+        final Segment<K, V> segment = this.segmentFor(key);
+
+        final CacheEntry<V> entry;
+        synchronized (segment) {
+            final CacheEntry<V> found = segment.touch(key);
+            if (found != null && found.isExpired(System.nanoTime())) {
+                segment.remove(key);
+                this.expirationCount.incrementAndGet();
+                this.entryDiscarded(key, found.value);
+                entry = null;
+            }
+            else {
+                entry = found;
+            }
+        }
+
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+        }
+        else {
+            this.hitCount.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Must be called holding the lock of the segment.
+     */
+    private void store(final Segment<K, V> segment, final K key, final V value) {
+        final long ttl = value == null ? this.negativeTimeToLive : this.timeToLive;
+        if (value == null && ttl == 0) {
+            segment.remove(key);
+            return;
+        }
+
+        final long expires = ttl == 0 ? Long.MAX_VALUE : System.nanoTime() + ttl;
+        //Removed first so a replaced entry becomes the most recently used
+        segment.remove(key);
+        segment.put(key, new CacheEntry<V>(value, expires, ttl != 0));
+    }
+
+    /**
+     * Waits for the load without giving up on interrupts, the interrupt is
+     * restored once the load is done.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V, E extends Exception> V await(final Load<V> load) throws E {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                }
+                catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            //Only the loader's checked exception can get here
+            throw (E)cause;
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Called after an entry is evicted to make room or discarded because it
+     * expired, but not when it is removed or replaced explicitly. Runs while
+     * the entry's segment is locked so it must be quick and must not call
+     * back into the cache. Does nothing by default.
+     * 
+     * @param key The key of the discarded entry.
+     * @param value The value of the discarded entry, may be <code>null</code>.
+     */
+    protected void entryDiscarded(final K key, final V value) {
+    }
+
+    private Segment<K, V> segmentFor(final Object key) {
+        final int hash = key.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & this.segmentMask];
+    }
+
+
+    private static final class CacheEntry<V> {
+        private final V value;
+        private final long expires;
+        private final boolean expiring;
+
+        public CacheEntry(final V value, final long expires, final boolean expiring) {
+            this.value = value;
+            this.expires = expires;
+            this.expiring = expiring;
+        }
+
+        public boolean isExpired(final long now) {
+            return this.expiring && now - this.expires >= 0;
+        }
+    }
+
+    /**
+     * A load of one key, remembering the thread running it.
+     */
+    private static final class Load<V> extends FutureTask<V> {
+        private final Thread owner = Thread.currentThread();
+
+        public Load(final Callable<V> callable) {
+            super(callable);
+        }
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, CacheEntry<V>> {
+        private static final long serialVersionUID = 1L;
+
+        private final ExpiringLruCache<K, V> cache;
+        private final int maxSize;
+        private final Map<K, Load<V>> loads = new HashMap<K, Load<V>>();
+
+        /**
+         * The entries are kept in insertion order, so {@link #get(Object)}
+         * peeks, and moved to the end when they are used.
+         */
+        public Segment(final ExpiringLruCache<K, V> cache, final int maxSize) {
+            super(16, 0.75f, false);
+            this.cache = cache;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Gets the entry and makes it the most recently used.
+         */
+        public CacheEntry<V> touch(final K key) {
+            final CacheEntry<V> entry = this.remove(key);
+            if (entry != null) {
+                this.put(key, entry);
+            }
+            return entry;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, CacheEntry<V>> eldest) {
+            if (this.size() > this.maxSize) {
+                this.cache.evictionCount.incrementAndGet();
+                this.cache.entryDiscarded(eldest.getKey(), eldest.getValue().value);
+                return true;
+            }
+            return false;
+        }
+    }
+}
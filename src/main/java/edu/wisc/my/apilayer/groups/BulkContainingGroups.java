@@ -0,0 +1,81 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Support for implementing {@link GroupService#findContainingGroups(Collection)}
+ * on top of an {@link IGroupService}. If the service's store implements
+ * {@link IBulkEntityGroupStore} the whole request is handed to it, otherwise
+ * the containing groups are found one member at a time.
+ * 
+ * @since 1.3
+ */
+public final class BulkContainingGroups {
+    /** Hide the constructor so this class cannot be instanciated */
+    private BulkContainingGroups() { }
+
+    /**
+     * Finds the groups directly containing each of the entities.
+     * 
+     * @param groupService The service to resolve members and containing groups with.
+     * @param underlyingEntityIdentifiers Identifiers of the UNDERLYING entities.
+     * @return The containing groups keyed by entity identifier, in the iteration order of the argument.
+     * @see GroupService#findContainingGroups(Collection)
+     */
+    public static Map<IEntityIdentifier, Set<IEntityGroup>> find(final IGroupService groupService, final Collection<IEntityIdentifier> underlyingEntityIdentifiers) throws GroupsException {
+        final IEntityGroupStore store = groupService.getGroupStore();
+        if (store instanceof IBulkEntityGroupStore) {
+            return ((IBulkEntityGroupStore)store).findContainingGroups(underlyingEntityIdentifiers);
+        }
+
+        final Map<IEntityIdentifier, Set<IEntityGroup>> containingGroups = new LinkedHashMap<IEntityIdentifier, Set<IEntityGroup>>();
+        for (final IEntityIdentifier entityIdentifier : underlyingEntityIdentifiers) {
+            if (containingGroups.containsKey(entityIdentifier)) {
+                continue;
+            }
+
+            final IGroupMember member = groupService.getGroupMember(entityIdentifier);
+            containingGroups.put(entityIdentifier, toSet(groupService.findContainingGroups(member)));
+        }
+
+        return containingGroups;
+    }
+
+    private static Set<IEntityGroup> toSet(final Iterator<IEntityGroup> groupItr) {
+        if (!groupItr.hasNext()) {
+            return Collections.emptySet();
+        }
+
+        final Set<IEntityGroup> groups = new LinkedHashSet<IEntityGroup>();
+        while (groupItr.hasNext()) {
+            groups.add(groupItr.next());
+        }
+        return groups;
+    }
+}
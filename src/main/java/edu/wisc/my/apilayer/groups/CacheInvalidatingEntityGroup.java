@@ -0,0 +1,315 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.Iterator;
+
+import javax.naming.Name;
+
+import edu.wisc.my.apilayer.cache.ExpiringLruCache;
+
+
+/**
+ * Wraps an <code>IEntityGroup</code> handed out by {@link CachingGroupServices}
+ * so that committing or deleting the group removes it from the cache.
+ * <code>IGroupMember</code> arguments are unwrapped before being passed to the
+ * portal's implementation and the groups it returns are wrapped, so groups
+ * reached through another group invalidate the cache as well.
+ * 
+ * @since 1.3
+ */
+class CacheInvalidatingEntityGroup implements IEntityGroup {
+    protected final IEntityGroup group;
+    protected final ExpiringLruCache<String, IEntityGroup> cache;
+
+    public CacheInvalidatingEntityGroup(final IEntityGroup group, final ExpiringLruCache<String, IEntityGroup> cache) {
+        this.group = group;
+        this.cache = cache;
+    }
+
+    /**
+     * Wraps the group so committing or deleting it removes it from the cache.
+     * 
+     * @return The wrapped group, null if the group is null.
+     */
+    static IEntityGroup wrap(final IEntityGroup group, final ExpiringLruCache<String, IEntityGroup> cache) {
+        if (group == null || group instanceof CacheInvalidatingEntityGroup) {
+            return group;
+        }
+        if (group instanceof ILockableEntityGroup) {
+            return new Lockable((ILockableEntityGroup)group, cache);
+        }
+        return new CacheInvalidatingEntityGroup(group, cache);
+    }
+
+    /**
+     * Wraps the member if it is a group.
+     */
+    static IGroupMember wrap(final IGroupMember member, final ExpiringLruCache<String, IEntityGroup> cache) {
+        if (member instanceof IEntityGroup) {
+            return wrap((IEntityGroup)member, cache);
+        }
+        return member;
+    }
+
+    /**
+     * Returns the portal's implementation of the member if it has been
+     * wrapped, otherwise the member itself.
+     */
+    static IGroupMember unwrap(final IGroupMember gm) {
+        if (gm instanceof CacheInvalidatingEntityGroup) {
+            return ((CacheInvalidatingEntityGroup)gm).group;
+        }
+        return gm;
+    }
+
+    protected void invalidate() {
+        this.cache.remove(this.group.getKey());
+    }
+
+    public IEntityGroup getWrappedGroup() {
+        return this.group;
+    }
+
+    public void delete() throws GroupsException {
+        this.group.delete();
+        this.invalidate();
+    }
+
+    public void update() throws GroupsException {
+        this.group.update();
+        this.invalidate();
+    }
+
+    public void updateMembers() throws GroupsException {
+        this.group.updateMembers();
+        this.invalidate();
+    }
+
+    public void addMember(final IGroupMember gm) throws GroupsException {
+        this.group.addMember(unwrap(gm));
+    }
+
+    public void removeMember(final IGroupMember gm) throws GroupsException {
+        this.group.removeMember(unwrap(gm));
+    }
+
+    public String getCreatorID() {
+        return this.group.getCreatorID();
+    }
+
+    public String getDescription() {
+        return this.group.getDescription();
+    }
+
+    public String getLocalKey() {
+        return this.group.getLocalKey();
+    }
+
+    public String getName() {
+        return this.group.getName();
+    }
+
+    public Name getServiceName() {
+        return this.group.getServiceName();
+    }
+
+    public boolean isEditable() throws GroupsException {
+        return this.group.isEditable();
+    }
+
+    public void setCreatorID(final String userID) {
+        this.group.setCreatorID(userID);
+    }
+
+    public void setDescription(final String name) {
+        this.group.setDescription(name);
+    }
+
+    public void setName(final String name) throws GroupsException {
+        this.group.setName(name);
+    }
+
+    public void setLocalGroupService(final IIndividualGroupService groupService) throws GroupsException {
+        this.group.setLocalGroupService(groupService);
+    }
+
+    public boolean contains(final IGroupMember gm) throws GroupsException {
+        return this.group.contains(unwrap(gm));
+    }
+
+    public boolean deepContains(final IGroupMember gm) throws GroupsException {
+        return this.group.deepContains(unwrap(gm));
+    }
+
+    public Iterator<IEntityGroup> getAllContainingGroups() throws GroupsException {
+        return new WrappingIterator<IEntityGroup>(this.group.getAllContainingGroups(), this.cache);
+    }
+
+    public Iterator<IEntity> getAllEntities() throws GroupsException {
+        return this.group.getAllEntities();
+    }
+
+    public Iterator<IGroupMember> getAllMembers() throws GroupsException {
+        return new WrappingIterator<IGroupMember>(this.group.getAllMembers(), this.cache);
+    }
+
+    public Iterator<IEntityGroup> getContainingGroups() throws GroupsException {
+        return new WrappingIterator<IEntityGroup>(this.group.getContainingGroups(), this.cache);
+    }
+
+    public Iterator<IEntity> getEntities() throws GroupsException {
+        return this.group.getEntities();
+    }
+
+    public Class<? extends IBasicEntity> getEntityType() {
+        return this.group.getEntityType();
+    }
+
+    public String getKey() {
+        return this.group.getKey();
+    }
+
+    public Class<? extends IBasicEntity> getLeafType() {
+        return this.group.getLeafType();
+    }
+
+    public IEntityGroup getMemberGroupNamed(final String name) throws GroupsException {
+        return wrap(this.group.getMemberGroupNamed(name), this.cache);
+    }
+
+    public Iterator<IGroupMember> getMembers() throws GroupsException {
+        return new WrappingIterator<IGroupMember>(this.group.getMembers(), this.cache);
+    }
+
+    public Class<? extends IBasicEntity> getType() {
+        return this.group.getType();
+    }
+
+    public IEntityIdentifier getUnderlyingEntityIdentifier() {
+        return this.group.getUnderlyingEntityIdentifier();
+    }
+
+    public boolean hasMembers() throws GroupsException {
+        return this.group.hasMembers();
+    }
+
+    public boolean isDeepMemberOf(final IGroupMember gm) throws GroupsException {
+        return this.group.isDeepMemberOf(unwrap(gm));
+    }
+
+    public boolean isEntity() {
+        return this.group.isEntity();
+    }
+
+    public boolean isGroup() {
+        return this.group.isGroup();
+    }
+
+    public boolean isMemberOf(final IGroupMember gm) throws GroupsException {
+        return this.group.isMemberOf(unwrap(gm));
+    }
+
+    public IEntityIdentifier getEntityIdentifier() {
+        return this.group.getEntityIdentifier();
+    }
+
+    /* 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (o instanceof IGroupMember) {
+            return this.group.equals(unwrap((IGroupMember)o));
+        }
+        return this.group.equals(o);
+    }
+
+    /*
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return this.group.hashCode();
+    }
+
+    /* 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.group.toString();
+    }
+
+
+    /**
+     * Wraps the groups of an iterator as they are returned.
+     */
+    private static final class WrappingIterator<T extends IGroupMember> implements Iterator<T> {
+        private final Iterator<T> members;
+        private final ExpiringLruCache<String, IEntityGroup> cache;
+
+        public WrappingIterator(final Iterator<T> members, final ExpiringLruCache<String, IEntityGroup> cache) {
+            this.members = members;
+            this.cache = cache;
+        }
+
+        public boolean hasNext() {
+            return this.members.hasNext();
+        }
+
+        @SuppressWarnings("unchecked")
+        public T next() {
+            //A group is wrapped in a group, so the member keeps its type
+            return (T)wrap(this.members.next(), this.cache);
+        }
+
+        public void remove() {
+            this.members.remove();
+        }
+    }
+
+    /**
+     * Lockable variant, renewing the lock also commits the group.
+     */
+    static class Lockable extends CacheInvalidatingEntityGroup implements ILockableEntityGroup {
+        public Lockable(final ILockableEntityGroup group, final ExpiringLruCache<String, IEntityGroup> cache) {
+            super(group, cache);
+        }
+
+        public IEntityLock getLock() {
+            return ((ILockableEntityGroup)this.group).getLock();
+        }
+
+        public void setLock(final IEntityLock lock) {
+            ((ILockableEntityGroup)this.group).setLock(lock);
+        }
+
+        public void updateAndRenewLock() throws GroupsException {
+            ((ILockableEntityGroup)this.group).updateAndRenewLock();
+            this.invalidate();
+        }
+
+        public void updateMembersAndRenewLock() throws GroupsException {
+            ((ILockableEntityGroup)this.group).updateMembersAndRenewLock();
+            this.invalidate();
+        }
+    }
+}
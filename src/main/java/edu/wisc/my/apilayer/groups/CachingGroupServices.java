@@ -0,0 +1,220 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+
+import edu.wisc.my.apilayer.cache.CacheLoader;
+import edu.wisc.my.apilayer.cache.CacheStatistics;
+import edu.wisc.my.apilayer.cache.ExpiringLruCache;
+import edu.wisc.my.apilayer.internal.IGroupServices;
+
+
+/**
+ * Read-through caching decorator for a portal's {@link IGroupServices}. A
+ * portal installs it by returning it from
+ * {@link edu.wisc.my.apilayer.internal.IPortalServices#getGroupServices()},
+ * after which {@link GroupService#findGroup(String)} is answered from the
+ * cache. Keys that don't resolve to a group are cached as misses for the
+ * negative time to live.
+ * <p>
+ * Groups handed out by this class are wrapped so that
+ * {@link IEntityGroup#update()} and {@link IEntityGroup#delete()} evict the
+ * group's entry. Changes made through the portal by other means should be
+ * reported with {@link #invalidate(String)}. All other methods go straight
+ * to the wrapped services.
+ * 
+ * @since 1.3
+ */
+public class CachingGroupServices implements IGroupServices {
+    private final IGroupServices groupServices;
+    private final ExpiringLruCache<String, IEntityGroup> groupCache;
+
+    private final CacheLoader<String, IEntityGroup, GroupsException> groupLoader = new CacheLoader<String, IEntityGroup, GroupsException>() {
+        public IEntityGroup load(final String key) throws GroupsException {
+            return CachingGroupServices.this.wrap(CachingGroupServices.this.groupServices.findGroup(key));
+        }
+    };
+
+    /**
+     * @param groupServices The services to cache.
+     * @param maxSize The maximum number of groups to cache.
+     * @param timeToLive How long a found group is cached.
+     * @param negativeTimeToLive How long a key that didn't resolve to a group is cached, 0 to not cache misses.
+     * @param unit The unit of <code>timeToLive</code> and <code>negativeTimeToLive</code>.
+     */
+    public CachingGroupServices(final IGroupServices groupServices, final int maxSize, final long timeToLive, final long negativeTimeToLive, final TimeUnit unit) {
+        this(groupServices, new ExpiringLruCache<String, IEntityGroup>(maxSize, timeToLive, negativeTimeToLive, unit));
+    }
+
+    /**
+     * @param groupServices The services to cache.
+     * @param groupCache The cache to store groups in, keyed by group key.
+     */
+    public CachingGroupServices(final IGroupServices groupServices, final ExpiringLruCache<String, IEntityGroup> groupCache) {
+        if (groupServices == null || groupCache == null) {
+            throw new IllegalArgumentException("groupServices and groupCache may not be null");
+        }
+
+        this.groupServices = groupServices;
+        this.groupCache = groupCache;
+    }
+
+    /**
+     * Evicts the group with the specified key.
+     * 
+     * @param key The key of the group to evict.
+     */
+    public void invalidate(final String key) {
+        this.groupCache.remove(key);
+    }
+
+    /**
+     * Evicts all cached groups.
+     */
+    public void invalidateAll() {
+        this.groupCache.clear();
+    }
+
+    /**
+     * @return A snapshot of the hit, miss and eviction counters of the group cache.
+     */
+    public CacheStatistics getStatistics() {
+        return this.groupCache.getStatistics();
+    }
+
+    public IEntityGroup findGroup(final String key) throws GroupsException {
+        return this.groupCache.get(key, this.groupLoader);
+    }
+
+    public IEntity getEntity(final String key, final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.groupServices.getEntity(key, type);
+    }
+
+    public IGroupMember getGroupMember(final String key, final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.wrap(this.groupServices.getGroupMember(key, type));
+    }
+
+    public IGroupMember getGroupMember(final IEntityIdentifier underlyingIEntityIdentifier) throws GroupsException {
+        return this.wrap(this.groupServices.getGroupMember(underlyingIEntityIdentifier));
+    }
+
+    public IEntityGroup newGroup(final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.wrap(this.groupServices.newGroup(type));
+    }
+
+    public IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype) throws GroupsException {
+        return this.groupServices.searchForGroups(query, method, leaftype);
+    }
+
+    public IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype, final IEntityGroup ancestor) throws GroupsException {
+        return this.groupServices.searchForGroups(query, method, leaftype, this.unwrap(ancestor));
+    }
+
+    public IEntityIdentifier[] searchForEntities(final String query, final SearchMethod method, final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.groupServices.searchForEntities(query, method, type);
+    }
+
+    public IEntityIdentifier[] searchForEntities(final String query, final SearchMethod method, final Class<? extends IBasicEntity> type, final IEntityGroup ancestor) throws GroupsException {
+        return this.groupServices.searchForEntities(query, method, type, this.unwrap(ancestor));
+    }
+
+    public ILockableEntityGroup findLockableGroup(final String key, final String lockOwner) throws GroupsException {
+        final ILockableEntityGroup group = this.groupServices.findLockableGroup(key, lockOwner);
+        if (group == null) {
+            return null;
+        }
+        return new CacheInvalidatingEntityGroup.Lockable(group, this.groupCache);
+    }
+
+    public ICompositeGroupService getCompositeGroupService() throws GroupsException {
+        return this.groupServices.getCompositeGroupService();
+    }
+
+    public IEntityGroup getDistinguishedGroup(final String name) throws GroupsException {
+        return this.wrap(this.groupServices.getDistinguishedGroup(name));
+    }
+
+    public IEntity getEntity(final String key, final Class<? extends IBasicEntity> type, final String service) throws GroupsException {
+        return this.groupServices.getEntity(key, type, service);
+    }
+
+    public IGroupService getGroupService() throws GroupsException {
+        return this.groupServices.getGroupService();
+    }
+
+    public IEntityGroup getRootGroup(final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.wrap(this.groupServices.getRootGroup(type));
+    }
+
+    public boolean isComposite() {
+        return this.groupServices.isComposite();
+    }
+
+    public IEntityGroup newGroup(final Class<? extends IBasicEntity> type, final String serviceName) throws GroupsException {
+        return this.wrap(this.groupServices.newGroup(type, serviceName));
+    }
+
+    public String parseLocalKey(final String compositeKey) throws InvalidNameException, GroupsException {
+        return this.groupServices.parseLocalKey(compositeKey);
+    }
+
+    public Name parseServiceName(final String serviceName) throws InvalidNameException, GroupsException {
+        return this.groupServices.parseServiceName(serviceName);
+    }
+
+    public String getDistinguishedGroupKey(final String name) throws GroupsException {
+        return this.groupServices.getDistinguishedGroupKey(name);
+    }
+
+    public Map<IEntityIdentifier, Set<IEntityGroup>> findContainingGroups(final Collection<IEntityIdentifier> underlyingEntityIdentifiers) throws GroupsException {
+        final Map<IEntityIdentifier, Set<IEntityGroup>> found = this.groupServices.findContainingGroups(underlyingEntityIdentifiers);
+        final Map<IEntityIdentifier, Set<IEntityGroup>> containingGroups = new LinkedHashMap<IEntityIdentifier, Set<IEntityGroup>>(found.size() * 2);
+        for (final Map.Entry<IEntityIdentifier, Set<IEntityGroup>> foundEntry : found.entrySet()) {
+            final Set<IEntityGroup> groups = new LinkedHashSet<IEntityGroup>(foundEntry.getValue().size() * 2);
+            for (final IEntityGroup group : foundEntry.getValue()) {
+                groups.add(this.wrap(group));
+            }
+            containingGroups.put(foundEntry.getKey(), groups);
+        }
+        return containingGroups;
+    }
+
+
+    private IEntityGroup wrap(final IEntityGroup group) {
+        return CacheInvalidatingEntityGroup.wrap(group, this.groupCache);
+    }
+
+    private IGroupMember wrap(final IGroupMember member) {
+        return CacheInvalidatingEntityGroup.wrap(member, this.groupCache);
+    }
+
+    private IEntityGroup unwrap(final IEntityGroup group) {
+        return (IEntityGroup)CacheInvalidatingEntityGroup.unwrap(group);
+    }
+}
@@ -0,0 +1,386 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Interns entity type and key pairs as dense <code>int</code> ids, starting
+ * at 0 in the order they are first seen, so caches and indexes can hold
+ * memberships as <code>int</code> arrays or bit sets instead of sets of
+ * <code>String</code> keys. The adapter methods convert between ids and the
+ * {@link IEntityIdentifier}s, {@link IGroupMember}s and key arrays used by
+ * the API.
+ * <p>
+ * Groups are identified by the {@link IEntityGroup} type, as returned by
+ * {@link IGroupMember#getType()}. Ids are never reused, a dictionary holds
+ * every pair interned over its lifetime.
+ * <p>
+ * Look-ups do not lock. Interning new pairs is serialized.
+ * 
+ * @since 1.3
+ */
+public class EntityKeyDictionary {
+    /** Returned by the look-up methods for pairs that haven't been interned */
+    public static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    /** The most pairs a dictionary holds, its table has twice as many slots */
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    private final Object writeLock = new Object();
+    private final ConcurrentMap<Class<?>, Integer> typeIndexes = new ConcurrentHashMap<Class<?>, Integer>();
+    private volatile Class<?>[] types = new Class<?>[0];
+    private volatile Tables tables = new Tables(INITIAL_CAPACITY);
+    private volatile int size = 0;
+
+
+    /**
+     * @return The number of interned pairs, ids run from 0 to one less than the size.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the id of the pair, interning it if it hasn't been seen before.
+     * 
+     * @param type The type of the entity.
+     * @param key The key of the entity.
+     * @return The id of the pair.
+     */
+    public int intern(final Class<? extends IBasicEntity> type, final String key) {
+        if (type == null || key == null) {
+            throw new IllegalArgumentException("type and key may not be null");
+        }
+
+        final int id = this.getId(type, key);
+        if (id != NOT_FOUND) {
+            return id;
+        }
+
+        synchronized (this.writeLock) {
+            final int typeIndex = this.internType(type);
+
+            Tables tables = this.tables;
+            final int found = tables.find(typeIndex, key);
+            if (found != NOT_FOUND) {
+                return found;
+            }
+
+            final int newId = this.size;
+            if (newId == MAX_CAPACITY) {
+                throw new IllegalStateException("The dictionary can't hold more than " + MAX_CAPACITY + " pairs");
+            }
+            if (newId == tables.keys.length) {
+                tables = tables.grow(newId);
+                this.tables = tables;
+            }
+
+            tables.keys[newId] = key;
+            tables.typeIndexes[newId] = (short)typeIndex;
+            tables.insert(newId);
+            this.size = newId + 1;
+            return newId;
+        }
+    }
+
+    /**
+     * @param type The type of the entity.
+     * @param key The key of the entity.
+     * @return The id of the pair, {@link #NOT_FOUND} if it hasn't been interned.
+     */
+    public int getId(final Class<? extends IBasicEntity> type, final String key) {
+        final Integer typeIndex = this.typeIndexes.get(type);
+        if (typeIndex == null || key == null) {
+            return NOT_FOUND;
+        }
+
+        return this.tables.find(typeIndex, key);
+    }
+
+    /**
+     * @param id An id returned by this dictionary.
+     * @return The key of the pair.
+     */
+    public String getKey(final int id) {
+        this.checkId(id);
+        return this.tables.keys[id];
+    }
+
+    /**
+     * @param id An id returned by this dictionary.
+     * @return The type of the pair.
+     */
+    @SuppressWarnings("unchecked")
+    public Class<? extends IBasicEntity> getType(final int id) {
+        this.checkId(id);
+        return (Class<? extends IBasicEntity>)this.types[this.tables.typeIndexes[id]];
+    }
+
+
+    /**
+     * @see #intern(Class, String)
+     */
+    public int intern(final IEntityIdentifier identifier) {
+        if (identifier instanceof InternedIdentifier && ((InternedIdentifier)identifier).dictionary == this) {
+            return ((InternedIdentifier)identifier).id;
+        }
+        return this.intern(identifier.getType(), identifier.getKey());
+    }
+
+    /**
+     * @see #getId(Class, String)
+     */
+    public int getId(final IEntityIdentifier identifier) {
+        if (identifier instanceof InternedIdentifier && ((InternedIdentifier)identifier).dictionary == this) {
+            return ((InternedIdentifier)identifier).id;
+        }
+        return this.getId(identifier.getType(), identifier.getKey());
+    }
+
+    /**
+     * Interns the member by its {@link IGroupMember#getType() type} and key.
+     * 
+     * @see #intern(Class, String)
+     */
+    public int intern(final IGroupMember member) {
+        return this.intern(member.getType(), member.getKey());
+    }
+
+    /**
+     * @see #getId(Class, String)
+     */
+    public int getId(final IGroupMember member) {
+        return this.getId(member.getType(), member.getKey());
+    }
+
+    /**
+     * Interns keys of the same type, for example the group keys returned by
+     * {@link IEntityGroupStore#findMemberGroupKeys(IEntityGroup)} with the
+     * {@link IEntityGroup} type.
+     * 
+     * @param type The type of the entities.
+     * @param keys The keys of the entities.
+     * @return The ids of the keys, in the same order.
+     */
+    public int[] internAll(final Class<? extends IBasicEntity> type, final String[] keys) {
+        final int[] ids = new int[keys.length];
+        for (int index = 0; index < keys.length; index++) {
+            ids[index] = this.intern(type, keys[index]);
+        }
+        return ids;
+    }
+
+    /**
+     * @param identifiers The identifiers to intern, for example the results of a search.
+     * @return The ids of the identifiers, in the same order.
+     */
+    public int[] internAll(final IEntityIdentifier[] identifiers) {
+        final int[] ids = new int[identifiers.length];
+        for (int index = 0; index < identifiers.length; index++) {
+            ids[index] = this.intern(identifiers[index]);
+        }
+        return ids;
+    }
+
+    /**
+     * @param id An id returned by this dictionary.
+     * @return An identifier of the pair, equal to any {@link IEntityIdentifier} with the same type and key.
+     */
+    public IEntityIdentifier getEntityIdentifier(final int id) {
+        this.checkId(id);
+        return new InternedIdentifier(this, id);
+    }
+
+    /**
+     * @param ids Ids returned by this dictionary.
+     * @return Identifiers of the pairs, in the same order.
+     */
+    public IEntityIdentifier[] getEntityIdentifiers(final int[] ids) {
+        final IEntityIdentifier[] identifiers = new IEntityIdentifier[ids.length];
+        for (int index = 0; index < ids.length; index++) {
+            identifiers[index] = this.getEntityIdentifier(ids[index]);
+        }
+        return identifiers;
+    }
+
+    /**
+     * @param ids Ids returned by this dictionary.
+     * @return The keys of the pairs, in the same order.
+     */
+    public String[] getKeys(final int[] ids) {
+        final String[] keys = new String[ids.length];
+        for (int index = 0; index < ids.length; index++) {
+            keys[index] = this.getKey(ids[index]);
+        }
+        return keys;
+    }
+
+
+    private void checkId(final int id) {
+        if (id < 0 || id >= this.size) {
+            throw new IllegalArgumentException("Unknown id: " + id);
+        }
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private int internType(final Class<?> type) {
+        final Integer typeIndex = this.typeIndexes.get(type);
+        if (typeIndex != null) {
+            return typeIndex;
+        }
+
+        final int newIndex = this.types.length;
+        if (newIndex > Short.MAX_VALUE) {
+            throw new IllegalStateException("The dictionary can't hold more than " + (Short.MAX_VALUE + 1) + " types");
+        }
+
+        final Class<?>[] newTypes = Arrays.copyOf(this.types, newIndex + 1);
+        newTypes[newIndex] = type;
+        this.types = newTypes;
+        this.typeIndexes.put(type, newIndex);
+        return newIndex;
+    }
+
+    private static int hash(final int typeIndex, final String key) {
+        final int h = (31 * key.hashCode() + typeIndex) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    /**
+     * The pairs by id and an open addressing table of id + 1 by pair, twice
+     * as large as the id arrays. Entries are written before their table slot
+     * so readers that find a slot see the pair. Growing copies everything
+     * into new tables which are then published.
+     */
+    private static final class Tables {
+        private final String[] keys;
+        private final short[] typeIndexes;
+        private final AtomicIntegerArray slots;
+        private final int mask;
+
+        public Tables(final int capacity) {
+            this.keys = new String[capacity];
+            this.typeIndexes = new short[capacity];
+            this.slots = new AtomicIntegerArray(capacity * 2);
+            this.mask = capacity * 2 - 1;
+        }
+
+        public int find(final int typeIndex, final String key) {
+            for (int slot = hash(typeIndex, key) & this.mask;; slot = (slot + 1) & this.mask) {
+                final int entry = this.slots.get(slot);
+                if (entry == 0) {
+                    return NOT_FOUND;
+                }
+
+                final int id = entry - 1;
+                if (this.typeIndexes[id] == typeIndex && key.equals(this.keys[id])) {
+                    return id;
+                }
+            }
+        }
+
+        public void insert(final int id) {
+            int slot = hash(this.typeIndexes[id], this.keys[id]) & this.mask;
+            while (this.slots.get(slot) != 0) {
+                slot = (slot + 1) & this.mask;
+            }
+            this.slots.set(slot, id + 1);
+        }
+
+        /**
+         * @param size The number of ids in use.
+         */
+        public Tables grow(final int size) {
+            final Tables grown = new Tables(this.keys.length * 2);
+            System.arraycopy(this.keys, 0, grown.keys, 0, size);
+            System.arraycopy(this.typeIndexes, 0, grown.typeIndexes, 0, size);
+            for (int id = 0; id < size; id++) {
+                grown.insert(id);
+            }
+            return grown;
+        }
+    }
+
+    /**
+     * Identifier of an interned pair. Equal to any {@link IEntityIdentifier}
+     * with the same key and type.
+     */
+    private static final class InternedIdentifier implements IEntityIdentifier {
+        private final EntityKeyDictionary dictionary;
+        private final int id;
+
+        public InternedIdentifier(final EntityKeyDictionary dictionary, final int id) {
+            this.dictionary = dictionary;
+            this.id = id;
+        }
+
+        public String getKey() {
+            return this.dictionary.getKey(this.id);
+        }
+
+        public Class<? extends IBasicEntity> getType() {
+            return this.dictionary.getType(this.id);
+        }
+
+        /* 
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (o instanceof InternedIdentifier && ((InternedIdentifier)o).dictionary == this.dictionary) {
+                return ((InternedIdentifier)o).id == this.id;
+            }
+            if (!(o instanceof IEntityIdentifier)) {
+                return false;
+            }
+
+            final IEntityIdentifier other = (IEntityIdentifier)o;
+            return this.getType() == other.getType() && this.getKey().equals(other.getKey());
+        }
+
+        /*
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return 31 * this.getType().getName().hashCode() + this.getKey().hashCode();
+        }
+
+        /* 
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return this.getType().getName() + "(" + this.getKey() + ")";
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+
+/**
+ * Thrown by {@link InMemoryEntityLockService} when a lock can't be granted,
+ * converted or renewed.
+ * 
+ * @since 1.3
+ */
+public class EntityLockException extends LockingException {
+    private static final long serialVersionUID = 1L;
+
+    public EntityLockException(final String msg) {
+        super(msg);
+    }
+    
+    public EntityLockException(final Throwable t) {
+        super(t);
+    }
+    
+    public EntityLockException(final String msg, final Throwable t) {
+        super(msg, t);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+
+/**
+ * Immutable snapshot of the counters of a {@link MembershipWriteBuffer}.
+ * 
+ * @since 1.3
+ */
+public final class FlushStatistics {
+    private final long flushCount;
+    private final long failureCount;
+    private final long changeCount;
+    private final long droppedCount;
+    private final long totalFlushTime;
+    private final long maxFlushTime;
+    private final int pendingGroupCount;
+
+    public FlushStatistics(final long flushCount, final long failureCount, final long changeCount, final long droppedCount, final long totalFlushTime, final long maxFlushTime, final int pendingGroupCount) {
+        this.flushCount = flushCount;
+        this.failureCount = failureCount;
+        this.changeCount = changeCount;
+        this.droppedCount = droppedCount;
+        this.totalFlushTime = totalFlushTime;
+        this.maxFlushTime = maxFlushTime;
+        this.pendingGroupCount = pendingGroupCount;
+    }
+
+    /**
+     * @return Number of times a group's buffered changes were committed to the store, including failures.
+     */
+    public long getFlushCount() {
+        return this.flushCount;
+    }
+
+    /**
+     * @return Number of flushes that failed, their changes were kept to be retried or dropped.
+     */
+    public long getFailureCount() {
+        return this.failureCount;
+    }
+
+    /**
+     * @return Number of member additions and removals committed by successful flushes.
+     */
+    public long getChangeCount() {
+        return this.changeCount;
+    }
+
+    /**
+     * @return Number of member additions and removals dropped after failing more times than the buffer retries.
+     */
+    public long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * @return Total time spent committing changes to the store, in nanoseconds.
+     */
+    public long getTotalFlushTime() {
+        return this.totalFlushTime;
+    }
+
+    /**
+     * @return Longest time spent on a single flush, in nanoseconds.
+     */
+    public long getMaxFlushTime() {
+        return this.maxFlushTime;
+    }
+
+    /**
+     * @return Average time per flush in nanoseconds, 0 if nothing has been flushed.
+     */
+    public double getAverageFlushTime() {
+        return this.flushCount == 0 ? 0 : (double)this.totalFlushTime / this.flushCount;
+    }
+
+    /**
+     * @return Average number of changes committed per successful flush, 0 if nothing has been flushed.
+     */
+    public double getAverageBatchSize() {
+        final long successCount = this.flushCount - this.failureCount;
+        return successCount == 0 ? 0 : (double)this.changeCount / successCount;
+    }
+
+    /**
+     * @return Number of groups with changes waiting to be flushed when the snapshot was taken.
+     */
+    public int getPendingGroupCount() {
+        return this.pendingGroupCount;
+    }
+
+    /* 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "FlushStatistics[flushes=" + this.flushCount + ", failures=" + this.failureCount +
+            ", changes=" + this.changeCount + ", dropped=" + this.droppedCount + ", totalFlushTime=" + this.totalFlushTime +
+            "ns, maxFlushTime=" + this.maxFlushTime + "ns, pendingGroups=" + this.pendingGroupCount + "]";
+    }
+}
@@ -0,0 +1,431 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Maintains the transitive closure of group memberships so that
+ * {@link IGroupMember#deepContains(IGroupMember)} and
+ * {@link IGroupMember#isDeepMemberOf(IGroupMember)} can be answered with a
+ * single set probe instead of a recursive walk through the group store.
+ * <p>
+ * The index is populated lazily. The first time a member is queried its
+ * containing groups are walked once via {@link IGroupMember#getContainingGroups()}.
+ * From then on the group store keeps the index current by calling
+ * {@link #addMember(IEntityGroup, IGroupMember)},
+ * {@link #removeMember(IEntityGroup, IGroupMember)},
+ * {@link #updateMembers(IEntityGroup)} and {@link #deleteGroup(IEntityGroup)}
+ * when it commits the change, {@link IEntityGroup#addMember(IGroupMember)} and
+ * {@link IEntityGroup#removeMember(IGroupMember)} only stage changes that may
+ * never be committed. Each of these only recomputes the closure of the
+ * affected member and its descendants. An index that isn't told about every
+ * commit answers from stale memberships, the
+ * {@link edu.wisc.my.apilayer.memory.InMemoryGroupStore} calls the hooks
+ * itself once the index is set on it, other stores must call them or
+ * {@link #clear()} the index after each commit.
+ * <p>
+ * Queries do not lock. Updates are serialized against each other.
+ *
+ * @since 1.3
+ */
+public class GroupMembershipIndex {
+    private final Object writeLock = new Object();
+
+    /** Direct containing group keys for every loaded member, guarded by writeLock */
+    private final Map<MemberKey, Set<String>> parents = new HashMap<MemberKey, Set<String>>();
+    /** Loaded direct members of each group keyed by group key, guarded by writeLock */
+    private final Map<String, Set<MemberKey>> children = new HashMap<String, Set<MemberKey>>();
+    /** Published closure, every group key a loaded member is a deep member of */
+    private final ConcurrentMap<MemberKey, Set<String>> ancestors = new ConcurrentHashMap<MemberKey, Set<String>>();
+
+    /**
+     * Answers if <code>member</code> is a recursive member of <code>group</code>.
+     *
+     * @see IGroupMember#isDeepMemberOf(IGroupMember)
+     */
+    public boolean isDeepMemberOf(final IGroupMember member, final IGroupMember group) throws GroupsException {
+        if (!group.isGroup()) {
+            return false;
+        }
+
+        return this.getAncestorGroupKeys(member).contains(group.getKey());
+    }
+
+    /**
+     * Answers if <code>member</code> is a recursive member of <code>group</code>.
+     *
+     * @see IGroupMember#deepContains(IGroupMember)
+     */
+    public boolean deepContains(final IGroupMember group, final IGroupMember member) throws GroupsException {
+        return this.isDeepMemberOf(member, group);
+    }
+
+    /**
+     * Gets the keys of all groups <code>member</code> is a recursive member of,
+     * loading the member into the index if it has not been seen before.
+     *
+     * @param member The member to get the containing group keys for.
+     * @return An unmodifiable set of group keys, never <code>null</code>.
+     */
+    public Set<String> getAncestorGroupKeys(final IGroupMember member) throws GroupsException {
+        final MemberKey node = MemberKey.of(member);
+
+        final Set<String> loaded = this.ancestors.get(node);
+        if (loaded != null) {
+            return loaded;
+        }
+
+        synchronized (this.writeLock) {
+            this.load(member, node);
+            return this.closureOf(node);
+        }
+    }
+
+    /**
+     * Records that <code>member</code> was added to <code>group</code>.
+     *
+     * @see IEntityGroup#addMember(IGroupMember)
+     */
+    public void addMember(final IEntityGroup group, final IGroupMember member) throws GroupsException {
+        final MemberKey node = MemberKey.of(member);
+
+        synchronized (this.writeLock) {
+            final Set<String> direct = this.parents.get(node);
+            if (direct == null) {
+                //Not loaded yet, the new membership is picked up when it is
+                return;
+            }
+
+            this.load(group, MemberKey.of(group));
+            if (direct.add(group.getKey())) {
+                this.childrenOf(group.getKey()).add(node);
+                this.recompute(node);
+            }
+        }
+    }
+
+    /**
+     * Records that <code>member</code> was removed from <code>group</code>.
+     *
+     * @see IEntityGroup#removeMember(IGroupMember)
+     */
+    public void removeMember(final IEntityGroup group, final IGroupMember member) {
+        final MemberKey node = MemberKey.of(member);
+
+        synchronized (this.writeLock) {
+            this.unlink(group.getKey(), node);
+        }
+    }
+
+    /**
+     * Brings the direct memberships of <code>group</code> in line with
+     * {@link IEntityGroup#getMembers()}, adding and removing only the edges
+     * that changed.
+     *
+     * @see IEntityGroup#updateMembers()
+     */
+    public void updateMembers(final IEntityGroup group) throws GroupsException {
+        final String groupKey = group.getKey();
+
+        synchronized (this.writeLock) {
+            final Set<MemberKey> current = new HashSet<MemberKey>();
+            for (final Iterator<IGroupMember> memberItr = group.getMembers(); memberItr.hasNext();) {
+                current.add(MemberKey.of(memberItr.next()));
+            }
+
+            final Set<MemberKey> indexed = this.children.get(groupKey);
+            if (indexed != null) {
+                for (final MemberKey node : new HashSet<MemberKey>(indexed)) {
+                    if (!current.contains(node)) {
+                        this.unlink(groupKey, node);
+                    }
+                }
+            }
+
+            boolean groupLoaded = false;
+            for (final MemberKey node : current) {
+                final Set<String> direct = this.parents.get(node);
+                if (direct != null && !direct.contains(groupKey)) {
+                    if (!groupLoaded) {
+                        this.load(group, MemberKey.of(group));
+                        groupLoaded = true;
+                    }
+
+                    direct.add(groupKey);
+                    this.childrenOf(groupKey).add(node);
+                    this.recompute(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes <code>group</code> and all of its memberships from the index.
+     *
+     * @see IEntityGroup#delete()
+     */
+    public void deleteGroup(final IEntityGroup group) {
+        final String groupKey = group.getKey();
+        final MemberKey groupNode = MemberKey.forGroup(groupKey);
+
+        synchronized (this.writeLock) {
+            final Set<MemberKey> members = this.children.get(groupKey);
+            if (members != null) {
+                for (final MemberKey node : new HashSet<MemberKey>(members)) {
+                    this.unlink(groupKey, node);
+                }
+                this.children.remove(groupKey);
+            }
+
+            final Set<String> direct = this.parents.remove(groupNode);
+            if (direct != null) {
+                for (final String parentKey : direct) {
+                    final Set<MemberKey> siblings = this.children.get(parentKey);
+                    if (siblings != null) {
+                        siblings.remove(groupNode);
+                    }
+                }
+            }
+
+            this.ancestors.remove(groupNode);
+        }
+    }
+
+    /**
+     * Discards everything in the index, members will be reloaded as they are queried.
+     */
+    public void clear() {
+        synchronized (this.writeLock) {
+            this.parents.clear();
+            this.children.clear();
+            this.ancestors.clear();
+        }
+    }
+
+    /**
+     * @return The number of members currently loaded in the index.
+     */
+    public int size() {
+        return this.ancestors.size();
+    }
+
+
+    /**
+     * Walks up from <code>member</code> loading the direct parents of it and
+     * every ancestor that isn't loaded yet. Must be called holding writeLock.
+     */
+    private void load(final IGroupMember member, final MemberKey node) throws GroupsException {
+        if (this.parents.containsKey(node)) {
+            return;
+        }
+
+        //Register before recursing so a corrupt (circular) structure terminates
+        final Set<String> direct = new HashSet<String>();
+        this.parents.put(node, direct);
+
+        try {
+            for (final Iterator<IEntityGroup> groupItr = member.getContainingGroups(); groupItr.hasNext();) {
+                final IEntityGroup parent = groupItr.next();
+                this.load(parent, MemberKey.of(parent));
+
+                direct.add(parent.getKey());
+                this.childrenOf(parent.getKey()).add(node);
+            }
+        }
+        catch (GroupsException ge) {
+            this.parents.remove(node);
+            for (final String parentKey : direct) {
+                this.children.get(parentKey).remove(node);
+            }
+            throw ge;
+        }
+
+        this.ancestors.put(node, this.computeClosure(node, Collections.<MemberKey>emptySet(), new HashMap<MemberKey, Set<String>>()));
+    }
+
+    /**
+     * Removes the direct membership of <code>node</code> in the group and
+     * recomputes the closure below it. Must be called holding writeLock.
+     */
+    private void unlink(final String groupKey, final MemberKey node) {
+        final Set<String> direct = this.parents.get(node);
+        if (direct == null || !direct.remove(groupKey)) {
+            return;
+        }
+
+        final Set<MemberKey> members = this.children.get(groupKey);
+        if (members != null) {
+            members.remove(node);
+        }
+
+        this.recompute(node);
+    }
+
+    /**
+     * Recomputes and publishes the closure for <code>node</code> and every
+     * loaded member below it. Must be called holding writeLock.
+     */
+    private void recompute(final MemberKey node) {
+        final Set<MemberKey> affected = new LinkedHashSet<MemberKey>();
+        this.collectDescendants(node, affected);
+
+        final Map<MemberKey, Set<String>> computed = new HashMap<MemberKey, Set<String>>();
+        for (final MemberKey affectedNode : affected) {
+            this.computeClosure(affectedNode, affected, computed);
+        }
+
+        this.ancestors.putAll(computed);
+    }
+
+    private void collectDescendants(final MemberKey node, final Set<MemberKey> affected) {
+        if (!affected.add(node) || !node.isGroup()) {
+            return;
+        }
+
+        final Set<MemberKey> members = this.children.get(node.getKey());
+        if (members != null) {
+            for (final MemberKey member : members) {
+                this.collectDescendants(member, affected);
+            }
+        }
+    }
+
+    /**
+     * Computes the closure of <code>node</code> from its direct parents. Parents
+     * in the <code>affected</code> set are computed first, all others use their
+     * already published closure.
+     */
+    private Set<String> computeClosure(final MemberKey node, final Set<MemberKey> affected, final Map<MemberKey, Set<String>> computed) {
+        final Set<String> done = computed.get(node);
+        if (done != null) {
+            return done;
+        }
+
+        final Set<String> direct = this.parents.get(node);
+        final Set<String> closure = new HashSet<String>(direct);
+
+        //Guards against a circular structure sending this into unbounded recursion
+        computed.put(node, Collections.unmodifiableSet(closure));
+
+        for (final String parentKey : direct) {
+            final MemberKey parentNode = MemberKey.forGroup(parentKey);
+
+            final Set<String> parentClosure;
+            if (affected.contains(parentNode)) {
+                parentClosure = this.computeClosure(parentNode, affected, computed);
+            }
+            else {
+                parentClosure = this.ancestors.get(parentNode);
+            }
+
+            if (parentClosure != null) {
+                closure.addAll(parentClosure);
+            }
+        }
+
+        return computed.get(node);
+    }
+
+    private Set<String> closureOf(final MemberKey node) {
+        final Set<String> closure = this.ancestors.get(node);
+        if (closure == null) {
+            return Collections.emptySet();
+        }
+        return closure;
+    }
+
+    private Set<MemberKey> childrenOf(final String groupKey) {
+        Set<MemberKey> members = this.children.get(groupKey);
+        if (members == null) {
+            members = new HashSet<MemberKey>();
+            this.children.put(groupKey, members);
+        }
+        return members;
+    }
+
+
+    /**
+     * Identifies a node in the membership graph. Groups are identified by
+     * their key alone, entities by their type and key.
+     */
+    private static final class MemberKey {
+        private final Class<?> type;
+        private final String key;
+        private final int hash;
+
+        public static MemberKey of(final IGroupMember member) {
+            if (member.isGroup()) {
+                return forGroup(member.getKey());
+            }
+            return new MemberKey(member.getType(), member.getKey());
+        }
+
+        public static MemberKey forGroup(final String groupKey) {
+            return new MemberKey(IEntityGroup.class, groupKey);
+        }
+
+        private MemberKey(final Class<?> type, final String key) {
+            this.type = type;
+            this.key = key;
+            this.hash = 31 * type.hashCode() + key.hashCode();
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        public boolean isGroup() {
+            return this.type == IEntityGroup.class;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof MemberKey)) {
+                return false;
+            }
+
+            final MemberKey other = (MemberKey)obj;
+            return this.type == other.type && this.key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public String toString() {
+            return this.type.getName() + ":" + this.key;
+        }
+    }
+}
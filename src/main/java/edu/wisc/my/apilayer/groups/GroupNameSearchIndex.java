@@ -0,0 +1,403 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * In-memory index of group names that an {@link IEntityGroupStore} can
+ * delegate {@link IEntityGroupStore#searchForGroups(String, SearchMethod, Class)}
+ * to instead of scanning every group or issuing a <code>LIKE '%x%'</code> query.
+ * <p>
+ * Groups are partitioned by leaf type. Within a partition the names are kept
+ * in a sorted array for {@link SearchMethod#IS} and {@link SearchMethod#STARTS_WITH},
+ * a sorted array of reversed names for {@link SearchMethod#ENDS_WITH} and a
+ * trigram index for {@link SearchMethod#CONTAINS}. These structures are
+ * rebuilt on the first search after a partition changes, so the index suits
+ * stores where group names change far less often than they are searched.
+ * <p>
+ * Searches do not lock. Changes are serialized against each other.
+ * 
+ * @since 1.3
+ */
+public class GroupNameSearchIndex {
+    private static final int GRAM_LENGTH = 3;
+    private static final IEntityIdentifier[] NO_RESULTS = new IEntityIdentifier[0];
+
+    private final boolean ignoreCase;
+    private final Object writeLock = new Object();
+
+    /** Leaf type of every indexed group, guarded by writeLock */
+    private final Map<IEntityIdentifier, Class<?>> leafTypes = new HashMap<IEntityIdentifier, Class<?>>();
+    /** Copy on write so searches can iterate the partitions without locking */
+    private volatile Map<Class<?>, Partition> partitions = Collections.emptyMap();
+
+    /**
+     * Creates an index that ignores case when matching.
+     */
+    public GroupNameSearchIndex() {
+        this(true);
+    }
+
+    /**
+     * @param ignoreCase <code>true</code> if matching should ignore case.
+     */
+    public GroupNameSearchIndex(final boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Adds the group to the index under its name and leaf type, replacing any
+     * previous entry for it.
+     * 
+     * @param group The group to index.
+     */
+    public void add(final IEntityGroup group) {
+        this.put(group.getEntityIdentifier(), group.getName(), group.getLeafType());
+    }
+
+    /**
+     * Adds a group to the index, replacing any previous entry for the identifier.
+     * 
+     * @param groupIdentifier The identifier returned by searches that match the group.
+     * @param name The group name to match against.
+     * @param leafType The leaf type of the group.
+     */
+    public void put(final IEntityIdentifier groupIdentifier, final String name, final Class<? extends IBasicEntity> leafType) {
+        if (groupIdentifier == null || name == null || leafType == null) {
+            throw new IllegalArgumentException("groupIdentifier, name and leafType may not be null");
+        }
+
+        synchronized (this.writeLock) {
+            final Class<?> oldLeafType = this.leafTypes.put(groupIdentifier, leafType);
+            if (oldLeafType != null && oldLeafType != leafType) {
+                this.partitions.get(oldLeafType).remove(groupIdentifier);
+            }
+
+            Partition partition = this.partitions.get(leafType);
+            if (partition == null) {
+                partition = new Partition();
+                final Map<Class<?>, Partition> newPartitions = new HashMap<Class<?>, Partition>(this.partitions);
+                newPartitions.put(leafType, partition);
+                this.partitions = newPartitions;
+            }
+
+            partition.put(groupIdentifier, this.normalize(name));
+        }
+    }
+
+    /**
+     * Removes the group from the index.
+     * 
+     * @param group The group to remove.
+     */
+    public void remove(final IEntityGroup group) {
+        this.remove(group.getEntityIdentifier());
+    }
+
+    /**
+     * Removes a group from the index.
+     * 
+     * @param groupIdentifier The identifier the group was indexed under.
+     */
+    public void remove(final IEntityIdentifier groupIdentifier) {
+        synchronized (this.writeLock) {
+            final Class<?> leafType = this.leafTypes.remove(groupIdentifier);
+            if (leafType != null) {
+                this.partitions.get(leafType).remove(groupIdentifier);
+            }
+        }
+    }
+
+    /**
+     * Removes all groups from the index.
+     */
+    public void clear() {
+        synchronized (this.writeLock) {
+            this.leafTypes.clear();
+            this.partitions = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * @return The number of groups in the index.
+     */
+    public int size() {
+        synchronized (this.writeLock) {
+            return this.leafTypes.size();
+        }
+    }
+
+    /**
+     * Find IEntityIdentifiers for groups whose name matches the query string
+     * according to the specified method and matches the provided leaf type.
+     * 
+     * @param query The string to match group names against.
+     * @param method How to match the query against group names.
+     * @param leaftype The leaf type of groups to search, <code>null</code> to search all leaf types.
+     * @return The matching group identifiers, ordered by group name.
+     * @see IEntityGroupStore#searchForGroups(String, SearchMethod, Class)
+     */
+    public IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype) {
+        final String normalizedQuery = this.normalize(query);
+        final Map<Class<?>, Partition> currentPartitions = this.partitions;
+
+        if (leaftype != null) {
+            final Partition partition = currentPartitions.get(leaftype);
+            if (partition == null) {
+                return NO_RESULTS;
+            }
+
+            final List<IEntityIdentifier> results = new ArrayList<IEntityIdentifier>();
+            partition.getSnapshot().search(normalizedQuery, method, results);
+            return results.toArray(new IEntityIdentifier[results.size()]);
+        }
+
+        final List<IEntityIdentifier> results = new ArrayList<IEntityIdentifier>();
+        for (final Partition partition : currentPartitions.values()) {
+            partition.getSnapshot().search(normalizedQuery, method, results);
+        }
+        return results.toArray(new IEntityIdentifier[results.size()]);
+    }
+
+    private String normalize(final String name) {
+        return this.ignoreCase ? name.toLowerCase(Locale.ENGLISH) : name;
+    }
+
+
+    /**
+     * The groups of a single leaf type.
+     */
+    private static final class Partition {
+        /** Normalized name of every group, guarded by the index's writeLock */
+        private final Map<IEntityIdentifier, String> names = new LinkedHashMap<IEntityIdentifier, String>();
+        /** Search structures, null when names has changed since they were built */
+        private volatile Snapshot snapshot = null;
+
+        public void put(final IEntityIdentifier groupIdentifier, final String name) {
+            synchronized (this) {
+                this.names.put(groupIdentifier, name);
+                this.snapshot = null;
+            }
+        }
+
+        public void remove(final IEntityIdentifier groupIdentifier) {
+            synchronized (this) {
+                if (this.names.remove(groupIdentifier) != null) {
+                    this.snapshot = null;
+                }
+            }
+        }
+
+        public Snapshot getSnapshot() {
+            Snapshot current = this.snapshot;
+            if (current != null) {
+                return current;
+            }
+
+            synchronized (this) {
+                current = this.snapshot;
+                if (current == null) {
+                    current = new Snapshot(this.names);
+                    this.snapshot = current;
+                }
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Immutable search structures for a partition.
+     */
+    private static final class Snapshot {
+        /** Names in ascending order */
+        private final String[] names;
+        /** Identifier for each entry in names */
+        private final IEntityIdentifier[] identifiers;
+        /** Reversed names in ascending order */
+        private final String[] reversedNames;
+        /** Index into names for each entry in reversedNames */
+        private final int[] reversedOrdinals;
+        /** Ascending indexes into names of the entries containing each trigram */
+        private final Map<String, int[]> grams;
+
+        public Snapshot(final Map<IEntityIdentifier, String> entries) {
+            final int size = entries.size();
+
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            final Map.Entry<IEntityIdentifier, String>[] sorted = entries.entrySet().toArray(new Map.Entry[size]);
+            Arrays.sort(sorted, new Comparator<Map.Entry<IEntityIdentifier, String>>() {
+                public int compare(final Map.Entry<IEntityIdentifier, String> e1, final Map.Entry<IEntityIdentifier, String> e2) {
+                    return e1.getValue().compareTo(e2.getValue());
+                }
+            });
+
+            this.names = new String[size];
+            this.identifiers = new IEntityIdentifier[size];
+            for (int ordinal = 0; ordinal < size; ordinal++) {
+                this.names[ordinal] = sorted[ordinal].getValue();
+                this.identifiers[ordinal] = sorted[ordinal].getKey();
+            }
+
+            final Integer[] byReversedName = new Integer[size];
+            final String[] reversed = new String[size];
+            for (int ordinal = 0; ordinal < size; ordinal++) {
+                byReversedName[ordinal] = ordinal;
+                reversed[ordinal] = new StringBuilder(this.names[ordinal]).reverse().toString();
+            }
+            Arrays.sort(byReversedName, new Comparator<Integer>() {
+                public int compare(final Integer o1, final Integer o2) {
+                    return reversed[o1].compareTo(reversed[o2]);
+                }
+            });
+
+            this.reversedNames = new String[size];
+            this.reversedOrdinals = new int[size];
+            for (int index = 0; index < size; index++) {
+                this.reversedOrdinals[index] = byReversedName[index];
+                this.reversedNames[index] = reversed[byReversedName[index]];
+            }
+
+            this.grams = buildGrams(this.names);
+        }
+
+        public void search(final String query, final SearchMethod method, final List<IEntityIdentifier> results) {
+            if (SearchMethod.IS.equals(method)) {
+                for (int ordinal = lowerBound(this.names, query); ordinal < this.names.length && this.names[ordinal].equals(query); ordinal++) {
+                    results.add(this.identifiers[ordinal]);
+                }
+            }
+            else if (SearchMethod.STARTS_WITH.equals(method)) {
+                for (int ordinal = lowerBound(this.names, query); ordinal < this.names.length && this.names[ordinal].startsWith(query); ordinal++) {
+                    results.add(this.identifiers[ordinal]);
+                }
+            }
+            else if (SearchMethod.ENDS_WITH.equals(method)) {
+                final String reversedQuery = new StringBuilder(query).reverse().toString();
+
+                final List<Integer> matches = new ArrayList<Integer>();
+                for (int index = lowerBound(this.reversedNames, reversedQuery); index < this.reversedNames.length && this.reversedNames[index].startsWith(reversedQuery); index++) {
+                    matches.add(this.reversedOrdinals[index]);
+                }
+
+                //Keep results in name order like the other methods
+                Collections.sort(matches);
+                for (final Integer ordinal : matches) {
+                    results.add(this.identifiers[ordinal]);
+                }
+            }
+            else if (SearchMethod.CONTAINS.equals(method)) {
+                this.searchContains(query, results);
+            }
+            else {
+                throw new IllegalArgumentException("Unsupported SearchMethod: " + method);
+            }
+        }
+
+        private void searchContains(final String query, final List<IEntityIdentifier> results) {
+            if (query.length() < GRAM_LENGTH) {
+                //Too short to use the trigrams, short queries match most names anyway
+                for (int ordinal = 0; ordinal < this.names.length; ordinal++) {
+                    if (this.names[ordinal].contains(query)) {
+                        results.add(this.identifiers[ordinal]);
+                    }
+                }
+                return;
+            }
+
+            //Verify every candidate from the rarest trigram in the query
+            int[] candidates = null;
+            for (int start = 0; start + GRAM_LENGTH <= query.length(); start++) {
+                final int[] posting = this.grams.get(query.substring(start, start + GRAM_LENGTH));
+                if (posting == null) {
+                    return;
+                }
+                if (candidates == null || posting.length < candidates.length) {
+                    candidates = posting;
+                }
+            }
+
+            for (final int ordinal : candidates) {
+                if (this.names[ordinal].contains(query)) {
+                    results.add(this.identifiers[ordinal]);
+                }
+            }
+        }
+
+        private static Map<String, int[]> buildGrams(final String[] names) {
+            final Map<String, List<Integer>> postings = new HashMap<String, List<Integer>>();
+            for (int ordinal = 0; ordinal < names.length; ordinal++) {
+                final String name = names[ordinal];
+                for (int start = 0; start + GRAM_LENGTH <= name.length(); start++) {
+                    final String gram = name.substring(start, start + GRAM_LENGTH);
+
+                    List<Integer> posting = postings.get(gram);
+                    if (posting == null) {
+                        posting = new ArrayList<Integer>();
+                        postings.put(gram, posting);
+                    }
+
+                    //Ordinals are visited in order so a repeat can only be the last entry
+                    if (posting.isEmpty() || posting.get(posting.size() - 1) != ordinal) {
+                        posting.add(ordinal);
+                    }
+                }
+            }
+
+            final Map<String, int[]> grams = new HashMap<String, int[]>(postings.size() * 4 / 3 + 1);
+            for (final Map.Entry<String, List<Integer>> postingEntry : postings.entrySet()) {
+                final List<Integer> posting = postingEntry.getValue();
+                final int[] ordinals = new int[posting.size()];
+                for (int index = 0; index < ordinals.length; index++) {
+                    ordinals[index] = posting.get(index);
+                }
+                grams.put(postingEntry.getKey(), ordinals);
+            }
+            return grams;
+        }
+
+        /**
+         * @return The index of the first entry not less than <code>key</code>.
+         */
+        private static int lowerBound(final String[] sorted, final String key) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (sorted[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -54,11 +54,14 @@
 *******************************************************************************/
 package edu.wisc.my.apilayer.groups;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
 import javax.naming.InvalidNameException;
 import javax.naming.Name;
 
 import edu.wisc.my.apilayer.internal.IGroupServices;
-import edu.wisc.my.apilayer.internal.IPortalServices;
 import edu.wisc.my.apilayer.internal.PortalServicesLocator;
 
 
@@ -79,8 +82,7 @@ public final class GroupService {
      * @see IGroupService#findGroup(String)
      */
     public static IEntityGroup findGroup(final String key) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.findGroup(key);
     }
@@ -93,8 +95,7 @@ public final class GroupService {
      * @see IGroupService#getEntity(String, Class)
      */
     public static IEntity getEntity(final String key, final Class<? extends IBasicEntity> type) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getEntity(key, type);
     }
@@ -109,8 +110,7 @@ public final class GroupService {
      * @see IGroupService#getGroupMember(String, Class)
      */
     public static IGroupMember getGroupMember(final String key, final Class<? extends IBasicEntity> type) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getGroupMember(key, type);
     }
@@ -124,8 +124,7 @@ public final class GroupService {
      * @see IGroupService#getGroupMember(IEntityIdentifier)
      */
     public static IGroupMember getGroupMember(final IEntityIdentifier underlyingEntityIdentifier) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getGroupMember(underlyingEntityIdentifier);
     }
@@ -138,8 +137,7 @@ public final class GroupService {
      * @see ICompositeGroupService#newGroup(Class, Name)
      */
     public static IEntityGroup newGroup(final Class<? extends IBasicEntity> type) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.newGroup(type);
     }
@@ -152,8 +150,7 @@ public final class GroupService {
      * @see IGroupService#searchForGroups(String, SearchMethod, Class)
      */
     public static IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.searchForGroups(query, method, leaftype);
     }
@@ -167,8 +164,7 @@ public final class GroupService {
      * @see IGroupService#searchForGroups(String, SearchMethod, Class, IEntityGroup)
      */
     public static IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype, final IEntityGroup ancestor) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.searchForGroups(query, method, leaftype, ancestor);
     }
@@ -181,8 +177,7 @@ public final class GroupService {
      * @see IGroupService#searchForEntities(String, SearchMethod, Class)
      */
     public static IEntityIdentifier[] searchForEntities(final String query, final SearchMethod method, final Class<? extends IBasicEntity> type) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.searchForGroups(query, method, type);
     }
@@ -196,8 +191,7 @@ public final class GroupService {
      * @see IGroupService#searchForEntities(String, SearchMethod, Class, IEntityGroup)
      */
     public static IEntityIdentifier[] searchForEntities(final String query, final SearchMethod method, final Class<? extends IBasicEntity> type, final IEntityGroup ancestor) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.searchForGroups(query, method, type, ancestor);
     }
@@ -209,8 +203,7 @@ public final class GroupService {
      * @see ICompositeGroupService#findGroupWithLock(String, String)
      */
     public static ILockableEntityGroup findLockableGroup(final String key, final String lockOwner) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.findLockableGroup(key, lockOwner);
     }
@@ -223,8 +216,7 @@ public final class GroupService {
      * @return The {@link IComponentGroupService} being used.
      */
     public static ICompositeGroupService getCompositeGroupService() throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getCompositeGroupService();
     }
@@ -237,8 +229,7 @@ public final class GroupService {
      * @return The group associated with the name, <code>null</code> if one isn't found.
      */
     public static IEntityGroup getDistinguishedGroup(final String name) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getDistinguishedGroup(name);
     }
@@ -250,8 +241,7 @@ public final class GroupService {
      * @see ICompositeGroupService#getEntity(String, Class, String)
      */
     public static IEntity getEntity(final String key, final Class<? extends IBasicEntity> type, final String service) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getEntity(key, type, service);
     }
@@ -263,8 +253,7 @@ public final class GroupService {
      * @return The {@link IGroupService} that is being used.
      */
     public static IGroupService getGroupService() throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getGroupService();
     }
@@ -276,8 +265,7 @@ public final class GroupService {
      * @return The root group for the type, or <code>null</code> if on doesn't exist.
      */
     public static IEntityGroup getRootGroup(final Class<? extends IBasicEntity> type) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getRootGroup(type);
     }
@@ -289,8 +277,7 @@ public final class GroupService {
      * @return <code>true</code> if the composite group service is being used, <code>false</code> otherwise.
      */
     public static boolean isComposite() {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.isComposite();
     }
@@ -302,8 +289,7 @@ public final class GroupService {
      * @see ICompositeGroupService#newGroup(Class, Name)
      */
     public static IEntityGroup newGroup(final Class<? extends IBasicEntity> type, final String serviceName) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.newGroup(type, serviceName);
     }
@@ -317,8 +303,7 @@ public final class GroupService {
      * @throws GroupsException If the key is invalid.
      */
     public static String parseLocalKey(final String compositeKey) throws InvalidNameException, GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.parseLocalKey(compositeKey);
     }
@@ -332,8 +317,7 @@ public final class GroupService {
      * @throws GroupsException If the name is invalid.
      */
     public static Name parseServiceName(final String serviceName) throws InvalidNameException, GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.parseServiceName(serviceName);
     }
@@ -345,9 +329,26 @@ public final class GroupService {
      * @return The distinguished key for the group, <code>null</code> if it doesn't exist.
      */
     public static String getDistinguishedGroupKey(final String name) throws GroupsException {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IGroupServices gsb = ps.getGroupServices();
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
 
         return gsb.getDistinguishedGroupKey(name);
     }
+
+    /**
+     * Returns the groups directly containing each of the specified entities,
+     * resolved in a single pass rather than one store call per entity. Every
+     * identifier passed in is a key in the returned {@link Map}, entities that
+     * are not in any group map to an empty {@link Set}.
+     * 
+     * @param underlyingEntityIdentifiers Identifiers of the UNDERLYING entities to find containing groups for.
+     * @return The containing groups keyed by entity identifier, in the iteration order of the argument.
+     * @see IGroupMember#getContainingGroups()
+     * @see IBulkEntityGroupStore#findContainingGroups(Collection)
+     * @since 1.3
+     */
+    public static Map<IEntityIdentifier, Set<IEntityGroup>> findContainingGroups(final Collection<IEntityIdentifier> underlyingEntityIdentifiers) throws GroupsException {
+        final IGroupServices gsb = PortalServicesLocator.getServices().getGroupServices();
+
+        return gsb.findContainingGroups(underlyingEntityIdentifiers);
+    }
 }
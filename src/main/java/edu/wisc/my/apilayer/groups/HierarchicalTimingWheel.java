@@ -0,0 +1,202 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Hierarchical timing wheel for scheduling items by deadline with constant
+ * time insertion and cancellation.
+ * <p>
+ * Level 0 has <code>wheelSize</code> buckets each one tick wide, level
+ * <i>n</i> has buckets <code>wheelSize<sup>n</sup></code> ticks wide. An item
+ * is placed on the lowest level whose span covers its deadline. Each time
+ * the clock crosses the start of a higher level bucket that bucket's items
+ * are cascaded down, and each tick the current level 0 bucket is expired.
+ * Levels are added as far deadlines require them.
+ * <p>
+ * Not thread safe, callers must synchronize.
+ * 
+ * @param <T> The type of item scheduled.
+ * @since 1.3
+ */
+class HierarchicalTimingWheel<T> {
+    private final long tickMillis;
+    private final int wheelSize;
+    private final List<List<Timeout<T>>[]> levels = new ArrayList<List<Timeout<T>>[]>();
+    private final List<Long> levelTicks = new ArrayList<Long>();
+
+    private long currentTick;
+    private int size = 0;
+
+    /**
+     * @param tickMillis Width of a level 0 bucket, the resolution of the wheel.
+     * @param wheelSize Number of buckets on each level.
+     * @param nowMillis The current time.
+     */
+    public HierarchicalTimingWheel(final long tickMillis, final int wheelSize, final long nowMillis) {
+        if (tickMillis <= 0 || wheelSize < 2) {
+            throw new IllegalArgumentException("tickMillis must be greater than 0 and wheelSize at least 2");
+        }
+
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.currentTick = nowMillis / tickMillis;
+        this.addLevel();
+    }
+
+    /**
+     * Schedules the item. Deadlines are rounded up to a whole tick so an item
+     * is never expired before its deadline. If the deadline has already been
+     * passed by the wheel's clock the item is added to <code>expired</code>
+     * instead.
+     * 
+     * @return The handle to cancel the item with.
+     */
+    public Timeout<T> schedule(final T item, final long deadlineMillis, final Collection<T> expired) {
+        final Timeout<T> timeout = new Timeout<T>(item, deadlineMillis, (deadlineMillis + this.tickMillis - 1) / this.tickMillis);
+        this.place(timeout, expired);
+        return timeout;
+    }
+
+    /**
+     * Cancels a scheduled item. The item's bucket entry is discarded when the
+     * bucket is next processed.
+     */
+    public void cancel(final Timeout<T> timeout) {
+        if (!timeout.cancelled) {
+            timeout.cancelled = true;
+            this.size--;
+        }
+    }
+
+    /**
+     * Advances the clock to <code>nowMillis</code>, adding every item whose
+     * deadline has passed to <code>expired</code>.
+     */
+    public void advance(final long nowMillis, final Collection<T> expired) {
+        final long targetTick = nowMillis / this.tickMillis;
+        while (this.currentTick < targetTick) {
+            this.currentTick++;
+
+            for (int level = this.levels.size() - 1; level > 0; level--) {
+                final long span = this.levelTicks.get(level);
+                if (this.currentTick % span == 0) {
+                    final List<Timeout<T>> bucket = this.bucket(level, this.currentTick);
+                    if (!bucket.isEmpty()) {
+                        final List<Timeout<T>> cascading = new ArrayList<Timeout<T>>(bucket);
+                        bucket.clear();
+                        for (final Timeout<T> timeout : cascading) {
+                            if (!timeout.cancelled) {
+                                this.size--;
+                                this.place(timeout, expired);
+                            }
+                        }
+                    }
+                }
+            }
+
+            final List<Timeout<T>> bucket = this.bucket(0, this.currentTick);
+            for (final Timeout<T> timeout : bucket) {
+                if (!timeout.cancelled) {
+                    timeout.cancelled = true;
+                    this.size--;
+                    expired.add(timeout.item);
+                }
+            }
+            bucket.clear();
+        }
+    }
+
+    /**
+     * @return The number of items scheduled and not cancelled.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    private void place(final Timeout<T> timeout, final Collection<T> expired) {
+        final long ticks = timeout.deadlineTick - this.currentTick;
+        if (ticks <= 0) {
+            timeout.cancelled = true;
+            expired.add(timeout.item);
+            return;
+        }
+
+        int level = 0;
+        while (ticks >= this.levelTicks.get(level) * this.wheelSize) {
+            level++;
+            if (level == this.levels.size()) {
+                this.addLevel();
+            }
+        }
+
+        this.bucket(level, timeout.deadlineTick).add(timeout);
+        this.size++;
+    }
+
+    private List<Timeout<T>> bucket(final int level, final long tick) {
+        final long span = this.levelTicks.get(level);
+        return this.levels.get(level)[(int)((tick / span) % this.wheelSize)];
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void addLevel() {
+        final List<Timeout<T>>[] buckets = new List[this.wheelSize];
+        for (int index = 0; index < buckets.length; index++) {
+            buckets[index] = new ArrayList<Timeout<T>>(0);
+        }
+
+        final int level = this.levels.size();
+        this.levels.add(buckets);
+        this.levelTicks.add(level == 0 ? 1 : this.levelTicks.get(level - 1) * this.wheelSize);
+    }
+
+
+    /**
+     * Handle for a scheduled item.
+     */
+    static final class Timeout<T> {
+        private final T item;
+        private final long deadlineMillis;
+        private final long deadlineTick;
+        private boolean cancelled = false;
+
+        private Timeout(final T item, final long deadlineMillis, final long deadlineTick) {
+            this.item = item;
+            this.deadlineMillis = deadlineMillis;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getItem() {
+            return this.item;
+        }
+
+        /**
+         * @return The deadline the item was scheduled with, before rounding to a tick.
+         */
+        public long getDeadline() {
+            return this.deadlineMillis;
+        }
+    }
+}
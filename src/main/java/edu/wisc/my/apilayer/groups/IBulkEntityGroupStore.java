@@ -0,0 +1,46 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Optional extension of <code>IEntityGroupStore</code> for stores that can
+ * find the containing groups of many members in one operation, such as a
+ * single SQL <code>IN</code> query or a single LDAP <code>OR</code> filter.
+ * 
+ * @see BulkContainingGroups
+ * @since 1.3
+ */
+public interface IBulkEntityGroupStore extends IEntityGroupStore {
+
+    /**
+     * Returns the <code>IEntityGroups</code> that directly contain each of the
+     * entities. Every identifier passed in must be a key in the returned
+     * <code>Map</code>, mapped to an empty <code>Set</code> if the entity
+     * belongs to no groups in this store.
+     * @return java.util.Map
+     * @param underlyingEntityIdentifiers Identifiers of the UNDERLYING entities.
+     */
+    public Map<IEntityIdentifier, Set<IEntityGroup>> findContainingGroups(Collection<IEntityIdentifier> underlyingEntityIdentifiers) throws GroupsException;
+}
@@ -0,0 +1,513 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Issues {@link IEntityLock}s for entities within a single JVM.
+ * <p>
+ * The locks on each entity, identified by its type and key, are held as an
+ * immutable state object in a {@link ConcurrentHashMap}. Every operation
+ * computes the entity's next state and installs it with a compare and set,
+ * retrying if another thread changed the entity first. There is no global
+ * monitor so editors of different entities never contend and editors of the
+ * same entity only retry.
+ * <p>
+ * Locking follows the rules described by {@link LockType}: any number of
+ * READ locks may be held on an entity, a WRITE lock may only be held when
+ * no other lock is. Expired locks are ignored and are dropped from an
+ * entity's state the next time it changes, or as soon as they expire if a
+ * {@link LockExpirationSweeper} is attached.
+ * 
+ * @since 1.3
+ */
+public class InMemoryEntityLockService {
+    private static final Grant[] NO_GRANTS = new Grant[0];
+
+    private final ConcurrentMap<EntityKey, Grant[]> locks;
+    private final int defaultDuration;
+    private volatile LockExpirationSweeper expirationSweeper = null;
+
+    /**
+     * @param defaultDuration How long, in seconds, locks are granted and renewed for when no duration is specified.
+     */
+    public InMemoryEntityLockService(final int defaultDuration) {
+        if (defaultDuration <= 0) {
+            throw new IllegalArgumentException("defaultDuration must be greater than 0");
+        }
+
+        this.defaultDuration = defaultDuration;
+        this.locks = new ConcurrentHashMap<EntityKey, Grant[]>(1024, 0.75f, 64);
+    }
+
+    /**
+     * @return How long, in seconds, locks are granted and renewed for when no duration is specified.
+     */
+    public int getDefaultDuration() {
+        return this.defaultDuration;
+    }
+
+    /**
+     * Grants a READ lock for the default duration.
+     * 
+     * @throws LockingException If another owner holds a WRITE lock on the entity.
+     */
+    public IEntityLock newReadLock(final Class<? extends IBasicEntity> entityType, final String entityKey, final String owner) throws LockingException {
+        return this.newLock(entityType, entityKey, LockType.READ_LOCK, owner, this.defaultDuration);
+    }
+
+    /**
+     * Grants a WRITE lock for the default duration.
+     * 
+     * @throws LockingException If any other lock is held on the entity.
+     */
+    public IEntityLock newWriteLock(final Class<? extends IBasicEntity> entityType, final String entityKey, final String owner) throws LockingException {
+        return this.newLock(entityType, entityKey, LockType.WRITE_LOCK, owner, this.defaultDuration);
+    }
+
+    /**
+     * Grants a lock for the default duration.
+     * 
+     * @throws LockingException If the lock conflicts with a lock already held on the entity.
+     */
+    public IEntityLock newLock(final Class<? extends IBasicEntity> entityType, final String entityKey, final LockType lockType, final String owner) throws LockingException {
+        return this.newLock(entityType, entityKey, lockType, owner, this.defaultDuration);
+    }
+
+    /**
+     * Grants a lock on the entity.
+     * 
+     * @param entityType The type of the entity to lock.
+     * @param entityKey The key of the entity to lock.
+     * @param lockType The type of lock.
+     * @param owner The owner of the lock.
+     * @param duration How long, in seconds, the lock is good for.
+     * @return The granted lock.
+     * @throws LockingException If the lock conflicts with a lock already held on the entity.
+     */
+    public IEntityLock newLock(final Class<? extends IBasicEntity> entityType, final String entityKey, final LockType lockType, final String owner, final int duration) throws LockingException {
+        if (entityType == null || entityKey == null || lockType == null) {
+            throw new IllegalArgumentException("entityType, entityKey and lockType may not be null");
+        }
+        checkDuration(duration);
+
+        final EntityLock lock = new EntityLock(this, new EntityKey(entityType, entityKey), owner);
+        for (;;) {
+            final long now = System.currentTimeMillis();
+            final Grant[] current = this.locks.get(lock.entity);
+            final Grant[] live = live(current, now, null);
+
+            for (final Grant grant : live) {
+                if (LockType.WRITE_LOCK.equals(lockType) || LockType.WRITE_LOCK.equals(grant.lockType)) {
+                    throw new EntityLockException("Can't grant " + lockType + " on " + lock.entity + " to " + owner + ", " + grant.lock.getLockOwner() + " holds " + grant.lockType);
+                }
+            }
+
+            final Grant grant = new Grant(lock, lockType, now + TimeUnit.SECONDS.toMillis(duration), lock.grantCount.incrementAndGet());
+            if (this.swap(lock.entity, current, append(live, grant))) {
+                lock.lastGrant = grant;
+                this.scheduleExpiration(lock, grant);
+                this.firePruned(current, now, null);
+                return lock;
+            }
+        }
+    }
+
+    /**
+     * Answers if the lock was issued by this service, has not been released
+     * and has not expired.
+     */
+    public boolean isValid(final IEntityLock lock) {
+        final EntityLock entityLock = this.checkLock(lock);
+        final Grant grant = find(this.locks.get(entityLock.entity), entityLock);
+        return grant != null && !grant.isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Changes the type of the lock and renews it for the default duration.
+     * 
+     * @throws LockingException If the lock is no longer valid or the new type conflicts with another lock on the entity.
+     */
+    public void convert(final IEntityLock lock, final LockType newType) throws LockingException {
+        this.convert(lock, newType, this.defaultDuration);
+    }
+
+    /**
+     * Changes the type of the lock and renews it for <code>duration</code> seconds.
+     * 
+     * @throws LockingException If the lock is no longer valid or the new type conflicts with another lock on the entity.
+     */
+    public void convert(final IEntityLock lock, final LockType newType, final int duration) throws LockingException {
+        if (newType == null) {
+            throw new IllegalArgumentException("newType may not be null");
+        }
+        this.update(this.checkLock(lock), newType, duration);
+    }
+
+    /**
+     * Renews the lock for the default duration.
+     * 
+     * @throws LockingException If the lock is no longer valid.
+     */
+    public void renew(final IEntityLock lock) throws LockingException {
+        this.renew(lock, this.defaultDuration);
+    }
+
+    /**
+     * Renews the lock for <code>duration</code> seconds from now.
+     * 
+     * @throws LockingException If the lock is no longer valid.
+     */
+    public void renew(final IEntityLock lock, final int duration) throws LockingException {
+        this.update(this.checkLock(lock), null, duration);
+    }
+
+    /**
+     * Releases the lock. Releasing a lock that has expired or was already
+     * released does nothing.
+     */
+    public void release(final IEntityLock lock) {
+        final EntityLock entityLock = this.checkLock(lock);
+        for (;;) {
+            final long now = System.currentTimeMillis();
+            final Grant[] current = this.locks.get(entityLock.entity);
+            if (find(current, entityLock) == null) {
+                return;
+            }
+
+            if (this.swap(entityLock.entity, current, live(current, now, entityLock))) {
+                final LockExpirationSweeper sweeper = this.expirationSweeper;
+                if (sweeper != null) {
+                    sweeper.cancel(entityLock);
+                }
+                this.firePruned(current, now, entityLock);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The number of entities that currently have locks recorded, which may include expired locks.
+     */
+    public int getLockedEntityCount() {
+        return this.locks.size();
+    }
+
+
+    /**
+     * Attaches the sweeper that is told about every grant, only one sweeper
+     * may be attached.
+     */
+    void setExpirationSweeper(final LockExpirationSweeper sweeper) {
+        synchronized (this.locks) {
+            if (this.expirationSweeper != null) {
+                throw new IllegalStateException("A LockExpirationSweeper is already attached to this service");
+            }
+            this.expirationSweeper = sweeper;
+        }
+    }
+
+    /**
+     * Releases the lock if its current grant has expired.
+     * 
+     * @return <code>true</code> if the lock was released by this call.
+     */
+    boolean releaseIfExpired(final IEntityLock lock, final long now) {
+        final EntityLock entityLock = this.checkLock(lock);
+        for (;;) {
+            final Grant[] current = this.locks.get(entityLock.entity);
+            final Grant grant = find(current, entityLock);
+            if (grant == null || !grant.isExpired(now)) {
+                return false;
+            }
+
+            if (this.swap(entityLock.entity, current, live(current, now, entityLock))) {
+                this.firePruned(current, now, entityLock);
+                return true;
+            }
+        }
+    }
+
+    private void scheduleExpiration(final EntityLock lock, final Grant grant) {
+        final LockExpirationSweeper sweeper = this.expirationSweeper;
+        if (sweeper != null) {
+            sweeper.schedule(lock, grant.sequence, grant.expires);
+        }
+    }
+
+    /**
+     * Reports the expired grants, other than the one for <code>exclude</code>,
+     * that a state change dropped to the sweeper so its listeners hear about
+     * every expiration, not only the ones the sweeper finds first.
+     */
+    private void firePruned(final Grant[] previous, final long now, final EntityLock exclude) {
+        final LockExpirationSweeper sweeper = this.expirationSweeper;
+        if (sweeper == null || previous == null) {
+            return;
+        }
+
+        for (final Grant grant : previous) {
+            if (grant.lock != exclude && grant.isExpired(now)) {
+                sweeper.expired(grant.lock);
+            }
+        }
+    }
+
+    /**
+     * Renews and optionally converts a lock.
+     * 
+     * @param newType The new lock type, <code>null</code> to keep the current type.
+     */
+    private void update(final EntityLock lock, final LockType newType, final int duration) throws LockingException {
+        checkDuration(duration);
+
+        for (;;) {
+            final long now = System.currentTimeMillis();
+            final Grant[] current = this.locks.get(lock.entity);
+
+            final Grant existing = find(current, lock);
+            if (existing == null || existing.isExpired(now)) {
+                throw new EntityLockException("Lock on " + lock.entity + " held by " + lock.getLockOwner() + " is no longer valid");
+            }
+
+            final Grant[] others = live(current, now, lock);
+            final LockType lockType = newType == null ? existing.lockType : newType;
+            if (LockType.WRITE_LOCK.equals(lockType) && others.length > 0) {
+                throw new EntityLockException("Can't convert lock on " + lock.entity + " held by " + lock.getLockOwner() + " to " + lockType + ", " + others[0].lock.getLockOwner() + " holds " + others[0].lockType);
+            }
+
+            final Grant grant = new Grant(lock, lockType, now + TimeUnit.SECONDS.toMillis(duration), lock.grantCount.incrementAndGet());
+            if (this.swap(lock.entity, current, append(others, grant))) {
+                lock.lastGrant = grant;
+                this.scheduleExpiration(lock, grant);
+                this.firePruned(current, now, lock);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Installs the new state for the entity if its state is still <code>expected</code>.
+     */
+    private boolean swap(final EntityKey entity, final Grant[] expected, final Grant[] next) {
+        if (expected == null) {
+            return next.length == 0 || this.locks.putIfAbsent(entity, next) == null;
+        }
+        if (next.length == 0) {
+            return this.locks.remove(entity, expected);
+        }
+        return this.locks.replace(entity, expected, next);
+    }
+
+    private EntityLock checkLock(final IEntityLock lock) {
+        if (!(lock instanceof EntityLock) || ((EntityLock)lock).service != this) {
+            throw new IllegalArgumentException("The lock was not issued by this service: " + lock);
+        }
+        return (EntityLock)lock;
+    }
+
+    private static void checkDuration(final int duration) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration must be greater than 0");
+        }
+    }
+
+    private static Grant find(final Grant[] grants, final EntityLock lock) {
+        if (grants != null) {
+            for (final Grant grant : grants) {
+                if (grant.lock == lock) {
+                    return grant;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The grants that haven't expired, leaving out the one for <code>exclude</code>.
+     */
+    private static Grant[] live(final Grant[] grants, final long now, final EntityLock exclude) {
+        if (grants == null) {
+            return NO_GRANTS;
+        }
+
+        int liveCount = 0;
+        for (final Grant grant : grants) {
+            if (grant.lock != exclude && !grant.isExpired(now)) {
+                liveCount++;
+            }
+        }
+        if (liveCount == grants.length) {
+            return grants;
+        }
+
+        final Grant[] live = new Grant[liveCount];
+        int index = 0;
+        for (final Grant grant : grants) {
+            if (grant.lock != exclude && !grant.isExpired(now)) {
+                live[index++] = grant;
+            }
+        }
+        return live;
+    }
+
+    private static Grant[] append(final Grant[] grants, final Grant grant) {
+        final Grant[] appended = new Grant[grants.length + 1];
+        System.arraycopy(grants, 0, appended, 0, grants.length);
+        appended[grants.length] = grant;
+        return appended;
+    }
+
+
+    /**
+     * Type and key of a locked entity.
+     */
+    private static final class EntityKey {
+        private final Class<? extends IBasicEntity> type;
+        private final String key;
+
+        public EntityKey(final Class<? extends IBasicEntity> type, final String key) {
+            this.type = type;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof EntityKey)) {
+                return false;
+            }
+
+            final EntityKey other = (EntityKey)obj;
+            return this.type == other.type && this.key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.type.hashCode() + this.key.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.type.getName() + "(" + this.key + ")";
+        }
+    }
+
+    /**
+     * Immutable record of a lock's type and expiration at one point in time.
+     * A grant is built from the entity's state after the lock's previous
+     * grant was installed, so the sequence numbers a lock's grants are built
+     * with follow the order they were installed in.
+     */
+    private static final class Grant {
+        private final EntityLock lock;
+        private final LockType lockType;
+        private final long expires;
+        private final long sequence;
+
+        public Grant(final EntityLock lock, final LockType lockType, final long expires, final long sequence) {
+            this.lock = lock;
+            this.lockType = lockType;
+            this.expires = expires;
+            this.sequence = sequence;
+        }
+
+        public boolean isExpired(final long now) {
+            return now >= this.expires;
+        }
+    }
+
+    /**
+     * The lock handed to callers, all operations go through the service.
+     */
+    private static final class EntityLock implements IEntityLock {
+        private final InMemoryEntityLockService service;
+        private final EntityKey entity;
+        private final String owner;
+        /** The most recent grant installed for this lock */
+        private volatile Grant lastGrant;
+        /** Numbers the grants built for this lock */
+        private final AtomicLong grantCount = new AtomicLong();
+
+        public EntityLock(final InMemoryEntityLockService service, final EntityKey entity, final String owner) {
+            this.service = service;
+            this.entity = entity;
+            this.owner = owner;
+        }
+
+        public void convert(final LockType newType) throws LockingException {
+            this.service.convert(this, newType);
+        }
+
+        public void convert(final LockType newType, final int newDuration) throws LockingException {
+            this.service.convert(this, newType, newDuration);
+        }
+
+        public String getEntityKey() {
+            return this.entity.key;
+        }
+
+        public Class<? extends IBasicEntity> getEntityType() {
+            return this.entity.type;
+        }
+
+        public Date getExpirationTime() {
+            return new Date(this.lastGrant.expires);
+        }
+
+        public String getLockOwner() {
+            return this.owner;
+        }
+
+        public LockType getLockType() {
+            return this.lastGrant.lockType;
+        }
+
+        public boolean isValid() {
+            return this.service.isValid(this);
+        }
+
+        public void release() {
+            this.service.release(this);
+        }
+
+        public void renew() throws LockingException {
+            this.service.renew(this);
+        }
+
+        public void renew(final int duration) throws LockingException {
+            this.service.renew(this, duration);
+        }
+
+        @Override
+        public String toString() {
+            final Grant grant = this.lastGrant;
+            return "EntityLock[" + this.entity + ", owner=" + this.owner + ", type=" + (grant == null ? null : grant.lockType) + ", expires=" + (grant == null ? null : new Date(grant.expires)) + "]";
+        }
+    }
+}
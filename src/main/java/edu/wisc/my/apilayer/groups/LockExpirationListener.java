@@ -0,0 +1,39 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+
+/**
+ * Notified by a {@link LockExpirationSweeper} when it releases a lock that
+ * has expired. Holders of an {@link ILockableEntityGroup} can compare the
+ * lock with {@link ILockableEntityGroup#getLock()} to learn that their lock
+ * is gone.
+ * 
+ * @since 1.3
+ */
+public interface LockExpirationListener {
+    /**
+     * Called after the lock has been released, on the sweeper's thread or on
+     * the thread whose lock operation dropped the expired lock.
+     * 
+     * @param lock The lock that expired.
+     */
+    public void lockExpired(IEntityLock lock);
+}
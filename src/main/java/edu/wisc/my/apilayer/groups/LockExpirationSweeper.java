@@ -0,0 +1,257 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Releases the locks of an {@link InMemoryEntityLockService} as they expire
+ * and notifies {@link LockExpirationListener}s of each lock it releases. Locks
+ * the service drops because they expired before the sweeper got to them,
+ * while granting or releasing another lock on the entity, are reported too.
+ * <p>
+ * Outstanding locks are tracked in a hierarchical timing wheel so tracking
+ * a grant, cancelling it when the lock is renewed or released and finding
+ * the locks that have expired each cost the same no matter how many locks
+ * are held. Expiration is detected to within one tick.
+ * <p>
+ * The sweeper can run on its own daemon thread via {@link #start()} or be
+ * driven by calling {@link #sweep()} from an existing scheduler.
+ * 
+ * @since 1.3
+ */
+public class LockExpirationSweeper {
+    private static final int DEFAULT_WHEEL_SIZE = 64;
+
+    private final InMemoryEntityLockService lockService;
+    private final long tickMillis;
+    private final List<LockExpirationListener> listeners = new CopyOnWriteArrayList<LockExpirationListener>();
+    private final AtomicLong reapedCount = new AtomicLong();
+
+    /** Guarded by itself, as are the scheduled timeouts */
+    private final HierarchicalTimingWheel<IEntityLock> wheel;
+    private final Map<IEntityLock, ScheduledGrant> timeouts = new HashMap<IEntityLock, ScheduledGrant>();
+
+    private ScheduledExecutorService executorService = null;
+
+    /**
+     * Creates a sweeper with a 1 second tick.
+     * 
+     * @param lockService The service to release expired locks from.
+     */
+    public LockExpirationSweeper(final InMemoryEntityLockService lockService) {
+        this(lockService, 1000, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param lockService The service to release expired locks from.
+     * @param tickMillis The resolution of expiration, in milliseconds.
+     * @param wheelSize The number of buckets on each level of the timing wheel.
+     */
+    public LockExpirationSweeper(final InMemoryEntityLockService lockService, final long tickMillis, final int wheelSize) {
+        if (lockService == null) {
+            throw new IllegalArgumentException("lockService may not be null");
+        }
+
+        this.lockService = lockService;
+        this.tickMillis = tickMillis;
+        this.wheel = new HierarchicalTimingWheel<IEntityLock>(tickMillis, wheelSize, System.currentTimeMillis());
+        lockService.setExpirationSweeper(this);
+    }
+
+    public void addListener(final LockExpirationListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(final LockExpirationListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Starts sweeping once per tick on a daemon thread.
+     */
+    public synchronized void start() {
+        if (this.executorService != null) {
+            return;
+        }
+
+        this.executorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "LockExpirationSweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executorService.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                LockExpirationSweeper.this.sweep();
+            }
+        }, this.tickMillis, this.tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the thread started by {@link #start()}. Locks continue to be
+     * tracked and can still be swept by calling {@link #sweep()}.
+     */
+    public synchronized void stop() {
+        if (this.executorService != null) {
+            this.executorService.shutdownNow();
+            this.executorService = null;
+        }
+    }
+
+    /**
+     * Releases every tracked lock that has expired and notifies the listeners.
+     * 
+     * @return The number of locks released.
+     */
+    public int sweep() {
+        final long now = System.currentTimeMillis();
+
+        final List<IEntityLock> expired = new ArrayList<IEntityLock>();
+        synchronized (this.wheel) {
+            this.wheel.advance(now, expired);
+            for (final IEntityLock lock : expired) {
+                this.timeouts.remove(lock);
+            }
+        }
+
+        int released = 0;
+        for (final IEntityLock lock : expired) {
+            //The lock may have been renewed after the wheel expired it
+            if (this.lockService.releaseIfExpired(lock, now)) {
+                released++;
+                this.fireLockExpired(lock);
+            }
+        }
+
+        this.reapedCount.addAndGet(released);
+        return released;
+    }
+
+    /**
+     * @return The number of locks currently tracked.
+     */
+    public int getTrackedCount() {
+        synchronized (this.wheel) {
+            return this.wheel.size();
+        }
+    }
+
+    /**
+     * @return The number of expired locks released by this sweeper.
+     */
+    public long getReapedCount() {
+        return this.reapedCount.get();
+    }
+
+    /**
+     * Tracks a new or renewed grant, replacing any earlier grant for the lock.
+     * Renewals racing each other may report their grants out of order, a
+     * grant installed before the one already tracked is ignored, even if it
+     * expires later, a renewal may shorten a lock.
+     * 
+     * @param sequence Orders the grants of the lock, later grants have larger numbers.
+     */
+    void schedule(final IEntityLock lock, final long sequence, final long expires) {
+        final List<IEntityLock> expired = new ArrayList<IEntityLock>(0);
+        synchronized (this.wheel) {
+            final ScheduledGrant previous = this.timeouts.get(lock);
+            if (previous != null) {
+                if (previous.sequence >= sequence) {
+                    return;
+                }
+                this.timeouts.remove(lock);
+                this.wheel.cancel(previous.timeout);
+            }
+
+            final HierarchicalTimingWheel.Timeout<IEntityLock> timeout = this.wheel.schedule(lock, expires, expired);
+            if (expired.isEmpty()) {
+                this.timeouts.put(lock, new ScheduledGrant(timeout, sequence));
+            }
+        }
+
+        //The wheel's clock has already passed the expiration
+        if (!expired.isEmpty() && this.lockService.releaseIfExpired(lock, System.currentTimeMillis())) {
+            this.reapedCount.incrementAndGet();
+            this.fireLockExpired(lock);
+        }
+    }
+
+    /**
+     * Stops tracking a lock that was released.
+     */
+    void cancel(final IEntityLock lock) {
+        synchronized (this.wheel) {
+            final ScheduledGrant scheduled = this.timeouts.remove(lock);
+            if (scheduled != null) {
+                this.wheel.cancel(scheduled.timeout);
+            }
+        }
+    }
+
+    /**
+     * Stops tracking a lock the service dropped from an entity's state
+     * because it had expired and notifies the listeners, as if a sweep had
+     * released it.
+     */
+    void expired(final IEntityLock lock) {
+        this.cancel(lock);
+        this.reapedCount.incrementAndGet();
+        this.fireLockExpired(lock);
+    }
+
+    private void fireLockExpired(final IEntityLock lock) {
+        for (final LockExpirationListener listener : this.listeners) {
+            try {
+                listener.lockExpired(lock);
+            }
+            catch (RuntimeException re) {
+                //Don't let one listener stop the others or the sweep
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, re);
+            }
+        }
+    }
+
+
+    /**
+     * The timeout tracking a grant and the grant's place in the lock's sequence.
+     */
+    private static final class ScheduledGrant {
+        private final HierarchicalTimingWheel.Timeout<IEntityLock> timeout;
+        private final long sequence;
+
+        public ScheduledGrant(final HierarchicalTimingWheel.Timeout<IEntityLock> timeout, final long sequence) {
+            this.timeout = timeout;
+            this.sequence = sequence;
+        }
+    }
+}
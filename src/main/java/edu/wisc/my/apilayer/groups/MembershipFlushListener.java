@@ -0,0 +1,43 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.List;
+
+
+/**
+ * Notified by a {@link MembershipWriteBuffer} when it drops a batch of
+ * changes the store kept rejecting. The changes are no longer visible
+ * through wrapped groups, the listener can log them or queue them for
+ * repair.
+ * 
+ * @since 1.3
+ */
+public interface MembershipFlushListener {
+    /**
+     * Called on the flushing thread after the changes have been dropped.
+     * 
+     * @param groupKey The key of the group the changes were made to.
+     * @param addedMembers The members the dropped changes added.
+     * @param removedMembers The members the dropped changes removed.
+     * @param cause The failure of the last attempt to commit the changes.
+     */
+    public void changesDropped(String groupKey, List<IGroupMember> addedMembers, List<IGroupMember> removedMembers, Exception cause);
+}
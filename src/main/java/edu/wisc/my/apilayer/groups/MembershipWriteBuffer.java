@@ -0,0 +1,633 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.wisc.my.apilayer.internal.IGroupServices;
+
+
+/**
+ * Write-behind buffer for group memberships. Groups wrapped by
+ * {@link #wrap(IEntityGroup)} don't commit their member changes to the store
+ * on {@link IEntityGroup#updateMembers()}. The changes are instead collected
+ * per group key, so changes made through any number of instances of the same
+ * group are coalesced, and committed with a single
+ * {@link IEntityGroup#updateMembers()} once the group has had changes waiting
+ * for the flush delay or has collected the batch size of changes. Group
+ * instances aren't thread safe, so each flush commits through an instance
+ * it finds with {@link IGroupServices#findGroup(String)}, never through an
+ * instance the changes were made to.
+ * <p>
+ * Wrapped groups answer {@link IEntityGroup#contains(IGroupMember)},
+ * {@link IEntityGroup#getMembers()} and the other direct membership reads
+ * with the waiting changes applied, so code in this JVM reads its own writes.
+ * Deep membership reads such as {@link IEntityGroup#deepContains(IGroupMember)}
+ * only see changes once they are flushed.
+ * <p>
+ * Changes are checked by the store when they are flushed, not when they are
+ * made. If a flush fails its changes are kept, the failure is available from
+ * {@link #getLastFailure()} and the failed changes are retried on their own
+ * after the flush delay, newer changes to the group wait for them. A batch
+ * that still fails after the maximum retries is dropped and reported to the
+ * {@link MembershipFlushListener}s, so a change the store always rejects
+ * doesn't hold up the group, as are the changes of a group that no longer
+ * exists. Group implementations must keep the changes of a failed
+ * {@link IEntityGroup#updateMembers()} uncommitted.
+ * {@link #flush(String)} and {@link #flushAll()} commit changes right away
+ * and throw the store's exception. Changes still waiting when the JVM exits
+ * are lost, {@link #shutdown()} flushes them.
+ * 
+ * @since 1.3
+ */
+public class MembershipWriteBuffer {
+    /** Default number of waiting changes for a group that triggers a flush */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    /** Default number of times a failed batch of changes is retried before it is dropped */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final AtomicInteger BUFFER_COUNT = new AtomicInteger();
+
+    private final IGroupServices groupServices;
+    private final int batchSize;
+    private final int maxRetries;
+    private final long flushDelay;
+    private final ConcurrentMap<String, PendingChanges> pendingGroups = new ConcurrentHashMap<String, PendingChanges>();
+    private final ScheduledExecutorService executorService;
+    private final List<MembershipFlushListener> listeners = new CopyOnWriteArrayList<MembershipFlushListener>();
+    private volatile boolean shutdown = false;
+    private volatile Exception lastFailure = null;
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong changeCount = new AtomicLong();
+    private final AtomicLong totalFlushTime = new AtomicLong();
+    private final AtomicLong maxFlushTime = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Creates a buffer using the {@link #DEFAULT_BATCH_SIZE}.
+     * 
+     * @param groupServices The services the groups are found with when their changes are flushed, these must return a new instance per call so not a {@link CachingGroupServices}.
+     * @param flushDelay How long a group's changes may wait before they are flushed.
+     * @param unit The unit of <code>flushDelay</code>.
+     */
+    public MembershipWriteBuffer(final IGroupServices groupServices, final long flushDelay, final TimeUnit unit) {
+        this(groupServices, DEFAULT_BATCH_SIZE, flushDelay, unit);
+    }
+
+    /**
+     * Creates a buffer using the {@link #DEFAULT_MAX_RETRIES}.
+     * 
+     * @param groupServices The services the groups are found with when their changes are flushed, these must return a new instance per call so not a {@link CachingGroupServices}.
+     * @param batchSize The number of waiting changes for a group that triggers a flush.
+     * @param flushDelay How long a group's changes may wait before they are flushed.
+     * @param unit The unit of <code>flushDelay</code>.
+     */
+    public MembershipWriteBuffer(final IGroupServices groupServices, final int batchSize, final long flushDelay, final TimeUnit unit) {
+        this(groupServices, batchSize, DEFAULT_MAX_RETRIES, flushDelay, unit);
+    }
+
+    /**
+     * @param groupServices The services the groups are found with when their changes are flushed, these must return a new instance per call so not a {@link CachingGroupServices}.
+     * @param batchSize The number of waiting changes for a group that triggers a flush.
+     * @param maxRetries How many times a failed batch of changes is retried before it is dropped, 0 to drop it on the first failure.
+     * @param flushDelay How long a group's changes may wait before they are flushed, also the delay between retries.
+     * @param unit The unit of <code>flushDelay</code>.
+     */
+    public MembershipWriteBuffer(final IGroupServices groupServices, final int batchSize, final int maxRetries, final long flushDelay, final TimeUnit unit) {
+        if (groupServices == null) {
+            throw new IllegalArgumentException("groupServices may not be null");
+        }
+        if (batchSize <= 0 || flushDelay <= 0) {
+            throw new IllegalArgumentException("batchSize and flushDelay must be greater than 0");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries may not be negative");
+        }
+
+        this.groupServices = groupServices;
+        this.batchSize = batchSize;
+        this.maxRetries = maxRetries;
+        this.flushDelay = unit.toNanos(flushDelay);
+
+        final String threadName = "MembershipWriteBuffer-" + BUFFER_COUNT.incrementAndGet();
+        this.executorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Wraps the group so its member changes are committed through this
+     * buffer. Lockable groups are returned as they are since their commits
+     * renew their lock.
+     * 
+     * @param group The group to wrap, may be null.
+     * @return The wrapped group, null if the group is null.
+     */
+    public IEntityGroup wrap(final IEntityGroup group) {
+        if (group == null || group instanceof ILockableEntityGroup) {
+            return group;
+        }
+        if (group instanceof WriteBehindEntityGroup && ((WriteBehindEntityGroup)group).getBuffer() == this) {
+            return group;
+        }
+        return new WriteBehindEntityGroup(WriteBehindEntityGroup.unwrap(group), this);
+    }
+
+    /**
+     * Commits the waiting changes of the group now.
+     * 
+     * @param key The key of the group.
+     * @throws GroupsException If the store fails, the changes are kept unless they were retried the maximum times.
+     */
+    public void flush(final String key) throws GroupsException {
+        final PendingChanges pending = this.pendingGroups.get(key);
+        if (pending != null) {
+            this.flush(key, pending);
+        }
+    }
+
+    /**
+     * Commits the waiting changes of every group now. Every group is tried
+     * even if some fail.
+     * 
+     * @throws GroupsException The first failure, the changes of failed groups are kept.
+     */
+    public void flushAll() throws GroupsException {
+        GroupsException firstFailure = null;
+        for (final Map.Entry<String, PendingChanges> pendingEntry : this.pendingGroups.entrySet()) {
+            try {
+                this.flush(pendingEntry.getKey(), pendingEntry.getValue());
+            }
+            catch (GroupsException ge) {
+                if (firstFailure == null) {
+                    firstFailure = ge;
+                }
+            }
+        }
+
+        if (firstFailure != null) {
+            throw firstFailure;
+        }
+    }
+
+    /**
+     * Discards the waiting and failed changes of the group, for example when
+     * it is deleted.
+     * 
+     * @param key The key of the group.
+     */
+    public void discard(final String key) {
+        final PendingChanges pending = this.pendingGroups.get(key);
+        if (pending != null) {
+            synchronized (pending) {
+                pending.changes.clear();
+                pending.failed.clear();
+                this.removeIfEmpty(key, pending);
+            }
+        }
+    }
+
+    /**
+     * Stops the flush thread and commits every waiting change. Changes
+     * committed afterwards are flushed right away.
+     * 
+     * @throws GroupsException The first failure while flushing.
+     */
+    public void shutdown() throws GroupsException {
+        this.shutdown = true;
+        this.executorService.shutdown();
+        this.flushAll();
+    }
+
+    /**
+     * @return The number of groups with changes waiting to be flushed.
+     */
+    public int getPendingGroupCount() {
+        return this.pendingGroups.size();
+    }
+
+    /**
+     * @return The exception of the last failed flush, null if none has failed.
+     */
+    public Exception getLastFailure() {
+        return this.lastFailure;
+    }
+
+    /**
+     * @return A snapshot of the flush counters and latencies.
+     */
+    public FlushStatistics getStatistics() {
+        return new FlushStatistics(this.flushCount.get(), this.failureCount.get(), this.changeCount.get(), this.droppedCount.get(), this.totalFlushTime.get(), this.maxFlushTime.get(), this.pendingGroups.size());
+    }
+
+    /**
+     * @param listener Notified when failed changes are dropped.
+     */
+    public void addListener(final MembershipFlushListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener may not be null");
+        }
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(final MembershipFlushListener listener) {
+        this.listeners.remove(listener);
+    }
+
+
+    /**
+     * Adds the changes committed through an instance of the group, later
+     * changes to a member replace earlier ones.
+     * 
+     * @param key The key of the group the changes were made to.
+     * @param changes The changes in the order they were made.
+     */
+    void commit(final String key, final Collection<Change> changes) throws GroupsException {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        PendingChanges pending;
+        boolean wasEmpty;
+        int size;
+        while (true) {
+            pending = this.pendingGroups.get(key);
+            if (pending == null) {
+                final PendingChanges newPending = new PendingChanges();
+                pending = this.pendingGroups.putIfAbsent(key, newPending);
+                if (pending == null) {
+                    pending = newPending;
+                }
+            }
+
+            synchronized (pending) {
+                if (!pending.removed) {
+                    wasEmpty = pending.changes.isEmpty();
+                    for (final Change change : changes) {
+                        //Remove first so the change moves to the end
+                        pending.changes.remove(change.memberKey);
+                        pending.changes.put(change.memberKey, change);
+                    }
+                    size = pending.changes.size();
+                    break;
+                }
+            }
+        }
+
+        if (this.shutdown || size >= this.batchSize) {
+            this.flush(key, pending);
+        }
+        else if (wasEmpty) {
+            this.schedule(key);
+        }
+    }
+
+    /**
+     * @return The waiting change to the member of the group, null if there is none.
+     */
+    Change getPendingChange(final String key, final MemberKey memberKey) {
+        final PendingChanges pending = this.pendingGroups.get(key);
+        if (pending == null) {
+            return null;
+        }
+
+        synchronized (pending) {
+            Change change = pending.changes.get(memberKey);
+            if (change == null && pending.flushing != null) {
+                change = pending.flushing.get(memberKey);
+            }
+            if (change == null) {
+                change = pending.failed.get(memberKey);
+            }
+            return change;
+        }
+    }
+
+    /**
+     * Applies the waiting changes of the group to its members.
+     */
+    void applyPendingChanges(final String key, final Map<MemberKey, IGroupMember> members) {
+        final PendingChanges pending = this.pendingGroups.get(key);
+        if (pending == null) {
+            return;
+        }
+
+        synchronized (pending) {
+            applyChanges(pending.failed.values(), members);
+            if (pending.flushing != null) {
+                applyChanges(pending.flushing.values(), members);
+            }
+            applyChanges(pending.changes.values(), members);
+        }
+    }
+
+    static void applyChanges(final Collection<Change> changes, final Map<MemberKey, IGroupMember> members) {
+        for (final Change change : changes) {
+            if (change.add) {
+                members.put(change.memberKey, change.member);
+            }
+            else {
+                members.remove(change.memberKey);
+            }
+        }
+    }
+
+    private void schedule(final String key) {
+        if (this.shutdown) {
+            return;
+        }
+
+        this.executorService.schedule(new Runnable() {
+            public void run() {
+                try {
+                    MembershipWriteBuffer.this.flush(key);
+                }
+                catch (GroupsException ge) {
+                    //Recorded as the last failure and retried by flush
+                }
+                catch (RuntimeException re) {
+                    //Recorded as the last failure and retried by flush
+                }
+            }
+        }, this.flushDelay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Retries the changes that failed before, unless newer changes replaced
+     * them, then commits the changes waiting when the flush starts. Flushes
+     * of a group are serialized, changes committed meanwhile wait for the
+     * next flush, and newer changes wait for a failed batch until it is
+     * committed or dropped. If a batch fails a retry is scheduled, whichever
+     * thread ran it.
+     */
+    private void flush(final String key, final PendingChanges pending) throws GroupsException {
+        synchronized (pending.flushLock) {
+            boolean flushed = false;
+            try {
+                this.flushBatch(key, pending, true);
+                this.flushBatch(key, pending, false);
+                flushed = true;
+            }
+            finally {
+                if (!flushed) {
+                    this.schedule(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits one batch, either the changes that failed before or the
+     * changes committed since the last flush. Must be called holding the
+     * flush lock of the pending changes.
+     * 
+     * @param retry true to commit the failed changes.
+     */
+    private void flushBatch(final String key, final PendingChanges pending, final boolean retry) throws GroupsException {
+        final List<Change> changes;
+        synchronized (pending) {
+            final Map<MemberKey, Change> batch;
+            if (retry) {
+                //Newer changes to the same members replace the failed ones
+                pending.failed.keySet().removeAll(pending.changes.keySet());
+                batch = pending.failed;
+                pending.failed = new LinkedHashMap<MemberKey, Change>();
+            }
+            else {
+                batch = pending.changes;
+                pending.changes = new LinkedHashMap<MemberKey, Change>();
+            }
+
+            if (batch.isEmpty()) {
+                pending.failedAttempts = 0;
+                this.removeIfEmpty(key, pending);
+                return;
+            }
+
+            pending.flushing = batch;
+            changes = new ArrayList<Change>(batch.values());
+        }
+
+        final long start = System.nanoTime();
+        Exception failure = null;
+        try {
+            //A fresh instance, so a failed batch leaves nothing behind and callers' instances aren't shared
+            final IEntityGroup group = WriteBehindEntityGroup.unwrap(this.groupServices.findGroup(key));
+            if (group == null) {
+                throw new IllegalStateException("Group '" + key + "' no longer exists");
+            }
+
+            for (final Change change : changes) {
+                if (change.add) {
+                    group.addMember(change.member);
+                }
+                else {
+                    group.removeMember(change.member);
+                }
+            }
+            group.updateMembers();
+        }
+        catch (GroupsException ge) {
+            failure = ge;
+            throw ge;
+        }
+        catch (RuntimeException re) {
+            failure = re;
+            throw re;
+        }
+        finally {
+            this.recordFlush(System.nanoTime() - start, failure == null ? changes.size() : -1);
+
+            boolean dropped = false;
+            if (failure != null) {
+                this.lastFailure = failure;
+            }
+
+            synchronized (pending) {
+                if (failure == null) {
+                    pending.failedAttempts = 0;
+                }
+                else if (pending.failedAttempts < this.maxRetries) {
+                    //Only one batch fails at a time, the failed map is empty here
+                    pending.failed = pending.flushing;
+                    pending.failedAttempts++;
+                }
+                else {
+                    pending.failedAttempts = 0;
+                    dropped = true;
+                }
+                pending.flushing = null;
+                this.removeIfEmpty(key, pending);
+            }
+
+            if (dropped) {
+                this.droppedCount.addAndGet(changes.size());
+                this.fireChangesDropped(key, changes, failure);
+            }
+        }
+    }
+
+    private void fireChangesDropped(final String key, final List<Change> changes, final Exception cause) {
+        final List<IGroupMember> addedMembers = new ArrayList<IGroupMember>();
+        final List<IGroupMember> removedMembers = new ArrayList<IGroupMember>();
+        for (final Change change : changes) {
+            if (change.add) {
+                addedMembers.add(change.member);
+            }
+            else {
+                removedMembers.add(change.member);
+            }
+        }
+
+        for (final MembershipFlushListener listener : this.listeners) {
+            try {
+                listener.changesDropped(key, addedMembers, removedMembers, cause);
+            }
+            catch (RuntimeException re) {
+                //Don't let one listener stop the others or the flush
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, re);
+            }
+        }
+    }
+
+    /**
+     * @param changes The number of changes committed, negative if the flush failed.
+     */
+    private void recordFlush(final long flushTime, final int changes) {
+        this.flushCount.incrementAndGet();
+        this.totalFlushTime.addAndGet(flushTime);
+        if (changes < 0) {
+            this.failureCount.incrementAndGet();
+        }
+        else {
+            this.changeCount.addAndGet(changes);
+        }
+
+        long max = this.maxFlushTime.get();
+        while (flushTime > max && !this.maxFlushTime.compareAndSet(max, flushTime)) {
+            max = this.maxFlushTime.get();
+        }
+    }
+
+    /**
+     * Must be called holding the lock of the pending changes.
+     */
+    private void removeIfEmpty(final String key, final PendingChanges pending) {
+        if (pending.changes.isEmpty() && pending.failed.isEmpty() && pending.flushing == null) {
+            pending.removed = true;
+            this.pendingGroups.remove(key, pending);
+        }
+    }
+
+
+    /**
+     * The changes waiting for one group, guarded by itself. Once removed it
+     * is never reused, commits racing with the removal start over with a new
+     * one.
+     */
+    private static final class PendingChanges {
+        private final Object flushLock = new Object();
+        private Map<MemberKey, Change> changes = new LinkedHashMap<MemberKey, Change>();
+        private Map<MemberKey, Change> flushing = null;
+        private Map<MemberKey, Change> failed = new LinkedHashMap<MemberKey, Change>();
+        private int failedAttempts = 0;
+        private boolean removed = false;
+    }
+
+    /**
+     * Identifies a member by kind, leaf type and key, the member
+     * implementations don't have to define equality.
+     */
+    static final class MemberKey {
+        private final boolean group;
+        private final Class<? extends IBasicEntity> leafType;
+        private final String key;
+        private final int hash;
+
+        public MemberKey(final IGroupMember member) {
+            this.group = member.isGroup();
+            this.leafType = member.getLeafType();
+            this.key = member.getKey();
+
+            int h = this.key.hashCode();
+            h = 31 * h + (this.leafType == null ? 0 : this.leafType.hashCode());
+            this.hash = this.group ? ~h : h;
+        }
+
+        /* 
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof MemberKey)) {
+                return false;
+            }
+
+            final MemberKey other = (MemberKey)o;
+            return this.hash == other.hash && this.group == other.group && this.leafType == other.leafType && this.key.equals(other.key);
+        }
+
+        /*
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * Adding or removing a member.
+     */
+    static final class Change {
+        final MemberKey memberKey;
+        final IGroupMember member;
+        final boolean add;
+
+        public Change(final IGroupMember member, final boolean add) {
+            this.memberKey = new MemberKey(member);
+            this.member = member;
+            this.add = add;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Runs the searches of an {@link ICompositeGroupService} against all of its
+ * leaf component services concurrently, so a search takes as long as the
+ * slowest service rather than the sum of all of them.
+ * <p>
+ * Each search waits at most the configured timeout for the component
+ * services. Services that haven't answered by then are cancelled and left
+ * out of the results. If a service fails its {@link GroupsException} is
+ * rethrown once the other services have been cancelled. Results are merged
+ * in component service order with duplicates removed.
+ * 
+ * @since 1.3
+ */
+public class ParallelCompositeSearch {
+    private final ExecutorService executorService;
+    private final long timeout;
+    private final TimeUnit timeoutUnit;
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * @param executorService Runs the component service searches. It should allow at least as many concurrent tasks as there are leaf services.
+     * @param timeout How long a search waits for the component services.
+     * @param timeoutUnit The unit of <code>timeout</code>.
+     */
+    public ParallelCompositeSearch(final ExecutorService executorService, final long timeout, final TimeUnit timeoutUnit) {
+        if (executorService == null || timeoutUnit == null) {
+            throw new IllegalArgumentException("executorService and timeoutUnit may not be null");
+        }
+
+        this.executorService = executorService;
+        this.timeout = timeout;
+        this.timeoutUnit = timeoutUnit;
+    }
+
+    /**
+     * @return The number of component service searches that have been abandoned for taking longer than the timeout.
+     */
+    public long getTimeoutCount() {
+        return this.timeoutCount.get();
+    }
+
+    /**
+     * @see ICompositeGroupService#searchForGroups(String, SearchMethod, Class)
+     */
+    public IEntityIdentifier[] searchForGroups(final ICompositeGroupService compositeService, final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype) throws GroupsException {
+        return this.search(compositeService, new Search() {
+            public IEntityIdentifier[] search(final ICompositeGroupService service) throws GroupsException {
+                return service.searchForGroups(query, method, leaftype);
+            }
+        });
+    }
+
+    /**
+     * @see ICompositeGroupService#searchForGroups(String, SearchMethod, Class, IEntityGroup)
+     */
+    public IEntityIdentifier[] searchForGroups(final ICompositeGroupService compositeService, final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype, final IEntityGroup ancestor) throws GroupsException {
+        return this.search(compositeService, new Search() {
+            public IEntityIdentifier[] search(final ICompositeGroupService service) throws GroupsException {
+                return service.searchForGroups(query, method, leaftype, ancestor);
+            }
+        });
+    }
+
+    /**
+     * @see ICompositeGroupService#searchForEntities(String, SearchMethod, Class)
+     */
+    public IEntityIdentifier[] searchForEntities(final ICompositeGroupService compositeService, final String query, final SearchMethod method, final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.search(compositeService, new Search() {
+            public IEntityIdentifier[] search(final ICompositeGroupService service) throws GroupsException {
+                return service.searchForEntities(query, method, type);
+            }
+        });
+    }
+
+    /**
+     * @see ICompositeGroupService#searchForEntities(String, SearchMethod, Class, IEntityGroup)
+     */
+    public IEntityIdentifier[] searchForEntities(final ICompositeGroupService compositeService, final String query, final SearchMethod method, final Class<? extends IBasicEntity> type, final IEntityGroup ancestor) throws GroupsException {
+        return this.search(compositeService, new Search() {
+            public IEntityIdentifier[] search(final ICompositeGroupService service) throws GroupsException {
+                return service.searchForEntities(query, method, type, ancestor);
+            }
+        });
+    }
+
+    /**
+     * Gets the leaf services of the composite service, in component order.
+     * A composite service without components is its own leaf.
+     */
+    protected List<ICompositeGroupService> getLeafServices(final ICompositeGroupService compositeService) {
+        final Map<?, IComponentGroupService> components = compositeService.getComponentServices();
+        if (components == null || components.isEmpty()) {
+            return Collections.singletonList(compositeService);
+        }
+
+        final List<ICompositeGroupService> leafServices = new ArrayList<ICompositeGroupService>();
+        this.collectLeafServices(components, leafServices);
+        return leafServices;
+    }
+
+    private void collectLeafServices(final Map<?, IComponentGroupService> components, final List<ICompositeGroupService> leafServices) {
+        for (final IComponentGroupService component : components.values()) {
+            if (component.isLeafService()) {
+                if (component instanceof ICompositeGroupService) {
+                    leafServices.add((ICompositeGroupService)component);
+                }
+            }
+            else {
+                final Map<?, IComponentGroupService> children = component.getComponentServices();
+                if (children != null) {
+                    this.collectLeafServices(children, leafServices);
+                }
+            }
+        }
+    }
+
+    private IEntityIdentifier[] search(final ICompositeGroupService compositeService, final Search search) throws GroupsException {
+        final List<ICompositeGroupService> leafServices = this.getLeafServices(compositeService);
+        if (leafServices.size() == 1) {
+            return search.search(leafServices.get(0));
+        }
+
+        final List<Future<IEntityIdentifier[]>> futures = new ArrayList<Future<IEntityIdentifier[]>>(leafServices.size());
+        for (final ICompositeGroupService service : leafServices) {
+            futures.add(this.executorService.submit(new Callable<IEntityIdentifier[]>() {
+                public IEntityIdentifier[] call() throws GroupsException {
+                    return search.search(service);
+                }
+            }));
+        }
+
+        final Set<IEntityIdentifier> results = new LinkedHashSet<IEntityIdentifier>();
+        final long deadline = System.nanoTime() + this.timeoutUnit.toNanos(this.timeout);
+        try {
+            for (final Future<IEntityIdentifier[]> future : futures) {
+                final IEntityIdentifier[] serviceResults;
+                try {
+                    serviceResults = future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                catch (TimeoutException te) {
+                    this.timeoutCount.incrementAndGet();
+                    continue;
+                }
+                catch (CancellationException ce) {
+                    continue;
+                }
+                catch (ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    if (cause instanceof GroupsException) {
+                        throw (GroupsException)cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error)cause;
+                    }
+                    throw new IllegalStateException("Component service search failed", cause);
+                }
+
+                if (serviceResults != null) {
+                    Collections.addAll(results, serviceResults);
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            //Return what has been found so far and let the caller see the interrupt
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for (final Future<IEntityIdentifier[]> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return results.toArray(new IEntityIdentifier[results.size()]);
+    }
+
+
+    /**
+     * One of the search methods, run against a single service.
+     */
+    private interface Search {
+        public IEntityIdentifier[] search(ICompositeGroupService service) throws GroupsException;
+    }
+}
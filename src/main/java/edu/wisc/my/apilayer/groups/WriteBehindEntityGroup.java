@@ -0,0 +1,309 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.Name;
+
+import edu.wisc.my.apilayer.groups.MembershipWriteBuffer.Change;
+import edu.wisc.my.apilayer.groups.MembershipWriteBuffer.MemberKey;
+
+
+/**
+ * Wraps an <code>IEntityGroup</code> for a {@link MembershipWriteBuffer}.
+ * Member changes are kept by the wrapper until {@link #updateMembers()}
+ * hands them to the buffer, direct membership reads apply the changes of the
+ * wrapper and those waiting in the buffer to the group's committed members.
+ * 
+ * @since 1.3
+ */
+class WriteBehindEntityGroup implements IEntityGroup {
+    private final IEntityGroup group;
+    private final MembershipWriteBuffer buffer;
+
+    /** Changes not yet committed, guarded by this */
+    private final Map<MemberKey, Change> localChanges = new LinkedHashMap<MemberKey, Change>();
+
+    public WriteBehindEntityGroup(final IEntityGroup group, final MembershipWriteBuffer buffer) {
+        this.group = group;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the wrapped group if the member has been wrapped, otherwise
+     * the member itself.
+     */
+    static IGroupMember unwrap(final IGroupMember gm) {
+        if (gm instanceof WriteBehindEntityGroup) {
+            return ((WriteBehindEntityGroup)gm).group;
+        }
+        return gm;
+    }
+
+    static IEntityGroup unwrap(final IEntityGroup group) {
+        return (IEntityGroup)unwrap((IGroupMember)group);
+    }
+
+    public IEntityGroup getWrappedGroup() {
+        return this.group;
+    }
+
+    MembershipWriteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    public void addMember(final IGroupMember gm) throws GroupsException {
+        this.addChange(new Change(unwrap(gm), true));
+    }
+
+    public void removeMember(final IGroupMember gm) throws GroupsException {
+        this.addChange(new Change(unwrap(gm), false));
+    }
+
+    /**
+     * Hands the changes to the buffer, they are committed to the store when
+     * the buffer flushes the group.
+     */
+    public void updateMembers() throws GroupsException {
+        this.buffer.commit(this.getKey(), this.takeLocalChanges());
+    }
+
+    /**
+     * Commits the group and every waiting change to its members right away.
+     */
+    public void update() throws GroupsException {
+        this.buffer.commit(this.getKey(), this.takeLocalChanges());
+        this.buffer.flush(this.getKey());
+        this.group.update();
+    }
+
+    public void delete() throws GroupsException {
+        this.takeLocalChanges();
+        this.buffer.discard(this.getKey());
+        this.group.delete();
+    }
+
+    public boolean contains(final IGroupMember gm) throws GroupsException {
+        final IGroupMember member = unwrap(gm);
+        final MemberKey memberKey = new MemberKey(member);
+
+        Change change;
+        synchronized (this) {
+            change = this.localChanges.get(memberKey);
+        }
+        if (change == null) {
+            change = this.buffer.getPendingChange(this.getKey(), memberKey);
+        }
+        if (change != null) {
+            return change.add;
+        }
+
+        return this.group.contains(member);
+    }
+
+    public Iterator<IGroupMember> getMembers() throws GroupsException {
+        return this.getMemberMap().values().iterator();
+    }
+
+    public Iterator<IEntity> getEntities() throws GroupsException {
+        final List<IEntity> entities = new ArrayList<IEntity>();
+        for (final IGroupMember member : this.getMemberMap().values()) {
+            if (!member.isGroup()) {
+                entities.add((IEntity)member);
+            }
+        }
+        return entities.iterator();
+    }
+
+    public IEntityGroup getMemberGroupNamed(final String name) throws GroupsException {
+        for (final IGroupMember member : this.getMemberMap().values()) {
+            if (member.isGroup() && name.equals(((IEntityGroup)member).getName())) {
+                return (IEntityGroup)member;
+            }
+        }
+        return null;
+    }
+
+    public boolean hasMembers() throws GroupsException {
+        return !this.getMemberMap().isEmpty();
+    }
+
+    public String getCreatorID() {
+        return this.group.getCreatorID();
+    }
+
+    public String getDescription() {
+        return this.group.getDescription();
+    }
+
+    public String getLocalKey() {
+        return this.group.getLocalKey();
+    }
+
+    public String getName() {
+        return this.group.getName();
+    }
+
+    public Name getServiceName() {
+        return this.group.getServiceName();
+    }
+
+    public boolean isEditable() throws GroupsException {
+        return this.group.isEditable();
+    }
+
+    public void setCreatorID(final String userID) {
+        this.group.setCreatorID(userID);
+    }
+
+    public void setDescription(final String name) {
+        this.group.setDescription(name);
+    }
+
+    public void setName(final String name) throws GroupsException {
+        this.group.setName(name);
+    }
+
+    public void setLocalGroupService(final IIndividualGroupService groupService) throws GroupsException {
+        this.group.setLocalGroupService(groupService);
+    }
+
+    public boolean deepContains(final IGroupMember gm) throws GroupsException {
+        return this.group.deepContains(unwrap(gm));
+    }
+
+    public Iterator<IEntityGroup> getAllContainingGroups() throws GroupsException {
+        return this.group.getAllContainingGroups();
+    }
+
+    public Iterator<IEntity> getAllEntities() throws GroupsException {
+        return this.group.getAllEntities();
+    }
+
+    public Iterator<IGroupMember> getAllMembers() throws GroupsException {
+        return this.group.getAllMembers();
+    }
+
+    public Iterator<IEntityGroup> getContainingGroups() throws GroupsException {
+        return this.group.getContainingGroups();
+    }
+
+    public Class<? extends IBasicEntity> getEntityType() {
+        return this.group.getEntityType();
+    }
+
+    public String getKey() {
+        return this.group.getKey();
+    }
+
+    public Class<? extends IBasicEntity> getLeafType() {
+        return this.group.getLeafType();
+    }
+
+    public Class<? extends IBasicEntity> getType() {
+        return this.group.getType();
+    }
+
+    public IEntityIdentifier getUnderlyingEntityIdentifier() {
+        return this.group.getUnderlyingEntityIdentifier();
+    }
+
+    public boolean isDeepMemberOf(final IGroupMember gm) throws GroupsException {
+        return this.group.isDeepMemberOf(unwrap(gm));
+    }
+
+    public boolean isEntity() {
+        return this.group.isEntity();
+    }
+
+    public boolean isGroup() {
+        return this.group.isGroup();
+    }
+
+    public boolean isMemberOf(final IGroupMember gm) throws GroupsException {
+        return this.group.isMemberOf(unwrap(gm));
+    }
+
+    public IEntityIdentifier getEntityIdentifier() {
+        return this.group.getEntityIdentifier();
+    }
+
+    /* 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (o instanceof IGroupMember) {
+            return this.group.equals(unwrap((IGroupMember)o));
+        }
+        return this.group.equals(o);
+    }
+
+    /*
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return this.group.hashCode();
+    }
+
+    /* 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.group.toString();
+    }
+
+
+    private synchronized void addChange(final Change change) {
+        //Remove first so the change moves to the end
+        this.localChanges.remove(change.memberKey);
+        this.localChanges.put(change.memberKey, change);
+    }
+
+    private synchronized List<Change> takeLocalChanges() {
+        final List<Change> changes = new ArrayList<Change>(this.localChanges.values());
+        this.localChanges.clear();
+        return changes;
+    }
+
+    /**
+     * The committed members with the buffered and then the local changes applied.
+     */
+    private Map<MemberKey, IGroupMember> getMemberMap() throws GroupsException {
+        final Map<MemberKey, IGroupMember> members = new LinkedHashMap<MemberKey, IGroupMember>();
+        for (final Iterator<IGroupMember> memberItr = this.group.getMembers(); memberItr.hasNext();) {
+            final IGroupMember member = memberItr.next();
+            members.put(new MemberKey(member), member);
+        }
+
+        this.buffer.applyPendingChanges(this.getKey(), members);
+        synchronized (this) {
+            MembershipWriteBuffer.applyChanges(this.localChanges.values(), members);
+        }
+        return members;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.groups;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+
+import edu.wisc.my.apilayer.internal.IGroupServices;
+
+
+/**
+ * Decorator for a portal's {@link IGroupServices} that commits group
+ * memberships through a {@link MembershipWriteBuffer}. A portal installs it
+ * by returning it from
+ * {@link edu.wisc.my.apilayer.internal.IPortalServices#getGroupServices()},
+ * after which {@link IEntityGroup#updateMembers()} on groups from
+ * {@link GroupService} is coalesced with other changes to the same group and
+ * committed in batches, see {@link MembershipWriteBuffer} for the details.
+ * All other methods go straight to the wrapped services.
+ * 
+ * @since 1.3
+ */
+public class WriteBehindGroupServices implements IGroupServices {
+    private final IGroupServices groupServices;
+    private final MembershipWriteBuffer buffer;
+
+    /**
+     * @param groupServices The services to decorate.
+     * @param buffer The buffer member changes are committed through.
+     */
+    public WriteBehindGroupServices(final IGroupServices groupServices, final MembershipWriteBuffer buffer) {
+        if (groupServices == null || buffer == null) {
+            throw new IllegalArgumentException("groupServices and buffer may not be null");
+        }
+
+        this.groupServices = groupServices;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return The buffer member changes are committed through.
+     */
+    public MembershipWriteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    public IEntityGroup findGroup(final String key) throws GroupsException {
+        return this.buffer.wrap(this.groupServices.findGroup(key));
+    }
+
+    public IEntity getEntity(final String key, final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.groupServices.getEntity(key, type);
+    }
+
+    public IGroupMember getGroupMember(final String key, final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.wrap(this.groupServices.getGroupMember(key, type));
+    }
+
+    public IGroupMember getGroupMember(final IEntityIdentifier underlyingIEntityIdentifier) throws GroupsException {
+        return this.wrap(this.groupServices.getGroupMember(underlyingIEntityIdentifier));
+    }
+
+    public IEntityGroup newGroup(final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.wrap(this.groupServices.newGroup(type));
+    }
+
+    public IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype) throws GroupsException {
+        return this.groupServices.searchForGroups(query, method, leaftype);
+    }
+
+    public IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype, final IEntityGroup ancestor) throws GroupsException {
+        return this.groupServices.searchForGroups(query, method, leaftype, this.unwrap(ancestor));
+    }
+
+    public IEntityIdentifier[] searchForEntities(final String query, final SearchMethod method, final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.groupServices.searchForEntities(query, method, type);
+    }
+
+    public IEntityIdentifier[] searchForEntities(final String query, final SearchMethod method, final Class<? extends IBasicEntity> type, final IEntityGroup ancestor) throws GroupsException {
+        return this.groupServices.searchForEntities(query, method, type, this.unwrap(ancestor));
+    }
+
+    public ILockableEntityGroup findLockableGroup(final String key, final String lockOwner) throws GroupsException {
+        return this.groupServices.findLockableGroup(key, lockOwner);
+    }
+
+    public ICompositeGroupService getCompositeGroupService() throws GroupsException {
+        return this.groupServices.getCompositeGroupService();
+    }
+
+    public IEntityGroup getDistinguishedGroup(final String name) throws GroupsException {
+        return this.wrap(this.groupServices.getDistinguishedGroup(name));
+    }
+
+    public IEntity getEntity(final String key, final Class<? extends IBasicEntity> type, final String service) throws GroupsException {
+        return this.groupServices.getEntity(key, type, service);
+    }
+
+    public IGroupService getGroupService() throws GroupsException {
+        return this.groupServices.getGroupService();
+    }
+
+    public IEntityGroup getRootGroup(final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.wrap(this.groupServices.getRootGroup(type));
+    }
+
+    public boolean isComposite() {
+        return this.groupServices.isComposite();
+    }
+
+    public IEntityGroup newGroup(final Class<? extends IBasicEntity> type, final String serviceName) throws GroupsException {
+        return this.wrap(this.groupServices.newGroup(type, serviceName));
+    }
+
+    public String parseLocalKey(final String compositeKey) throws InvalidNameException, GroupsException {
+        return this.groupServices.parseLocalKey(compositeKey);
+    }
+
+    public Name parseServiceName(final String serviceName) throws InvalidNameException, GroupsException {
+        return this.groupServices.parseServiceName(serviceName);
+    }
+
+    public String getDistinguishedGroupKey(final String name) throws GroupsException {
+        return this.groupServices.getDistinguishedGroupKey(name);
+    }
+
+    public Map<IEntityIdentifier, Set<IEntityGroup>> findContainingGroups(final Collection<IEntityIdentifier> underlyingEntityIdentifiers) throws GroupsException {
+        return this.groupServices.findContainingGroups(underlyingEntityIdentifiers);
+    }
+
+
+
+    private IGroupMember wrap(final IGroupMember member) {
+        if (member instanceof IEntityGroup) {
+            return this.buffer.wrap((IEntityGroup)member);
+        }
+        return member;
+    }
+
+    private IEntityGroup wrap(final IEntityGroup group) {
+        return this.buffer.wrap(group);
+    }
+
+    private IEntityGroup unwrap(final IEntityGroup group) {
+        return WriteBehindEntityGroup.unwrap(group);
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.internal;
+
+import java.util.Collection;
+import java.util.Map;
+
+import edu.wisc.my.apilayer.person.IPerson;
+
+
+/**
+ * Optional extension of <code>IPersonServices</code> for portals whose
+ * attribute sources can find many persons in one operation, such as a single
+ * LDAP <code>OR</code> filter.
+ * 
+ * @see edu.wisc.my.apilayer.person.BulkPersonLookup
+ * @since 1.3
+ */
+public interface IBulkPersonServices extends IPersonServices {
+    /**
+     * @see edu.wisc.my.apilayer.person.PersonServices#getPersonsByUserNames(Collection)
+     */
+    public Map<String, IPerson> getPersonsByUserNames(final Collection<String> userNames);
+    
+    /**
+     * @see edu.wisc.my.apilayer.person.PersonServices#getPersonsByKeys(Collection)
+     */
+    public Map<String, IPerson> getPersonsByKeys(final Collection<String> keys);
+}
@@ -54,6 +54,10 @@
 *******************************************************************************/
 package edu.wisc.my.apilayer.internal;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
 import javax.naming.InvalidNameException;
 
 import edu.wisc.my.apilayer.groups.GroupsException;
@@ -176,4 +180,11 @@ public interface IGroupServices {
      * @see edu.wisc.my.apilayer.groups.GroupService#getDistinguishedGroupKey(String)
      */
     public String getDistinguishedGroupKey(final String name) throws GroupsException;
+    
+    /**
+     * @see edu.wisc.my.apilayer.groups.GroupService#findContainingGroups(Collection)
+     * @see edu.wisc.my.apilayer.groups.BulkContainingGroups
+     * @since 1.3
+     */
+    public Map<IEntityIdentifier, Set<IEntityGroup>> findContainingGroups(final Collection<IEntityIdentifier> underlyingEntityIdentifiers) throws GroupsException;
 }
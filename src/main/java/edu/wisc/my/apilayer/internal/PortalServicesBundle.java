@@ -0,0 +1,109 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.internal;
+
+
+
+/**
+ * Immutable snapshot of the {@link IPortalServices} published by the
+ * {@link PortalServicesLocator}. A resolved bundle calls each of the
+ * portal's service getters once, when it is created, so the static facades
+ * reach their delegate by reading a final field. An unresolved bundle
+ * calls the portal's getter every time, for portals whose getters don't
+ * always return the same object.
+ * 
+ * @since 1.3
+ * @see PortalServicesLocator#setPortalServices(IPortalServices, boolean)
+ */
+public final class PortalServicesBundle implements IPortalServices {
+    private final IPortalServices portalServices;
+    private final boolean resolved;
+    private final IDatabaseServices databaseServices;
+    private final ILdapServices ldapServices;
+    private final IPersonServices personServices;
+    private final IGroupServices groupServices;
+
+    /**
+     * @param portalServices The portal's services.
+     * @param resolve If the portal's service getters are called once now rather than on every call.
+     */
+    public PortalServicesBundle(final IPortalServices portalServices, final boolean resolve) {
+        if (portalServices == null) {
+            throw new IllegalArgumentException("portalServices may not be null");
+        }
+
+        this.portalServices = portalServices;
+        this.resolved = resolve;
+        if (resolve) {
+            this.databaseServices = portalServices.getDatabaseServices();
+            this.ldapServices = portalServices.getLdapServices();
+            this.personServices = portalServices.getPersonServices();
+            this.groupServices = portalServices.getGroupServices();
+        }
+        else {
+            this.databaseServices = null;
+            this.ldapServices = null;
+            this.personServices = null;
+            this.groupServices = null;
+        }
+    }
+
+    /**
+     * @return The portal's services this bundle was created for.
+     */
+    public IPortalServices getPortalServices() {
+        return this.portalServices;
+    }
+
+    /**
+     * @return true if the portal's service getters were called once when the bundle was created.
+     */
+    public boolean isResolved() {
+        return this.resolved;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPortalServices#getDatabaseServices()
+     */
+    public IDatabaseServices getDatabaseServices() {
+        return this.resolved ? this.databaseServices : this.portalServices.getDatabaseServices();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPortalServices#getLdapServices()
+     */
+    public ILdapServices getLdapServices() {
+        return this.resolved ? this.ldapServices : this.portalServices.getLdapServices();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPortalServices#getPersonServices()
+     */
+    public IPersonServices getPersonServices() {
+        return this.resolved ? this.personServices : this.portalServices.getPersonServices();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPortalServices#getGroupServices()
+     */
+    public IGroupServices getGroupServices() {
+        return this.resolved ? this.groupServices : this.portalServices.getGroupServices();
+    }
+}
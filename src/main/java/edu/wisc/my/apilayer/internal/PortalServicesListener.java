@@ -0,0 +1,38 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.internal;
+
+
+/**
+ * Notified by the {@link PortalServicesLocator} when different portal
+ * services are published, so objects holding on to something resolved
+ * through the old services can drop it.
+ * 
+ * @since 1.3
+ */
+public interface PortalServicesListener {
+    /**
+     * Called on the publishing thread after the new services are visible.
+     * 
+     * @param previous The services that were replaced, null if there were none.
+     * @param current The published services, null if they were cleared.
+     */
+    public void portalServicesChanged(IPortalServices previous, IPortalServices current);
+}
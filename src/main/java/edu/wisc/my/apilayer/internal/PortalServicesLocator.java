@@ -55,6 +55,9 @@
 
 package edu.wisc.my.apilayer.internal;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -71,17 +74,70 @@ package edu.wisc.my.apilayer.internal;
  * @since 1.0
  */
 public final class PortalServicesLocator {
-    /** Refrence holder to an {@link IPortalServices} implementation */
-    private static IPortalServices servicesRef = null;
+    /** Refrence holder to the published {@link IPortalServices} implementation */
+    private static final AtomicReference<PortalServicesBundle> servicesRef = new AtomicReference<PortalServicesBundle>();
+    /** Notified when different services are published */
+    private static final List<PortalServicesListener> listeners = new CopyOnWriteArrayList<PortalServicesListener>();
     
     /**
      * Setter method to get passed a refrences to an {@link IPortalServices}
-     * implementation. 
+     * implementation. The service getters of the implementation are called
+     * on every use, see {@link #setPortalServices(IPortalServices, boolean)}.
      * 
      * @param portalServices A refrences to the services interface implementation.
      */
     public static void setPortalServices(IPortalServices portalServices) {
-        servicesRef = portalServices;
+        setPortalServices(portalServices, false);
+    }
+    
+    /**
+     * Publishes an {@link IPortalServices} implementation, replacing the
+     * current one in a single step. Threads calling the API see either the
+     * old or the new services, never a mix of the two. The registered
+     * {@link PortalServicesListener}s are notified once the new services are
+     * visible.
+     * 
+     * @param portalServices A refrences to the services interface implementation, null to clear it.
+     * @param resolve If the service getters of the implementation are called once now so the API reaches the services directly. Only use this if the getters always return the same objects.
+     * @return The previously published services, <code>null</code> if there were none.
+     * @since 1.3
+     */
+    public static IPortalServices setPortalServices(final IPortalServices portalServices, final boolean resolve) {
+        final PortalServicesBundle bundle = portalServices == null ? null : new PortalServicesBundle(portalServices, resolve);
+        final PortalServicesBundle previous = servicesRef.getAndSet(bundle);
+        final IPortalServices previousServices = previous == null ? null : previous.getPortalServices();
+
+        for (final PortalServicesListener listener : listeners) {
+            try {
+                listener.portalServicesChanged(previousServices, portalServices);
+            }
+            catch (RuntimeException re) {
+                //Don't let one listener stop the others or the publication
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, re);
+            }
+        }
+
+        return previousServices;
+    }
+
+    /**
+     * @param listener Notified when different services are published.
+     * @since 1.3
+     */
+    public static void addListener(final PortalServicesListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener may not be null");
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener A listener added with {@link #addListener(PortalServicesListener)}.
+     * @since 1.3
+     */
+    public static void removeListener(final PortalServicesListener listener) {
+        listeners.remove(listener);
     }
     
     /**
@@ -93,10 +149,24 @@ public final class PortalServicesLocator {
      * @throws IllegalStateException If no refernce to an {@link IPortalServices} implementation has been set via {@link #setPortalServices(IPortalServices)}.
      */
     public static IPortalServices getPortalServices() {
-        if (servicesRef == null) {
+        return getServices().getPortalServices();
+    }
+    
+    /**
+     * Returns the published services. The API facades use this rather than
+     * {@link #getPortalServices()} so a resolved bundle hands them their
+     * delegate without calling the portal's getters.
+     * 
+     * @return The currently published services.
+     * @throws IllegalStateException If no refernce to an {@link IPortalServices} implementation has been set via {@link #setPortalServices(IPortalServices)}.
+     * @since 1.3
+     */
+    public static PortalServicesBundle getServices() {
+        final PortalServicesBundle bundle = servicesRef.get();
+        if (bundle == null) {
             throw new IllegalStateException("A IPortalServices refrence must be set by calling setPortalServices(IPortalServices) with a valid reference before getPortalServices() is called.");
         }
         
-        return servicesRef;
+        return bundle;
     }
 }
@@ -0,0 +1,201 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+
+/**
+ * Runs directory reads on a dedicated executor so a caller can start
+ * several independent reads, carry on, and collect the results with
+ * {@link Future#get()} once it needs them. A {@link NamingException} from a
+ * read is the cause of the {@link java.util.concurrent.ExecutionException}
+ * thrown by {@link Future#get()}.
+ * <p>
+ * Reads go through a pooled {@link LdapServicesDirContext} so they share its
+ * {@link LdapConnectionPool} and {@link LdapSearchCache}. Search results are
+ * read completely on the executor, which frees the connection before the
+ * results are handed to the caller.
+ * 
+ * @since 1.3
+ */
+public class AsyncLdapOperations {
+    private static final AtomicInteger EXECUTOR_COUNT = new AtomicInteger();
+
+    private final LdapServicesDirContext context;
+    private final ExecutorService executorService;
+    private final boolean ownsExecutor;
+
+    /**
+     * Runs reads on a new executor with one thread per pooled connection.
+     * Reads submitted while the queue is full are rejected with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     * 
+     * @param context The pooled context to read through.
+     * @param queueCapacity The most reads that may wait for a thread.
+     */
+    public AsyncLdapOperations(final LdapServicesDirContext context, final int queueCapacity) {
+        this(context, createExecutor(checkPooled(context).getPool().getMaxActive(), queueCapacity), true);
+    }
+
+    /**
+     * @param context The pooled context to read through.
+     * @param executorService Runs the reads. It is not shut down by {@link #shutdown()}.
+     */
+    public AsyncLdapOperations(final LdapServicesDirContext context, final ExecutorService executorService) {
+        this(context, executorService, false);
+    }
+
+    private AsyncLdapOperations(final LdapServicesDirContext context, final ExecutorService executorService, final boolean ownsExecutor) {
+        if (executorService == null) {
+            throw new IllegalArgumentException("executorService may not be null");
+        }
+
+        this.context = checkPooled(context);
+        this.executorService = executorService;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * A context using a single connection can't be used from several threads.
+     */
+    private static LdapServicesDirContext checkPooled(final LdapServicesDirContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("context may not be null");
+        }
+        if (context.getPool() == null) {
+            throw new IllegalArgumentException("context must use a LdapConnectionPool");
+        }
+
+        return context;
+    }
+
+    private static ExecutorService createExecutor(final int threads, final int queueCapacity) {
+        final String namePrefix = "AsyncLdapOperations-" + EXECUTOR_COUNT.incrementAndGet() + "-";
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, namePrefix + this.threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return The context reads are made through.
+     */
+    public LdapServicesDirContext getContext() {
+        return this.context;
+    }
+
+    /**
+     * @see javax.naming.directory.DirContext#getAttributes(String)
+     */
+    public Future<Attributes> getAttributes(final String name) {
+        return this.getAttributes(name, null);
+    }
+
+    /**
+     * @see javax.naming.directory.DirContext#getAttributes(String, String[])
+     */
+    public Future<Attributes> getAttributes(final String name, final String[] attrIds) {
+        return this.executorService.submit(new Callable<Attributes>() {
+            public Attributes call() throws NamingException {
+                return AsyncLdapOperations.this.context.getAttributes(name, attrIds);
+            }
+        });
+    }
+
+    /**
+     * A context looked up keeps its pooled connection until it is closed.
+     * 
+     * @see javax.naming.Context#lookup(String)
+     */
+    public Future<Object> lookup(final String name) {
+        return this.executorService.submit(new Callable<Object>() {
+            public Object call() throws NamingException {
+                return AsyncLdapOperations.this.context.lookup(name);
+            }
+        });
+    }
+
+    /**
+     * @see javax.naming.directory.DirContext#search(String, String, SearchControls)
+     */
+    public Future<List<SearchResult>> search(final String name, final String filter, final SearchControls cons) {
+        return this.executorService.submit(new Callable<List<SearchResult>>() {
+            public List<SearchResult> call() throws NamingException {
+                return readAll(AsyncLdapOperations.this.context.search(name, filter, cons));
+            }
+        });
+    }
+
+    /**
+     * @see javax.naming.directory.DirContext#search(String, String, Object[], SearchControls)
+     */
+    public Future<List<SearchResult>> search(final String name, final String filterExpr, final Object[] filterArgs, final SearchControls cons) {
+        return this.executorService.submit(new Callable<List<SearchResult>>() {
+            public List<SearchResult> call() throws NamingException {
+                return readAll(AsyncLdapOperations.this.context.search(name, filterExpr, filterArgs, cons));
+            }
+        });
+    }
+
+    /**
+     * Stops the executor if it was created by this class. Reads already
+     * submitted are finished.
+     */
+    public void shutdown() {
+        if (this.ownsExecutor) {
+            this.executorService.shutdown();
+        }
+    }
+
+    private static List<SearchResult> readAll(final NamingEnumeration<SearchResult> results) throws NamingException {
+        final List<SearchResult> resultList = new ArrayList<SearchResult>();
+        try {
+            while (results.hasMore()) {
+                resultList.add(results.next());
+            }
+        }
+        finally {
+            results.close();
+        }
+
+        return resultList;
+    }
+}
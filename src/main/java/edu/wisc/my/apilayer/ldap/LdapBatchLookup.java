@@ -0,0 +1,205 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.ldap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+
+/**
+ * Reads the attributes of many users with a few searches instead of one
+ * round trip per user. The uids are split into batches and each batch is
+ * found with one <code>(|(uid=a)(uid=b)...)</code> search under the
+ * server's base DN, using {@link ILdapServer#getUidAttribute()} as the uid
+ * attribute. Uids are passed as filter arguments so the directory escapes
+ * them.
+ * 
+ * @since 1.3
+ */
+public class LdapBatchLookup {
+    /** Default number of uids per search, well below common filter size limits */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final DirContext context;
+    private final String baseDN;
+    private final String uidAttribute;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * @param context The context to search with, usually a {@link LdapServicesDirContext}.
+     * @param server The server providing the base DN and uid attribute.
+     */
+    public LdapBatchLookup(final DirContext context, final ILdapServer server) {
+        this(context, server.getBaseDN(), server.getUidAttribute());
+    }
+
+    /**
+     * @param context The context to search with, usually a {@link LdapServicesDirContext}.
+     * @param baseDN The name the searches are made under.
+     * @param uidAttribute The attribute holding the uid of a user.
+     */
+    public LdapBatchLookup(final DirContext context, final String baseDN, final String uidAttribute) {
+        if (context == null || uidAttribute == null) {
+            throw new IllegalArgumentException("context and uidAttribute may not be null");
+        }
+
+        this.context = context;
+        this.baseDN = baseDN == null ? "" : baseDN;
+        this.uidAttribute = uidAttribute;
+    }
+
+    /**
+     * @return The most uids looked up with one search.
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * @param batchSize The most uids looked up with one search, defaults to {@link #DEFAULT_BATCH_SIZE}.
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @see #getAttributes(Collection, String[])
+     */
+    public Map<String, Attributes> getAttributes(final Collection<String> uids) throws NamingException {
+        return this.getAttributes(uids, null);
+    }
+
+    /**
+     * Gets the attributes of each user.
+     * 
+     * @param uids The uids of the users to look up.
+     * @param attrIds The attributes to read, null for all attributes.
+     * @return The attributes of each user that was found keyed by the uid as passed in, in the order of the uids.
+     * @throws NamingException If one of the searches fails.
+     */
+    public Map<String, Attributes> getAttributes(final Collection<String> uids, final String[] attrIds) throws NamingException {
+        //Uids are matched case insensitively by the directory
+        final Map<String, String> requestedUids = new LinkedHashMap<String, String>(uids.size() * 2);
+        for (final String uid : uids) {
+            if (uid != null) {
+                final String normalizedUid = uid.toLowerCase(Locale.ENGLISH);
+                if (!requestedUids.containsKey(normalizedUid)) {
+                    requestedUids.put(normalizedUid, uid);
+                }
+            }
+        }
+
+        final SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        final boolean removeUid = attrIds != null && !this.contains(attrIds, this.uidAttribute);
+        if (attrIds != null) {
+            final String[] returningAttributes = new String[attrIds.length + (removeUid ? 1 : 0)];
+            System.arraycopy(attrIds, 0, returningAttributes, 0, attrIds.length);
+            if (removeUid) {
+                returningAttributes[attrIds.length] = this.uidAttribute;
+            }
+            searchControls.setReturningAttributes(returningAttributes);
+        }
+
+        final Map<String, Attributes> found = new HashMap<String, Attributes>(requestedUids.size() * 2);
+        final List<String> batch = new ArrayList<String>(Math.min(this.batchSize, requestedUids.size()));
+        for (final String uid : requestedUids.values()) {
+            batch.add(uid);
+            if (batch.size() == this.batchSize) {
+                this.search(batch, searchControls, removeUid, found);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            this.search(batch, searchControls, removeUid, found);
+        }
+
+        final Map<String, Attributes> results = new LinkedHashMap<String, Attributes>(found.size() * 2);
+        for (final Map.Entry<String, String> requestedUid : requestedUids.entrySet()) {
+            final Attributes attributes = found.get(requestedUid.getKey());
+            if (attributes != null) {
+                results.put(requestedUid.getValue(), attributes);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Finds one batch of users and adds their attributes to found keyed by lower cased uid.
+     */
+    private void search(final List<String> batch, final SearchControls searchControls, final boolean removeUid, final Map<String, Attributes> found) throws NamingException {
+        final StringBuilder filter = new StringBuilder(batch.size() * (this.uidAttribute.length() + 8) + 3);
+        if (batch.size() > 1) {
+            filter.append("(|");
+        }
+        for (int index = 0; index < batch.size(); index++) {
+            filter.append('(').append(this.uidAttribute).append("={").append(index).append("})");
+        }
+        if (batch.size() > 1) {
+            filter.append(')');
+        }
+
+        final NamingEnumeration<SearchResult> results = this.context.search(this.baseDN, filter.toString(), batch.toArray(), searchControls);
+        try {
+            while (results.hasMore()) {
+                final Attributes attributes = results.next().getAttributes();
+                final Attribute uid = removeUid ? attributes.remove(this.uidAttribute) : attributes.get(this.uidAttribute);
+                if (uid == null) {
+                    continue;
+                }
+
+                for (final NamingEnumeration<?> values = uid.getAll(); values.hasMore();) {
+                    final Object value = values.next();
+                    if (value != null) {
+                        found.put(value.toString().toLowerCase(Locale.ENGLISH), attributes);
+                    }
+                }
+            }
+        }
+        finally {
+            results.close();
+        }
+    }
+
+    private boolean contains(final String[] attrIds, final String attrId) {
+        for (final String id : attrIds) {
+            if (id.equalsIgnoreCase(attrId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
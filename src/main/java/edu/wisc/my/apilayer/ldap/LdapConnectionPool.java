@@ -0,0 +1,314 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.ldap;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.CommunicationException;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+
+
+/**
+ * Bounded pool of connections to one {@link ILdapServer}. Connections are
+ * opened with {@link ILdapServer#getConnection()} and, once they leave the
+ * pool because they are idle too long, fail validation, are invalidated or
+ * the pool is closed, handed back with
+ * {@link ILdapServer#releaseConnection(DirContext)} so the server can reuse
+ * them. Only connections that have been idle for a while are validated, so
+ * a busy pool doesn't pay an extra round trip per operation.
+ * <p>
+ * Idle connections are reused most recently returned first and evicted as
+ * the pool is used, there is no background thread. {@link #evictIdle()} can
+ * be called from a timer to trim a pool that has gone quiet.
+ * 
+ * @since 1.3
+ */
+public class LdapConnectionPool {
+    private final ILdapServer server;
+    private final int maxActive;
+    private final long maxWaitNanos;
+    private final long idleTimeoutNanos;
+    private final long validationIdleNanos;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<IdleConnection> idleConnections = new LinkedBlockingDeque<IdleConnection>();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong releasedCount = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a pool that waits up to five seconds for a connection, evicts
+     * connections idle for five minutes and validates connections that have
+     * been idle for a minute before reusing them.
+     * 
+     * @param server The server to pool connections for.
+     * @param maxActive The most connections that may be borrowed at once.
+     */
+    public LdapConnectionPool(final ILdapServer server, final int maxActive) {
+        this(server, maxActive, 5, 300, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Connections that were recently used are reused without being checked,
+     * a connection that breaks while in use is dropped from the pool when
+     * the operation using it fails, see {@link #invalidate(DirContext)}.
+     * 
+     * @param server The server to pool connections for.
+     * @param maxActive The most connections that may be borrowed at once.
+     * @param maxWait How long {@link #borrow()} waits for a connection when all are in use.
+     * @param idleTimeout How long a connection may sit unused in the pool, 0 to keep idle connections forever.
+     * @param validationIdleTime How long a connection must have been idle to be checked with a read of the base entry before it is reused, 0 to never check.
+     * @param unit The unit of maxWait, idleTimeout and validationIdleTime.
+     */
+    public LdapConnectionPool(final ILdapServer server, final int maxActive, final long maxWait, final long idleTimeout, final long validationIdleTime, final TimeUnit unit) {
+        if (server == null) {
+            throw new IllegalArgumentException("server may not be null");
+        }
+        if (maxActive < 1) {
+            throw new IllegalArgumentException("maxActive must be at least 1");
+        }
+        if (maxWait < 0 || idleTimeout < 0 || validationIdleTime < 0) {
+            throw new IllegalArgumentException("maxWait, idleTimeout and validationIdleTime may not be negative");
+        }
+
+        this.server = server;
+        this.maxActive = maxActive;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.validationIdleNanos = unit.toNanos(validationIdleTime);
+        this.permits = new Semaphore(maxActive, true);
+    }
+
+    /**
+     * @return The server connections are pooled for.
+     */
+    public ILdapServer getServer() {
+        return this.server;
+    }
+
+    /**
+     * @return The most connections that may be borrowed at once.
+     */
+    public int getMaxActive() {
+        return this.maxActive;
+    }
+
+    /**
+     * @return The number of connections currently borrowed.
+     */
+    public int getActiveCount() {
+        return this.maxActive - this.permits.availablePermits();
+    }
+
+    /**
+     * @return The number of connections waiting in the pool.
+     */
+    public int getIdleCount() {
+        return this.idleConnections.size();
+    }
+
+    /**
+     * @return The number of connections opened with {@link ILdapServer#getConnection()}.
+     */
+    public long getCreatedCount() {
+        return this.createdCount.get();
+    }
+
+    /**
+     * @return The number of connections handed back with {@link ILdapServer#releaseConnection(DirContext)}.
+     */
+    public long getReleasedCount() {
+        return this.releasedCount.get();
+    }
+
+    /**
+     * Borrows a connection, reusing an idle one if there is one. Every
+     * borrowed connection must be given to {@link #giveBack(DirContext)} or
+     * {@link #invalidate(DirContext)} exactly once.
+     * 
+     * @return A connection to the server.
+     * @throws ServiceUnavailableException If no connection became available within the maximum wait.
+     * @throws NamingException If a new connection could not be opened.
+     */
+    public DirContext borrow() throws NamingException {
+        if (this.closed) {
+            throw new ServiceUnavailableException("The connection pool has been closed");
+        }
+
+        try {
+            if (!this.permits.tryAcquire(this.maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                throw new ServiceUnavailableException("No LDAP connection became available within " + TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos) + "ms, " + this.maxActive + " connections are in use");
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            final InterruptedNamingException ine = new InterruptedNamingException("Interrupted while waiting for an LDAP connection");
+            ine.setRootCause(ie);
+            throw ine;
+        }
+
+        try {
+            final long now = System.nanoTime();
+            this.evictExpired(now);
+
+            IdleConnection idle;
+            while ((idle = this.idleConnections.pollFirst()) != null) {
+                if (this.isExpired(idle, now) || (this.needsValidation(idle, now) && !this.isValid(idle.context))) {
+                    this.release(idle.context);
+                }
+                else {
+                    return idle.context;
+                }
+            }
+
+            final DirContext context = this.server.getConnection();
+            this.createdCount.incrementAndGet();
+            return context;
+        }
+        catch (NamingException ne) {
+            this.permits.release();
+            throw ne;
+        }
+        catch (RuntimeException re) {
+            this.permits.release();
+            throw re;
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool for reuse.
+     */
+    public void giveBack(final DirContext context) {
+        if (this.closed) {
+            this.release(context);
+        }
+        else {
+            final long now = System.nanoTime();
+            this.idleConnections.offerFirst(new IdleConnection(context, now));
+            if (this.closed) {
+                //close() may have emptied the pool before the connection was added
+                this.releaseIdle();
+            }
+            else {
+                this.evictExpired(now);
+            }
+        }
+
+        this.permits.release();
+    }
+
+    /**
+     * Hands a borrowed connection that failed back to the server instead of
+     * keeping it in the pool.
+     */
+    public void invalidate(final DirContext context) {
+        this.release(context);
+        this.permits.release();
+    }
+
+    /**
+     * @return true if the exception means the connection or its server broke
+     * and the connection should be given to {@link #invalidate(DirContext)}.
+     */
+    public static boolean isConnectionFailure(final NamingException ne) {
+        return ne instanceof CommunicationException || ne instanceof ServiceUnavailableException;
+    }
+
+    /**
+     * Hands every connection that has been idle longer than the idle timeout
+     * back to the server.
+     */
+    public void evictIdle() {
+        this.evictExpired(System.nanoTime());
+    }
+
+    /**
+     * Hands all idle connections back to the server. Connections borrowed
+     * when the pool is closed are handed back as they are returned.
+     */
+    public void close() {
+        this.closed = true;
+        this.releaseIdle();
+    }
+
+
+    private void evictExpired(final long now) {
+        if (this.idleTimeoutNanos == 0) {
+            return;
+        }
+
+        //The oldest connections are at the end of the deque
+        IdleConnection idle;
+        while ((idle = this.idleConnections.peekLast()) != null && this.isExpired(idle, now)) {
+            if (this.idleConnections.removeLastOccurrence(idle)) {
+                this.release(idle.context);
+            }
+        }
+    }
+
+    private void releaseIdle() {
+        IdleConnection idle;
+        while ((idle = this.idleConnections.pollFirst()) != null) {
+            this.release(idle.context);
+        }
+    }
+
+    private boolean isExpired(final IdleConnection idle, final long now) {
+        return this.idleTimeoutNanos > 0 && now - idle.returned > this.idleTimeoutNanos;
+    }
+
+    private boolean needsValidation(final IdleConnection idle, final long now) {
+        return this.validationIdleNanos > 0 && now - idle.returned > this.validationIdleNanos;
+    }
+
+    private boolean isValid(final DirContext context) {
+        try {
+            context.getAttributes("", new String[] { "objectClass" });
+            return true;
+        }
+        catch (NamingException ne) {
+            return false;
+        }
+        catch (RuntimeException re) {
+            return false;
+        }
+    }
+
+    private void release(final DirContext context) {
+        this.releasedCount.incrementAndGet();
+        this.server.releaseConnection(context);
+    }
+
+
+    private static final class IdleConnection {
+        private final DirContext context;
+        private final long returned;
+
+        public IdleConnection(final DirContext context, final long returned) {
+            this.context = context;
+            this.returned = returned;
+        }
+    }
+}
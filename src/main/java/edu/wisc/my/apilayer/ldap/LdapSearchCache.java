@@ -0,0 +1,511 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.naming.Context;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import edu.wisc.my.apilayer.cache.CacheStatistics;
+import edu.wisc.my.apilayer.cache.ExpiringLruCache;
+
+
+/**
+ * Cache of LDAP read results shared by the {@link LdapServicesDirContext}s
+ * it is set on. Entries are keyed by the normalized name, filter, filter
+ * arguments, requested attributes and search controls and expire after a
+ * time to live. A write through any context using the cache evicts the
+ * cached reads of the written entry, its ancestors and its descendants.
+ * <p>
+ * Cached reads are indexed by the name they read and by each of that name's
+ * ancestors, so an eviction only touches the reads it evicts, however many
+ * are cached. A read that started before an eviction of its name, one of
+ * its ancestors or one of its descendants is not cached when it completes,
+ * its result may predate the write. Evictions are remembered in a fixed
+ * number of stripes the names hash to, so a write elsewhere in the tree
+ * rarely keeps a read from being cached.
+ * <p>
+ * Cached values are copied on the way in and out so callers can't change
+ * each other's results. Searches that return more than the configured
+ * number of results or that return the entries' objects are not cached.
+ * 
+ * @since 1.3
+ */
+public class LdapSearchCache {
+    private static final String ATTRIBUTES = "attributes";
+    private static final String LOOKUP = "lookup";
+    private static final String SEARCH = "search";
+
+    private static final int STRIPES = 256;
+
+    private final ExpiringLruCache<CacheKey, Object> cache;
+    private final int maxResults;
+    /** The cached keys by the name they read */
+    private final KeyIndex readKeys = new KeyIndex();
+    /** The cached keys by the name they read and each of its ancestors except the root */
+    private final KeyIndex subtreeKeys = new KeyIndex();
+    /** Numbers the invalidations, a read's stamp is the last number when it started */
+    private final AtomicLong invalidationCount = new AtomicLong();
+    /** The last invalidation of a name, by the stripe of the name, it stales reads of the name and its descendants */
+    private final AtomicLongArray entryStamps = new AtomicLongArray(STRIPES);
+    /** The last invalidation of a name or a descendant, by the stripe of the name, it stales reads of the name */
+    private final AtomicLongArray subtreeStamps = new AtomicLongArray(STRIPES);
+    /** The last invalidation of every name */
+    private volatile long clearStamp = 0;
+
+    /**
+     * Creates a cache that holds searches of up to 100 results.
+     * 
+     * @param maxSize The most reads to cache.
+     * @param timeToLive How long a read is cached.
+     * @param unit The unit of timeToLive.
+     */
+    public LdapSearchCache(final int maxSize, final long timeToLive, final TimeUnit unit) {
+        this(maxSize, timeToLive, unit, 100);
+    }
+
+    /**
+     * @param maxSize The most reads to cache.
+     * @param timeToLive How long a read is cached.
+     * @param unit The unit of timeToLive.
+     * @param maxResults The most results a search may return and still be cached.
+     */
+    public LdapSearchCache(final int maxSize, final long timeToLive, final TimeUnit unit, final int maxResults) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive must be greater than 0");
+        }
+
+        this.cache = new ExpiringLruCache<CacheKey, Object>(maxSize, timeToLive, unit) {
+            @Override
+            protected void entryDiscarded(final CacheKey key, final Object value) {
+                LdapSearchCache.this.unindex(key, value);
+            }
+        };
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * @return The most results a search may return and still be cached.
+     */
+    public int getMaxResults() {
+        return this.maxResults;
+    }
+
+    /**
+     * Evicts the cached reads of the named entry, its ancestors and its
+     * descendants.
+     * 
+     * @param name The name of the changed entry, relative to the contexts using the cache.
+     */
+    public void invalidate(final Object name) {
+        final String changed = normalizeName(name);
+        if (changed.length() == 0) {
+            //Everything is below the root
+            this.clear();
+            return;
+        }
+
+        //Reads of the name, its ancestors or descendants running now must not cache what they read before the write
+        final long stamp = this.invalidationCount.incrementAndGet();
+        raise(this.entryStamps, changed, stamp);
+        for (String changedOrAncestor = changed; changedOrAncestor != null; changedOrAncestor = parentName(changedOrAncestor)) {
+            raise(this.subtreeStamps, changedOrAncestor, stamp);
+        }
+
+        this.evict(this.subtreeKeys.take(changed));
+        for (String ancestor = parentName(changed); ancestor != null; ancestor = parentName(ancestor)) {
+            this.evict(this.readKeys.take(ancestor));
+        }
+    }
+
+    /**
+     * Evicts every cached read.
+     */
+    public void clear() {
+        this.clearStamp = this.invalidationCount.incrementAndGet();
+        this.cache.clear();
+        this.readKeys.clear();
+        this.subtreeKeys.clear();
+    }
+
+    /**
+     * @return The number of cached reads.
+     */
+    public int size() {
+        return this.cache.size();
+    }
+
+    /**
+     * @return Hit, miss and eviction counts for the cache.
+     */
+    public CacheStatistics getStatistics() {
+        return this.cache.getStatistics();
+    }
+
+
+    static CacheKey attributesKey(final Object name, final String[] attrIds) {
+        return new CacheKey(ATTRIBUTES, normalizeName(name), Arrays.<Object>asList(normalizeIds(attrIds)));
+    }
+
+    static CacheKey lookupKey(final Object name) {
+        return new CacheKey(LOOKUP, normalizeName(name), Collections.emptyList());
+    }
+
+    /**
+     * @return The key of the search, null if the search returns the entries' objects, they may be contexts bound to the connection they were read with.
+     */
+    static CacheKey searchKey(final Object name, final String filterExpr, final Object[] filterArgs, final SearchControls cons, final Attributes matchingAttributes, final String[] attributesToReturn) {
+        if (cons != null && cons.getReturningObjFlag()) {
+            return null;
+        }
+
+        final List<Object> parts = new ArrayList<Object>(8);
+        parts.add(filterExpr);
+        parts.add(filterArgs == null ? null : Arrays.asList(filterArgs));
+        parts.add(matchingAttributes);
+        parts.add(normalizeIds(attributesToReturn));
+        if (cons != null) {
+            parts.add(Arrays.asList(cons.getSearchScope(), cons.getCountLimit(), cons.getTimeLimit(), cons.getDerefLinkFlag()));
+            parts.add(normalizeIds(cons.getReturningAttributes()));
+        }
+        return new CacheKey(SEARCH, normalizeName(name), parts);
+    }
+
+    /**
+     * @return The stamp to pass when caching a read that starts now.
+     */
+    long getStamp() {
+        return this.invalidationCount.get();
+    }
+
+    Attributes getAttributes(final CacheKey key) {
+        final Attributes attributes = (Attributes)this.cache.get(key);
+        return attributes == null ? null : (Attributes)attributes.clone();
+    }
+
+    void putAttributes(final CacheKey key, final Attributes attributes, final long stamp) {
+        this.put(key, attributes.clone(), stamp);
+    }
+
+    Object getLookup(final CacheKey key) {
+        return this.cache.get(key);
+    }
+
+    /**
+     * Caches the looked up object unless it is a {@link Context}, contexts
+     * are bound to the connection they were looked up with.
+     */
+    void putLookup(final CacheKey key, final Object value, final long stamp) {
+        if (value != null && !(value instanceof Context)) {
+            this.put(key, value, stamp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    List<SearchResult> getSearchResults(final CacheKey key) {
+        final List<SearchResult> results = (List<SearchResult>)this.cache.get(key);
+        return results == null ? null : copy(results);
+    }
+
+    /**
+     * Caches the results if there are no more than the maximum.
+     */
+    void putSearchResults(final CacheKey key, final List<SearchResult> results, final long stamp) {
+        if (results.size() <= this.maxResults) {
+            this.put(key, copy(results), stamp);
+        }
+    }
+
+
+    /**
+     * Caches the value unless the read was invalidated since it started.
+     * The key is indexed before the value is stored so evicting the new
+     * value always finds it, an invalidation racing with the store is caught
+     * by the stamp check that follows it.
+     * 
+     * @param stamp The value of {@link #getStamp()} when the read started.
+     */
+    private void put(final CacheKey key, final Object value, final long stamp) {
+        if (this.isStale(key.name, stamp)) {
+            return;
+        }
+
+        this.index(key, value);
+        this.cache.put(key, value);
+
+        if (this.isStale(key.name, stamp)) {
+            this.cache.remove(key);
+            this.unindex(key, value);
+        }
+    }
+
+    /**
+     * @return true if the name, one of its ancestors or one of its descendants was invalidated after the stamp.
+     */
+    private boolean isStale(final String name, final long stamp) {
+        if (this.clearStamp > stamp || this.subtreeStamps.get(stripe(name)) > stamp) {
+            return true;
+        }
+
+        for (String ancestor = name; ancestor != null; ancestor = parentName(ancestor)) {
+            if (this.entryStamps.get(stripe(ancestor)) > stamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Raises the stamp of the name's stripe to the stamp, racing invalidations
+     * may get here out of order.
+     */
+    private static void raise(final AtomicLongArray stamps, final String name, final long stamp) {
+        final int stripe = stripe(name);
+        for (long current = stamps.get(stripe); current < stamp; current = stamps.get(stripe)) {
+            if (stamps.compareAndSet(stripe, current, stamp)) {
+                return;
+            }
+        }
+    }
+
+    private static int stripe(final String name) {
+        final int hash = name.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private void index(final CacheKey key, final Object value) {
+        this.readKeys.add(key.name, key, value);
+        for (String name = key.name; name != null && name.length() > 0; name = parentName(name)) {
+            this.subtreeKeys.add(name, key, value);
+        }
+    }
+
+    /**
+     * Removes the registrations of the key made for the value, a newer
+     * value cached for the same key keeps its own.
+     */
+    private void unindex(final CacheKey key, final Object value) {
+        this.readKeys.remove(key.name, key, value);
+        for (String name = key.name; name != null && name.length() > 0; name = parentName(name)) {
+            this.subtreeKeys.remove(name, key, value);
+        }
+    }
+
+    private void evict(final Map<CacheKey, Object> registrations) {
+        for (final Map.Entry<CacheKey, Object> registration : registrations.entrySet()) {
+            this.cache.remove(registration.getKey());
+            this.unindex(registration.getKey(), registration.getValue());
+        }
+    }
+
+
+    private static List<SearchResult> copy(final List<SearchResult> results) {
+        final List<SearchResult> copies = new ArrayList<SearchResult>(results.size());
+        for (final SearchResult result : results) {
+            final Attributes attributes = result.getAttributes();
+            final SearchResult copy = new SearchResult(result.getName(), result.getClassName(), result.getObject(), attributes == null ? null : (Attributes)attributes.clone(), result.isRelative());
+            try {
+                copy.setNameInNamespace(result.getNameInNamespace());
+            }
+            catch (UnsupportedOperationException uoe) {
+                //The provider didn't set a full name, the copy doesn't have one either
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Lower cases the name and removes the spaces around its separators.
+     */
+    static String normalizeName(final Object name) {
+        final String value = name == null ? "" : name.toString().trim().toLowerCase(Locale.ENGLISH);
+        if (value.indexOf(' ') < 0) {
+            return value;
+        }
+
+        return value.replaceAll("\\s*([,=+])\\s*", "$1");
+    }
+
+    private static List<String> normalizeIds(final String[] ids) {
+        if (ids == null) {
+            return null;
+        }
+
+        final List<String> normalized = new ArrayList<String>(ids.length);
+        for (final String id : ids) {
+            normalized.add(id.toLowerCase(Locale.ENGLISH));
+        }
+        Collections.sort(normalized);
+        return normalized;
+    }
+
+    /**
+     * @return The normalized name without its first RDN, the empty root name for a single RDN, null for the root.
+     */
+    static String parentName(final String name) {
+        if (name.length() == 0) {
+            return null;
+        }
+
+        for (int index = 0; index < name.length(); index++) {
+            final char c = name.charAt(index);
+            if (c == '\\') {
+                //Skip the escaped character
+                index++;
+            }
+            else if (c == ',') {
+                return name.substring(index + 1);
+            }
+        }
+        return "";
+    }
+
+
+    /**
+     * Cached keys grouped by name. Each key is registered with the value it
+     * was cached with, guarded by the registrations of its name.
+     */
+    private static final class KeyIndex {
+        private final ConcurrentMap<String, Registrations> names = new ConcurrentHashMap<String, Registrations>();
+
+        public void add(final String name, final CacheKey key, final Object value) {
+            while (true) {
+                Registrations registrations = this.names.get(name);
+                if (registrations == null) {
+                    final Registrations newRegistrations = new Registrations();
+                    registrations = this.names.putIfAbsent(name, newRegistrations);
+                    if (registrations == null) {
+                        registrations = newRegistrations;
+                    }
+                }
+
+                synchronized (registrations) {
+                    if (!registrations.removed) {
+                        registrations.values.put(key, value);
+                        return;
+                    }
+                }
+            }
+        }
+
+        public void remove(final String name, final CacheKey key, final Object value) {
+            final Registrations registrations = this.names.get(name);
+            if (registrations == null) {
+                return;
+            }
+
+            synchronized (registrations) {
+                if (registrations.values.get(key) == value) {
+                    registrations.values.remove(key);
+                    if (registrations.values.isEmpty()) {
+                        registrations.removed = true;
+                        this.names.remove(name, registrations);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes and returns the registrations of the name.
+         */
+        public Map<CacheKey, Object> take(final String name) {
+            final Registrations registrations = this.names.remove(name);
+            if (registrations == null) {
+                return Collections.emptyMap();
+            }
+
+            synchronized (registrations) {
+                registrations.removed = true;
+                return new HashMap<CacheKey, Object>(registrations.values);
+            }
+        }
+
+        public void clear() {
+            for (final String name : this.names.keySet()) {
+                this.take(name);
+            }
+        }
+    }
+
+    /**
+     * Once removed it is never reused, adds racing with the removal start
+     * over with a new one.
+     */
+    private static final class Registrations {
+        private final Map<CacheKey, Object> values = new HashMap<CacheKey, Object>(4);
+        private boolean removed = false;
+    }
+
+    /**
+     * Key of one cached read.
+     */
+    static final class CacheKey {
+        private final String operation;
+        private final String name;
+        private final List<Object> parts;
+        private final int hash;
+
+        public CacheKey(final String operation, final String name, final List<Object> parts) {
+            this.operation = operation;
+            this.name = name;
+            this.parts = parts;
+            this.hash = (31 * operation.hashCode() + name.hashCode()) * 31 + parts.hashCode();
+        }
+
+        /* 
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+
+            final CacheKey other = (CacheKey)o;
+            return this.hash == other.hash && this.operation.equals(other.operation) && this.name.equals(other.name) && this.parts.equals(other.parts);
+        }
+
+        /*
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -55,7 +55,6 @@
 package edu.wisc.my.apilayer.ldap;
 
 import edu.wisc.my.apilayer.internal.ILdapServices;
-import edu.wisc.my.apilayer.internal.IPortalServices;
 import edu.wisc.my.apilayer.internal.PortalServicesLocator;
 
 
@@ -78,8 +77,7 @@ public final class LdapServices {
      * @return The {@link ILdapServer} instance representing the default LDAP server, <code>null</code> if one doesn't exist.
      */
     public static ILdapServer getDefaultServer() {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final ILdapServices ls = ps.getLdapServices();
+        final ILdapServices ls = PortalServicesLocator.getServices().getLdapServices();
         
         return ls.getDefaultServer();
     }
@@ -94,8 +92,7 @@ public final class LdapServices {
      * @return The {@link ILdapServer} instance representing the named LDAP server, <code>null</code> if it doesn't exist.
      */
     public static ILdapServer getServer(final String name) {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final ILdapServices ls = ps.getLdapServices();
+        final ILdapServices ls = PortalServicesLocator.getServices().getLdapServices();
         
         return ls.getServer(name);
     }
@@ -108,8 +105,7 @@ public final class LdapServices {
      * @return A list of named LDAP servers, if no servers exist a 0 length array will be returned.
      */
     public static String[] getServerNames() {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final ILdapServices ls = ps.getLdapServices();
+        final ILdapServices ls = PortalServicesLocator.getServices().getLdapServices();
         
         return ls.getServerNames();
     }
@@ -54,7 +54,17 @@
 *******************************************************************************/
 package edu.wisc.my.apilayer.ldap;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.naming.Binding;
 import javax.naming.Context;
@@ -63,21 +73,41 @@ import javax.naming.NameClassPair;
 import javax.naming.NameParser;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
 
 
 /**
+ * {@link DirContext} backed by {@link edu.wisc.my.apilayer.ldap.LdapServices}.
+ * 
+ * Depending on the constructor used either one connection is taken from the
+ * {@link ILdapServer} and used until {@link #close()} hands it back, or every
+ * operation borrows a connection from a {@link LdapConnectionPool} and returns
+ * it when the operation completes. With a single connection the list and
+ * search operations return the server's enumerations, with a pool their
+ * results are read completely before the connection is returned. Only
+ * {@link #searchPaged(String, String, Object[], SearchControls, int)} keeps a
+ * pooled connection until its results are exhausted or closed, and so do the
+ * contexts returned by lookups, {@link #createSubcontext(String)} and the
+ * schema operations until they are closed. Such contexts must be closed or
+ * their connection never goes back to the pool.
+ * 
  * @author Eric Dalquist <a href="mailto:edalquist@unicon.net">edalquist@unicon.net</a>
  * @version $Revision: 1.1.2.1 $
  * @since 1.0
  */
 public class LdapServicesDirContext implements DirContext {
     private final String name;
+    private final ILdapServer server;
     private final DirContext context;
+    private final LdapConnectionPool pool;
+    private volatile LdapSearchCache searchCache;
+    private boolean closed = false;
     
     /**
      * Creates a new {@link DirContext} wrapper which will be backed by the
@@ -86,7 +116,7 @@ public class LdapServicesDirContext implements DirContext {
      * @see LdapServices#getDefaultServer()
      */
     public LdapServicesDirContext() throws NamingException {
-        this(null);
+        this((String)null);
     }
 
     /**
@@ -98,12 +128,32 @@ public class LdapServicesDirContext implements DirContext {
      */
     public LdapServicesDirContext(final String serverName) throws NamingException {
         this.name = serverName;
+        this.server = this.getLdapServer(this.name);
         this.context = this.getDirContext(this.name);
+        this.pool = null;
+    }
+
+    /**
+     * Creates a new {@link DirContext} wrapper which borrows a connection from
+     * the pool for each operation.
+     * 
+     * @param pool The pool of connections to use to back this wrapper.
+     * @since 1.3
+     */
+    public LdapServicesDirContext(final LdapConnectionPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool may not be null");
+        }
+
+        this.name = null;
+        this.server = pool.getServer();
+        this.context = null;
+        this.pool = pool;
     }
     
     /**
      * Returns the server name being used. A value of <code>null</code> means the
-     * default portal ldap server is being used.
+     * default portal ldap server or a connection pool is being used.
      * 
      * @return The server name being used.
      */
@@ -112,24 +162,48 @@ public class LdapServicesDirContext implements DirContext {
     }
 
     /**
-     * Gets the appropriate {@link ILdapServer} for the configured
-     * server name then gets a {@link DirContext} from it.
+     * @return The pool connections are borrowed from, null if a single connection is used.
+     * @since 1.3
+     */
+    public LdapConnectionPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * @return The cache reads are served from, null if reads are not cached.
+     * @since 1.3
+     */
+    public LdapSearchCache getSearchCache() {
+        return this.searchCache;
+    }
+
+    /**
+     * Serves search, getAttributes and lookup calls from the cache and evicts
+     * the entries touched by writes made through this context. The cache is
+     * normally shared by every context for the same server.
      * 
-     * Note that this method is only called once when the class is created and
-     * the {@link DirContext} is cached from that point on.
+     * @param searchCache The cache to use, null to stop caching.
+     * @since 1.3
+     */
+    public void setSearchCache(final LdapSearchCache searchCache) {
+        this.searchCache = searchCache;
+    }
+
+    /**
+     * Gets the appropriate {@link ILdapServer} for the configured server name.
      * 
-     * @param name The name of the {@link ILdapServer} to get a {@link DirContext} for.
-     * @return The appropriate {@link DirContext} for the server name.
-     * @throws NamingException If there was a problem connecting to the ldap server. 
+     * @param name The name of the {@link ILdapServer} to get, null for the default server.
+     * @return The appropriate {@link ILdapServer} for the server name.
+     * @since 1.3
      */
-    protected DirContext getDirContext(final String name) throws NamingException {
+    protected ILdapServer getLdapServer(final String name) {
         if (name != null) {
             final ILdapServer server = LdapServices.getServer(name);
             if (server == null) {
                 throw new IllegalStateException("No ILdapServer was found for " + name);
             }
             
-            return server.getConnection();
+            return server;
         }
         
         final ILdapServer server = LdapServices.getDefaultServer();
@@ -137,13 +211,321 @@ public class LdapServicesDirContext implements DirContext {
             throw new IllegalStateException("No default ILdapServer was found.");
         }
         
-        return server.getConnection();
+        return server;
+    }
+
+    /**
+     * Gets the appropriate {@link ILdapServer} for the configured
+     * server name then gets a {@link DirContext} from it.
+     * 
+     * Note that this method is only called once when the class is created and
+     * the {@link DirContext} is cached from that point on.
+     * 
+     * @param name The name of the {@link ILdapServer} to get a {@link DirContext} for.
+     * @return The appropriate {@link DirContext} for the server name.
+     * @throws NamingException If there was a problem connecting to the ldap server. 
+     */
+    protected DirContext getDirContext(final String name) throws NamingException {
+        return this.getLdapServer(name).getConnection();
+    }
+
+    /**
+     * Searches one page of results at a time using the Simple Paged Results
+     * control, see {@link #searchPaged(String, String, Object[], SearchControls, int)}.
+     * 
+     * @since 1.3
+     */
+    public NamingEnumeration<SearchResult> searchPaged(final String name, final String filter, final SearchControls cons, final int pageSize) throws NamingException {
+        return this.searchPaged(name, filter, null, cons, pageSize);
+    }
+
+    /**
+     * Searches one page of results at a time using the Simple Paged Results
+     * control. The next page is requested only after the previous one has
+     * been read so memory use doesn't grow with the number of results. The
+     * connection is held until the results are exhausted or closed. If the
+     * connection is not an {@link LdapContext} a normal search is run.
+     * 
+     * @param name The name of the context to search.
+     * @param filterExpr The filter expression, may contain <code>{n}</code> argument references.
+     * @param filterArgs The filter arguments, may be null.
+     * @param cons The search controls.
+     * @param pageSize The number of results to request per page.
+     * @return The search results.
+     * @since 1.3
+     */
+    public NamingEnumeration<SearchResult> searchPaged(final String name, final String filterExpr, final Object[] filterArgs, final SearchControls cons, final int pageSize) throws NamingException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1");
+        }
+
+        final DirContext ctx = this.borrowContext();
+        try {
+            if (!(ctx instanceof LdapContext)) {
+                final NamingEnumeration<SearchResult> results = filterArgs == null ? ctx.search(name, filterExpr, cons) : ctx.search(name, filterExpr, filterArgs, cons);
+                final NamingEnumeration<SearchResult> detached = this.detach(results);
+                this.returnContext(ctx, null);
+                return detached;
+            }
+
+            return new PagedSearchEnumeration((LdapContext)ctx, name, filterExpr, filterArgs, cons, pageSize) {
+                @Override
+                protected void connectionDone(final NamingException failure) {
+                    LdapServicesDirContext.this.returnContext(ctx, failure);
+                }
+            };
+        }
+        catch (NamingException ne) {
+            this.returnContext(ctx, ne);
+            throw ne;
+        }
+        catch (RuntimeException re) {
+            this.returnContext(ctx, null);
+            throw re;
+        }
+    }
+
+    /**
+     * Reads the attributes of the named entry, from the cache if there is one.
+     */
+    private Attributes readAttributes(final Object name, final String[] attrIds) throws NamingException {
+        final LdapSearchCache cache = this.searchCache;
+        final LdapSearchCache.CacheKey key = cache == null ? null : LdapSearchCache.attributesKey(name, attrIds);
+        if (key != null) {
+            final Attributes cached = cache.getAttributes(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final long stamp = key == null ? 0 : cache.getStamp();
+
+        final Attributes attributes;
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            attributes = name instanceof Name ? ctx.getAttributes((Name)name, attrIds) : ctx.getAttributes((String)name, attrIds);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
+
+        if (key != null && attributes != null) {
+            cache.putAttributes(key, attributes, stamp);
+        }
+        return attributes;
+    }
+
+    /**
+     * Looks up the named object, from the cache if there is one.
+     */
+    private Object readLookup(final Object name) throws NamingException {
+        final LdapSearchCache cache = this.searchCache;
+        final LdapSearchCache.CacheKey key = cache == null ? null : LdapSearchCache.lookupKey(name);
+        if (key != null) {
+            final Object cached = cache.getLookup(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final long stamp = key == null ? 0 : cache.getStamp();
+
+        Object value = null;
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            value = this.lease(ctx, name instanceof Name ? ctx.lookup((Name)name) : ctx.lookup((String)name));
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(value)) {
+                this.returnContext(ctx, failure);
+            }
+        }
+
+        //A context is bound to its connection so it can't be shared
+        if (key != null && !(value instanceof Context)) {
+            cache.putLookup(key, value, stamp);
+        }
+        return value;
+    }
+
+    /**
+     * Runs the search variant matching the arguments, serving it from the
+     * cache if there is one. Cached and pooled searches are read completely
+     * before being returned.
+     */
+    private NamingEnumeration<SearchResult> readSearch(final Object name, final String filterExpr, final Object[] filterArgs, final SearchControls cons, final Attributes matchingAttributes, final String[] attributesToReturn) throws NamingException {
+        final LdapSearchCache cache = this.searchCache;
+        final LdapSearchCache.CacheKey key = cache == null ? null : LdapSearchCache.searchKey(name, filterExpr, filterArgs, cons, matchingAttributes, attributesToReturn);
+        if (key != null) {
+            final List<SearchResult> cached = cache.getSearchResults(key);
+            if (cached != null) {
+                return new ListNamingEnumeration<SearchResult>(cached);
+            }
+        }
+        final long stamp = key == null ? 0 : cache.getStamp();
+
+        final List<SearchResult> resultList;
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            final NamingEnumeration<SearchResult> results;
+            if (filterExpr == null) {
+                results = name instanceof Name ? ctx.search((Name)name, matchingAttributes, attributesToReturn) : ctx.search((String)name, matchingAttributes, attributesToReturn);
+            }
+            else if (filterArgs == null) {
+                results = name instanceof Name ? ctx.search((Name)name, filterExpr, cons) : ctx.search((String)name, filterExpr, cons);
+            }
+            else {
+                results = name instanceof Name ? ctx.search((Name)name, filterExpr, filterArgs, cons) : ctx.search((String)name, filterExpr, filterArgs, cons);
+            }
+
+            if (key == null) {
+                return this.detach(results);
+            }
+            resultList = readAll(results);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
+
+        cache.putSearchResults(key, resultList, stamp);
+        return new ListNamingEnumeration<SearchResult>(resultList);
+    }
+
+    /**
+     * Evicts the cached reads touched by a write to the name.
+     */
+    private void invalidateCache(final Object name) {
+        final LdapSearchCache cache = this.searchCache;
+        if (cache != null) {
+            cache.invalidate(name);
+        }
+    }
+
+    /**
+     * @return The connection to use for one operation.
+     */
+    private DirContext borrowContext() throws NamingException {
+        if (this.pool == null) {
+            return this.context;
+        }
+
+        return this.pool.borrow();
+    }
+
+    /**
+     * Returns a connection from {@link #borrowContext()} once the operation
+     * is done. A pooled connection whose operation failed because the
+     * connection or server broke is dropped from the pool instead.
+     * 
+     * @param failure The exception the operation failed with, null if it didn't fail.
+     */
+    private void returnContext(final DirContext ctx, final NamingException failure) {
+        if (this.pool == null) {
+            return;
+        }
+
+        if (LdapConnectionPool.isConnectionFailure(failure)) {
+            this.pool.invalidate(ctx);
+        }
+        else {
+            this.pool.giveBack(ctx);
+        }
+    }
+
+    /**
+     * Keeps a pooled connection out of the pool while a context bound to it
+     * is in use. A context is wrapped so the connection is returned when the
+     * context is closed, and the operation must then not return the
+     * connection itself. Other values are returned as they are.
+     * 
+     * @return The value, or a wrapper around it that holds the connection.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T lease(final DirContext ctx, final T value) {
+        if (this.pool == null || !(value instanceof Context)) {
+            return value;
+        }
+
+        //Only the public naming interfaces, the implementation may have others that can't be proxied
+        final Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> type = value.getClass(); type != null; type = type.getSuperclass()) {
+            for (final Class<?> iface : type.getInterfaces()) {
+                if (Modifier.isPublic(iface.getModifiers()) && iface.getName().startsWith("javax.naming.")) {
+                    interfaces.add(iface);
+                }
+            }
+        }
+        interfaces.add(Context.class);
+
+        return (T)Proxy.newProxyInstance(Context.class.getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()]), new ContextLease(ctx, (Context)value));
+    }
+
+    /**
+     * @return true if the value is a wrapper from {@link #lease(DirContext, Object)}.
+     */
+    private static boolean isLease(final Object value) {
+        return value != null && Proxy.isProxyClass(value.getClass()) && Proxy.getInvocationHandler(value) instanceof ContextLease;
+    }
+
+    /**
+     * Reads pooled results completely so the connection can be returned
+     * before the caller gets them. A caller that stops reading early or
+     * never closes the enumeration then can't keep a connection out of the
+     * pool.
+     * 
+     * @return The results, or a copy of them if the connection is pooled.
+     */
+    private <T> NamingEnumeration<T> detach(final NamingEnumeration<T> results) throws NamingException {
+        if (this.pool == null) {
+            return results;
+        }
+
+        return new ListNamingEnumeration<T>(readAll(results));
+    }
+
+    /**
+     * Reads and closes the results.
+     */
+    private static <T> List<T> readAll(final NamingEnumeration<T> results) throws NamingException {
+        final List<T> resultList = new ArrayList<T>();
+        try {
+            while (results.hasMore()) {
+                resultList.add(results.next());
+            }
+        }
+        finally {
+            results.close();
+        }
+        return resultList;
+    }
+
+    /**
+     * Pooled connections are shared so their environment may not be changed.
+     */
+    private void checkEnvironmentChange() throws NamingException {
+        if (this.pool != null) {
+            throw new OperationNotSupportedException("The environment of pooled connections can't be changed");
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#addToEnvironment(java.lang.String, java.lang.Object)
      */
     public Object addToEnvironment(String propName, Object propVal) throws NamingException {
+        this.checkEnvironmentChange();
         return this.context.addToEnvironment(propName, propVal);
     }
 
@@ -151,293 +533,737 @@ public class LdapServicesDirContext implements DirContext {
      * @see javax.naming.directory.DirContext#bind(javax.naming.Name, java.lang.Object, javax.naming.directory.Attributes)
      */
     public void bind(Name name, Object obj, Attributes attrs) throws NamingException {
-        this.context.bind(name, obj, attrs);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.bind(name, obj, attrs);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#bind(javax.naming.Name, java.lang.Object)
      */
     public void bind(Name name, Object obj) throws NamingException {
-        this.context.bind(name, obj);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.bind(name, obj);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#bind(java.lang.String, java.lang.Object, javax.naming.directory.Attributes)
      */
     public void bind(String name, Object obj, Attributes attrs) throws NamingException {
-        this.context.bind(name, obj, attrs);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.bind(name, obj, attrs);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#bind(java.lang.String, java.lang.Object)
      */
     public void bind(String name, Object obj) throws NamingException {
-        this.context.bind(name, obj);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.bind(name, obj);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#close()
      */
     public void close() throws NamingException {
-        this.context.close();
+        if (this.pool != null || this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        if (this.server != null) {
+            //Hand the connection back so a pooling server can reuse it
+            this.server.releaseConnection(this.context);
+        }
+        else {
+            this.context.close();
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#composeName(javax.naming.Name, javax.naming.Name)
      */
     public Name composeName(Name name, Name prefix) throws NamingException {
-        return this.context.composeName(name, prefix);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return ctx.composeName(name, prefix);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#composeName(java.lang.String, java.lang.String)
      */
     public String composeName(String name, String prefix) throws NamingException {
-        return this.context.composeName(name, prefix);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return ctx.composeName(name, prefix);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#createSubcontext(javax.naming.Name, javax.naming.directory.Attributes)
      */
     public DirContext createSubcontext(Name name, Attributes attrs) throws NamingException {
-        return this.context.createSubcontext(name, attrs);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        DirContext result = null;
+        try {
+            result = this.lease(ctx, ctx.createSubcontext(name, attrs));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#createSubcontext(javax.naming.Name)
      */
     public Context createSubcontext(Name name) throws NamingException {
-        return this.context.createSubcontext(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        Context result = null;
+        try {
+            result = this.lease(ctx, ctx.createSubcontext(name));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#createSubcontext(java.lang.String, javax.naming.directory.Attributes)
      */
     public DirContext createSubcontext(String name, Attributes attrs) throws NamingException {
-        return this.context.createSubcontext(name, attrs);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        DirContext result = null;
+        try {
+            result = this.lease(ctx, ctx.createSubcontext(name, attrs));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#createSubcontext(java.lang.String)
      */
     public Context createSubcontext(String name) throws NamingException {
-        return this.context.createSubcontext(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        Context result = null;
+        try {
+            result = this.lease(ctx, ctx.createSubcontext(name));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#destroySubcontext(javax.naming.Name)
      */
     public void destroySubcontext(Name name) throws NamingException {
-        this.context.destroySubcontext(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.destroySubcontext(name);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#destroySubcontext(java.lang.String)
      */
     public void destroySubcontext(String name) throws NamingException {
-        this.context.destroySubcontext(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.destroySubcontext(name);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#getAttributes(javax.naming.Name, java.lang.String[])
      */
     public Attributes getAttributes(Name name, String[] attrIds) throws NamingException {
-        return this.context.getAttributes(name, attrIds);
+        return this.readAttributes(name, attrIds);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#getAttributes(javax.naming.Name)
      */
     public Attributes getAttributes(Name name) throws NamingException {
-        return this.context.getAttributes(name);
+        return this.readAttributes(name, null);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#getAttributes(java.lang.String, java.lang.String[])
      */
     public Attributes getAttributes(String name, String[] attrIds) throws NamingException {
-        return this.context.getAttributes(name, attrIds);
+        return this.readAttributes(name, attrIds);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#getAttributes(java.lang.String)
      */
     public Attributes getAttributes(String name) throws NamingException {
-        return this.context.getAttributes(name);
+        return this.readAttributes(name, null);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#getEnvironment()
      */
     public Hashtable<?, ?> getEnvironment() throws NamingException {
-        return this.context.getEnvironment();
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return ctx.getEnvironment();
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#getNameInNamespace()
      */
     public String getNameInNamespace() throws NamingException {
-        return this.context.getNameInNamespace();
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return ctx.getNameInNamespace();
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#getNameParser(javax.naming.Name)
      */
     public NameParser getNameParser(Name name) throws NamingException {
-        return this.context.getNameParser(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return ctx.getNameParser(name);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#getNameParser(java.lang.String)
      */
     public NameParser getNameParser(String name) throws NamingException {
-        return this.context.getNameParser(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return ctx.getNameParser(name);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#getSchema(javax.naming.Name)
      */
     public DirContext getSchema(Name name) throws NamingException {
-        return this.context.getSchema(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        DirContext result = null;
+        try {
+            result = this.lease(ctx, ctx.getSchema(name));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#getSchema(java.lang.String)
      */
     public DirContext getSchema(String name) throws NamingException {
-        return this.context.getSchema(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        DirContext result = null;
+        try {
+            result = this.lease(ctx, ctx.getSchema(name));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#getSchemaClassDefinition(javax.naming.Name)
      */
     public DirContext getSchemaClassDefinition(Name name) throws NamingException {
-        return this.context.getSchemaClassDefinition(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        DirContext result = null;
+        try {
+            result = this.lease(ctx, ctx.getSchemaClassDefinition(name));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#getSchemaClassDefinition(java.lang.String)
      */
     public DirContext getSchemaClassDefinition(String name) throws NamingException {
-        return this.context.getSchemaClassDefinition(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        DirContext result = null;
+        try {
+            result = this.lease(ctx, ctx.getSchemaClassDefinition(name));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#list(javax.naming.Name)
      */
     public NamingEnumeration<NameClassPair> list(Name name) throws NamingException {
-        return this.context.list(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return this.detach(ctx.list(name));
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#list(java.lang.String)
      */
     public NamingEnumeration<NameClassPair> list(String name) throws NamingException {
-        return this.context.list(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return this.detach(ctx.list(name));
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#listBindings(javax.naming.Name)
      */
     public NamingEnumeration<Binding> listBindings(Name name) throws NamingException {
-        return this.context.listBindings(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return this.detach(ctx.listBindings(name));
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#listBindings(java.lang.String)
      */
     public NamingEnumeration<Binding> listBindings(String name) throws NamingException {
-        return this.context.listBindings(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            return this.detach(ctx.listBindings(name));
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#lookup(javax.naming.Name)
      */
     public Object lookup(Name name) throws NamingException {
-        return this.context.lookup(name);
+        return this.readLookup(name);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#lookup(java.lang.String)
      */
     public Object lookup(String name) throws NamingException {
-        return this.context.lookup(name);
+        return this.readLookup(name);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#lookupLink(javax.naming.Name)
      */
     public Object lookupLink(Name name) throws NamingException {
-        return this.context.lookupLink(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        Object result = null;
+        try {
+            result = this.lease(ctx, ctx.lookupLink(name));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#lookupLink(java.lang.String)
      */
     public Object lookupLink(String name) throws NamingException {
-        return this.context.lookupLink(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        Object result = null;
+        try {
+            result = this.lease(ctx, ctx.lookupLink(name));
+            return result;
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            if (!isLease(result)) {
+                this.returnContext(ctx, failure);
+            }
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#modifyAttributes(javax.naming.Name, int, javax.naming.directory.Attributes)
      */
     public void modifyAttributes(Name name, int mod_op, Attributes attrs) throws NamingException {
-        this.context.modifyAttributes(name, mod_op, attrs);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.modifyAttributes(name, mod_op, attrs);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#modifyAttributes(javax.naming.Name, javax.naming.directory.ModificationItem[])
      */
     public void modifyAttributes(Name name, ModificationItem[] mods) throws NamingException {
-        this.context.modifyAttributes(name, mods);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.modifyAttributes(name, mods);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#modifyAttributes(java.lang.String, int, javax.naming.directory.Attributes)
      */
     public void modifyAttributes(String name, int mod_op, Attributes attrs) throws NamingException {
-        this.context.modifyAttributes(name, mod_op, attrs);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.modifyAttributes(name, mod_op, attrs);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#modifyAttributes(java.lang.String, javax.naming.directory.ModificationItem[])
      */
     public void modifyAttributes(String name, ModificationItem[] mods) throws NamingException {
-        this.context.modifyAttributes(name, mods);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.modifyAttributes(name, mods);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#rebind(javax.naming.Name, java.lang.Object, javax.naming.directory.Attributes)
      */
     public void rebind(Name name, Object obj, Attributes attrs) throws NamingException {
-        this.context.rebind(name, obj, attrs);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.rebind(name, obj, attrs);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#rebind(javax.naming.Name, java.lang.Object)
      */
     public void rebind(Name name, Object obj) throws NamingException {
-        this.context.rebind(name, obj);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.rebind(name, obj);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#rebind(java.lang.String, java.lang.Object, javax.naming.directory.Attributes)
      */
     public void rebind(String name, Object obj, Attributes attrs) throws NamingException {
-        this.context.rebind(name, obj, attrs);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.rebind(name, obj, attrs);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#rebind(java.lang.String, java.lang.Object)
      */
     public void rebind(String name, Object obj) throws NamingException {
-        this.context.rebind(name, obj);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.rebind(name, obj);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#removeFromEnvironment(java.lang.String)
      */
     public Object removeFromEnvironment(String propName) throws NamingException {
+        this.checkEnvironmentChange();
         return this.context.removeFromEnvironment(propName);
     }
 
@@ -445,83 +1271,222 @@ public class LdapServicesDirContext implements DirContext {
      * @see javax.naming.Context#rename(javax.naming.Name, javax.naming.Name)
      */
     public void rename(Name oldName, Name newName) throws NamingException {
-        this.context.rename(oldName, newName);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.rename(oldName, newName);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(oldName);
+            this.invalidateCache(newName);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#rename(java.lang.String, java.lang.String)
      */
     public void rename(String oldName, String newName) throws NamingException {
-        this.context.rename(oldName, newName);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.rename(oldName, newName);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(oldName);
+            this.invalidateCache(newName);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#search(javax.naming.Name, javax.naming.directory.Attributes, java.lang.String[])
      */
     public NamingEnumeration<SearchResult> search(Name name, Attributes matchingAttributes, String[] attributesToReturn) throws NamingException {
-        return this.context.search(name, matchingAttributes, attributesToReturn);
+        return this.readSearch(name, null, null, null, matchingAttributes, attributesToReturn);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#search(javax.naming.Name, javax.naming.directory.Attributes)
      */
     public NamingEnumeration<SearchResult> search(Name name, Attributes matchingAttributes) throws NamingException {
-        return this.context.search(name, matchingAttributes);
+        return this.readSearch(name, null, null, null, matchingAttributes, null);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#search(javax.naming.Name, java.lang.String, java.lang.Object[], javax.naming.directory.SearchControls)
      */
     public NamingEnumeration<SearchResult> search(Name name, String filterExpr, Object[] filterArgs, SearchControls cons) throws NamingException {
-        return this.context.search(name, filterExpr, filterArgs, cons);
+        return this.readSearch(name, filterExpr, filterArgs, cons, null, null);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#search(javax.naming.Name, java.lang.String, javax.naming.directory.SearchControls)
      */
     public NamingEnumeration<SearchResult> search(Name name, String filter, SearchControls cons) throws NamingException {
-        return this.context.search(name, filter, cons);
+        return this.readSearch(name, filter, null, cons, null, null);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#search(java.lang.String, javax.naming.directory.Attributes, java.lang.String[])
      */
     public NamingEnumeration<SearchResult> search(String name, Attributes matchingAttributes, String[] attributesToReturn) throws NamingException {
-        return this.context.search(name, matchingAttributes, attributesToReturn);
+        return this.readSearch(name, null, null, null, matchingAttributes, attributesToReturn);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#search(java.lang.String, javax.naming.directory.Attributes)
      */
     public NamingEnumeration<SearchResult> search(String name, Attributes matchingAttributes) throws NamingException {
-        return this.context.search(name, matchingAttributes);
+        return this.readSearch(name, null, null, null, matchingAttributes, null);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#search(java.lang.String, java.lang.String, java.lang.Object[], javax.naming.directory.SearchControls)
      */
     public NamingEnumeration<SearchResult> search(String name, String filterExpr, Object[] filterArgs, SearchControls cons) throws NamingException {
-        return this.context.search(name, filterExpr, filterArgs, cons);
+        return this.readSearch(name, filterExpr, filterArgs, cons, null, null);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.directory.DirContext#search(java.lang.String, java.lang.String, javax.naming.directory.SearchControls)
      */
     public NamingEnumeration<SearchResult> search(String name, String filter, SearchControls cons) throws NamingException {
-        return this.context.search(name, filter, cons);
+        return this.readSearch(name, filter, null, cons, null, null);
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#unbind(javax.naming.Name)
      */
     public void unbind(Name name) throws NamingException {
-        this.context.unbind(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.unbind(name);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
     }
 
     /* (non-Javadoc)
      * @see javax.naming.Context#unbind(java.lang.String)
      */
     public void unbind(String name) throws NamingException {
-        this.context.unbind(name);
+        final DirContext ctx = this.borrowContext();
+        NamingException failure = null;
+        try {
+            ctx.unbind(name);
+        }
+        catch (NamingException ne) {
+            failure = ne;
+            throw ne;
+        }
+        finally {
+            this.returnContext(ctx, failure);
+            this.invalidateCache(name);
+        }
+    }
+
+
+    /**
+     * Delegates to a context bound to a pooled connection and returns the
+     * connection to the pool when the context is closed. The connection is
+     * dropped instead if a call on the context found it broken.
+     */
+    private final class ContextLease implements InvocationHandler {
+        private final DirContext connection;
+        private final Context context;
+        private volatile NamingException failure = null;
+        private boolean closed = false;
+
+        public ContextLease(final DirContext connection, final Context context) {
+            this.connection = connection;
+            this.context = context;
+        }
+
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String methodName = method.getName();
+            if ("close".equals(methodName) && method.getParameterTypes().length == 0) {
+                this.close();
+                return null;
+            }
+            if ("equals".equals(methodName) && method.getParameterTypes().length == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(methodName) && method.getParameterTypes().length == 0) {
+                return System.identityHashCode(proxy);
+            }
+
+            try {
+                return method.invoke(this.context, args);
+            }
+            catch (InvocationTargetException ite) {
+                final Throwable cause = ite.getCause();
+                if (cause instanceof NamingException && LdapConnectionPool.isConnectionFailure((NamingException)cause)) {
+                    this.failure = (NamingException)cause;
+                }
+                throw cause;
+            }
+        }
+
+        private void close() throws NamingException {
+            synchronized (this) {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+            }
+
+            try {
+                this.context.close();
+            }
+            finally {
+                LdapServicesDirContext.this.returnContext(this.connection, this.failure);
+            }
+        }
+    }
+
+    /**
+     * {@link NamingEnumeration} over search results that have already been read.
+     */
+    private static final class ListNamingEnumeration<T> implements NamingEnumeration<T> {
+        private final Iterator<T> results;
+
+        public ListNamingEnumeration(final List<T> results) {
+            this.results = results.iterator();
+        }
+
+        public boolean hasMore() {
+            return this.results.hasNext();
+        }
+
+        public T next() {
+            return this.results.next();
+        }
+
+        public boolean hasMoreElements() {
+            return this.results.hasNext();
+        }
+
+        public T nextElement() {
+            return this.results.next();
+        }
+
+        public void close() {
+        }
     }
 }
@@ -0,0 +1,490 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
+
+
+/**
+ * {@link ILdapServer} that spreads connections over several replicas of the
+ * same directory. Each connection is opened on the available replica with
+ * the fewest operations in progress, ties going round-robin.
+ * <p>
+ * A replica is ejected for the retry interval when opening a connection to
+ * it fails, an operation on it fails with a {@link CommunicationException}
+ * or {@link ServiceUnavailableException}, or its average operation time
+ * passes the latency threshold. Reads that fail that way are retried on a
+ * connection to another replica, carrying over any environment changes, so
+ * callers only see the failure if every replica fails. Writes are not
+ * retried since they may have been applied. If every replica is ejected the
+ * one ejected longest ago is tried anyway.
+ * <p>
+ * Wrap it in a {@link LdapConnectionPool} to use it with
+ * {@link LdapServicesDirContext}:
+ * <pre>
+ * new LdapServicesDirContext(new LdapConnectionPool(new LoadBalancedLdapServer(), 20));
+ * </pre>
+ * 
+ * @since 1.3
+ */
+public class LoadBalancedLdapServer implements ILdapServer {
+    /** Operations that only read from the directory and can be retried on another replica */
+    private static final Set<String> READ_METHODS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "getAttributes", "search", "lookup", "lookupLink", "list", "listBindings",
+            "getSchema", "getSchemaClassDefinition", "getNameParser", "getNameInNamespace")));
+
+    /** Weight of the newest operation time in the average latency */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final Replica[] replicas;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private volatile long latencyThresholdNanos = TimeUnit.SECONDS.toNanos(2);
+    private volatile long retryIntervalNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Balances over every named server in {@link LdapServices#getServerNames()},
+     * or just the default server if there are no named servers.
+     */
+    public LoadBalancedLdapServer() {
+        this(getConfiguredServers());
+    }
+
+    /**
+     * @param servers The replicas to balance over, they must serve the same directory.
+     */
+    public LoadBalancedLdapServer(final ILdapServer[] servers) {
+        if (servers == null || servers.length == 0) {
+            throw new IllegalArgumentException("At least one server is required");
+        }
+
+        this.replicas = new Replica[servers.length];
+        for (int index = 0; index < servers.length; index++) {
+            if (servers[index] == null) {
+                throw new IllegalArgumentException("servers may not contain null");
+            }
+            this.replicas[index] = new Replica(servers[index]);
+        }
+    }
+
+    private static ILdapServer[] getConfiguredServers() {
+        final List<ILdapServer> servers = new ArrayList<ILdapServer>();
+        for (final String serverName : LdapServices.getServerNames()) {
+            final ILdapServer server = LdapServices.getServer(serverName);
+            if (server != null) {
+                servers.add(server);
+            }
+        }
+
+        if (servers.isEmpty()) {
+            final ILdapServer server = LdapServices.getDefaultServer();
+            if (server == null) {
+                throw new IllegalStateException("No ILdapServers are configured.");
+            }
+            servers.add(server);
+        }
+
+        return servers.toArray(new ILdapServer[servers.size()]);
+    }
+
+    /**
+     * @return The average operation time after which a replica is ejected.
+     */
+    public long getLatencyThreshold(final TimeUnit unit) {
+        return unit.convert(this.latencyThresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param latencyThreshold The average operation time after which a replica is ejected, defaults to two seconds.
+     * @param unit The unit of latencyThreshold.
+     */
+    public void setLatencyThreshold(final long latencyThreshold, final TimeUnit unit) {
+        if (latencyThreshold <= 0) {
+            throw new IllegalArgumentException("latencyThreshold must be greater than 0");
+        }
+        this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+    }
+
+    /**
+     * @return How long an ejected replica is skipped.
+     */
+    public long getRetryInterval(final TimeUnit unit) {
+        return unit.convert(this.retryIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param retryInterval How long an ejected replica is skipped, defaults to thirty seconds.
+     * @param unit The unit of retryInterval.
+     */
+    public void setRetryInterval(final long retryInterval, final TimeUnit unit) {
+        if (retryInterval < 0) {
+            throw new IllegalArgumentException("retryInterval may not be negative");
+        }
+        this.retryIntervalNanos = unit.toNanos(retryInterval);
+    }
+
+    /**
+     * @return The number of replicas being balanced over.
+     */
+    public int getServerCount() {
+        return this.replicas.length;
+    }
+
+    /**
+     * @return The number of replicas that are not ejected.
+     */
+    public int getAvailableServerCount() {
+        final long now = System.nanoTime();
+        int available = 0;
+        for (final Replica replica : this.replicas) {
+            if (replica.isAvailable(now)) {
+                available++;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * @return The number of times a replica has been ejected.
+     */
+    public long getEjectionCount() {
+        long ejections = 0;
+        for (final Replica replica : this.replicas) {
+            ejections += replica.ejections.get();
+        }
+        return ejections;
+    }
+
+    /**
+     * @return The number of reads that were retried on another replica.
+     */
+    public long getFailoverCount() {
+        long failovers = 0;
+        for (final Replica replica : this.replicas) {
+            failovers += replica.failovers.get();
+        }
+        return failovers;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.ldap.ILdapServer#getConnection()
+     */
+    public DirContext getConnection() throws NamingException {
+        final ConnectionHandler handler = new ConnectionHandler();
+        handler.connect(null);
+
+        final Class<?>[] interfaces;
+        if (handler.delegate instanceof LdapContext) {
+            interfaces = new Class<?>[] { LdapContext.class };
+        }
+        else {
+            interfaces = new Class<?>[] { DirContext.class };
+        }
+
+        return (DirContext)Proxy.newProxyInstance(LoadBalancedLdapServer.class.getClassLoader(), interfaces, handler);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.ldap.ILdapServer#releaseConnection(javax.naming.directory.DirContext)
+     */
+    public void releaseConnection(final DirContext ctx) {
+        if (ctx != null && Proxy.isProxyClass(ctx.getClass())) {
+            final InvocationHandler handler = Proxy.getInvocationHandler(ctx);
+            if (handler instanceof ConnectionHandler) {
+                ((ConnectionHandler)handler).release();
+            }
+        }
+    }
+
+    /**
+     * @return The base DN of the first replica.
+     * @see edu.wisc.my.apilayer.ldap.ILdapServer#getBaseDN()
+     */
+    public String getBaseDN() {
+        return this.replicas[0].server.getBaseDN();
+    }
+
+    /**
+     * @return The uid attribute of the first replica.
+     * @see edu.wisc.my.apilayer.ldap.ILdapServer#getUidAttribute()
+     */
+    public String getUidAttribute() {
+        return this.replicas[0].server.getUidAttribute();
+    }
+
+
+    /**
+     * Picks the available replica with the fewest operations in progress,
+     * starting from the next replica in round-robin order.
+     * 
+     * @param exclude Replicas that have already failed for the caller.
+     * @return The replica to connect to, null if every replica is excluded.
+     */
+    private Replica selectReplica(final Set<Replica> exclude) {
+        final long now = System.nanoTime();
+        final int start = (this.nextReplica.getAndIncrement() & Integer.MAX_VALUE) % this.replicas.length;
+
+        Replica best = null;
+        Replica fallback = null;
+        for (int offset = 0; offset < this.replicas.length; offset++) {
+            final Replica replica = this.replicas[(start + offset) % this.replicas.length];
+            if (exclude.contains(replica)) {
+                continue;
+            }
+
+            if (replica.isAvailable(now)) {
+                if (best == null || replica.outstanding.get() < best.outstanding.get()) {
+                    best = replica;
+                }
+            }
+            else if (fallback == null || replica.ejectedUntil < fallback.ejectedUntil) {
+                fallback = replica;
+            }
+        }
+
+        return best != null ? best : fallback;
+    }
+
+    /**
+     * @return true if the exception means the replica can't be used.
+     */
+    private static boolean isServerFailure(final Throwable t) {
+        return t instanceof CommunicationException || t instanceof ServiceUnavailableException;
+    }
+
+
+    /**
+     * Health and load of one replica.
+     */
+    private final class Replica {
+        private final ILdapServer server;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong ejections = new AtomicLong();
+        private final AtomicLong failovers = new AtomicLong();
+        private volatile long ejectedUntil;
+        private double averageLatencyNanos = 0;
+
+        public Replica(final ILdapServer server) {
+            this.server = server;
+            this.ejectedUntil = System.nanoTime();
+        }
+
+        public boolean isAvailable(final long now) {
+            return now - this.ejectedUntil >= 0;
+        }
+
+        public void eject() {
+            synchronized (this) {
+                this.averageLatencyNanos = 0;
+            }
+            this.ejectedUntil = System.nanoTime() + LoadBalancedLdapServer.this.retryIntervalNanos;
+            this.ejections.incrementAndGet();
+        }
+
+        public void recordLatency(final long nanos) {
+            final double average;
+            synchronized (this) {
+                this.averageLatencyNanos += (nanos - this.averageLatencyNanos) * LATENCY_WEIGHT;
+                average = this.averageLatencyNanos;
+            }
+
+            if (average > LoadBalancedLdapServer.this.latencyThresholdNanos && this.isAvailable(System.nanoTime())) {
+                this.eject();
+            }
+        }
+    }
+
+    /**
+     * One connection, moved to another replica when a read fails because
+     * its replica went away.
+     */
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Hashtable<String, Object> environmentChanges = new Hashtable<String, Object>();
+        private Replica replica;
+        private DirContext delegate;
+        private boolean released = false;
+
+        /**
+         * Opens a connection on the best replica, trying the others until one works.
+         */
+        public synchronized void connect(final Set<Replica> failed) throws NamingException {
+            final Set<Replica> exclude = failed == null ? new HashSet<Replica>() : failed;
+
+            NamingException lastFailure = null;
+            Replica candidate;
+            while ((candidate = LoadBalancedLdapServer.this.selectReplica(exclude)) != null) {
+                final DirContext ctx;
+                try {
+                    ctx = candidate.server.getConnection();
+                }
+                catch (NamingException ne) {
+                    candidate.eject();
+                    exclude.add(candidate);
+                    lastFailure = ne;
+                    continue;
+                }
+
+                try {
+                    for (final Map.Entry<String, Object> change : this.environmentChanges.entrySet()) {
+                        ctx.addToEnvironment(change.getKey(), change.getValue());
+                    }
+                }
+                catch (NamingException ne) {
+                    candidate.server.releaseConnection(ctx);
+                    throw ne;
+                }
+
+                this.replica = candidate;
+                this.delegate = ctx;
+                return;
+            }
+
+            final ServiceUnavailableException sue = new ServiceUnavailableException("None of the " + LoadBalancedLdapServer.this.replicas.length + " LDAP servers could be reached");
+            sue.setRootCause(lastFailure);
+            throw sue;
+        }
+
+        /**
+         * Hands the current connection back to its replica.
+         */
+        public synchronized void release() {
+            if (!this.released) {
+                this.released = true;
+                this.replica.server.releaseConnection(this.delegate);
+            }
+        }
+
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String methodName = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(methodName)) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(methodName)) {
+                    return System.identityHashCode(proxy);
+                }
+                return "LoadBalancedLdapServer connection to " + this.currentReplica().server;
+            }
+            if ("close".equals(methodName)) {
+                this.release();
+                return null;
+            }
+
+            final boolean read = READ_METHODS.contains(methodName);
+            Set<Replica> failed = null;
+            while (true) {
+                final Replica current;
+                final DirContext ctx;
+                synchronized (this) {
+                    current = this.replica;
+                    ctx = this.delegate;
+                }
+
+                current.outstanding.incrementAndGet();
+                final long start = System.nanoTime();
+                try {
+                    final Object result = method.invoke(ctx, args);
+                    current.recordLatency(System.nanoTime() - start);
+
+                    if ("addToEnvironment".equals(methodName)) {
+                        this.environmentChanges.put((String)args[0], args[1]);
+                    }
+                    else if ("removeFromEnvironment".equals(methodName)) {
+                        this.environmentChanges.remove(args[0]);
+                    }
+                    return result;
+                }
+                catch (InvocationTargetException ite) {
+                    final Throwable cause = ite.getCause();
+                    if (!isServerFailure(cause)) {
+                        current.recordLatency(System.nanoTime() - start);
+                        throw cause;
+                    }
+
+                    current.eject();
+                    if (!read) {
+                        throw cause;
+                    }
+
+                    if (failed == null) {
+                        failed = new HashSet<Replica>();
+                    }
+                    failed.add(current);
+                    if (!this.failover(current, failed)) {
+                        throw cause;
+                    }
+                }
+                finally {
+                    current.outstanding.decrementAndGet();
+                }
+            }
+        }
+
+        private synchronized Replica currentReplica() {
+            return this.replica;
+        }
+
+        /**
+         * Replaces the connection to the failed replica with one to another replica.
+         * 
+         * @return false if no other replica could be connected to.
+         */
+        private synchronized boolean failover(final Replica current, final Set<Replica> failed) {
+            if (this.released) {
+                return false;
+            }
+            if (this.replica != current) {
+                //Another thread already moved this connection
+                return true;
+            }
+
+            final DirContext oldDelegate = this.delegate;
+            try {
+                this.connect(failed);
+            }
+            catch (NamingException ne) {
+                return false;
+            }
+
+            current.server.releaseConnection(oldDelegate);
+            current.failovers.incrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.ldap;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+
+/**
+ * Search results read one page at a time with the Simple Paged Results
+ * control (RFC 2696). The next page is only requested once the current one
+ * has been read, so at most one page is held in memory no matter how many
+ * entries match and the caller's reading speed throttles the search.
+ * <p>
+ * The search runs on its own {@link LdapContext} instance so the request
+ * controls don't affect other operations on the connection. The connection is
+ * given back once the results are exhausted, fail or are closed.
+ * 
+ * @since 1.3
+ */
+abstract class PagedSearchEnumeration implements NamingEnumeration<SearchResult> {
+    private final LdapContext pagedContext;
+    private final String name;
+    private final String filterExpr;
+    private final Object[] filterArgs;
+    private final SearchControls cons;
+    private final int pageSize;
+    private NamingEnumeration<SearchResult> page;
+    private byte[] cookie = null;
+    private boolean closed = false;
+    private NamingException failure = null;
+
+    PagedSearchEnumeration(final LdapContext context, final String name, final String filterExpr, final Object[] filterArgs, final SearchControls cons, final int pageSize) throws NamingException {
+        this.pagedContext = context.newInstance(null);
+        this.name = name;
+        this.filterExpr = filterExpr;
+        this.filterArgs = filterArgs;
+        this.cons = cons;
+        this.pageSize = pageSize;
+
+        //If the first page fails the caller still owns the connection
+        try {
+            this.page = this.fetchPage();
+        }
+        catch (NamingException ne) {
+            this.closed = true;
+            this.pagedContext.close();
+            throw ne;
+        }
+        catch (RuntimeException re) {
+            this.closed = true;
+            this.pagedContext.close();
+            throw re;
+        }
+    }
+
+    /**
+     * Called once when the search is finished with its connection.
+     * 
+     * @param failure The exception the search failed with, null if it didn't fail.
+     */
+    protected abstract void connectionDone(NamingException failure);
+
+    public boolean hasMore() throws NamingException {
+        try {
+            while (!this.closed) {
+                if (this.page.hasMore()) {
+                    return true;
+                }
+
+                this.page.close();
+                this.cookie = this.getResponseCookie();
+                if (this.cookie == null || this.cookie.length == 0) {
+                    this.close();
+                    return false;
+                }
+
+                this.page = this.fetchPage();
+            }
+            return false;
+        }
+        catch (NamingException ne) {
+            this.failure = ne;
+            this.closeQuietly();
+            throw ne;
+        }
+    }
+
+    public SearchResult next() throws NamingException {
+        if (!this.hasMore()) {
+            throw new NoSuchElementException();
+        }
+
+        return this.page.next();
+    }
+
+    public boolean hasMoreElements() {
+        try {
+            return this.hasMore();
+        }
+        catch (NamingException ne) {
+            return false;
+        }
+    }
+
+    public SearchResult nextElement() {
+        try {
+            return this.next();
+        }
+        catch (NamingException ne) {
+            final NoSuchElementException nsee = new NoSuchElementException(ne.getMessage());
+            nsee.initCause(ne);
+            throw nsee;
+        }
+    }
+
+    public void close() throws NamingException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        try {
+            if (this.page != null) {
+                this.page.close();
+            }
+            this.pagedContext.close();
+        }
+        finally {
+            this.connectionDone(this.failure);
+        }
+    }
+
+
+    private NamingEnumeration<SearchResult> fetchPage() throws NamingException {
+        final PagedResultsControl pagedControl;
+        try {
+            pagedControl = new PagedResultsControl(this.pageSize, this.cookie, Control.CRITICAL);
+        }
+        catch (IOException ioe) {
+            final NamingException ne = new NamingException("Could not encode the paged results control");
+            ne.setRootCause(ioe);
+            throw ne;
+        }
+
+        this.pagedContext.setRequestControls(new Control[] { pagedControl });
+        if (this.filterArgs == null) {
+            return this.pagedContext.search(this.name, this.filterExpr, this.cons);
+        }
+        return this.pagedContext.search(this.name, this.filterExpr, this.filterArgs, this.cons);
+    }
+
+    private byte[] getResponseCookie() throws NamingException {
+        final Control[] controls = this.pagedContext.getResponseControls();
+        if (controls != null) {
+            for (final Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    return ((PagedResultsResponseControl)control).getCookie();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void closeQuietly() {
+        try {
+            this.close();
+        }
+        catch (NamingException ne) {
+            //The original failure is more useful than a failure to close
+        }
+    }
+}
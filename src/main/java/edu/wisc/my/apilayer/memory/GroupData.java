@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+
+
+/**
+ * Immutable committed state of one group in an {@link InMemoryGroupStore}.
+ * Changes replace the whole instance so readers always see a consistent
+ * group without locking.
+ * 
+ * @since 1.3
+ */
+final class GroupData {
+    final int id;
+    final String key;
+    final String name;
+    final String description;
+    final String creatorId;
+    final Class<? extends IBasicEntity> leafType;
+    /** Sorted ids of the groups that directly contain this group */
+    final int[] parentIds;
+    /** Sorted ids of every group that directly or indirectly contains this group */
+    final int[] ancestorIds;
+    /** Sorted ids of the member groups */
+    final int[] memberGroupIds;
+    /** Sorted keys of the member entities, all of the leaf type */
+    final String[] memberEntityKeys;
+
+    GroupData(final int id, final String key, final String name, final String description, final String creatorId, final Class<? extends IBasicEntity> leafType,
+            final int[] parentIds, final int[] ancestorIds, final int[] memberGroupIds, final String[] memberEntityKeys) {
+        this.id = id;
+        this.key = key;
+        this.name = name;
+        this.description = description;
+        this.creatorId = creatorId;
+        this.leafType = leafType;
+        this.parentIds = parentIds;
+        this.ancestorIds = ancestorIds;
+        this.memberGroupIds = memberGroupIds;
+        this.memberEntityKeys = memberEntityKeys;
+    }
+
+    GroupData withAttributes(final String newName, final String newDescription, final String newCreatorId) {
+        return new GroupData(this.id, this.key, newName, newDescription, newCreatorId, this.leafType, this.parentIds, this.ancestorIds, this.memberGroupIds, this.memberEntityKeys);
+    }
+
+    GroupData withParents(final int[] newParentIds, final int[] newAncestorIds) {
+        return new GroupData(this.id, this.key, this.name, this.description, this.creatorId, this.leafType, newParentIds, newAncestorIds, this.memberGroupIds, this.memberEntityKeys);
+    }
+
+    GroupData withMembers(final int[] newMemberGroupIds, final String[] newMemberEntityKeys) {
+        return new GroupData(this.id, this.key, this.name, this.description, this.creatorId, this.leafType, this.parentIds, this.ancestorIds, newMemberGroupIds, newMemberEntityKeys);
+    }
+
+    /**
+     * @return true if the group with the id is this group's parent or ancestor.
+     */
+    boolean isDescendantOf(final int groupId) {
+        return IntArrays.contains(this.ancestorIds, groupId);
+    }
+}
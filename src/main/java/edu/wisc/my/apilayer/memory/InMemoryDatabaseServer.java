@@ -0,0 +1,74 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import javax.sql.DataSource;
+
+import edu.wisc.my.apilayer.rdbm.IDatabaseServer;
+
+
+/**
+ * {@link IDatabaseServer} for a caller supplied {@link DataSource}.
+ * 
+ * @since 1.3
+ */
+public final class InMemoryDatabaseServer implements IDatabaseServer {
+    private final DataSource dataSource;
+    private final boolean outerJoins;
+    private final boolean transactions;
+
+    /**
+     * Creates a server that supports outer joins and transactions.
+     */
+    public InMemoryDatabaseServer(final DataSource dataSource) {
+        this(dataSource, true, true);
+    }
+
+    public InMemoryDatabaseServer(final DataSource dataSource, final boolean outerJoins, final boolean transactions) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource may not be null");
+        }
+
+        this.dataSource = dataSource;
+        this.outerJoins = outerJoins;
+        this.transactions = transactions;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.rdbm.IDatabaseServer#getDataSource()
+     */
+    public DataSource getDataSource() {
+        return this.dataSource;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.rdbm.IDatabaseServer#supportsOuterJoins()
+     */
+    public boolean supportsOuterJoins() {
+        return this.outerJoins;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.rdbm.IDatabaseServer#supportsTransactions()
+     */
+    public boolean supportsTransactions() {
+        return this.transactions;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.wisc.my.apilayer.internal.IDatabaseServices;
+import edu.wisc.my.apilayer.rdbm.IDatabaseServer;
+
+
+/**
+ * Database services that hand out registered {@link IDatabaseServer}s. The
+ * API has no database of its own, load tests register an
+ * {@link InMemoryDatabaseServer} wrapping the {@link javax.sql.DataSource} of
+ * an embedded in-memory database.
+ * 
+ * @since 1.3
+ */
+public class InMemoryDatabaseServices implements IDatabaseServices {
+    private final IDatabaseServer defaultServer;
+    private final ConcurrentMap<String, IDatabaseServer> servers = new ConcurrentHashMap<String, IDatabaseServer>();
+
+    public InMemoryDatabaseServices(final IDatabaseServer defaultServer) {
+        this.defaultServer = defaultServer;
+    }
+
+    /**
+     * Registers a named server, replacing any server with the same name.
+     */
+    public void addServer(final String name, final IDatabaseServer server) {
+        this.servers.put(name, server);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IDatabaseServices#getDefaultServer()
+     */
+    public IDatabaseServer getDefaultServer() {
+        return this.defaultServer;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IDatabaseServices#getServer(java.lang.String)
+     */
+    public IDatabaseServer getServer(final String name) {
+        return this.servers.get(name);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IDatabaseServices#getServerNames()
+     */
+    public String[] getServerNames() {
+        return this.servers.keySet().toArray(new String[0]);
+    }
+}
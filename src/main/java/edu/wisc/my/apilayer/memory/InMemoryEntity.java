@@ -0,0 +1,77 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IEntity;
+import edu.wisc.my.apilayer.groups.IEntityGroup;
+import edu.wisc.my.apilayer.groups.IGroupMember;
+
+
+/**
+ * Entity handle of an {@link InMemoryGroupStore}.
+ * 
+ * @since 1.3
+ */
+class InMemoryEntity extends InMemoryGroupMember implements IEntity {
+    InMemoryEntity(final InMemoryGroupStore store, final String key, final Class<? extends IBasicEntity> type) {
+        super(store, new InMemoryEntityIdentifier(key, type), type);
+    }
+
+    public boolean isGroup() {
+        return false;
+    }
+
+    public boolean contains(final IGroupMember gm) throws GroupsException {
+        return false;
+    }
+
+    public boolean deepContains(final IGroupMember gm) throws GroupsException {
+        return false;
+    }
+
+    public Iterator<IEntity> getAllEntities() throws GroupsException {
+        return Collections.<IEntity>emptyList().iterator();
+    }
+
+    public Iterator<IGroupMember> getAllMembers() throws GroupsException {
+        return Collections.<IGroupMember>emptyList().iterator();
+    }
+
+    public Iterator<IEntity> getEntities() throws GroupsException {
+        return Collections.<IEntity>emptyList().iterator();
+    }
+
+    public IEntityGroup getMemberGroupNamed(final String name) throws GroupsException {
+        return null;
+    }
+
+    public Iterator<IGroupMember> getMembers() throws GroupsException {
+        return Collections.<IGroupMember>emptyList().iterator();
+    }
+
+    public boolean hasMembers() throws GroupsException {
+        return false;
+    }
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.Name;
+
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IEntity;
+import edu.wisc.my.apilayer.groups.IEntityGroup;
+import edu.wisc.my.apilayer.groups.IEntityLock;
+import edu.wisc.my.apilayer.groups.IGroupMember;
+import edu.wisc.my.apilayer.groups.IIndividualGroupService;
+import edu.wisc.my.apilayer.groups.ILockableEntityGroup;
+import edu.wisc.my.apilayer.groups.LockingException;
+
+
+/**
+ * Group handle of an {@link InMemoryGroupStore}. The name, description and
+ * creator are copied from the store when the handle is created and membership
+ * changes are held by the handle, nothing is stored until {@link #update()}
+ * or {@link #updateMembers()} is called. Like other group implementations a
+ * handle is not thread safe, the store it writes to is.
+ * 
+ * @since 1.3
+ */
+class InMemoryEntityGroup extends InMemoryGroupMember implements IEntityGroup {
+    private final Map<InMemoryEntityIdentifier, IGroupMember> addedMembers = new LinkedHashMap<InMemoryEntityIdentifier, IGroupMember>();
+    private final Map<InMemoryEntityIdentifier, IGroupMember> removedMembers = new LinkedHashMap<InMemoryEntityIdentifier, IGroupMember>();
+    private String name;
+    private String description;
+    private String creatorId;
+
+    InMemoryEntityGroup(final InMemoryGroupStore store, final String key, final Class<? extends IBasicEntity> leafType, final boolean isNew) {
+        super(store, new InMemoryEntityIdentifier(key, IEntityGroup.class), leafType);
+
+        final GroupData data = isNew ? null : store.getData(key);
+        if (data != null) {
+            this.name = data.name;
+            this.description = data.description;
+            this.creatorId = data.creatorId;
+        }
+    }
+
+    /**
+     * Copies the pending membership changes into the sets.
+     */
+    void getChanges(final Set<IGroupMember> added, final Set<IGroupMember> removed) {
+        added.addAll(this.addedMembers.values());
+        removed.addAll(this.removedMembers.values());
+    }
+
+    /**
+     * Forgets the pending membership changes once they have been stored.
+     */
+    void clearChanges() {
+        this.addedMembers.clear();
+        this.removedMembers.clear();
+    }
+
+    public boolean isGroup() {
+        return true;
+    }
+
+    public void addMember(final IGroupMember gm) throws GroupsException {
+        final InMemoryEntityIdentifier memberIdentifier = identify(gm);
+        if (gm.isGroup()) {
+            if (this.getKey().equals(gm.getKey()) || this.store.isDeepMember(this, gm.getKey())) {
+                throw new InMemoryGroupsException(InMemoryGroupsException.CIRCULAR_REFERENCE, "Adding '" + gm.getKey() + "' to '" + this.getKey() + "' would create a circular reference");
+            }
+
+            final String memberName = ((IEntityGroup)gm).getName();
+            final IEntityGroup namesake = this.getMemberGroupNamed(memberName);
+            if (namesake != null && !namesake.equals(gm)) {
+                throw new InMemoryGroupsException(InMemoryGroupsException.DUPLICATE_NAME, "Group '" + this.getKey() + "' already contains a group named '" + memberName + "'");
+            }
+        }
+        else if (gm.getLeafType() != this.getLeafType()) {
+            throw new InMemoryGroupsException(InMemoryGroupsException.INVALID_MEMBER, "Group '" + this.getKey() + "' can only contain entities of type " + this.getLeafType().getName());
+        }
+
+        if (this.removedMembers.remove(memberIdentifier) == null) {
+            this.addedMembers.put(memberIdentifier, gm);
+        }
+    }
+
+    public void removeMember(final IGroupMember gm) throws GroupsException {
+        final InMemoryEntityIdentifier memberIdentifier = identify(gm);
+        if (this.addedMembers.remove(memberIdentifier) == null) {
+            this.removedMembers.put(memberIdentifier, gm);
+        }
+    }
+
+    public boolean contains(final IGroupMember gm) throws GroupsException {
+        final InMemoryEntityIdentifier memberIdentifier = identify(gm);
+        if (this.addedMembers.containsKey(memberIdentifier)) {
+            return true;
+        }
+        if (this.removedMembers.containsKey(memberIdentifier)) {
+            return false;
+        }
+
+        return this.store.contains(this, gm);
+    }
+
+    public boolean deepContains(final IGroupMember gm) throws GroupsException {
+        final InMemoryEntityIdentifier memberIdentifier = identify(gm);
+        if (this.addedMembers.isEmpty() && this.removedMembers.isEmpty()) {
+            return this.store.isDeepMember(memberIdentifier, this.getKey());
+        }
+
+        //The store doesn't know the uncommitted changes, search below the members this group has with them
+        if (this.contains(gm)) {
+            return true;
+        }
+        for (final IGroupMember member : this.getMemberList()) {
+            if (member.isGroup() && this.store.isDeepMember(memberIdentifier, member.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Iterator<IGroupMember> getMembers() throws GroupsException {
+        return this.getMemberList().iterator();
+    }
+
+    public Iterator<IEntity> getEntities() throws GroupsException {
+        final List<IEntity> entities = new ArrayList<IEntity>();
+        for (final IGroupMember member : this.getMemberList()) {
+            if (!member.isGroup()) {
+                entities.add((IEntity)member);
+            }
+        }
+        return entities.iterator();
+    }
+
+    public Iterator<IGroupMember> getAllMembers() throws GroupsException {
+        final Set<IGroupMember> allMembers = new LinkedHashSet<IGroupMember>();
+        final Set<Integer> visitedIds = new HashSet<Integer>();
+        for (final IGroupMember member : this.getMemberList()) {
+            allMembers.add(member);
+
+            final GroupData data = member.isGroup() ? this.store.getData(member.getKey()) : null;
+            if (data != null) {
+                this.collectMembers(data, visitedIds, allMembers);
+            }
+        }
+        return allMembers.iterator();
+    }
+
+    public Iterator<IEntity> getAllEntities() throws GroupsException {
+        final List<IEntity> entities = new ArrayList<IEntity>();
+        for (final Iterator<IGroupMember> memberItr = this.getAllMembers(); memberItr.hasNext();) {
+            final IGroupMember member = memberItr.next();
+            if (!member.isGroup()) {
+                entities.add((IEntity)member);
+            }
+        }
+        return entities.iterator();
+    }
+
+    public IEntityGroup getMemberGroupNamed(final String groupName) throws GroupsException {
+        for (final IGroupMember member : this.getMemberList()) {
+            if (member.isGroup() && groupName.equals(((IEntityGroup)member).getName())) {
+                return (IEntityGroup)member;
+            }
+        }
+        return null;
+    }
+
+    public boolean hasMembers() throws GroupsException {
+        if (!this.addedMembers.isEmpty()) {
+            return true;
+        }
+
+        final GroupData data = this.store.getData(this.getKey());
+        return data != null && data.memberGroupIds.length + data.memberEntityKeys.length > this.removedMembers.size();
+    }
+
+    public void delete() throws GroupsException {
+        this.store.delete(this);
+    }
+
+    public void update() throws GroupsException {
+        this.store.update(this);
+    }
+
+    public void updateMembers() throws GroupsException {
+        this.store.updateMembers(this);
+    }
+
+    public String getCreatorID() {
+        return this.creatorId;
+    }
+
+    public void setCreatorID(final String userID) {
+        this.creatorId = userID;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public void setDescription(final String description) {
+        this.description = description;
+    }
+
+    public String getLocalKey() {
+        return this.getKey();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(final String name) throws GroupsException {
+        this.name = name;
+    }
+
+    /**
+     * @return null, the store is not part of a composite service.
+     */
+    public Name getServiceName() {
+        return null;
+    }
+
+    public boolean isEditable() throws GroupsException {
+        return true;
+    }
+
+    public void setLocalGroupService(final IIndividualGroupService groupService) throws GroupsException {
+    }
+
+
+    /**
+     * @return The stored members with the pending changes applied.
+     */
+    private List<IGroupMember> getMemberList() {
+        final List<IGroupMember> members = new ArrayList<IGroupMember>();
+
+        final GroupData data = this.store.getData(this.getKey());
+        if (data != null) {
+            this.addStoredMembers(data, members, this.removedMembers.keySet());
+        }
+
+        members.addAll(this.addedMembers.values());
+        return members;
+    }
+
+    private void addStoredMembers(final GroupData data, final Collection<IGroupMember> members, final Set<InMemoryEntityIdentifier> excluded) {
+        for (final IEntityGroup memberGroup : this.store.toGroups(data.memberGroupIds)) {
+            if (excluded.isEmpty() || !excluded.contains(memberGroup.getUnderlyingEntityIdentifier())) {
+                members.add(memberGroup);
+            }
+        }
+        for (final String entityKey : data.memberEntityKeys) {
+            final InMemoryEntity entity = new InMemoryEntity(this.store, entityKey, data.leafType);
+            if (excluded.isEmpty() || !excluded.contains(entity.getUnderlyingEntityIdentifier())) {
+                members.add(entity);
+            }
+        }
+    }
+
+    private void collectMembers(final GroupData data, final Set<Integer> visitedIds, final Set<IGroupMember> allMembers) {
+        if (!visitedIds.add(data.id)) {
+            return;
+        }
+
+        this.addStoredMembers(data, allMembers, Collections.<InMemoryEntityIdentifier>emptySet());
+        for (final int memberId : data.memberGroupIds) {
+            final GroupData member = this.store.getData(memberId);
+            if (member != null) {
+                this.collectMembers(member, visitedIds, allMembers);
+            }
+        }
+    }
+
+
+    /**
+     * Lockable group handle. Stores fail once the lock is no longer valid.
+     */
+    static class Lockable extends InMemoryEntityGroup implements ILockableEntityGroup {
+        private IEntityLock lock;
+
+        Lockable(final InMemoryGroupStore store, final String key, final Class<? extends IBasicEntity> leafType) {
+            super(store, key, leafType, false);
+        }
+
+        public IEntityLock getLock() {
+            return this.lock;
+        }
+
+        public void setLock(final IEntityLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public void delete() throws GroupsException {
+            this.checkLock();
+            super.delete();
+        }
+
+        @Override
+        public void update() throws GroupsException {
+            this.checkLock();
+            super.update();
+        }
+
+        @Override
+        public void updateMembers() throws GroupsException {
+            this.checkLock();
+            super.updateMembers();
+        }
+
+        public void updateAndRenewLock() throws GroupsException {
+            this.update();
+            this.renewLock();
+        }
+
+        public void updateMembersAndRenewLock() throws GroupsException {
+            this.updateMembers();
+            this.renewLock();
+        }
+
+        private void checkLock() throws GroupsException {
+            try {
+                if (this.lock == null || !this.lock.isValid()) {
+                    throw new InMemoryGroupsException(InMemoryGroupsException.LOCK_FAILED, "The lock on group '" + this.getKey() + "' is not valid");
+                }
+            }
+            catch (LockingException le) {
+                throw new InMemoryGroupsException(InMemoryGroupsException.LOCK_FAILED, "The lock on group '" + this.getKey() + "' could not be checked", le);
+            }
+        }
+
+        private void renewLock() throws GroupsException {
+            try {
+                this.lock.renew();
+            }
+            catch (LockingException le) {
+                throw new InMemoryGroupsException(InMemoryGroupsException.LOCK_FAILED, "The lock on group '" + this.getKey() + "' could not be renewed", le);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IEntityIdentifier;
+
+
+/**
+ * Immutable key and type pair. Equal to any {@link IEntityIdentifier} with
+ * the same key and type.
+ * 
+ * @since 1.3
+ */
+public final class InMemoryEntityIdentifier implements IEntityIdentifier {
+    private final String key;
+    private final Class<? extends IBasicEntity> type;
+    private final int hash;
+
+    public InMemoryEntityIdentifier(final String key, final Class<? extends IBasicEntity> type) {
+        if (key == null || type == null) {
+            throw new IllegalArgumentException("key and type may not be null");
+        }
+
+        this.key = key;
+        this.type = type;
+        this.hash = 31 * type.getName().hashCode() + key.hashCode();
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public Class<? extends IBasicEntity> getType() {
+        return this.type;
+    }
+
+    /* 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof IEntityIdentifier)) {
+            return false;
+        }
+
+        final IEntityIdentifier other = (IEntityIdentifier)o;
+        return this.type == other.getType() && this.key.equals(other.getKey());
+    }
+
+    /*
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    /* 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.type.getName() + "(" + this.key + ")";
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.Iterator;
+
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IEntityGroup;
+import edu.wisc.my.apilayer.groups.IEntityIdentifier;
+import edu.wisc.my.apilayer.groups.IGroupMember;
+
+
+/**
+ * Behavior shared by the groups and entities of an {@link InMemoryGroupStore}.
+ * Members are light handles, all membership questions are answered by the
+ * store.
+ * 
+ * @since 1.3
+ */
+abstract class InMemoryGroupMember implements IGroupMember {
+    final InMemoryGroupStore store;
+    private final InMemoryEntityIdentifier identifier;
+    private final Class<? extends IBasicEntity> leafType;
+
+    InMemoryGroupMember(final InMemoryGroupStore store, final InMemoryEntityIdentifier identifier, final Class<? extends IBasicEntity> leafType) {
+        this.store = store;
+        this.identifier = identifier;
+        this.leafType = leafType;
+    }
+
+    /**
+     * @return The identifier the store uses for the member.
+     */
+    static InMemoryEntityIdentifier identify(final IGroupMember gm) {
+        if (gm instanceof InMemoryGroupMember) {
+            return ((InMemoryGroupMember)gm).identifier;
+        }
+
+        return new InMemoryEntityIdentifier(gm.getKey(), gm.isGroup() ? IEntityGroup.class : gm.getLeafType());
+    }
+
+    public Iterator<IEntityGroup> getAllContainingGroups() throws GroupsException {
+        return this.store.toGroups(this.store.getAncestorIds(this)).iterator();
+    }
+
+    public Iterator<IEntityGroup> getContainingGroups() throws GroupsException {
+        return this.store.toGroups(this.store.getParentIds(this)).iterator();
+    }
+
+    public boolean isDeepMemberOf(final IGroupMember gm) throws GroupsException {
+        if (gm instanceof InMemoryGroupMember) {
+            return gm.isGroup() && this.store.isDeepMember(this, gm.getKey());
+        }
+
+        return gm.deepContains(this);
+    }
+
+    public boolean isMemberOf(final IGroupMember gm) throws GroupsException {
+        return gm.contains(this);
+    }
+
+    public Class<? extends IBasicEntity> getEntityType() {
+        return this.leafType;
+    }
+
+    public Class<? extends IBasicEntity> getLeafType() {
+        return this.leafType;
+    }
+
+    public String getKey() {
+        return this.identifier.getKey();
+    }
+
+    public Class<? extends IBasicEntity> getType() {
+        return this.identifier.getType();
+    }
+
+    public IEntityIdentifier getUnderlyingEntityIdentifier() {
+        return this.identifier;
+    }
+
+    public IEntityIdentifier getEntityIdentifier() {
+        return this.identifier;
+    }
+
+    public boolean isEntity() {
+        return !this.isGroup();
+    }
+
+    /* 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof IGroupMember)) {
+            return false;
+        }
+
+        return this.identifier.equals(((IGroupMember)o).getUnderlyingEntityIdentifier());
+    }
+
+    /*
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return this.identifier.hashCode();
+    }
+
+    /* 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.identifier.toString();
+    }
+}
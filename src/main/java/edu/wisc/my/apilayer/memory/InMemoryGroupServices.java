@@ -0,0 +1,359 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.CompositeName;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.ICompositeGroupService;
+import edu.wisc.my.apilayer.groups.IEntity;
+import edu.wisc.my.apilayer.groups.IEntityGroup;
+import edu.wisc.my.apilayer.groups.IEntityGroupStore;
+import edu.wisc.my.apilayer.groups.IEntityIdentifier;
+import edu.wisc.my.apilayer.groups.IGroupMember;
+import edu.wisc.my.apilayer.groups.IGroupService;
+import edu.wisc.my.apilayer.groups.ILockableEntityGroup;
+import edu.wisc.my.apilayer.groups.InMemoryEntityLockService;
+import edu.wisc.my.apilayer.groups.LockingException;
+import edu.wisc.my.apilayer.groups.SearchMethod;
+import edu.wisc.my.apilayer.internal.IGroupServices;
+
+
+/**
+ * Group services backed by an {@link InMemoryGroupStore}. The services act as
+ * a single, non-composite group service and lock groups with an
+ * {@link InMemoryEntityLockService}.
+ * <p>
+ * Group searches use the store's name index. Entity searches scan the keys of
+ * the entities that belong to at least one group.
+ * 
+ * @since 1.3
+ */
+public class InMemoryGroupServices implements IGroupServices, IGroupService {
+    private final InMemoryGroupStore store;
+    private final InMemoryEntityLockService lockService;
+    private final ConcurrentMap<String, String> distinguishedGroupKeys = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<Class<? extends IBasicEntity>, String> rootGroupKeys = new ConcurrentHashMap<Class<? extends IBasicEntity>, String>();
+
+    /**
+     * Creates services with an empty store and a lock service with a five
+     * minute default lock duration.
+     */
+    public InMemoryGroupServices() {
+        this(new InMemoryGroupStore(), new InMemoryEntityLockService(300));
+    }
+
+    public InMemoryGroupServices(final InMemoryGroupStore store, final InMemoryEntityLockService lockService) {
+        if (store == null || lockService == null) {
+            throw new IllegalArgumentException("store and lockService may not be null");
+        }
+
+        this.store = store;
+        this.lockService = lockService;
+    }
+
+    /**
+     * @return The store the services read and write.
+     */
+    public InMemoryGroupStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * @return The service used to lock groups.
+     */
+    public InMemoryEntityLockService getLockService() {
+        return this.lockService;
+    }
+
+    /**
+     * Registers the key of a distinguished group such as "Everyone".
+     */
+    public void setDistinguishedGroupKey(final String name, final String key) {
+        this.distinguishedGroupKeys.put(name, key);
+    }
+
+    /**
+     * Registers the key of the root group for an entity type.
+     */
+    public void setRootGroupKey(final Class<? extends IBasicEntity> type, final String key) {
+        this.rootGroupKeys.put(type, key);
+    }
+
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#findGroup(java.lang.String)
+     */
+    public IEntityGroup findGroup(final String key) throws GroupsException {
+        return this.store.find(key);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getEntity(java.lang.String, java.lang.Class)
+     */
+    public IEntity getEntity(final String key, final Class<? extends IBasicEntity> type) throws GroupsException {
+        return new InMemoryEntity(this.store, key, type);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getEntity(java.lang.String, java.lang.Class, java.lang.String)
+     */
+    public IEntity getEntity(final String key, final Class<? extends IBasicEntity> type, final String service) throws GroupsException {
+        return this.getEntity(key, type);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getGroupMember(java.lang.String, java.lang.Class)
+     */
+    public IGroupMember getGroupMember(final String key, final Class<? extends IBasicEntity> type) throws GroupsException {
+        if (IEntityGroup.class.isAssignableFrom(type)) {
+            return this.findGroup(key);
+        }
+
+        return this.getEntity(key, type);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getGroupMember(edu.wisc.my.apilayer.groups.IEntityIdentifier)
+     */
+    public IGroupMember getGroupMember(final IEntityIdentifier underlyingIEntityIdentifier) throws GroupsException {
+        return this.getGroupMember(underlyingIEntityIdentifier.getKey(), underlyingIEntityIdentifier.getType());
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#newGroup(java.lang.Class)
+     */
+    public IEntityGroup newGroup(final Class<? extends IBasicEntity> type) throws GroupsException {
+        return this.store.newInstance(type);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#newGroup(java.lang.Class, java.lang.String)
+     */
+    public IEntityGroup newGroup(final Class<? extends IBasicEntity> type, final String serviceName) throws GroupsException {
+        return this.newGroup(type);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#searchForGroups(java.lang.String, edu.wisc.my.apilayer.groups.SearchMethod, java.lang.Class)
+     */
+    public IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype) throws GroupsException {
+        return this.store.searchForGroups(query, method, leaftype);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#searchForGroups(java.lang.String, edu.wisc.my.apilayer.groups.SearchMethod, java.lang.Class, edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype, final IEntityGroup ancestor) throws GroupsException {
+        return this.filterByAncestor(this.searchForGroups(query, method, leaftype), ancestor);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#searchForEntities(java.lang.String, edu.wisc.my.apilayer.groups.SearchMethod, java.lang.Class)
+     */
+    public IEntityIdentifier[] searchForEntities(final String query, final SearchMethod method, final Class<? extends IBasicEntity> type) throws GroupsException {
+        final String normalizedQuery = query.toLowerCase(Locale.ENGLISH);
+
+        final List<IEntityIdentifier> results = new ArrayList<IEntityIdentifier>();
+        for (final String key : this.store.getEntityKeys(type)) {
+            if (matches(key.toLowerCase(Locale.ENGLISH), normalizedQuery, method)) {
+                results.add(new InMemoryEntityIdentifier(key, type));
+            }
+        }
+        return results.toArray(new IEntityIdentifier[results.size()]);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#searchForEntities(java.lang.String, edu.wisc.my.apilayer.groups.SearchMethod, java.lang.Class, edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public IEntityIdentifier[] searchForEntities(final String query, final SearchMethod method, final Class<? extends IBasicEntity> type, final IEntityGroup ancestor) throws GroupsException {
+        return this.filterByAncestor(this.searchForEntities(query, method, type), ancestor);
+    }
+
+    /**
+     * Finds the group and takes a write lock on it for the owner.
+     * 
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#findLockableGroup(java.lang.String, java.lang.String)
+     */
+    public ILockableEntityGroup findLockableGroup(final String key, final String lockOwner) throws GroupsException {
+        final ILockableEntityGroup group = this.store.findLockable(key);
+        if (group == null) {
+            return null;
+        }
+
+        try {
+            group.setLock(this.lockService.newWriteLock(IEntityGroup.class, key, lockOwner));
+        }
+        catch (LockingException le) {
+            throw new InMemoryGroupsException(InMemoryGroupsException.LOCK_FAILED, "Could not lock group '" + key + "' for '" + lockOwner + "'", le);
+        }
+
+        return group;
+    }
+
+    /**
+     * @return null, the services are not composite.
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getCompositeGroupService()
+     */
+    public ICompositeGroupService getCompositeGroupService() throws GroupsException {
+        return null;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#isComposite()
+     */
+    public boolean isComposite() {
+        return false;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getGroupService()
+     */
+    public IGroupService getGroupService() throws GroupsException {
+        return this;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getDistinguishedGroup(java.lang.String)
+     */
+    public IEntityGroup getDistinguishedGroup(final String name) throws GroupsException {
+        final String key = this.getDistinguishedGroupKey(name);
+        return key == null ? null : this.findGroup(key);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getDistinguishedGroupKey(java.lang.String)
+     */
+    public String getDistinguishedGroupKey(final String name) throws GroupsException {
+        return this.distinguishedGroupKeys.get(name);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#getRootGroup(java.lang.Class)
+     */
+    public IEntityGroup getRootGroup(final Class<? extends IBasicEntity> type) throws GroupsException {
+        final String key = this.rootGroupKeys.get(type);
+        return key == null ? null : this.findGroup(key);
+    }
+
+    /**
+     * @return The key unchanged, keys are not qualified by a service name.
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#parseLocalKey(java.lang.String)
+     */
+    public String parseLocalKey(final String compositeKey) throws InvalidNameException, GroupsException {
+        return compositeKey;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#parseServiceName(java.lang.String)
+     */
+    public Name parseServiceName(final String serviceName) throws InvalidNameException, GroupsException {
+        return new CompositeName(serviceName);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IGroupServices#findContainingGroups(java.util.Collection)
+     */
+    public Map<IEntityIdentifier, Set<IEntityGroup>> findContainingGroups(final Collection<IEntityIdentifier> underlyingEntityIdentifiers) throws GroupsException {
+        return this.store.findContainingGroups(underlyingEntityIdentifiers);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IGroupService#getGroupStore()
+     */
+    public IEntityGroupStore getGroupStore() throws GroupsException {
+        return this.store;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IGroupService#deleteGroup(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public void deleteGroup(final IEntityGroup group) throws GroupsException {
+        this.store.delete(group);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IGroupService#updateGroup(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public void updateGroup(final IEntityGroup group) throws GroupsException {
+        this.store.update(group);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IGroupService#updateGroupMembers(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public void updateGroupMembers(final IEntityGroup group) throws GroupsException {
+        this.store.updateMembers(group);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IGroupService#findContainingGroups(edu.wisc.my.apilayer.groups.IGroupMember)
+     */
+    public Iterator<IEntityGroup> findContainingGroups(final IGroupMember gm) throws GroupsException {
+        return this.store.findContainingGroups(gm);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IGroupService#findMemberGroups(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public Iterator<IEntityGroup> findMemberGroups(final IEntityGroup eg) throws GroupsException {
+        return this.store.findMemberGroups(eg);
+    }
+
+
+    private IEntityIdentifier[] filterByAncestor(final IEntityIdentifier[] identifiers, final IEntityGroup ancestor) {
+        final List<IEntityIdentifier> results = new ArrayList<IEntityIdentifier>(identifiers.length);
+        for (final IEntityIdentifier identifier : identifiers) {
+            if (this.store.isDeepMember(identifier, ancestor.getKey())) {
+                results.add(identifier);
+            }
+        }
+        return results.toArray(new IEntityIdentifier[results.size()]);
+    }
+
+    private static boolean matches(final String value, final String query, final SearchMethod method) {
+        if (SearchMethod.IS.equals(method)) {
+            return value.equals(query);
+        }
+        if (SearchMethod.STARTS_WITH.equals(method)) {
+            return value.startsWith(query);
+        }
+        if (SearchMethod.ENDS_WITH.equals(method)) {
+            return value.endsWith(query);
+        }
+        if (SearchMethod.CONTAINS.equals(method)) {
+            return value.contains(query);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,909 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.wisc.my.apilayer.groups.GroupMembershipIndex;
+import edu.wisc.my.apilayer.groups.GroupNameSearchIndex;
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IBulkEntityGroupStore;
+import edu.wisc.my.apilayer.groups.IEntity;
+import edu.wisc.my.apilayer.groups.IEntityGroup;
+import edu.wisc.my.apilayer.groups.IEntityIdentifier;
+import edu.wisc.my.apilayer.groups.IGroupMember;
+import edu.wisc.my.apilayer.groups.ILockableEntityGroup;
+import edu.wisc.my.apilayer.groups.SearchMethod;
+
+
+/**
+ * Group store held entirely in memory, meant as a fast reference backend for
+ * load testing code written against the API.
+ * <p>
+ * Every group is given an <code>int</code> id and its committed state is an
+ * immutable {@link GroupData} holding sorted id arrays for its parents, all of
+ * its ancestors and its member groups. Entity memberships are kept as a sorted
+ * id array per entity. Reads never lock; membership checks are binary searches
+ * and deep membership is answered from the precomputed ancestor arrays. Writes
+ * are serialized and replace the affected {@link GroupData} instances, so a
+ * reader sees each group atomically but may see a multi-group change part
+ * way through.
+ * <p>
+ * Large data sets should be added with a {@link Loader} which builds all of
+ * the arrays in one pass instead of copying them on every membership change.
+ * <p>
+ * A {@link GroupMembershipIndex} set with {@link #setMembershipIndex(GroupMembershipIndex)}
+ * is kept current from the same commits, so it can be shared with code
+ * that answers deep membership questions from the index.
+ * 
+ * @since 1.3
+ */
+public class InMemoryGroupStore implements IBulkEntityGroupStore {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Object writeLock = new Object();
+    private final ConcurrentMap<String, Integer> groupIds = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<InMemoryEntityIdentifier, int[]> entityGroups = new ConcurrentHashMap<InMemoryEntityIdentifier, int[]>();
+    private final GroupNameSearchIndex searchIndex = new GroupNameSearchIndex();
+    private final AtomicLong keySequence = new AtomicLong();
+    private volatile AtomicReferenceArray<GroupData> groups = new AtomicReferenceArray<GroupData>(INITIAL_CAPACITY);
+    private volatile GroupMembershipIndex membershipIndex = null;
+    private int nextId = 0;
+
+
+    /**
+     * @return The number of groups in the store.
+     */
+    public int size() {
+        return this.groupIds.size();
+    }
+
+    /**
+     * @return The number of distinct entities that are a member of at least one group.
+     */
+    public int getEntityCount() {
+        return this.entityGroups.size();
+    }
+
+    /**
+     * @return The index told about every committed membership change, null if there is none.
+     */
+    public GroupMembershipIndex getMembershipIndex() {
+        return this.membershipIndex;
+    }
+
+    /**
+     * Sets the index to tell about every committed membership change. The
+     * index is cleared so it loads the members it is asked about from this
+     * store.
+     * 
+     * @param membershipIndex The index to keep current, null to stop updating the current one.
+     */
+    public void setMembershipIndex(final GroupMembershipIndex membershipIndex) {
+        synchronized (this.writeLock) {
+            if (membershipIndex != null) {
+                membershipIndex.clear();
+            }
+            this.membershipIndex = membershipIndex;
+        }
+    }
+
+    /**
+     * @return A new loader for adding groups and memberships to this store in bulk.
+     */
+    public Loader newLoader() {
+        return new Loader();
+    }
+
+    /**
+     * @return The keys of the entities of the type that are a member of at
+     * least one group, all entities if the type is null.
+     */
+    Collection<String> getEntityKeys(final Class<? extends IBasicEntity> type) {
+        final List<String> keys = new ArrayList<String>();
+        for (final InMemoryEntityIdentifier entity : this.entityGroups.keySet()) {
+            if (type == null || entity.getType() == type) {
+                keys.add(entity.getKey());
+            }
+        }
+        return keys;
+    }
+
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#contains(edu.wisc.my.apilayer.groups.IEntityGroup, edu.wisc.my.apilayer.groups.IGroupMember)
+     */
+    public boolean contains(final IEntityGroup group, final IGroupMember member) throws GroupsException {
+        final GroupData data = this.getData(group.getKey());
+        if (data == null) {
+            return false;
+        }
+
+        if (member.isGroup()) {
+            final Integer memberId = this.groupIds.get(member.getKey());
+            return memberId != null && IntArrays.contains(data.memberGroupIds, memberId);
+        }
+
+        return data.leafType == member.getLeafType() && Arrays.binarySearch(data.memberEntityKeys, member.getKey()) >= 0;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#delete(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public void delete(final IEntityGroup group) throws GroupsException {
+        synchronized (this.writeLock) {
+            final GroupData data = this.getData(group.getKey());
+            if (data == null) {
+                return;
+            }
+
+            final AtomicReferenceArray<GroupData> groupData = this.groups;
+            for (final int parentId : data.parentIds) {
+                final GroupData parent = groupData.get(parentId);
+                groupData.set(parentId, parent.withMembers(IntArrays.remove(parent.memberGroupIds, data.id), parent.memberEntityKeys));
+            }
+            for (final int childId : data.memberGroupIds) {
+                final GroupData child = groupData.get(childId);
+                groupData.set(childId, child.withParents(IntArrays.remove(child.parentIds, data.id), child.ancestorIds));
+            }
+            for (final String entityKey : data.memberEntityKeys) {
+                this.removeEntityGroup(new InMemoryEntityIdentifier(entityKey, data.leafType), data.id);
+            }
+
+            groupData.set(data.id, null);
+            this.groupIds.remove(data.key);
+            this.searchIndex.remove(new InMemoryEntityIdentifier(data.key, IEntityGroup.class));
+            this.refreshAncestors(data.memberGroupIds);
+
+            final GroupMembershipIndex index = this.membershipIndex;
+            if (index != null) {
+                index.deleteGroup(group);
+            }
+        }
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#find(java.lang.String)
+     */
+    public IEntityGroup find(final String key) throws GroupsException {
+        final GroupData data = this.getData(key);
+        if (data == null) {
+            return null;
+        }
+
+        return new InMemoryEntityGroup(this, data.key, data.leafType, false);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#findContainingGroups(edu.wisc.my.apilayer.groups.IGroupMember)
+     */
+    public Iterator<IEntityGroup> findContainingGroups(final IGroupMember gm) throws GroupsException {
+        return this.toGroups(this.getParentIds(gm)).iterator();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IBulkEntityGroupStore#findContainingGroups(java.util.Collection)
+     */
+    public Map<IEntityIdentifier, Set<IEntityGroup>> findContainingGroups(final Collection<IEntityIdentifier> underlyingEntityIdentifiers) throws GroupsException {
+        final Map<IEntityIdentifier, Set<IEntityGroup>> containingGroups = new LinkedHashMap<IEntityIdentifier, Set<IEntityGroup>>();
+        for (final IEntityIdentifier identifier : underlyingEntityIdentifiers) {
+            final int[] parentIds = this.getParentIds(identifier.getKey(), identifier.getType());
+            containingGroups.put(identifier, new LinkedHashSet<IEntityGroup>(this.toGroups(parentIds)));
+        }
+        return containingGroups;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#findEntitiesForGroup(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public Iterator<IEntity> findEntitiesForGroup(final IEntityGroup group) throws GroupsException {
+        final GroupData data = this.getData(group.getKey());
+        if (data == null) {
+            return Collections.<IEntity>emptyList().iterator();
+        }
+
+        final List<IEntity> entities = new ArrayList<IEntity>(data.memberEntityKeys.length);
+        for (final String entityKey : data.memberEntityKeys) {
+            entities.add(new InMemoryEntity(this, entityKey, data.leafType));
+        }
+        return entities.iterator();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#findLockable(java.lang.String)
+     */
+    public ILockableEntityGroup findLockable(final String key) throws GroupsException {
+        final GroupData data = this.getData(key);
+        if (data == null) {
+            return null;
+        }
+
+        return new InMemoryEntityGroup.Lockable(this, data.key, data.leafType);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#findMemberGroupKeys(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public String[] findMemberGroupKeys(final IEntityGroup group) throws GroupsException {
+        final GroupData data = this.getData(group.getKey());
+        if (data == null) {
+            return new String[0];
+        }
+
+        final AtomicReferenceArray<GroupData> groupData = this.groups;
+        final List<String> keys = new ArrayList<String>(data.memberGroupIds.length);
+        for (final int memberId : data.memberGroupIds) {
+            final GroupData member = groupData.get(memberId);
+            if (member != null) {
+                keys.add(member.key);
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#findMemberGroups(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public Iterator<IEntityGroup> findMemberGroups(final IEntityGroup group) throws GroupsException {
+        final GroupData data = this.getData(group.getKey());
+        if (data == null) {
+            return Collections.<IEntityGroup>emptyList().iterator();
+        }
+
+        return this.toGroups(data.memberGroupIds).iterator();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#newInstance(java.lang.Class)
+     */
+    public IEntityGroup newInstance(final Class<? extends IBasicEntity> entityType) throws GroupsException {
+        String key;
+        do {
+            key = String.valueOf(this.keySequence.incrementAndGet());
+        } while (this.groupIds.containsKey(key));
+
+        return new InMemoryEntityGroup(this, key, entityType, true);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#searchForGroups(java.lang.String, edu.wisc.my.apilayer.groups.SearchMethod, java.lang.Class)
+     */
+    public IEntityIdentifier[] searchForGroups(final String query, final SearchMethod method, final Class<? extends IBasicEntity> leaftype) throws GroupsException {
+        return this.searchIndex.searchForGroups(query, method, leaftype);
+    }
+
+    /**
+     * Stores the group's name, description and creator, adding the group if
+     * it is new. Pending membership changes are stored as well.
+     * 
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#update(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public void update(final IEntityGroup group) throws GroupsException {
+        synchronized (this.writeLock) {
+            final GroupData data = this.getData(group.getKey());
+            if (data == null) {
+                final int id = this.reserveId();
+                this.groups.set(id, new GroupData(id, group.getKey(), group.getName(), group.getDescription(), group.getCreatorID(), group.getLeafType(),
+                        IntArrays.EMPTY, IntArrays.EMPTY, IntArrays.EMPTY, new String[0]));
+                this.groupIds.put(group.getKey(), id);
+            }
+            else {
+                this.groups.set(data.id, data.withAttributes(group.getName(), group.getDescription(), group.getCreatorID()));
+            }
+
+            this.searchIndex.put(new InMemoryEntityIdentifier(group.getKey(), IEntityGroup.class), group.getName(), group.getLeafType());
+            this.updateMembers(group);
+        }
+    }
+
+    /**
+     * Stores the pending membership changes of the group. Groups created by
+     * this store track their own changes, the members of any other group are
+     * compared against the stored members.
+     * 
+     * @see edu.wisc.my.apilayer.groups.IEntityGroupStore#updateMembers(edu.wisc.my.apilayer.groups.IEntityGroup)
+     */
+    public void updateMembers(final IEntityGroup group) throws GroupsException {
+        final Set<IGroupMember> added = new LinkedHashSet<IGroupMember>();
+        final Set<IGroupMember> removed = new LinkedHashSet<IGroupMember>();
+
+        synchronized (this.writeLock) {
+            final GroupData data = this.getData(group.getKey());
+            if (data == null) {
+                throw new InMemoryGroupsException(InMemoryGroupsException.GROUP_NOT_FOUND, "Group '" + group.getKey() + "' has not been stored");
+            }
+
+            if (group instanceof InMemoryEntityGroup) {
+                ((InMemoryEntityGroup)group).getChanges(added, removed);
+            }
+            else {
+                this.diffMembers(data, group, added, removed);
+            }
+
+            //The group keeps its changes if they are rejected
+            this.applyMembers(data, added, removed);
+            if (group instanceof InMemoryEntityGroup) {
+                ((InMemoryEntityGroup)group).clearChanges();
+            }
+
+            this.indexMembers(group, added, removed);
+        }
+    }
+
+
+    /**
+     * Tells the membership index about committed changes. Must be called
+     * holding writeLock so the index sees the changes in commit order.
+     */
+    private void indexMembers(final IEntityGroup group, final Set<IGroupMember> added, final Set<IGroupMember> removed) {
+        final GroupMembershipIndex index = this.membershipIndex;
+        if (index == null) {
+            return;
+        }
+
+        try {
+            for (final IGroupMember member : removed) {
+                index.removeMember(group, member);
+            }
+            for (final IGroupMember member : added) {
+                index.addMember(group, member);
+            }
+        }
+        catch (GroupsException ge) {
+            //The changes are committed, an index that missed some of them reloads from the store
+            index.clear();
+        }
+    }
+
+    /**
+     * @return The committed state of the group, null if there is no such group.
+     */
+    GroupData getData(final String key) {
+        final Integer id = this.groupIds.get(key);
+        if (id == null) {
+            return null;
+        }
+
+        return this.groups.get(id);
+    }
+
+    GroupData getData(final int id) {
+        return this.groups.get(id);
+    }
+
+    /**
+     * @return The sorted ids of the groups that directly contain the member.
+     */
+    int[] getParentIds(final IGroupMember member) {
+        if (member.isGroup()) {
+            final GroupData data = this.getData(member.getKey());
+            return data == null ? IntArrays.EMPTY : data.parentIds;
+        }
+
+        return this.getParentIds(member.getKey(), member.getLeafType());
+    }
+
+    private int[] getParentIds(final String key, final Class<? extends IBasicEntity> type) {
+        if (IEntityGroup.class.isAssignableFrom(type)) {
+            final GroupData data = this.getData(key);
+            return data == null ? IntArrays.EMPTY : data.parentIds;
+        }
+
+        final int[] parentIds = this.entityGroups.get(new InMemoryEntityIdentifier(key, type));
+        return parentIds == null ? IntArrays.EMPTY : parentIds;
+    }
+
+    /**
+     * @return The sorted ids of all the groups that directly or indirectly contain the member.
+     */
+    int[] getAncestorIds(final IGroupMember member) {
+        if (member.isGroup()) {
+            final GroupData data = this.getData(member.getKey());
+            return data == null ? IntArrays.EMPTY : data.ancestorIds;
+        }
+
+        final AtomicReferenceArray<GroupData> groupData = this.groups;
+        int[] ancestorIds = this.getParentIds(member);
+        for (final int parentId : ancestorIds) {
+            final GroupData parent = groupData.get(parentId);
+            if (parent != null) {
+                ancestorIds = IntArrays.union(ancestorIds, parent.ancestorIds);
+            }
+        }
+        return ancestorIds;
+    }
+
+    /**
+     * @return true if the member is directly or indirectly contained by the group.
+     */
+    boolean isDeepMember(final IGroupMember member, final String groupKey) {
+        return this.isDeepMember(InMemoryGroupMember.identify(member), groupKey);
+    }
+
+    /**
+     * @return true if the group or entity with the identifier is directly or
+     * indirectly contained by the group.
+     */
+    boolean isDeepMember(final IEntityIdentifier identifier, final String groupKey) {
+        final Integer groupId = this.groupIds.get(groupKey);
+        if (groupId == null) {
+            return false;
+        }
+
+        if (IEntityGroup.class.isAssignableFrom(identifier.getType())) {
+            final GroupData data = this.getData(identifier.getKey());
+            return data != null && data.isDescendantOf(groupId);
+        }
+
+        final AtomicReferenceArray<GroupData> groupData = this.groups;
+        for (final int parentId : this.getParentIds(identifier.getKey(), identifier.getType())) {
+            if (parentId == groupId) {
+                return true;
+            }
+
+            final GroupData parent = groupData.get(parentId);
+            if (parent != null && parent.isDescendantOf(groupId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Handles for the groups with the ids, skipping deleted groups.
+     */
+    List<IEntityGroup> toGroups(final int[] ids) {
+        final AtomicReferenceArray<GroupData> groupData = this.groups;
+        final List<IEntityGroup> result = new ArrayList<IEntityGroup>(ids.length);
+        for (final int id : ids) {
+            final GroupData data = groupData.get(id);
+            if (data != null) {
+                result.add(new InMemoryEntityGroup(this, data.key, data.leafType, false));
+            }
+        }
+        return result;
+    }
+
+
+    private void diffMembers(final GroupData data, final IEntityGroup group, final Set<IGroupMember> added, final Set<IGroupMember> removed) throws GroupsException {
+        final Set<String> groupKeys = new HashSet<String>();
+        final Set<String> entityKeys = new HashSet<String>();
+        for (final Iterator<IGroupMember> memberItr = group.getMembers(); memberItr.hasNext();) {
+            final IGroupMember member = memberItr.next();
+            if (member.isGroup()) {
+                groupKeys.add(member.getKey());
+            }
+            else {
+                entityKeys.add(member.getKey());
+            }
+
+            if (!this.contains(group, member)) {
+                added.add(member);
+            }
+        }
+
+        for (final IEntityGroup memberGroup : this.toGroups(data.memberGroupIds)) {
+            if (!groupKeys.contains(memberGroup.getKey())) {
+                removed.add(memberGroup);
+            }
+        }
+        for (final String entityKey : data.memberEntityKeys) {
+            if (!entityKeys.contains(entityKey)) {
+                removed.add(new InMemoryEntity(this, entityKey, data.leafType));
+            }
+        }
+    }
+
+    /**
+     * Validates and then stores the membership changes. Must be called while
+     * holding the write lock.
+     */
+    private void applyMembers(final GroupData data, final Set<IGroupMember> added, final Set<IGroupMember> removed) throws GroupsException {
+        final AtomicReferenceArray<GroupData> groupData = this.groups;
+
+        int[] memberGroupIds = data.memberGroupIds;
+        final List<Integer> changedGroupIds = new ArrayList<Integer>();
+        final Set<String> addedEntityKeys = new HashSet<String>();
+        final Set<String> removedEntityKeys = new HashSet<String>();
+
+        for (final IGroupMember member : added) {
+            if (member.isGroup()) {
+                final GroupData child = this.getData(member.getKey());
+                if (child == null) {
+                    throw new InMemoryGroupsException(InMemoryGroupsException.GROUP_NOT_FOUND, "Group '" + member.getKey() + "' has not been stored");
+                }
+                if (child.id == data.id || data.isDescendantOf(child.id)) {
+                    throw new InMemoryGroupsException(InMemoryGroupsException.CIRCULAR_REFERENCE, "Adding '" + child.key + "' to '" + data.key + "' would create a circular reference");
+                }
+
+                if (!IntArrays.contains(memberGroupIds, child.id)) {
+                    memberGroupIds = IntArrays.add(memberGroupIds, child.id);
+                    changedGroupIds.add(child.id);
+                }
+            }
+            else {
+                if (member.getLeafType() != data.leafType) {
+                    throw new InMemoryGroupsException(InMemoryGroupsException.INVALID_MEMBER, "Group '" + data.key + "' can only contain entities of type " + data.leafType.getName());
+                }
+
+                addedEntityKeys.add(member.getKey());
+            }
+        }
+        for (final IGroupMember member : removed) {
+            if (member.isGroup()) {
+                final GroupData child = this.getData(member.getKey());
+                if (child != null && IntArrays.contains(memberGroupIds, child.id)) {
+                    memberGroupIds = IntArrays.remove(memberGroupIds, child.id);
+                    changedGroupIds.add(child.id);
+                }
+            }
+            else if (!addedEntityKeys.remove(member.getKey())) {
+                removedEntityKeys.add(member.getKey());
+            }
+        }
+
+        //Merge the entity changes into a new sorted key array in one pass
+        final List<String> entityKeys = new ArrayList<String>(data.memberEntityKeys.length + addedEntityKeys.size());
+        for (final String entityKey : data.memberEntityKeys) {
+            if (removedEntityKeys.contains(entityKey)) {
+                this.removeEntityGroup(new InMemoryEntityIdentifier(entityKey, data.leafType), data.id);
+            }
+            else {
+                entityKeys.add(entityKey);
+                addedEntityKeys.remove(entityKey);
+            }
+        }
+        for (final String entityKey : addedEntityKeys) {
+            entityKeys.add(entityKey);
+            this.addEntityGroup(new InMemoryEntityIdentifier(entityKey, data.leafType), data.id);
+        }
+        Collections.sort(entityKeys);
+
+        groupData.set(data.id, data.withMembers(memberGroupIds, entityKeys.toArray(new String[entityKeys.size()])));
+
+        if (!changedGroupIds.isEmpty()) {
+            final int[] childIds = new int[changedGroupIds.size()];
+            for (int index = 0; index < childIds.length; index++) {
+                final int childId = changedGroupIds.get(index);
+                final GroupData child = groupData.get(childId);
+                final int[] parentIds = IntArrays.contains(memberGroupIds, childId) ? IntArrays.add(child.parentIds, data.id) : IntArrays.remove(child.parentIds, data.id);
+                groupData.set(childId, child.withParents(parentIds, child.ancestorIds));
+                childIds[index] = childId;
+            }
+            this.refreshAncestors(childIds);
+        }
+    }
+
+    private void addEntityGroup(final InMemoryEntityIdentifier entity, final int groupId) {
+        final int[] parentIds = this.entityGroups.get(entity);
+        this.entityGroups.put(entity, parentIds == null ? new int[] { groupId } : IntArrays.add(parentIds, groupId));
+    }
+
+    private void removeEntityGroup(final InMemoryEntityIdentifier entity, final int groupId) {
+        final int[] parentIds = this.entityGroups.get(entity);
+        if (parentIds == null) {
+            return;
+        }
+
+        final int[] remaining = IntArrays.remove(parentIds, groupId);
+        if (remaining.length == 0) {
+            this.entityGroups.remove(entity);
+        }
+        else {
+            this.entityGroups.put(entity, remaining);
+        }
+    }
+
+    /**
+     * Recomputes the ancestor arrays of the groups and all of their
+     * descendants. Groups are visited parents first so each group's
+     * ancestors are built from already refreshed parents. Must be called
+     * while holding the write lock.
+     */
+    private void refreshAncestors(final int[] rootIds) {
+        final AtomicReferenceArray<GroupData> groupData = this.groups;
+
+        final List<Integer> postOrder = new ArrayList<Integer>();
+        final Set<Integer> visited = new HashSet<Integer>();
+        for (final int rootId : rootIds) {
+            this.visitDescendants(groupData, rootId, visited, postOrder);
+        }
+
+        for (int index = postOrder.size() - 1; index >= 0; index--) {
+            final GroupData data = groupData.get(postOrder.get(index));
+            int[] ancestorIds = data.parentIds;
+            for (final int parentId : data.parentIds) {
+                ancestorIds = IntArrays.union(ancestorIds, groupData.get(parentId).ancestorIds);
+            }
+            groupData.set(data.id, data.withParents(data.parentIds, ancestorIds));
+        }
+    }
+
+    private void visitDescendants(final AtomicReferenceArray<GroupData> groupData, final int id, final Set<Integer> visited, final List<Integer> postOrder) {
+        if (!visited.add(id)) {
+            return;
+        }
+
+        final GroupData data = groupData.get(id);
+        if (data == null) {
+            return;
+        }
+
+        for (final int memberId : data.memberGroupIds) {
+            this.visitDescendants(groupData, memberId, visited, postOrder);
+        }
+        postOrder.add(id);
+    }
+
+    /**
+     * @return The next group id, growing the group array if needed. Must be
+     * called while holding the write lock.
+     */
+    private int reserveId() {
+        this.ensureCapacity(this.nextId + 1);
+        return this.nextId++;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        final AtomicReferenceArray<GroupData> current = this.groups;
+        if (capacity <= current.length()) {
+            return;
+        }
+
+        final AtomicReferenceArray<GroupData> grown = new AtomicReferenceArray<GroupData>(Math.max(capacity, current.length() * 2));
+        for (int index = 0; index < this.nextId; index++) {
+            grown.set(index, current.get(index));
+        }
+        this.groups = grown;
+    }
+
+
+    /**
+     * Adds groups and memberships to the store in bulk. Groups added through a
+     * loader must not already exist in the store and may only contain other
+     * groups from the same loader, but may contain any entities. Nothing is
+     * visible until {@link #commit()} is called. A loader is not thread safe.
+     */
+    public final class Loader {
+        private final List<String> keys = new ArrayList<String>();
+        private final List<String> names = new ArrayList<String>();
+        private final List<Class<? extends IBasicEntity>> leafTypes = new ArrayList<Class<? extends IBasicEntity>>();
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final List<int[]> memberGroups = new ArrayList<int[]>();
+        private final List<int[]> parentGroups = new ArrayList<int[]>();
+        private final List<List<String>> memberEntities = new ArrayList<List<String>>();
+        private int[] memberGroupCounts = new int[16];
+        private int[] parentGroupCounts = new int[16];
+        private boolean committed = false;
+
+        private Loader() {
+        }
+
+        /**
+         * @return The number of groups added to the loader.
+         */
+        public int size() {
+            return this.keys.size();
+        }
+
+        /**
+         * Adds a group to the loader.
+         * 
+         * @return The group's index within the loader, used to add members.
+         */
+        public int addGroup(final String key, final String name, final Class<? extends IBasicEntity> leafType) {
+            this.checkOpen();
+            if (this.indexes.containsKey(key) || InMemoryGroupStore.this.groupIds.containsKey(key)) {
+                throw new IllegalArgumentException("Group '" + key + "' already exists");
+            }
+
+            final int index = this.keys.size();
+            this.keys.add(key);
+            this.names.add(name);
+            this.leafTypes.add(leafType);
+            this.indexes.put(key, index);
+            this.memberGroups.add(IntArrays.EMPTY);
+            this.parentGroups.add(IntArrays.EMPTY);
+            this.memberEntities.add(new ArrayList<String>(0));
+
+            if (index >= this.memberGroupCounts.length) {
+                this.memberGroupCounts = Arrays.copyOf(this.memberGroupCounts, index * 2);
+                this.parentGroupCounts = Arrays.copyOf(this.parentGroupCounts, index * 2);
+            }
+            return index;
+        }
+
+        /**
+         * Makes the group at the child index a member of the group at the
+         * parent index.
+         */
+        public void addGroupMember(final int parentIndex, final int childIndex) {
+            this.checkOpen();
+            if (parentIndex == childIndex) {
+                throw new IllegalArgumentException("A group cannot contain itself");
+            }
+
+            this.memberGroups.set(parentIndex, this.append(this.memberGroups.get(parentIndex), this.memberGroupCounts, parentIndex, childIndex));
+            this.parentGroups.set(childIndex, this.append(this.parentGroups.get(childIndex), this.parentGroupCounts, childIndex, parentIndex));
+        }
+
+        /**
+         * Makes the entity a member of the group at the index. The entity
+         * is of the group's leaf type.
+         */
+        public void addEntityMember(final int groupIndex, final String entityKey) {
+            this.checkOpen();
+            this.memberEntities.get(groupIndex).add(entityKey);
+        }
+
+        /**
+         * Publishes the groups and memberships to the store.
+         * 
+         * @throws GroupsException If the groups contain a circular reference.
+         */
+        public void commit() throws GroupsException {
+            this.checkOpen();
+            this.committed = true;
+
+            final InMemoryGroupStore store = InMemoryGroupStore.this;
+            synchronized (store.writeLock) {
+                final int groupCount = this.keys.size();
+                final int firstId = store.nextId;
+                store.ensureCapacity(firstId + groupCount);
+                final AtomicReferenceArray<GroupData> groupData = store.groups;
+
+                //Entities are grouped by key first so each entity's id array is built once
+                final Map<InMemoryEntityIdentifier, IdList> entityIds = new HashMap<InMemoryEntityIdentifier, IdList>();
+
+                final int[] roots = new int[groupCount];
+                for (int index = 0; index < groupCount; index++) {
+                    final int id = firstId + index;
+                    final Class<? extends IBasicEntity> leafType = this.leafTypes.get(index);
+                    final List<String> entityKeys = this.memberEntities.get(index);
+                    final String[] sortedKeys = new LinkedHashSet<String>(entityKeys).toArray(new String[0]);
+                    Arrays.sort(sortedKeys);
+                    for (final String entityKey : sortedKeys) {
+                        final InMemoryEntityIdentifier entity = new InMemoryEntityIdentifier(entityKey, leafType);
+                        IdList ids = entityIds.get(entity);
+                        if (ids == null) {
+                            ids = new IdList();
+                            entityIds.put(entity, ids);
+                        }
+                        ids.add(id);
+                    }
+
+                    groupData.set(id, new GroupData(id, this.keys.get(index), this.names.get(index), null, null, leafType,
+                            this.toIds(this.parentGroups.get(index), this.parentGroupCounts[index], firstId), IntArrays.EMPTY,
+                            this.toIds(this.memberGroups.get(index), this.memberGroupCounts[index], firstId), sortedKeys));
+                    roots[index] = id;
+                }
+
+                //Check for cycles before anything is published
+                this.checkAcyclic(groupCount);
+
+                store.nextId = firstId + groupCount;
+                store.refreshAncestors(roots);
+
+                for (final Map.Entry<InMemoryEntityIdentifier, IdList> entry : entityIds.entrySet()) {
+                    final InMemoryEntityIdentifier entity = entry.getKey();
+                    final int[] ids = IntArrays.sortedSet(entry.getValue().ids, entry.getValue().count);
+                    final int[] existing = store.entityGroups.get(entity);
+                    store.entityGroups.put(entity, existing == null ? ids : IntArrays.union(existing, ids));
+                }
+
+                for (int index = 0; index < groupCount; index++) {
+                    final String key = this.keys.get(index);
+                    store.groupIds.put(key, firstId + index);
+                    store.searchIndex.put(new InMemoryEntityIdentifier(key, IEntityGroup.class), this.names.get(index), this.leafTypes.get(index));
+                }
+
+                //Loaded entities may have joined new groups, the index reloads what it is asked about
+                final GroupMembershipIndex membershipIndex = store.membershipIndex;
+                if (membershipIndex != null) {
+                    membershipIndex.clear();
+                }
+            }
+        }
+
+        private int[] append(final int[] values, final int[] counts, final int index, final int value) {
+            final int count = counts[index];
+            final int[] target = count < values.length ? values : Arrays.copyOf(values, Math.max(4, count * 2));
+            target[count] = value;
+            counts[index] = count + 1;
+            return target;
+        }
+
+        private int[] toIds(final int[] indexes, final int length, final int firstId) {
+            final int[] ids = IntArrays.sortedSet(indexes, length);
+            for (int index = 0; index < ids.length; index++) {
+                ids[index] += firstId;
+            }
+            return ids;
+        }
+
+        private void checkAcyclic(final int groupCount) throws GroupsException {
+            //Kahn's algorithm, any group left unvisited is part of a cycle
+            final int[] remainingParents = new int[groupCount];
+            final int[] ready = new int[groupCount];
+            int readyCount = 0;
+            for (int index = 0; index < groupCount; index++) {
+                remainingParents[index] = IntArrays.sortedSet(this.parentGroups.get(index), this.parentGroupCounts[index]).length;
+                if (remainingParents[index] == 0) {
+                    ready[readyCount++] = index;
+                }
+            }
+
+            int visited = 0;
+            while (visited < readyCount) {
+                final int index = ready[visited++];
+                for (final int childIndex : IntArrays.sortedSet(this.memberGroups.get(index), this.memberGroupCounts[index])) {
+                    if (--remainingParents[childIndex] == 0) {
+                        ready[readyCount++] = childIndex;
+                    }
+                }
+            }
+
+            if (visited < groupCount) {
+                final AtomicReferenceArray<GroupData> groupData = InMemoryGroupStore.this.groups;
+                for (int index = 0; index < groupCount; index++) {
+                    groupData.set(InMemoryGroupStore.this.nextId + index, null);
+                }
+                throw new InMemoryGroupsException(InMemoryGroupsException.CIRCULAR_REFERENCE, "The loaded groups contain a circular reference");
+            }
+        }
+
+        private void checkOpen() {
+            if (this.committed) {
+                throw new IllegalStateException("The loader has already been committed");
+            }
+        }
+    }
+
+    /**
+     * Growable list of group ids for one entity while loading.
+     */
+    private static final class IdList {
+        private int[] ids = new int[2];
+        private int count = 0;
+
+        public void add(final int id) {
+            if (this.count == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.count * 2);
+            }
+            this.ids[this.count++] = id;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import edu.wisc.my.apilayer.groups.GroupsException;
+
+
+/**
+ * Thrown by the in-memory group services.
+ * 
+ * @since 1.3
+ */
+public class InMemoryGroupsException extends GroupsException {
+    private static final long serialVersionUID = 1L;
+
+    /** The group doesn't exist or has been deleted */
+    public static final int GROUP_NOT_FOUND = 1;
+    /** Adding the member would make a group contain itself */
+    public static final int CIRCULAR_REFERENCE = 2;
+    /** The group already contains a group with the same name */
+    public static final int DUPLICATE_NAME = 3;
+    /** The member's type doesn't match the group's leaf type */
+    public static final int INVALID_MEMBER = 4;
+    /** The group could not be locked */
+    public static final int LOCK_FAILED = 5;
+
+    private final int exceptionCode;
+
+    public InMemoryGroupsException(final int exceptionCode, final String msg) {
+        super(msg);
+        this.exceptionCode = exceptionCode;
+    }
+
+    public InMemoryGroupsException(final int exceptionCode, final String msg, final Throwable t) {
+        super(msg, t);
+        this.exceptionCode = exceptionCode;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.groups.GroupsException#getExceptionCode()
+     */
+    @Override
+    public int getExceptionCode() {
+        return this.exceptionCode;
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InvalidSearchFilterException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import edu.wisc.my.apilayer.ldap.ILdapServer;
+
+
+/**
+ * Read only LDAP stand-in that serves the persons of an
+ * {@link InMemoryPersonServices} as entries named by their uid directly below
+ * the base DN. Connections support attribute look-ups and searches, every
+ * other {@link DirContext} operation throws
+ * {@link OperationNotSupportedException}.
+ * <p>
+ * Searches whose filter only selects by uid are answered with user name
+ * look-ups, all other filters scan every person.
+ * 
+ * @since 1.3
+ */
+public class InMemoryLdapServer implements ILdapServer {
+    private final InMemoryPersonServices personServices;
+    private final String baseDN;
+    private final String uidAttribute;
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    public InMemoryLdapServer(final InMemoryPersonServices personServices, final String baseDN, final String uidAttribute) {
+        if (personServices == null || baseDN == null || uidAttribute == null) {
+            throw new IllegalArgumentException("personServices, baseDN and uidAttribute may not be null");
+        }
+
+        this.personServices = personServices;
+        this.baseDN = baseDN;
+        this.uidAttribute = uidAttribute;
+    }
+
+    /**
+     * @return The number of connections handed out and not yet closed or released.
+     */
+    public int getOpenConnectionCount() {
+        return this.openConnections.get();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.ldap.ILdapServer#getConnection()
+     */
+    public DirContext getConnection() throws NamingException {
+        this.openConnections.incrementAndGet();
+        return (DirContext)Proxy.newProxyInstance(
+                DirContext.class.getClassLoader(),
+                new Class<?>[] { DirContext.class },
+                new ConnectionHandler());
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.ldap.ILdapServer#releaseConnection(javax.naming.directory.DirContext)
+     */
+    public void releaseConnection(final DirContext ctx) {
+        try {
+            ctx.close();
+        }
+        catch (NamingException ne) {
+            //Closing an in-memory connection can't fail
+        }
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.ldap.ILdapServer#getBaseDN()
+     */
+    public String getBaseDN() {
+        return this.baseDN;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.ldap.ILdapServer#getUidAttribute()
+     */
+    public String getUidAttribute() {
+        return this.uidAttribute;
+    }
+
+
+    /**
+     * @return The attributes of the entry, null if there is no such entry.
+     */
+    Attributes getAttributes(final String name, final String[] attrIds) throws NamingException {
+        if (name.length() == 0 || name.equalsIgnoreCase(this.baseDN)) {
+            final Attributes baseAttributes = new BasicAttributes(true);
+            if (isRequested("objectClass", attrIds)) {
+                baseAttributes.put("objectClass", "top");
+            }
+            return baseAttributes;
+        }
+
+        final String rdn = name.indexOf(',') < 0 ? name : name.substring(0, name.indexOf(','));
+        final int equals = rdn.indexOf('=');
+        if (equals < 0) {
+            return null;
+        }
+
+        final String filter = "(" + rdn.substring(0, equals).trim() + "={0})";
+        final List<SearchResult> results = this.search(filter, new Object[] { rdn.substring(equals + 1).trim() }, attrIds, 1);
+        return results.isEmpty() ? null : results.get(0).getAttributes();
+    }
+
+    List<SearchResult> search(final String filterExpr, final Object[] filterArgs, final String[] attrIds, final long countLimit) throws InvalidSearchFilterException {
+        final LdapFilter filter = LdapFilter.parse(filterExpr, filterArgs);
+
+        final Collection<String> uids = filter.getUidValues(this.uidAttribute);
+        final Collection<InMemoryPerson> candidates;
+        if (uids == null) {
+            candidates = this.personServices.getPersons();
+        }
+        else {
+            candidates = new ArrayList<InMemoryPerson>(uids.size());
+            for (final String uid : uids) {
+                final InMemoryPerson person = (InMemoryPerson)this.personServices.getPersonByUserName(uid);
+                if (person != null && !candidates.contains(person)) {
+                    candidates.add(person);
+                }
+            }
+        }
+
+        final List<SearchResult> results = new ArrayList<SearchResult>();
+        for (final InMemoryPerson person : candidates) {
+            if (filter.matches(person, this.uidAttribute)) {
+                results.add(new SearchResult(this.uidAttribute + "=" + person.getUserName(), null, this.toAttributes(person, attrIds), true));
+                if (countLimit > 0 && results.size() >= countLimit) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    private Attributes toAttributes(final InMemoryPerson person, final String[] attrIds) {
+        final Attributes attributes = new BasicAttributes(true);
+        for (final Enumeration<String> names = person.getAttributeNames(); names.hasMoreElements();) {
+            final String name = names.nextElement();
+            if (isRequested(name, attrIds)) {
+                final Attribute attribute = new BasicAttribute(name);
+                for (final Object value : person.getAttributeValues(name)) {
+                    attribute.add(value);
+                }
+                attributes.put(attribute);
+            }
+        }
+
+        if (attributes.get(this.uidAttribute) == null && person.getUserName() != null && isRequested(this.uidAttribute, attrIds)) {
+            attributes.put(this.uidAttribute, person.getUserName());
+        }
+        return attributes;
+    }
+
+    private static boolean isRequested(final String name, final String[] attrIds) {
+        if (attrIds == null) {
+            return true;
+        }
+
+        for (final String attrId : attrIds) {
+            if (attrId.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Implements the supported {@link DirContext} methods for one connection.
+     */
+    private final class ConnectionHandler implements InvocationHandler {
+        private boolean closed = false;
+
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String methodName = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(methodName)) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(methodName)) {
+                    return System.identityHashCode(proxy);
+                }
+                return "InMemoryLdapServer connection to " + InMemoryLdapServer.this.baseDN;
+            }
+
+            if ("close".equals(methodName)) {
+                synchronized (this) {
+                    if (!this.closed) {
+                        this.closed = true;
+                        InMemoryLdapServer.this.openConnections.decrementAndGet();
+                    }
+                }
+                return null;
+            }
+            if ("getNameInNamespace".equals(methodName)) {
+                return InMemoryLdapServer.this.baseDN;
+            }
+            if ("getEnvironment".equals(methodName)) {
+                return new Hashtable<Object, Object>();
+            }
+            if ("getAttributes".equals(methodName)) {
+                final String name = String.valueOf(args[0]);
+                final Attributes attributes = InMemoryLdapServer.this.getAttributes(name, args.length > 1 ? (String[])args[1] : null);
+                if (attributes == null) {
+                    throw new NameNotFoundException(name);
+                }
+                return attributes;
+            }
+            if ("search".equals(methodName) && args.length >= 3 && args[1] instanceof String) {
+                final SearchControls controls = (SearchControls)args[args.length - 1];
+                final Object[] filterArgs = args.length == 4 ? (Object[])args[2] : null;
+                final String[] attrIds = controls == null ? null : controls.getReturningAttributes();
+                final long countLimit = controls == null ? 0 : controls.getCountLimit();
+                return new ResultEnumeration<SearchResult>(InMemoryLdapServer.this.search((String)args[1], filterArgs, attrIds, countLimit));
+            }
+            if ("search".equals(methodName) && args.length >= 2 && (args[1] == null || args[1] instanceof Attributes)) {
+                final StringBuilder filter = new StringBuilder("(&");
+                final List<Object> filterArgs = new ArrayList<Object>();
+                if (args[1] != null) {
+                    for (final NamingEnumeration<? extends Attribute> attributes = ((Attributes)args[1]).getAll(); attributes.hasMore();) {
+                        final Attribute attribute = attributes.next();
+                        filter.append('(').append(attribute.getID()).append("={").append(filterArgs.size()).append("})");
+                        filterArgs.add(attribute.get());
+                    }
+                }
+                filter.append("(objectClass=*))");
+
+                final String[] attrIds = args.length > 2 ? (String[])args[2] : null;
+                final String filterExpr = filterArgs.isEmpty() ? "(objectClass=*)" : filter.toString();
+                return new ResultEnumeration<SearchResult>(InMemoryLdapServer.this.search(filterExpr, filterArgs.toArray(), attrIds, 0));
+            }
+
+            throw new OperationNotSupportedException(methodName + " is not supported by the in-memory LDAP server");
+        }
+    }
+
+    /**
+     * {@link NamingEnumeration} over a list of results.
+     */
+    private static final class ResultEnumeration<T> implements NamingEnumeration<T> {
+        private final Iterator<T> results;
+
+        public ResultEnumeration(final List<T> results) {
+            this.results = results.iterator();
+        }
+
+        public T next() throws NamingException {
+            return this.nextElement();
+        }
+
+        public boolean hasMore() throws NamingException {
+            return this.results.hasNext();
+        }
+
+        public void close() throws NamingException {
+        }
+
+        public boolean hasMoreElements() {
+            return this.results.hasNext();
+        }
+
+        public T nextElement() {
+            if (!this.results.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.results.next();
+        }
+    }
+}
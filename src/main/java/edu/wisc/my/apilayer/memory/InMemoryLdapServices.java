@@ -0,0 +1,70 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.wisc.my.apilayer.internal.ILdapServices;
+import edu.wisc.my.apilayer.ldap.ILdapServer;
+
+
+/**
+ * LDAP services that hand out registered {@link ILdapServer}s, typically
+ * {@link InMemoryLdapServer}s.
+ * 
+ * @since 1.3
+ */
+public class InMemoryLdapServices implements ILdapServices {
+    private final ILdapServer defaultServer;
+    private final ConcurrentMap<String, ILdapServer> servers = new ConcurrentHashMap<String, ILdapServer>();
+
+    public InMemoryLdapServices(final ILdapServer defaultServer) {
+        this.defaultServer = defaultServer;
+    }
+
+    /**
+     * Registers a named server, replacing any server with the same name.
+     */
+    public void addServer(final String name, final ILdapServer server) {
+        this.servers.put(name, server);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.ILdapServices#getDefaultServer()
+     */
+    public ILdapServer getDefaultServer() {
+        return this.defaultServer;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.ILdapServices#getServer(java.lang.String)
+     */
+    public ILdapServer getServer(final String name) {
+        return this.servers.get(name);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.ILdapServices#getServerNames()
+     */
+    public String[] getServerNames() {
+        return this.servers.keySet().toArray(new String[0]);
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.List;
+import java.util.Map;
+
+import edu.wisc.my.apilayer.person.CompactPerson;
+import edu.wisc.my.apilayer.person.PersonAttributeSchema;
+
+
+/**
+ * Immutable person held by {@link InMemoryPersonServices}. Attributes are
+ * stored compactly against a {@link PersonAttributeSchema} so large
+ * synthetic populations fit in memory.
+ * 
+ * @since 1.3
+ */
+public final class InMemoryPerson extends CompactPerson {
+    /**
+     * Creates a person using the {@link PersonAttributeSchema#getSharedSchema() shared schema}.
+     * 
+     * @param key The person's key, may not be null.
+     * @param userName The person's user name, may be null.
+     * @param attributes The person's attributes, copied.
+     */
+    public InMemoryPerson(final String key, final String userName, final Map<String, ? extends List<?>> attributes) {
+        super(key, userName, attributes);
+    }
+
+    /**
+     * @param schema The schema to store the attributes against.
+     * @param key The person's key, may not be null.
+     * @param userName The person's user name, may be null.
+     * @param attributes The person's attributes, copied.
+     */
+    public InMemoryPerson(final PersonAttributeSchema schema, final String key, final String userName, final Map<String, ? extends List<?>> attributes) {
+        super(schema, key, userName, attributes);
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.wisc.my.apilayer.internal.IBulkPersonServices;
+import edu.wisc.my.apilayer.person.IPerson;
+
+
+/**
+ * Person services held in memory. Look-ups by user name and key are single
+ * hash map reads; attribute queries scan every person and return the first
+ * one that has a matching value for every queried attribute.
+ * 
+ * @since 1.3
+ */
+public class InMemoryPersonServices implements IBulkPersonServices {
+    private final ConcurrentMap<String, InMemoryPerson> personsByKey;
+    private final ConcurrentMap<String, InMemoryPerson> personsByUserName;
+
+    public InMemoryPersonServices() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize The number of persons expected, used to size the maps.
+     */
+    public InMemoryPersonServices(final int expectedSize) {
+        this.personsByKey = new ConcurrentHashMap<String, InMemoryPerson>(expectedSize);
+        this.personsByUserName = new ConcurrentHashMap<String, InMemoryPerson>(expectedSize);
+    }
+
+    /**
+     * Adds the person, replacing any person with the same key or user name.
+     */
+    public void addPerson(final InMemoryPerson person) {
+        final InMemoryPerson replaced = this.personsByKey.put(person.getKey(), person);
+        if (replaced != null && replaced.getUserName() != null) {
+            this.personsByUserName.remove(replaced.getUserName(), replaced);
+        }
+        if (person.getUserName() != null) {
+            this.personsByUserName.put(person.getUserName(), person);
+        }
+    }
+
+    /**
+     * Removes the person with the key.
+     */
+    public void removePerson(final String key) {
+        final InMemoryPerson removed = this.personsByKey.remove(key);
+        if (removed != null && removed.getUserName() != null) {
+            this.personsByUserName.remove(removed.getUserName(), removed);
+        }
+    }
+
+    /**
+     * @return The number of persons held.
+     */
+    public int size() {
+        return this.personsByKey.size();
+    }
+
+    /**
+     * @return A live view of the persons held.
+     */
+    Collection<InMemoryPerson> getPersons() {
+        return this.personsByKey.values();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPersonServices#getPersonByUserName(java.lang.String)
+     */
+    public IPerson getPersonByUserName(final String userName) {
+        return this.personsByUserName.get(userName);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPersonServices#getPersonByKey(java.lang.String)
+     */
+    public IPerson getPersonByKey(final String key) {
+        return this.personsByKey.get(key);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPersonServices#getPerson(java.util.Map)
+     */
+    public IPerson getPerson(final Map<String, List<Object>> queryMap) {
+        if (queryMap == null || queryMap.isEmpty()) {
+            return null;
+        }
+
+        for (final InMemoryPerson person : this.personsByKey.values()) {
+            if (matches(person, queryMap)) {
+                return person;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPersonServices#getPerson(java.lang.String, java.lang.String)
+     */
+    public IPerson getPerson(final String queryAttr, final String queryVal) {
+        return this.getPerson(Collections.singletonMap(queryAttr, Collections.<Object>singletonList(queryVal)));
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IBulkPersonServices#getPersonsByUserNames(java.util.Collection)
+     */
+    public Map<String, IPerson> getPersonsByUserNames(final Collection<String> userNames) {
+        return getAll(this.personsByUserName, userNames);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IBulkPersonServices#getPersonsByKeys(java.util.Collection)
+     */
+    public Map<String, IPerson> getPersonsByKeys(final Collection<String> keys) {
+        return getAll(this.personsByKey, keys);
+    }
+
+
+    private static Map<String, IPerson> getAll(final Map<String, InMemoryPerson> persons, final Collection<String> ids) {
+        final Map<String, IPerson> found = new LinkedHashMap<String, IPerson>(ids.size() * 2);
+        for (final String id : ids) {
+            final IPerson person = id == null ? null : persons.get(id);
+            if (person != null) {
+                found.put(id, person);
+            }
+        }
+        return found;
+    }
+
+    private static boolean matches(final InMemoryPerson person, final Map<String, List<Object>> queryMap) {
+        for (final Map.Entry<String, List<Object>> query : queryMap.entrySet()) {
+            if (!person.hasAnyValue(query.getKey(), query.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import edu.wisc.my.apilayer.internal.IDatabaseServices;
+import edu.wisc.my.apilayer.internal.ILdapServices;
+import edu.wisc.my.apilayer.internal.IPortalServices;
+import edu.wisc.my.apilayer.internal.PortalServicesLocator;
+
+
+/**
+ * Reference {@link IPortalServices} held entirely in memory, for load testing
+ * code written against the API without a portal. A populated instance can be
+ * created with a {@link SyntheticDataGenerator}.
+ * 
+ * @since 1.3
+ */
+public class InMemoryPortalServices implements IPortalServices {
+    private final InMemoryGroupServices groupServices;
+    private final InMemoryPersonServices personServices;
+    private final ILdapServices ldapServices;
+    private final IDatabaseServices databaseServices;
+
+    public InMemoryPortalServices(final InMemoryGroupServices groupServices, final InMemoryPersonServices personServices, final ILdapServices ldapServices, final IDatabaseServices databaseServices) {
+        this.groupServices = groupServices;
+        this.personServices = personServices;
+        this.ldapServices = ldapServices;
+        this.databaseServices = databaseServices;
+    }
+
+    /**
+     * Registers these services with the {@link PortalServicesLocator}. The
+     * services never change so the locator resolves them once.
+     */
+    public void install() {
+        PortalServicesLocator.setPortalServices(this, true);
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPortalServices#getGroupServices()
+     */
+    public InMemoryGroupServices getGroupServices() {
+        return this.groupServices;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPortalServices#getPersonServices()
+     */
+    public InMemoryPersonServices getPersonServices() {
+        return this.personServices;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPortalServices#getLdapServices()
+     */
+    public ILdapServices getLdapServices() {
+        return this.ldapServices;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.internal.IPortalServices#getDatabaseServices()
+     */
+    public IDatabaseServices getDatabaseServices() {
+        return this.databaseServices;
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.Arrays;
+
+
+/**
+ * Operations on sorted, duplicate free <code>int</code> arrays used to hold
+ * group ids. Arrays are never modified in place, a changed copy is returned.
+ * 
+ * @since 1.3
+ */
+final class IntArrays {
+    static final int[] EMPTY = new int[0];
+
+    /** Hide the constructor so this class cannot be instanciated */
+    private IntArrays() { }
+
+    static boolean contains(final int[] sorted, final int value) {
+        return Arrays.binarySearch(sorted, value) >= 0;
+    }
+
+    static int[] add(final int[] sorted, final int value) {
+        final int index = Arrays.binarySearch(sorted, value);
+        if (index >= 0) {
+            return sorted;
+        }
+
+        final int insertion = -index - 1;
+        final int[] added = new int[sorted.length + 1];
+        System.arraycopy(sorted, 0, added, 0, insertion);
+        added[insertion] = value;
+        System.arraycopy(sorted, insertion, added, insertion + 1, sorted.length - insertion);
+        return added;
+    }
+
+    static int[] remove(final int[] sorted, final int value) {
+        final int index = Arrays.binarySearch(sorted, value);
+        if (index < 0) {
+            return sorted;
+        }
+        if (sorted.length == 1) {
+            return EMPTY;
+        }
+
+        final int[] removed = new int[sorted.length - 1];
+        System.arraycopy(sorted, 0, removed, 0, index);
+        System.arraycopy(sorted, index + 1, removed, index, sorted.length - index - 1);
+        return removed;
+    }
+
+    /**
+     * @return A sorted, duplicate free copy of the first <code>length</code> values.
+     */
+    static int[] sortedSet(final int[] values, final int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+
+        final int[] sorted = Arrays.copyOf(values, length);
+        Arrays.sort(sorted);
+
+        int unique = 1;
+        for (int index = 1; index < sorted.length; index++) {
+            if (sorted[index] != sorted[unique - 1]) {
+                sorted[unique++] = sorted[index];
+            }
+        }
+        return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+    }
+
+    static int[] union(final int[] first, final int[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        if (second.length == 0) {
+            return first;
+        }
+
+        final int[] merged = new int[first.length + second.length];
+        int firstIndex = 0;
+        int secondIndex = 0;
+        int length = 0;
+        while (firstIndex < first.length && secondIndex < second.length) {
+            final int firstValue = first[firstIndex];
+            final int secondValue = second[secondIndex];
+            if (firstValue < secondValue) {
+                merged[length++] = firstValue;
+                firstIndex++;
+            }
+            else if (secondValue < firstValue) {
+                merged[length++] = secondValue;
+                secondIndex++;
+            }
+            else {
+                merged[length++] = firstValue;
+                firstIndex++;
+                secondIndex++;
+            }
+        }
+        while (firstIndex < first.length) {
+            merged[length++] = first[firstIndex++];
+        }
+        while (secondIndex < second.length) {
+            merged[length++] = second[secondIndex++];
+        }
+        return length == merged.length ? merged : Arrays.copyOf(merged, length);
+    }
+}
@@ -0,0 +1,424 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import javax.naming.directory.InvalidSearchFilterException;
+
+
+/**
+ * Parsed LDAP search filter evaluated against {@link InMemoryPerson}s.
+ * Supports the and, or, not, equality, approximate, ordering, presence and
+ * substring filters of RFC 4515. Values are compared ignoring case and
+ * attribute descriptions are matched exactly, except for the uid attribute
+ * which falls back to the person's user name. Every person is taken to have
+ * an object class.
+ * 
+ * @since 1.3
+ */
+abstract class LdapFilter {
+    /**
+     * Parses the filter, replacing <code>{n}</code> with the escaped argument.
+     */
+    static LdapFilter parse(final String filter, final Object[] filterArgs) throws InvalidSearchFilterException {
+        final String expression = filterArgs == null ? filter : substitute(filter, filterArgs);
+        final Parser parser = new Parser(expression.trim());
+        final LdapFilter parsed = parser.parseFilter();
+        if (parser.position != parser.expression.length()) {
+            throw new InvalidSearchFilterException("Unexpected characters after the filter: " + expression);
+        }
+        return parsed;
+    }
+
+    /**
+     * @return true if the person matches the filter.
+     */
+    abstract boolean matches(InMemoryPerson person, String uidAttribute);
+
+    /**
+     * @return The uid values if the filter only matches persons by uid, null otherwise.
+     */
+    Collection<String> getUidValues(final String uidAttribute) {
+        return null;
+    }
+
+
+    static Object[] getValues(final InMemoryPerson person, final String attribute, final String uidAttribute) {
+        final Object[] values = person.getAttributeValues(attribute);
+        if (values == null && attribute.equalsIgnoreCase(uidAttribute) && person.getUserName() != null) {
+            return new Object[] { person.getUserName() };
+        }
+        return values;
+    }
+
+    private static String substitute(final String filter, final Object[] filterArgs) throws InvalidSearchFilterException {
+        final StringBuilder expression = new StringBuilder(filter.length() + 16);
+        for (int index = 0; index < filter.length(); index++) {
+            final char c = filter.charAt(index);
+            if (c != '{') {
+                expression.append(c);
+                continue;
+            }
+
+            final int end = filter.indexOf('}', index);
+            if (end < 0) {
+                throw new InvalidSearchFilterException("Unterminated argument reference in: " + filter);
+            }
+
+            final int argIndex;
+            try {
+                argIndex = Integer.parseInt(filter.substring(index + 1, end));
+            }
+            catch (NumberFormatException nfe) {
+                throw new InvalidSearchFilterException("Invalid argument reference in: " + filter);
+            }
+            if (argIndex < 0 || argIndex >= filterArgs.length) {
+                throw new InvalidSearchFilterException("No argument " + argIndex + " for: " + filter);
+            }
+
+            escape(String.valueOf(filterArgs[argIndex]), expression);
+            index = end;
+        }
+        return expression.toString();
+    }
+
+    private static void escape(final String value, final StringBuilder expression) {
+        for (int index = 0; index < value.length(); index++) {
+            final char c = value.charAt(index);
+            switch (c) {
+                case '*': expression.append("\\2a"); break;
+                case '(': expression.append("\\28"); break;
+                case ')': expression.append("\\29"); break;
+                case '\\': expression.append("\\5c"); break;
+                case '\0': expression.append("\\00"); break;
+                default: expression.append(c);
+            }
+        }
+    }
+
+
+    private static final class Parser {
+        private final String expression;
+        private int position = 0;
+
+        public Parser(final String expression) {
+            this.expression = expression;
+        }
+
+        public LdapFilter parseFilter() throws InvalidSearchFilterException {
+            this.expect('(');
+            final LdapFilter filter;
+            switch (this.peek()) {
+                case '&':
+                    this.position++;
+                    filter = new And(this.parseFilterList());
+                    break;
+                case '|':
+                    this.position++;
+                    filter = new Or(this.parseFilterList());
+                    break;
+                case '!':
+                    this.position++;
+                    filter = new Not(this.parseFilter());
+                    break;
+                default:
+                    filter = this.parseItem();
+            }
+            this.expect(')');
+            return filter;
+        }
+
+        private List<LdapFilter> parseFilterList() throws InvalidSearchFilterException {
+            final List<LdapFilter> filters = new ArrayList<LdapFilter>();
+            while (this.peek() == '(') {
+                filters.add(this.parseFilter());
+            }
+            return filters;
+        }
+
+        private LdapFilter parseItem() throws InvalidSearchFilterException {
+            final int end = this.expression.indexOf(')', this.position);
+            final int equals = this.expression.indexOf('=', this.position);
+            if (end < 0 || equals < 0 || equals > end) {
+                throw new InvalidSearchFilterException("Invalid filter item at " + this.position + " in: " + this.expression);
+            }
+
+            final char operator = this.expression.charAt(equals - 1);
+            final int attributeEnd = operator == '>' || operator == '<' || operator == '~' ? equals - 1 : equals;
+            final String attribute = this.expression.substring(this.position, attributeEnd).trim();
+            final String rawValue = this.expression.substring(equals + 1, end);
+            this.position = end;
+
+            if (operator == '>' || operator == '<') {
+                return new Ordering(attribute, unescape(rawValue).toLowerCase(Locale.ENGLISH), operator == '>');
+            }
+            if (operator != '~' && "*".equals(rawValue)) {
+                return new Present(attribute);
+            }
+            if (operator != '~' && rawValue.indexOf('*') >= 0) {
+                final String[] rawParts = rawValue.split("\\*", -1);
+                final String[] parts = new String[rawParts.length];
+                for (int index = 0; index < rawParts.length; index++) {
+                    parts[index] = unescape(rawParts[index]).toLowerCase(Locale.ENGLISH);
+                }
+                return new Substring(attribute, parts);
+            }
+            return new Equality(attribute, unescape(rawValue));
+        }
+
+        private String unescape(final String value) throws InvalidSearchFilterException {
+            if (value.indexOf('\\') < 0) {
+                return value;
+            }
+
+            final StringBuilder unescaped = new StringBuilder(value.length());
+            for (int index = 0; index < value.length(); index++) {
+                final char c = value.charAt(index);
+                if (c == '\\' && index + 2 < value.length()) {
+                    try {
+                        unescaped.append((char)Integer.parseInt(value.substring(index + 1, index + 3), 16));
+                    }
+                    catch (NumberFormatException nfe) {
+                        throw new InvalidSearchFilterException("Invalid escape in: " + value);
+                    }
+                    index += 2;
+                }
+                else {
+                    unescaped.append(c);
+                }
+            }
+            return unescaped.toString();
+        }
+
+        private char peek() throws InvalidSearchFilterException {
+            if (this.position >= this.expression.length()) {
+                throw new InvalidSearchFilterException("Unexpected end of filter: " + this.expression);
+            }
+            return this.expression.charAt(this.position);
+        }
+
+        private void expect(final char c) throws InvalidSearchFilterException {
+            if (this.peek() != c) {
+                throw new InvalidSearchFilterException("Expected '" + c + "' at " + this.position + " in: " + this.expression);
+            }
+            this.position++;
+        }
+    }
+
+    private static final class And extends LdapFilter {
+        private final List<LdapFilter> filters;
+
+        public And(final List<LdapFilter> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        boolean matches(final InMemoryPerson person, final String uidAttribute) {
+            for (final LdapFilter filter : this.filters) {
+                if (!filter.matches(person, uidAttribute)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Collection<String> getUidValues(final String uidAttribute) {
+            //Any uid restricted branch restricts the whole conjunction
+            for (final LdapFilter filter : this.filters) {
+                final Collection<String> uids = filter.getUidValues(uidAttribute);
+                if (uids != null) {
+                    return uids;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Or extends LdapFilter {
+        private final List<LdapFilter> filters;
+
+        public Or(final List<LdapFilter> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        boolean matches(final InMemoryPerson person, final String uidAttribute) {
+            for (final LdapFilter filter : this.filters) {
+                if (filter.matches(person, uidAttribute)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        Collection<String> getUidValues(final String uidAttribute) {
+            final List<String> uids = new ArrayList<String>();
+            for (final LdapFilter filter : this.filters) {
+                final Collection<String> filterUids = filter.getUidValues(uidAttribute);
+                if (filterUids == null) {
+                    return null;
+                }
+                uids.addAll(filterUids);
+            }
+            return uids;
+        }
+    }
+
+    private static final class Not extends LdapFilter {
+        private final LdapFilter filter;
+
+        public Not(final LdapFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        boolean matches(final InMemoryPerson person, final String uidAttribute) {
+            return !this.filter.matches(person, uidAttribute);
+        }
+    }
+
+    private static final class Present extends LdapFilter {
+        private final String attribute;
+
+        public Present(final String attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        boolean matches(final InMemoryPerson person, final String uidAttribute) {
+            //Every entry has an object class
+            if ("objectClass".equalsIgnoreCase(this.attribute)) {
+                return true;
+            }
+
+            final Object[] values = getValues(person, this.attribute, uidAttribute);
+            return values != null && values.length > 0;
+        }
+    }
+
+    private static final class Equality extends LdapFilter {
+        private final String attribute;
+        private final String value;
+
+        public Equality(final String attribute, final String value) {
+            this.attribute = attribute;
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(final InMemoryPerson person, final String uidAttribute) {
+            final Object[] values = getValues(person, this.attribute, uidAttribute);
+            if (values != null) {
+                for (final Object candidate : values) {
+                    if (candidate != null && this.value.equalsIgnoreCase(candidate.toString())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        Collection<String> getUidValues(final String uidAttribute) {
+            if (this.attribute.equalsIgnoreCase(uidAttribute)) {
+                final List<String> uids = new ArrayList<String>(1);
+                uids.add(this.value);
+                return uids;
+            }
+            return null;
+        }
+    }
+
+    private static final class Ordering extends LdapFilter {
+        private final String attribute;
+        private final String value;
+        private final boolean greater;
+
+        public Ordering(final String attribute, final String value, final boolean greater) {
+            this.attribute = attribute;
+            this.value = value;
+            this.greater = greater;
+        }
+
+        @Override
+        boolean matches(final InMemoryPerson person, final String uidAttribute) {
+            final Object[] values = getValues(person, this.attribute, uidAttribute);
+            if (values != null) {
+                for (final Object candidate : values) {
+                    if (candidate != null) {
+                        final int comparison = candidate.toString().toLowerCase(Locale.ENGLISH).compareTo(this.value);
+                        if (this.greater ? comparison >= 0 : comparison <= 0) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Substring extends LdapFilter {
+        private final String attribute;
+        private final String[] parts;
+
+        public Substring(final String attribute, final String[] parts) {
+            this.attribute = attribute;
+            this.parts = parts;
+        }
+
+        @Override
+        boolean matches(final InMemoryPerson person, final String uidAttribute) {
+            final Object[] values = getValues(person, this.attribute, uidAttribute);
+            if (values != null) {
+                for (final Object candidate : values) {
+                    if (candidate != null && this.matches(candidate.toString().toLowerCase(Locale.ENGLISH))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean matches(final String value) {
+            final String initial = this.parts[0];
+            final String last = this.parts[this.parts.length - 1];
+            if (!value.startsWith(initial) || !value.endsWith(last) || value.length() < initial.length() + last.length()) {
+                return false;
+            }
+
+            int position = initial.length();
+            final int limit = value.length() - last.length();
+            for (int index = 1; index < this.parts.length - 1; index++) {
+                final int found = value.indexOf(this.parts[index], position);
+                if (found < 0 || found + this.parts[index].length() > limit) {
+                    return false;
+                }
+                position = found + this.parts[index].length();
+            }
+            return true;
+        }
+    }
+}
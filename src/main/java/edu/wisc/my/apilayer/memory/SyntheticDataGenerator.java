@@ -0,0 +1,242 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.memory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import edu.wisc.my.apilayer.groups.GroupsException;
+import edu.wisc.my.apilayer.groups.InMemoryEntityLockService;
+import edu.wisc.my.apilayer.person.IPerson;
+
+
+/**
+ * Builds {@link InMemoryPortalServices} populated with a repeatable synthetic
+ * data set sized for load testing.
+ * <p>
+ * Persons have keys <code>0</code> to <code>personCount - 1</code> and user
+ * names <code>user0</code> and up. Groups form a tree below the
+ * {@link #EVERYONE_GROUP} root with <code>childGroupsPerGroup</code> children
+ * per group, some groups are given a second parent so the hierarchy is a
+ * graph as in a real portal. Every person is placed in
+ * <code>groupsPerPerson</code> random groups. The same seed always generates
+ * the same data.
+ * 
+ * @since 1.3
+ */
+public class SyntheticDataGenerator {
+    /** Name of the distinguished group that contains every other group */
+    public static final String EVERYONE_GROUP = "Everyone";
+    /** Key of the {@link #EVERYONE_GROUP} group */
+    public static final String EVERYONE_GROUP_KEY = "0";
+
+    private static final String[] GIVEN_NAMES = { "Alex", "Bailey", "Casey", "Dana", "Emerson", "Finley", "Gray", "Harper", "Indigo", "Jordan", "Kendall", "Logan", "Morgan", "Noel", "Oakley", "Parker", "Quinn", "Riley", "Sage", "Taylor" };
+    private static final String[] SURNAMES = { "Anderson", "Brown", "Clark", "Davis", "Evans", "Fischer", "Garcia", "Hansen", "Iverson", "Johnson", "Klein", "Larson", "Miller", "Nelson", "Olson", "Peterson", "Quist", "Schmidt", "Thompson", "Wilson" };
+    private static final String[] DEPARTMENTS = { "Mathematics", "History", "Chemistry", "Physics", "Nursing", "Law", "Music", "Geography", "Economics", "Engineering", "Botany", "Zoology", "Art", "Pharmacy", "Statistics", "Sociology" };
+    private static final String[] ROLES = { "Students", "Faculty", "Staff", "Advisors", "Alumni", "Employees", "Instructors", "Affiliates" };
+    private static final String[] AFFILIATIONS = { "student", "faculty", "staff", "member", "affiliate", "alum" };
+
+    private int personCount = 10000;
+    private int groupCount = 1000;
+    private int childGroupsPerGroup = 8;
+    private int groupsPerPerson = 3;
+    private double secondParentRatio = 0.05;
+    private long seed = 0;
+    private String baseDN = "dc=example,dc=edu";
+    private String uidAttribute = "uid";
+    private DataSource dataSource;
+
+    public int getPersonCount() {
+        return this.personCount;
+    }
+
+    public void setPersonCount(final int personCount) {
+        this.personCount = personCount;
+    }
+
+    public int getGroupCount() {
+        return this.groupCount;
+    }
+
+    /**
+     * @param groupCount The number of groups, including the root group. At least one.
+     */
+    public void setGroupCount(final int groupCount) {
+        if (groupCount < 1) {
+            throw new IllegalArgumentException("groupCount must be at least 1");
+        }
+        this.groupCount = groupCount;
+    }
+
+    public int getChildGroupsPerGroup() {
+        return this.childGroupsPerGroup;
+    }
+
+    public void setChildGroupsPerGroup(final int childGroupsPerGroup) {
+        if (childGroupsPerGroup < 1) {
+            throw new IllegalArgumentException("childGroupsPerGroup must be at least 1");
+        }
+        this.childGroupsPerGroup = childGroupsPerGroup;
+    }
+
+    public int getGroupsPerPerson() {
+        return this.groupsPerPerson;
+    }
+
+    public void setGroupsPerPerson(final int groupsPerPerson) {
+        this.groupsPerPerson = groupsPerPerson;
+    }
+
+    public double getSecondParentRatio() {
+        return this.secondParentRatio;
+    }
+
+    /**
+     * @param secondParentRatio The fraction of groups, from 0 to 1, that are given a second parent group.
+     */
+    public void setSecondParentRatio(final double secondParentRatio) {
+        this.secondParentRatio = secondParentRatio;
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    public String getBaseDN() {
+        return this.baseDN;
+    }
+
+    public void setBaseDN(final String baseDN) {
+        this.baseDN = baseDN;
+    }
+
+    public String getUidAttribute() {
+        return this.uidAttribute;
+    }
+
+    public void setUidAttribute(final String uidAttribute) {
+        this.uidAttribute = uidAttribute;
+    }
+
+    public DataSource getDataSource() {
+        return this.dataSource;
+    }
+
+    /**
+     * @param dataSource The data source of the default database server, if null there is no default server.
+     */
+    public void setDataSource(final DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+
+    /**
+     * @return New services populated with the configured data set.
+     */
+    public InMemoryPortalServices generate() throws GroupsException {
+        final Random random = new Random(this.seed);
+
+        final InMemoryPersonServices personServices = new InMemoryPersonServices(this.personCount);
+        this.generatePersons(personServices, random);
+
+        final InMemoryGroupServices groupServices = new InMemoryGroupServices(new InMemoryGroupStore(), new InMemoryEntityLockService(300));
+        this.generateGroups(groupServices.getStore(), random);
+        groupServices.setDistinguishedGroupKey(EVERYONE_GROUP, EVERYONE_GROUP_KEY);
+        groupServices.setRootGroupKey(IPerson.class, EVERYONE_GROUP_KEY);
+
+        final InMemoryLdapServices ldapServices = new InMemoryLdapServices(new InMemoryLdapServer(personServices, this.baseDN, this.uidAttribute));
+        final InMemoryDatabaseServices databaseServices = new InMemoryDatabaseServices(this.dataSource == null ? null : new InMemoryDatabaseServer(this.dataSource));
+
+        return new InMemoryPortalServices(groupServices, personServices, ldapServices, databaseServices);
+    }
+
+
+    private void generatePersons(final InMemoryPersonServices personServices, final Random random) {
+        for (int index = 0; index < this.personCount; index++) {
+            final String key = String.valueOf(index);
+            final String userName = "user" + index;
+            final String givenName = GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)];
+            final String surname = SURNAMES[random.nextInt(SURNAMES.length)];
+
+            final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>(16);
+            attributes.put(this.uidAttribute, values(userName));
+            attributes.put("givenName", values(givenName));
+            attributes.put("sn", values(surname));
+            attributes.put("cn", values(givenName + " " + surname));
+            attributes.put("mail", values(userName + "@example.edu"));
+            attributes.put("ou", values(DEPARTMENTS[random.nextInt(DEPARTMENTS.length)]));
+
+            final List<Object> affiliations = values(AFFILIATIONS[random.nextInt(AFFILIATIONS.length)]);
+            if (random.nextBoolean()) {
+                final String secondAffiliation = AFFILIATIONS[random.nextInt(AFFILIATIONS.length)];
+                if (!affiliations.contains(secondAffiliation)) {
+                    affiliations.add(secondAffiliation);
+                }
+            }
+            attributes.put("eduPersonAffiliation", affiliations);
+
+            personServices.addPerson(new InMemoryPerson(key, userName, attributes));
+        }
+    }
+
+    private void generateGroups(final InMemoryGroupStore store, final Random random) throws GroupsException {
+        final InMemoryGroupStore.Loader loader = store.newLoader();
+
+        //Groups are added in id order and only ever contain later groups, so the graph is acyclic
+        loader.addGroup(EVERYONE_GROUP_KEY, EVERYONE_GROUP, IPerson.class);
+        for (int index = 1; index < this.groupCount; index++) {
+            final String name = DEPARTMENTS[index % DEPARTMENTS.length] + " " + ROLES[(index / DEPARTMENTS.length) % ROLES.length] + " " + index;
+            loader.addGroup(String.valueOf(index), name, IPerson.class);
+
+            final int parent = (index - 1) / this.childGroupsPerGroup;
+            loader.addGroupMember(parent, index);
+            if (index > 1 && random.nextDouble() < this.secondParentRatio) {
+                final int secondParent = random.nextInt(index);
+                if (secondParent != parent) {
+                    loader.addGroupMember(secondParent, index);
+                }
+            }
+        }
+
+        for (int index = 0; index < this.personCount; index++) {
+            final String key = String.valueOf(index);
+            for (int membership = 0; membership < this.groupsPerPerson; membership++) {
+                loader.addEntityMember(random.nextInt(this.groupCount), key);
+            }
+        }
+
+        loader.commit();
+    }
+
+    private static List<Object> values(final Object value) {
+        final List<Object> values = new ArrayList<Object>(2);
+        values.add(value);
+        return values;
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.person;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.wisc.my.apilayer.internal.IBulkPersonServices;
+import edu.wisc.my.apilayer.internal.IPersonServices;
+
+
+/**
+ * Support for implementing {@link PersonServices#getPersonsByUserNames(Collection)}
+ * and {@link PersonServices#getPersonsByKeys(Collection)} on top of the
+ * single person look-ups of an {@link IPersonServices}. The look-ups are
+ * made concurrently so a batch takes about as long as its slowest look-up.
+ * Portals whose attribute sources can find many persons with one query
+ * should implement {@link IBulkPersonServices} with that query instead, the
+ * methods using the shared executor hand the whole batch to such services.
+ * 
+ * @since 1.3
+ */
+public final class BulkPersonLookup {
+    /** Hide the constructor so this class cannot be instanciated */
+    private BulkPersonLookup() { }
+
+    /**
+     * Finds persons by user name with
+     * {@link IBulkPersonServices#getPersonsByUserNames(Collection)} if the
+     * services implement it, otherwise using the
+     * {@link #getSharedExecutor() shared executor}.
+     * 
+     * @see PersonServices#getPersonsByUserNames(Collection)
+     */
+    public static Map<String, IPerson> getPersonsByUserNames(final IPersonServices personServices, final Collection<String> userNames) {
+        if (personServices instanceof IBulkPersonServices) {
+            return ((IBulkPersonServices)personServices).getPersonsByUserNames(userNames);
+        }
+        return getPersonsByUserNames(personServices, userNames, getSharedExecutor());
+    }
+
+    /**
+     * Finds persons by user name, looking each one up with
+     * {@link IPersonServices#getPersonByUserName(String)} on the executor.
+     * {@link IBulkPersonServices} implementations without a batch query can
+     * use this.
+     * 
+     * @param personServices The services to look persons up with.
+     * @param userNames The user names to look up.
+     * @param executorService Runs the look-ups, null to make them one after another on the calling thread.
+     * @throws IllegalStateException If the calling thread is interrupted while waiting for the look-ups, the interrupt is restored.
+     * @see PersonServices#getPersonsByUserNames(Collection)
+     */
+    public static Map<String, IPerson> getPersonsByUserNames(final IPersonServices personServices, final Collection<String> userNames, final ExecutorService executorService) {
+        return lookup(userNames, executorService, new Lookup() {
+            public IPerson lookup(final String userName) {
+                return personServices.getPersonByUserName(userName);
+            }
+        });
+    }
+
+    /**
+     * Finds persons by key with
+     * {@link IBulkPersonServices#getPersonsByKeys(Collection)} if the
+     * services implement it, otherwise using the
+     * {@link #getSharedExecutor() shared executor}.
+     * 
+     * @see PersonServices#getPersonsByKeys(Collection)
+     */
+    public static Map<String, IPerson> getPersonsByKeys(final IPersonServices personServices, final Collection<String> keys) {
+        if (personServices instanceof IBulkPersonServices) {
+            return ((IBulkPersonServices)personServices).getPersonsByKeys(keys);
+        }
+        return getPersonsByKeys(personServices, keys, getSharedExecutor());
+    }
+
+    /**
+     * Finds persons by key, looking each one up with
+     * {@link IPersonServices#getPersonByKey(String)} on the executor.
+     * {@link IBulkPersonServices} implementations without a batch query can
+     * use this.
+     * 
+     * @param personServices The services to look persons up with.
+     * @param keys The keys to look up.
+     * @param executorService Runs the look-ups, null to make them one after another on the calling thread.
+     * @throws IllegalStateException If the calling thread is interrupted while waiting for the look-ups, the interrupt is restored.
+     * @see PersonServices#getPersonsByKeys(Collection)
+     */
+    public static Map<String, IPerson> getPersonsByKeys(final IPersonServices personServices, final Collection<String> keys, final ExecutorService executorService) {
+        return lookup(keys, executorService, new Lookup() {
+            public IPerson lookup(final String key) {
+                return personServices.getPersonByKey(key);
+            }
+        });
+    }
+
+    /**
+     * @return The executor the look-ups are run on when none is specified,
+     * eight daemon threads with a bounded queue. Once the queue is full
+     * callers run their own look-ups, which slows down large batches instead
+     * of queueing them without limit.
+     */
+    public static ExecutorService getSharedExecutor() {
+        return SharedExecutorHolder.EXECUTOR;
+    }
+
+    private static Map<String, IPerson> lookup(final Collection<String> ids, final ExecutorService executorService, final Lookup lookup) {
+        final Set<String> distinctIds = new LinkedHashSet<String>(ids);
+        final Map<String, IPerson> persons = new LinkedHashMap<String, IPerson>(distinctIds.size() * 2);
+        if (executorService == null || distinctIds.size() <= 1) {
+            for (final String id : distinctIds) {
+                addPerson(persons, id, lookup.lookup(id));
+            }
+            return persons;
+        }
+
+        final List<Future<IPerson>> futures = new ArrayList<Future<IPerson>>(distinctIds.size());
+        for (final String id : distinctIds) {
+            futures.add(executorService.submit(new Callable<IPerson>() {
+                public IPerson call() {
+                    return lookup.lookup(id);
+                }
+            }));
+        }
+
+        try {
+            int index = 0;
+            for (final String id : distinctIds) {
+                addPerson(persons, id, futures.get(index++).get());
+            }
+        }
+        catch (InterruptedException ie) {
+            //A partial result would look like persons that don't exist
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for person look-ups", ie);
+        }
+        catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException("Person look-up failed", cause);
+        }
+        finally {
+            for (final Future<IPerson> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return persons;
+    }
+
+    private static void addPerson(final Map<String, IPerson> persons, final String id, final IPerson person) {
+        if (person != null) {
+            persons.put(id, person);
+        }
+    }
+
+
+    /**
+     * One of the single person look-ups.
+     */
+    private interface Lookup {
+        public IPerson lookup(String id);
+    }
+
+    /**
+     * Creates the shared executor the first time it is used.
+     */
+    private static final class SharedExecutorHolder {
+        private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(8, 8, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(256), new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "BulkPersonLookup-" + this.threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.person;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import edu.wisc.my.apilayer.cache.CacheLoader;
+import edu.wisc.my.apilayer.cache.CacheStatistics;
+import edu.wisc.my.apilayer.cache.ExpiringLruCache;
+import edu.wisc.my.apilayer.internal.IBulkPersonServices;
+import edu.wisc.my.apilayer.internal.IPersonServices;
+
+
+/**
+ * Read-through caching decorator for a portal's {@link IPersonServices}. A
+ * portal installs it by returning it from
+ * {@link edu.wisc.my.apilayer.internal.IPortalServices#getPersonServices()},
+ * after which {@link PersonServices#getPersonByUserName(String)} and
+ * {@link PersonServices#getPersonByKey(String)} are answered from the cache.
+ * <p>
+ * Persons are cached by user name and by key. Loading a person through
+ * either index stores it in the other as well, and evicting a person
+ * removes it from both, so the two lookups always agree. Persons found by
+ * attribute queries are not cached by their query but do refresh both
+ * indexes. Batch look-ups answer what they can from the cache and pass the
+ * rest to the wrapped services as one batch. User names and keys that don't
+ * resolve to a person are cached as misses for the negative time to live.
+ * 
+ * @since 1.3
+ */
+public class CachingPersonServices implements IBulkPersonServices {
+    private final IPersonServices personServices;
+    private final ExpiringLruCache<String, IPerson> userNameCache;
+    private final ExpiringLruCache<String, IPerson> keyCache;
+
+    private final CacheLoader<String, IPerson, RuntimeException> userNameLoader = new CacheLoader<String, IPerson, RuntimeException>() {
+        public IPerson load(final String userName) {
+            final IPerson person = CachingPersonServices.this.personServices.getPersonByUserName(userName);
+            if (person != null && person.getKey() != null) {
+                CachingPersonServices.this.keyCache.put(person.getKey(), person);
+            }
+            return person;
+        }
+    };
+
+    private final CacheLoader<String, IPerson, RuntimeException> keyLoader = new CacheLoader<String, IPerson, RuntimeException>() {
+        public IPerson load(final String key) {
+            final IPerson person = CachingPersonServices.this.personServices.getPersonByKey(key);
+            if (person != null && person.getUserName() != null) {
+                CachingPersonServices.this.userNameCache.put(person.getUserName(), person);
+            }
+            return person;
+        }
+    };
+
+    /**
+     * @param personServices The services to cache.
+     * @param maxSize The maximum number of persons to cache in each index.
+     * @param timeToLive How long a found person is cached.
+     * @param negativeTimeToLive How long a user name or key that didn't resolve to a person is cached, 0 to not cache misses.
+     * @param unit The unit of <code>timeToLive</code> and <code>negativeTimeToLive</code>.
+     */
+    public CachingPersonServices(final IPersonServices personServices, final int maxSize, final long timeToLive, final long negativeTimeToLive, final TimeUnit unit) {
+        this(personServices,
+                new ExpiringLruCache<String, IPerson>(maxSize, timeToLive, negativeTimeToLive, unit),
+                new ExpiringLruCache<String, IPerson>(maxSize, timeToLive, negativeTimeToLive, unit));
+    }
+
+    /**
+     * @param personServices The services to cache.
+     * @param userNameCache The cache to store persons in, keyed by user name.
+     * @param keyCache The cache to store persons in, keyed by person key.
+     */
+    public CachingPersonServices(final IPersonServices personServices, final ExpiringLruCache<String, IPerson> userNameCache, final ExpiringLruCache<String, IPerson> keyCache) {
+        if (personServices == null || userNameCache == null || keyCache == null) {
+            throw new IllegalArgumentException("personServices, userNameCache and keyCache may not be null");
+        }
+
+        this.personServices = personServices;
+        this.userNameCache = userNameCache;
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * Evicts the person with the specified user name from both indexes.
+     * 
+     * @param userName The user name of the person to evict.
+     */
+    public void invalidateUserName(final String userName) {
+        final IPerson person = this.userNameCache.remove(userName);
+        if (person != null && person.getKey() != null) {
+            this.keyCache.remove(person.getKey());
+        }
+    }
+
+    /**
+     * Evicts the person with the specified key from both indexes.
+     * 
+     * @param key The key of the person to evict.
+     */
+    public void invalidateKey(final String key) {
+        final IPerson person = this.keyCache.remove(key);
+        if (person != null && person.getUserName() != null) {
+            this.userNameCache.remove(person.getUserName());
+        }
+    }
+
+    /**
+     * Evicts the person from both indexes.
+     * 
+     * @param person The person to evict.
+     */
+    public void invalidate(final IPerson person) {
+        if (person.getUserName() != null) {
+            this.invalidateUserName(person.getUserName());
+        }
+        if (person.getKey() != null) {
+            this.invalidateKey(person.getKey());
+        }
+    }
+
+    /**
+     * Evicts all cached persons.
+     */
+    public void invalidateAll() {
+        this.userNameCache.clear();
+        this.keyCache.clear();
+    }
+
+    /**
+     * @return A snapshot of the hit, miss, eviction and load counters of the user name index.
+     */
+    public CacheStatistics getUserNameStatistics() {
+        return this.userNameCache.getStatistics();
+    }
+
+    /**
+     * @return A snapshot of the hit, miss, eviction and load counters of the key index.
+     */
+    public CacheStatistics getKeyStatistics() {
+        return this.keyCache.getStatistics();
+    }
+
+    public IPerson getPersonByUserName(final String userName) {
+        return this.userNameCache.get(userName, this.userNameLoader);
+    }
+
+    public IPerson getPersonByKey(final String key) {
+        return this.keyCache.get(key, this.keyLoader);
+    }
+
+    public IPerson getPerson(final Map<String, List<Object>> queryMap) {
+        return this.index(this.personServices.getPerson(queryMap));
+    }
+
+    public IPerson getPerson(final String queryAttr, final String queryVal) {
+        return this.index(this.personServices.getPerson(queryAttr, queryVal));
+    }
+
+    public Map<String, IPerson> getPersonsByUserNames(final Collection<String> userNames) {
+        final Map<String, IPerson> persons = new LinkedHashMap<String, IPerson>(userNames.size() * 2);
+        final Set<String> misses = this.getCached(this.userNameCache, userNames, persons);
+        if (misses.isEmpty()) {
+            return persons;
+        }
+
+        final Map<String, IPerson> loaded = BulkPersonLookup.getPersonsByUserNames(this.personServices, misses);
+        return this.merge(this.userNameCache, userNames, persons, misses, loaded);
+    }
+
+    public Map<String, IPerson> getPersonsByKeys(final Collection<String> keys) {
+        final Map<String, IPerson> persons = new LinkedHashMap<String, IPerson>(keys.size() * 2);
+        final Set<String> misses = this.getCached(this.keyCache, keys, persons);
+        if (misses.isEmpty()) {
+            return persons;
+        }
+
+        final Map<String, IPerson> loaded = BulkPersonLookup.getPersonsByKeys(this.personServices, misses);
+        return this.merge(this.keyCache, keys, persons, misses, loaded);
+    }
+
+
+    /**
+     * Adds the cached persons to found.
+     * 
+     * @return The ids that are not cached, neither as a person nor as a miss.
+     */
+    private Set<String> getCached(final ExpiringLruCache<String, IPerson> cache, final Collection<String> ids, final Map<String, IPerson> found) {
+        final Set<String> misses = new LinkedHashSet<String>();
+        for (final String id : ids) {
+            final IPerson person = cache.get(id);
+            if (person != null) {
+                found.put(id, person);
+            }
+            else if (!cache.containsKey(id)) {
+                misses.add(id);
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Caches the loaded persons and the misses, then puts the results back in the order of ids.
+     */
+    private Map<String, IPerson> merge(final ExpiringLruCache<String, IPerson> cache, final Collection<String> ids, final Map<String, IPerson> cached, final Set<String> misses, final Map<String, IPerson> loaded) {
+        for (final String miss : misses) {
+            final IPerson person = loaded.get(miss);
+            if (person == null) {
+                cache.put(miss, null);
+            }
+            else {
+                this.index(person);
+                cache.put(miss, person);
+            }
+        }
+
+        final Map<String, IPerson> persons = new LinkedHashMap<String, IPerson>(ids.size() * 2);
+        for (final String id : ids) {
+            IPerson person = cached.get(id);
+            if (person == null) {
+                person = loaded.get(id);
+            }
+            if (person != null) {
+                persons.put(id, person);
+            }
+        }
+        return persons;
+    }
+
+    /**
+     * Stores a freshly loaded person in both indexes.
+     */
+    private IPerson index(final IPerson person) {
+        if (person != null) {
+            if (person.getUserName() != null) {
+                this.userNameCache.put(person.getUserName(), person);
+            }
+            if (person.getKey() != null) {
+                this.keyCache.put(person.getKey(), person);
+            }
+        }
+        return person;
+    }
+}
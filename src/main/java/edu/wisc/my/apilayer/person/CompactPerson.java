@@ -0,0 +1,317 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.person;
+
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import edu.wisc.my.apilayer.groups.IBasicEntity;
+import edu.wisc.my.apilayer.groups.IEntityIdentifier;
+
+
+/**
+ * Immutable {@link IPerson} that stores its attributes in two flat arrays
+ * against a shared {@link PersonAttributeSchema} rather than in a map of its
+ * own. The slots of the person's attributes are kept sorted in an
+ * <code>int[]</code> and each has one entry in the value array, the value
+ * itself for single valued attributes or an <code>Object[]</code> of the
+ * values otherwise. Values are interned through the schema.
+ * <p>
+ * Attribute names are enumerated in the order they were added to the
+ * schema. {@link #getAttributeValues(String)} returns a copy of the values.
+ * 
+ * @since 1.3
+ */
+public class CompactPerson implements IPerson {
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private final PersonAttributeSchema schema;
+    private final String key;
+    private final String userName;
+    private final int[] slots;
+    private final Object[] values;
+
+    /**
+     * Creates a person using the {@link PersonAttributeSchema#getSharedSchema() shared schema}.
+     * 
+     * @param key The person's key, may not be null.
+     * @param userName The person's user name, may be null.
+     * @param attributes The person's attributes, copied.
+     */
+    public CompactPerson(final String key, final String userName, final Map<String, ? extends List<?>> attributes) {
+        this(PersonAttributeSchema.getSharedSchema(), key, userName, attributes);
+    }
+
+    /**
+     * @param schema The schema to store the attributes against.
+     * @param key The person's key, may not be null.
+     * @param userName The person's user name, may be null.
+     * @param attributes The person's attributes, copied.
+     */
+    public CompactPerson(final PersonAttributeSchema schema, final String key, final String userName, final Map<String, ? extends List<?>> attributes) {
+        if (schema == null || key == null) {
+            throw new IllegalArgumentException("schema and key may not be null");
+        }
+
+        this.schema = schema;
+        this.key = key;
+        this.userName = userName;
+
+        //Insertion sort the slots, the values move with them
+        final int[] newSlots = new int[attributes.size()];
+        final Object[] newValues = new Object[attributes.size()];
+        int count = 0;
+        for (final Map.Entry<String, ? extends List<?>> attribute : attributes.entrySet()) {
+            final int slot = schema.addName(attribute.getKey());
+            final Object value = this.compact(attribute.getValue());
+
+            int index = count++;
+            while (index > 0 && newSlots[index - 1] > slot) {
+                newSlots[index] = newSlots[index - 1];
+                newValues[index] = newValues[index - 1];
+                index--;
+            }
+            newSlots[index] = slot;
+            newValues[index] = value;
+        }
+
+        this.slots = newSlots;
+        this.values = newValues;
+    }
+
+    /**
+     * @return The value to store for the attribute values.
+     */
+    private Object compact(final List<?> attributeValues) {
+        if (attributeValues == null || attributeValues.isEmpty()) {
+            return NO_VALUES;
+        }
+
+        if (attributeValues.size() == 1) {
+            final Object value = this.schema.internValue(attributeValues.get(0));
+            //A single Object[] value has to be wrapped so it isn't mistaken for several values
+            return value instanceof Object[] ? new Object[] { value } : value;
+        }
+
+        final Object[] multipleValues = new Object[attributeValues.size()];
+        int index = 0;
+        for (final Object value : attributeValues) {
+            multipleValues[index++] = this.schema.internValue(value);
+        }
+        return multipleValues;
+    }
+
+    /**
+     * @return The schema the attributes are stored against.
+     */
+    public PersonAttributeSchema getSchema() {
+        return this.schema;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public String getUserName() {
+        return this.userName;
+    }
+
+    /**
+     * @return A copy of the values, null if the attribute doesn't exist.
+     */
+    public Object[] getAttributeValues(final String attributeName) {
+        final int index = this.indexOf(attributeName);
+        if (index < 0) {
+            return null;
+        }
+
+        final Object value = this.values[index];
+        if (value instanceof Object[]) {
+            return ((Object[])value).clone();
+        }
+        return new Object[] { value };
+    }
+
+    public Object getAttributeValue(final String attributeName) {
+        final int index = this.indexOf(attributeName);
+        if (index < 0) {
+            return null;
+        }
+
+        final Object value = this.values[index];
+        if (value instanceof Object[]) {
+            final Object[] multipleValues = (Object[])value;
+            return multipleValues.length == 0 ? null : multipleValues[0];
+        }
+        return value;
+    }
+
+    public Enumeration<String> getAttributeNames() {
+        return new Enumeration<String>() {
+            private int index = 0;
+
+            public boolean hasMoreElements() {
+                return this.index < CompactPerson.this.slots.length;
+            }
+
+            public String nextElement() {
+                if (this.index >= CompactPerson.this.slots.length) {
+                    throw new NoSuchElementException();
+                }
+                return CompactPerson.this.schema.getName(CompactPerson.this.slots[this.index++]);
+            }
+        };
+    }
+
+    /**
+     * @return The number of attributes the person has.
+     */
+    public int getAttributeCount() {
+        return this.slots.length;
+    }
+
+    /**
+     * Checks the attribute's values without copying them.
+     * 
+     * @param attributeName The name of the attribute to check.
+     * @param queryValues The values to look for.
+     * @return true if the person has at least one of the values for the attribute.
+     */
+    public boolean hasAnyValue(final String attributeName, final Collection<?> queryValues) {
+        final int index = this.indexOf(attributeName);
+        if (index < 0) {
+            return false;
+        }
+
+        final Object value = this.values[index];
+        if (!(value instanceof Object[])) {
+            return queryValues.contains(value);
+        }
+
+        for (final Object multipleValue : (Object[])value) {
+            if (queryValues.contains(multipleValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Identifiers are created on demand rather than held by every person.
+     */
+    public IEntityIdentifier getIdentifier() {
+        return new PersonIdentifier(this.key);
+    }
+
+    public IEntityIdentifier getEntityIdentifier() {
+        return this.getIdentifier();
+    }
+
+    /**
+     * @return The index of the attribute in the arrays, -1 if the person doesn't have it.
+     */
+    private int indexOf(final String attributeName) {
+        final int slot = this.schema.getSlot(attributeName);
+        if (slot < 0) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = this.slots.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midSlot = this.slots[mid];
+            if (midSlot < slot) {
+                low = mid + 1;
+            }
+            else if (midSlot > slot) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /* 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[key=" + this.key + ", userName=" + this.userName + "]";
+    }
+
+
+    /**
+     * Identifier of a person. Equal to any {@link IEntityIdentifier} with the
+     * same key and the {@link IPerson} type.
+     */
+    private static final class PersonIdentifier implements IEntityIdentifier {
+        private final String key;
+
+        public PersonIdentifier(final String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        public Class<? extends IBasicEntity> getType() {
+            return IPerson.class;
+        }
+
+        /* 
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof IEntityIdentifier)) {
+                return false;
+            }
+
+            final IEntityIdentifier other = (IEntityIdentifier)o;
+            return IPerson.class == other.getType() && this.key.equals(other.getKey());
+        }
+
+        /*
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return 31 * IPerson.class.getName().hashCode() + this.key.hashCode();
+        }
+
+        /* 
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "PersonIdentifier[key=" + this.key + ", type=" + IPerson.class.getName() + "]";
+        }
+    }
+}
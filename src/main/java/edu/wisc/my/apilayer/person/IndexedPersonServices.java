@@ -0,0 +1,660 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.person;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import edu.wisc.my.apilayer.internal.IBulkPersonServices;
+import edu.wisc.my.apilayer.internal.IPersonServices;
+
+
+/**
+ * Decorator for a portal's {@link IPersonServices} that answers attribute
+ * queries from in-memory secondary indexes before going to the wrapped
+ * services. Each configured attribute gets a hash index, for equality
+ * queries, or a sorted index on the string form of its values, which also
+ * answers prefix and range queries.
+ * <p>
+ * A query is resolved by taking the posting list, the keys of the persons
+ * with any of the queried values, of every indexed attribute in the query
+ * and intersecting them smallest first. The remaining candidates are checked
+ * against the whole query, so attributes that aren't indexed may be
+ * queried too as long as at least one is. A query is answered from the
+ * indexes only when exactly one indexed person matches it. When none does,
+ * or several do and the indexes can't tell which one the wrapped services
+ * would return, the query is passed to the wrapped services.
+ * <p>
+ * The indexes hold the persons that have passed through this class, plus
+ * any given to {@link #index(IPerson)} or {@link #indexAll(Collection)}, so
+ * the wrapped services may have other persons matching a query. Queries are
+ * therefore only answered from the indexes when they include an attribute
+ * declared unique, whose values each belong to at most one person, or when
+ * the indexes were loaded with every person through
+ * {@link #preload(Collection)} and none of those copies has been dropped or
+ * expired since. All other queries go to the wrapped services.
+ * <p>
+ * Every person loaded from the wrapped services replaces the indexed copy,
+ * moving only the postings of values that changed. Persons without a key
+ * are not indexed. Indexed copies older than the time to live no longer
+ * answer queries, and the oldest copies are dropped once the maximum size
+ * is reached. Expired copies are removed as persons are indexed,
+ * {@link #evictExpired()} can be called from a timer to trim indexes that
+ * have gone quiet.
+ * 
+ * @since 1.3
+ */
+public class IndexedPersonServices implements IBulkPersonServices {
+    private final IPersonServices personServices;
+    private final Map<String, Map<Object, Set<String>>> hashIndexes = new HashMap<String, Map<Object, Set<String>>>();
+    private final Map<String, NavigableMap<String, Set<String>>> sortedIndexes = new HashMap<String, NavigableMap<String, Set<String>>>();
+    private final Set<String> uniqueAttributes = new HashSet<String>();
+    /** In the order the persons were indexed, so the oldest copies come first */
+    private final LinkedHashMap<String, IndexedPerson> persons = new LinkedHashMap<String, IndexedPerson>();
+    private final int maxSize;
+    private final long timeToLive;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** If the indexes hold every person of the wrapped services, guarded by the lock */
+    private boolean complete = false;
+    private final AtomicLong indexHitCount = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+
+    /**
+     * @param personServices The services to index.
+     * @param hashIndexedAttributes The attributes to index for equality queries.
+     * @param sortedIndexedAttributes The attributes to index for equality, prefix and range queries.
+     * @param uniqueAttributes The indexed attributes whose values each belong to at most one person, such as the user name, queries on them are answered from the indexes.
+     * @param maxSize The maximum number of persons to index.
+     * @param timeToLive How long an indexed copy of a person answers queries, 0 for copies that never expire.
+     * @param unit The unit of <code>timeToLive</code>.
+     */
+    public IndexedPersonServices(final IPersonServices personServices, final Collection<String> hashIndexedAttributes, final Collection<String> sortedIndexedAttributes, final Collection<String> uniqueAttributes, final int maxSize, final long timeToLive, final TimeUnit unit) {
+        if (personServices == null) {
+            throw new IllegalArgumentException("personServices may not be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive may not be negative");
+        }
+
+        this.personServices = personServices;
+        this.maxSize = maxSize;
+        this.timeToLive = unit.toNanos(timeToLive);
+        if (hashIndexedAttributes != null) {
+            for (final String attribute : hashIndexedAttributes) {
+                this.hashIndexes.put(attribute, new HashMap<Object, Set<String>>());
+            }
+        }
+        if (sortedIndexedAttributes != null) {
+            for (final String attribute : sortedIndexedAttributes) {
+                this.sortedIndexes.put(attribute, new TreeMap<String, Set<String>>());
+            }
+        }
+        if (uniqueAttributes != null) {
+            for (final String attribute : uniqueAttributes) {
+                if (!this.hashIndexes.containsKey(attribute) && !this.sortedIndexes.containsKey(attribute)) {
+                    throw new IllegalArgumentException("The unique attribute " + attribute + " isn't indexed");
+                }
+                this.uniqueAttributes.add(attribute);
+            }
+        }
+    }
+
+    /**
+     * @return The number of indexed persons, including expired copies not yet removed.
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.persons.size();
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of attribute queries answered from the indexes.
+     */
+    public long getIndexHitCount() {
+        return this.indexHitCount.get();
+    }
+
+    /**
+     * @return The number of attribute queries passed to the wrapped services.
+     */
+    public long getFallbackCount() {
+        return this.fallbackCount.get();
+    }
+
+    /**
+     * Adds the person to the indexes, replacing the indexed copy of the
+     * person with the same key.
+     * 
+     * @param person The person to index.
+     */
+    public void index(final IPerson person) {
+        if (person == null || person.getKey() == null) {
+            return;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            final long now = System.nanoTime();
+            this.indexPerson(person, now);
+            this.evict(now);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the persons to the indexes, used to load the indexes in bulk.
+     * 
+     * @param persons The persons to index.
+     */
+    public void indexAll(final Collection<? extends IPerson> persons) {
+        this.lock.writeLock().lock();
+        try {
+            final long now = System.nanoTime();
+            for (final IPerson person : persons) {
+                if (person != null && person.getKey() != null) {
+                    this.indexPerson(person, now);
+                }
+            }
+            this.evict(now);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the indexes with every person of the wrapped
+     * services, so queries on any indexed attribute are answered from the
+     * indexes. That lasts until a copy is dropped because there are more
+     * persons than the maximum size, expires, is removed or the indexes are
+     * cleared. Persons added to the wrapped services later must be given to
+     * {@link #index(IPerson)}.
+     * 
+     * @param persons Every person of the wrapped services.
+     */
+    public void preload(final Collection<? extends IPerson> persons) {
+        this.lock.writeLock().lock();
+        try {
+            this.clearIndexes();
+            final long now = System.nanoTime();
+            for (final IPerson person : persons) {
+                if (person != null && person.getKey() != null) {
+                    this.indexPerson(person, now);
+                }
+            }
+            this.complete = true;
+            this.evict(now);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the person with the key from the indexes.
+     * 
+     * @param key The key of the person to remove.
+     */
+    public void remove(final String key) {
+        this.lock.writeLock().lock();
+        try {
+            final IndexedPerson removed = this.persons.remove(key);
+            if (removed != null) {
+                this.complete = false;
+                this.updatePostings(key, removed.person, null);
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the indexed copies that are older than the time to live.
+     */
+    public void evictExpired() {
+        this.lock.writeLock().lock();
+        try {
+            this.evict(System.nanoTime());
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every person from the indexes.
+     */
+    public void clear() {
+        this.lock.writeLock().lock();
+        try {
+            this.clearIndexes();
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the indexed persons with a value of the attribute starting with the prefix.
+     * 
+     * @param attribute An attribute with a sorted index.
+     * @param prefix The start of the values to find.
+     * @return The matching indexed persons that haven't expired, in value order.
+     */
+    public List<IPerson> getPersonsByPrefix(final String attribute, final String prefix) {
+        if (prefix.length() == 0) {
+            return this.getPersonsInRange(attribute, null, null);
+        }
+
+        //The smallest string greater than every string starting with the prefix
+        final String end = prefix.substring(0, prefix.length() - 1) + (char)(prefix.charAt(prefix.length() - 1) + 1);
+        return this.getPersonsInRange(attribute, prefix, end);
+    }
+
+    /**
+     * Finds the indexed persons with a value of the attribute in the range.
+     * 
+     * @param attribute An attribute with a sorted index.
+     * @param from The lowest value to find, inclusive, null for no lower bound.
+     * @param to The highest value to find, exclusive, null for no upper bound.
+     * @return The matching indexed persons that haven't expired, in value order.
+     */
+    public List<IPerson> getPersonsInRange(final String attribute, final String from, final String to) {
+        final NavigableMap<String, Set<String>> index = this.sortedIndexes.get(attribute);
+        if (index == null) {
+            throw new IllegalArgumentException("There is no sorted index for " + attribute);
+        }
+
+        this.lock.readLock().lock();
+        try {
+            NavigableMap<String, Set<String>> range = index;
+            if (from != null) {
+                range = range.tailMap(from, true);
+            }
+            if (to != null) {
+                range = range.headMap(to, false);
+            }
+
+            final long now = System.nanoTime();
+            final Map<String, IPerson> found = new LinkedHashMap<String, IPerson>();
+            for (final Set<String> keys : range.values()) {
+                for (final String key : keys) {
+                    if (!found.containsKey(key)) {
+                        final IndexedPerson indexed = this.persons.get(key);
+                        if (!this.isExpired(indexed, now)) {
+                            found.put(key, indexed.person);
+                        }
+                    }
+                }
+            }
+            return new ArrayList<IPerson>(found.values());
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public IPerson getPersonByUserName(final String userName) {
+        final IPerson person = this.personServices.getPersonByUserName(userName);
+        this.index(person);
+        return person;
+    }
+
+    public IPerson getPersonByKey(final String key) {
+        final IPerson person = this.personServices.getPersonByKey(key);
+        this.index(person);
+        return person;
+    }
+
+    public Map<String, IPerson> getPersonsByUserNames(final Collection<String> userNames) {
+        final Map<String, IPerson> found = BulkPersonLookup.getPersonsByUserNames(this.personServices, userNames);
+        this.indexAll(found.values());
+        return found;
+    }
+
+    public Map<String, IPerson> getPersonsByKeys(final Collection<String> keys) {
+        final Map<String, IPerson> found = BulkPersonLookup.getPersonsByKeys(this.personServices, keys);
+        this.indexAll(found.values());
+        return found;
+    }
+
+    public IPerson getPerson(final Map<String, List<Object>> queryMap) {
+        if (queryMap == null || queryMap.isEmpty()) {
+            return this.personServices.getPerson(queryMap);
+        }
+
+        final IPerson indexed = this.query(queryMap);
+        if (indexed != null) {
+            this.indexHitCount.incrementAndGet();
+            return indexed;
+        }
+
+        this.fallbackCount.incrementAndGet();
+        final IPerson person = this.personServices.getPerson(queryMap);
+        this.index(person);
+        return person;
+    }
+
+    public IPerson getPerson(final String queryAttr, final String queryVal) {
+        final IPerson indexed = this.query(Collections.singletonMap(queryAttr, Collections.<Object>singletonList(queryVal)));
+        if (indexed != null) {
+            this.indexHitCount.incrementAndGet();
+            return indexed;
+        }
+
+        this.fallbackCount.incrementAndGet();
+        final IPerson person = this.personServices.getPerson(queryAttr, queryVal);
+        this.index(person);
+        return person;
+    }
+
+
+    /**
+     * @return The only indexed person matching the whole query, null if none or several match, no queried attribute is indexed or the indexes can't be trusted to hold every match.
+     */
+    private IPerson query(final Map<String, List<Object>> queryMap) {
+        this.lock.readLock().lock();
+        try {
+            final long now = System.nanoTime();
+            if (!this.isComplete(now) && Collections.disjoint(queryMap.keySet(), this.uniqueAttributes)) {
+                return null;
+            }
+
+            final List<Set<String>> postingLists = new ArrayList<Set<String>>(queryMap.size());
+            for (final Map.Entry<String, List<Object>> query : queryMap.entrySet()) {
+                final Set<String> postingList = this.getPostingList(query.getKey(), query.getValue());
+                if (postingList == null) {
+                    continue;
+                }
+                if (postingList.isEmpty()) {
+                    return null;
+                }
+                postingLists.add(postingList);
+            }
+            if (postingLists.isEmpty()) {
+                return null;
+            }
+
+            Set<String> smallest = postingLists.get(0);
+            for (final Set<String> postingList : postingLists) {
+                if (postingList.size() < smallest.size()) {
+                    smallest = postingList;
+                }
+            }
+
+            IPerson match = null;
+            candidates:
+            for (final String key : smallest) {
+                for (final Set<String> postingList : postingLists) {
+                    if (postingList != smallest && !postingList.contains(key)) {
+                        continue candidates;
+                    }
+                }
+
+                final IndexedPerson indexed = this.persons.get(key);
+                if (!this.isExpired(indexed, now) && matches(indexed.person, queryMap)) {
+                    if (match != null) {
+                        //Ambiguous, which one to return is up to the wrapped services
+                        return null;
+                    }
+                    match = indexed.person;
+                }
+            }
+            return match;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The keys of the persons with any of the values, null if the attribute isn't indexed.
+     */
+    private Set<String> getPostingList(final String attribute, final List<Object> values) {
+        final Map<Object, Set<String>> hashIndex = this.hashIndexes.get(attribute);
+        final NavigableMap<String, Set<String>> sortedIndex = hashIndex == null ? this.sortedIndexes.get(attribute) : null;
+        if (hashIndex == null && sortedIndex == null) {
+            return null;
+        }
+
+        Set<String> postingList = null;
+        boolean shared = true;
+        for (final Object value : values) {
+            final Set<String> keys;
+            if (hashIndex != null) {
+                keys = hashIndex.get(value);
+            }
+            else {
+                keys = value == null ? null : sortedIndex.get(value.toString());
+            }
+            if (keys == null) {
+                continue;
+            }
+
+            if (postingList == null) {
+                postingList = keys;
+            }
+            else {
+                //Copy before merging so the index's own sets are never changed
+                if (shared) {
+                    postingList = new HashSet<String>(postingList);
+                    shared = false;
+                }
+                postingList.addAll(keys);
+            }
+        }
+
+        return postingList == null ? Collections.<String>emptySet() : postingList;
+    }
+
+    /**
+     * @return true if the indexes were preloaded and still hold every copy. Must hold the lock.
+     */
+    private boolean isComplete(final long now) {
+        if (!this.complete) {
+            return false;
+        }
+        if (this.timeToLive == 0 || this.persons.isEmpty()) {
+            return true;
+        }
+
+        //The oldest copy is the first to expire
+        return !this.isExpired(this.persons.values().iterator().next(), now);
+    }
+
+    /**
+     * Removes every person from the indexes. Must hold the write lock.
+     */
+    private void clearIndexes() {
+        this.complete = false;
+        this.persons.clear();
+        for (final Map<Object, Set<String>> index : this.hashIndexes.values()) {
+            index.clear();
+        }
+        for (final NavigableMap<String, Set<String>> index : this.sortedIndexes.values()) {
+            index.clear();
+        }
+    }
+
+    /**
+     * Replaces the indexed copy of the person, moving it to the end of the
+     * indexing order. Must hold the write lock.
+     */
+    private void indexPerson(final IPerson person, final long now) {
+        final String key = person.getKey();
+        final IndexedPerson previous = this.persons.remove(key);
+        this.persons.put(key, new IndexedPerson(person, now));
+        this.updatePostings(key, previous == null ? null : previous.person, person);
+    }
+
+    /**
+     * Removes the oldest copies while there are more than the maximum size
+     * or they have expired. Must hold the write lock.
+     */
+    private void evict(final long now) {
+        final Iterator<Map.Entry<String, IndexedPerson>> personItr = this.persons.entrySet().iterator();
+        while (personItr.hasNext()) {
+            final Map.Entry<String, IndexedPerson> personEntry = personItr.next();
+            if (this.persons.size() <= this.maxSize && !this.isExpired(personEntry.getValue(), now)) {
+                return;
+            }
+
+            personItr.remove();
+            this.complete = false;
+            this.updatePostings(personEntry.getKey(), personEntry.getValue().person, null);
+        }
+    }
+
+    private boolean isExpired(final IndexedPerson indexed, final long now) {
+        return this.timeToLive > 0 && now - indexed.indexed >= this.timeToLive;
+    }
+
+    /**
+     * Moves the postings of the key from the values of the old copy of the
+     * person to the values of the new copy, leaving unchanged values alone.
+     */
+    private void updatePostings(final String key, final IPerson oldPerson, final IPerson newPerson) {
+        for (final Map.Entry<String, Map<Object, Set<String>>> index : this.hashIndexes.entrySet()) {
+            final Set<Object> oldValues = getValues(oldPerson, index.getKey(), false);
+            final Set<Object> newValues = getValues(newPerson, index.getKey(), false);
+            updatePostings(index.getValue(), key, oldValues, newValues);
+        }
+        for (final Map.Entry<String, NavigableMap<String, Set<String>>> index : this.sortedIndexes.entrySet()) {
+            final Set<Object> oldValues = getValues(oldPerson, index.getKey(), true);
+            final Set<Object> newValues = getValues(newPerson, index.getKey(), true);
+            updatePostings(index.getValue(), key, oldValues, newValues);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void updatePostings(final Map<V, Set<String>> index, final String key, final Set<Object> oldValues, final Set<Object> newValues) {
+        for (final Object oldValue : oldValues) {
+            if (!newValues.contains(oldValue)) {
+                final Set<String> keys = index.get(oldValue);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        index.remove(oldValue);
+                    }
+                }
+            }
+        }
+
+        for (final Object newValue : newValues) {
+            if (!oldValues.contains(newValue)) {
+                Set<String> keys = index.get(newValue);
+                if (keys == null) {
+                    keys = new HashSet<String>(4);
+                    index.put((V)newValue, keys);
+                }
+                keys.add(key);
+            }
+        }
+    }
+
+    /**
+     * @return The distinct non-null values of the attribute, as strings for sorted indexes.
+     */
+    private static Set<Object> getValues(final IPerson person, final String attribute, final boolean asStrings) {
+        if (person == null) {
+            return Collections.emptySet();
+        }
+
+        final Object[] values = person.getAttributeValues(attribute);
+        if (values == null || values.length == 0) {
+            return Collections.emptySet();
+        }
+
+        final Set<Object> distinctValues = new HashSet<Object>(values.length * 2);
+        for (final Object value : values) {
+            if (value != null) {
+                distinctValues.add(asStrings ? value.toString() : value);
+            }
+        }
+        return distinctValues;
+    }
+
+    /**
+     * @return true if the person has at least one of the values of every queried attribute.
+     */
+    private static boolean matches(final IPerson person, final Map<String, List<Object>> queryMap) {
+        for (final Map.Entry<String, List<Object>> query : queryMap.entrySet()) {
+            if (person instanceof CompactPerson) {
+                if (!((CompactPerson)person).hasAnyValue(query.getKey(), query.getValue())) {
+                    return false;
+                }
+                continue;
+            }
+
+            final Object[] values = person.getAttributeValues(query.getKey());
+            if (values == null) {
+                return false;
+            }
+
+            boolean found = false;
+            for (final Object value : values) {
+                if (query.getValue().contains(value)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static final class IndexedPerson {
+        private final IPerson person;
+        private final long indexed;
+
+        public IndexedPerson(final IPerson person, final long indexed) {
+            this.person = person;
+            this.indexed = indexed;
+        }
+    }
+}
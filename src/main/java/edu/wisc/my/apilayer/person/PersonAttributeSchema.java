@@ -0,0 +1,184 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.person;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Attribute names and common attribute values shared by many
+ * {@link CompactPerson}s. Each attribute name is given a slot number the
+ * first time it is seen so persons can store slot numbers instead of their
+ * own copies of the names. Short string values are interned, up to a limit,
+ * so values repeated across persons such as affiliations or campus codes
+ * are held once.
+ * <p>
+ * Slots are never reused, the schema is meant to be shared by every person
+ * from the same attribute sources for the life of the application.
+ * 
+ * @since 1.3
+ */
+public class PersonAttributeSchema {
+    /** Default longest string value that is interned */
+    public static final int DEFAULT_MAX_INTERNED_LENGTH = 32;
+    /** Default most distinct values that are interned */
+    public static final int DEFAULT_MAX_INTERNED_VALUES = 65536;
+
+    private static final PersonAttributeSchema SHARED_SCHEMA = new PersonAttributeSchema();
+
+    private final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[16];
+    private int nameCount = 0;
+
+    private final ConcurrentMap<String, String> internedValues = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger internedValueCount = new AtomicInteger();
+    private final int maxInternedLength;
+    private final int maxInternedValues;
+
+    /**
+     * Creates a schema with the default interning limits.
+     */
+    public PersonAttributeSchema() {
+        this(DEFAULT_MAX_INTERNED_LENGTH, DEFAULT_MAX_INTERNED_VALUES);
+    }
+
+    /**
+     * @param maxInternedLength The longest string value that is interned, 0 to not intern values.
+     * @param maxInternedValues The most distinct values that are interned.
+     */
+    public PersonAttributeSchema(final int maxInternedLength, final int maxInternedValues) {
+        if (maxInternedLength < 0 || maxInternedValues < 0) {
+            throw new IllegalArgumentException("maxInternedLength and maxInternedValues may not be negative");
+        }
+
+        this.maxInternedLength = maxInternedLength;
+        this.maxInternedValues = maxInternedValues;
+    }
+
+    /**
+     * @return The schema used by {@link CompactPerson}s created without one.
+     */
+    public static PersonAttributeSchema getSharedSchema() {
+        return SHARED_SCHEMA;
+    }
+
+    /**
+     * @return The number of attribute names in the schema.
+     */
+    public int size() {
+        return this.slots.size();
+    }
+
+    /**
+     * @return The number of distinct values that have been interned.
+     */
+    public int getInternedValueCount() {
+        return this.internedValueCount.get();
+    }
+
+    /**
+     * Gets the slot of the attribute name, adding it to the schema if it is new.
+     * 
+     * @param name The attribute name.
+     * @return The slot of the attribute name.
+     */
+    public int addName(final String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name may not be null");
+        }
+
+        final Integer slot = this.slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+
+        synchronized (this) {
+            final Integer existingSlot = this.slots.get(name);
+            if (existingSlot != null) {
+                return existingSlot;
+            }
+
+            String[] currentNames = this.names;
+            if (this.nameCount == currentNames.length) {
+                currentNames = Arrays.copyOf(currentNames, currentNames.length * 2);
+            }
+            final int newSlot = this.nameCount++;
+            currentNames[newSlot] = name.intern();
+            //Publish the name before the slot so readers of the slot always find the name
+            this.names = currentNames;
+            this.slots.put(currentNames[newSlot], newSlot);
+            return newSlot;
+        }
+    }
+
+    /**
+     * @param name The attribute name.
+     * @return The slot of the attribute name, -1 if it isn't in the schema.
+     */
+    public int getSlot(final String name) {
+        final Integer slot = this.slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @param slot A slot returned by {@link #addName(String)}.
+     * @return The attribute name in the slot.
+     */
+    public String getName(final int slot) {
+        return this.names[slot];
+    }
+
+    /**
+     * Gets the shared copy of a value. Strings no longer than the maximum
+     * interned length are interned until the maximum number of interned
+     * values is reached, other values are returned as is.
+     * 
+     * @param value The value to intern.
+     * @return The shared copy of the value, or the value.
+     */
+    public Object internValue(final Object value) {
+        if (!(value instanceof String)) {
+            return value;
+        }
+
+        final String string = (String)value;
+        if (string.length() > this.maxInternedLength) {
+            return value;
+        }
+
+        final String interned = this.internedValues.get(string);
+        if (interned != null) {
+            return interned;
+        }
+        if (this.internedValueCount.get() >= this.maxInternedValues) {
+            return value;
+        }
+
+        final String existing = this.internedValues.putIfAbsent(string, string);
+        if (existing != null) {
+            return existing;
+        }
+        this.internedValueCount.incrementAndGet();
+        return string;
+    }
+}
@@ -54,11 +54,11 @@
 *******************************************************************************/
 package edu.wisc.my.apilayer.person;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import edu.wisc.my.apilayer.internal.IPersonServices;
-import edu.wisc.my.apilayer.internal.IPortalServices;
 import edu.wisc.my.apilayer.internal.PortalServicesLocator;
 
 
@@ -83,8 +83,7 @@ public class PersonServices {
      * @return An {@link IPerson} object representing the user or null if they are not found.
      */
     public static IPerson getPersonByUserName(final String userName) {
-        final IPortalServices prtlSrvcs = PortalServicesLocator.getPortalServices();
-        final IPersonServices ps = prtlSrvcs.getPersonServices();
+        final IPersonServices ps = PortalServicesLocator.getServices().getPersonServices();
         
         return ps.getPersonByUserName(userName);
     }
@@ -98,8 +97,7 @@ public class PersonServices {
      * @return An {@link IPerson} object representing the user or null if they are not found.
      */
     public static IPerson getPersonByKey(final String key) {
-        final IPortalServices prtlSrvcs = PortalServicesLocator.getPortalServices();
-        final IPersonServices ps = prtlSrvcs.getPersonServices();
+        final IPersonServices ps = PortalServicesLocator.getServices().getPersonServices();
         
         return ps.getPersonByKey(key);
     }
@@ -112,8 +110,7 @@ public class PersonServices {
      * @return An {@link IPerson} object representing the user or null if they are not found.
      */
     public static IPerson getPerson(final Map<String, List<Object>> queryMap) {
-        final IPortalServices prtlSrvcs = PortalServicesLocator.getPortalServices();
-        final IPersonServices ps = prtlSrvcs.getPersonServices();
+        final IPersonServices ps = PortalServicesLocator.getServices().getPersonServices();
         
         return ps.getPerson(queryMap);
     }
@@ -127,9 +124,38 @@ public class PersonServices {
      * @return An {@link IPerson} object representing the user or null if they are not found.
      */
     public static IPerson getPerson(final String queryAttry, final String queryVal) {
-        final IPortalServices prtlSrvcs = PortalServicesLocator.getPortalServices();
-        final IPersonServices ps = prtlSrvcs.getPersonServices();
+        final IPersonServices ps = PortalServicesLocator.getServices().getPersonServices();
         
         return ps.getPerson(queryAttry, queryVal);
     }
+    
+    /**
+     * Looks up many portal users by their portal user names at once. Only
+     * users that are found are in the returned {@link Map}.
+     * 
+     * @param userNames The names of the users to find.
+     * @return The users found keyed by user name, in the iteration order of the argument.
+     * @see BulkPersonLookup
+     * @since 1.3
+     */
+    public static Map<String, IPerson> getPersonsByUserNames(final Collection<String> userNames) {
+        final IPersonServices ps = PortalServicesLocator.getServices().getPersonServices();
+        
+        return BulkPersonLookup.getPersonsByUserNames(ps, userNames);
+    }
+    
+    /**
+     * Looks up many portal users by their portal keys at once. Only users
+     * that are found are in the returned {@link Map}.
+     * 
+     * @param keys The keys of the users to find.
+     * @return The users found keyed by key, in the iteration order of the argument.
+     * @see BulkPersonLookup
+     * @since 1.3
+     */
+    public static Map<String, IPerson> getPersonsByKeys(final Collection<String> keys) {
+        final IPersonServices ps = PortalServicesLocator.getServices().getPersonServices();
+        
+        return BulkPersonLookup.getPersonsByKeys(ps, keys);
+    }
 }
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.portlet;
+
+import java.io.IOException;
+
+
+/**
+ * Converts session attribute values to and from bytes so they can be kept
+ * outside of the Java heap by {@link OffHeapSessionAttributes}.
+ * 
+ * @since 1.3
+ */
+public interface AttributeSerializer {
+    /**
+     * @param value The value to convert, never null.
+     * @return The bytes of the value.
+     * @throws IOException If the value can't be converted.
+     */
+    public byte[] serialize(Object value) throws IOException;
+
+    /**
+     * @param data The bytes created by {@link #serialize(Object)}.
+     * @return A new instance equal to the value that was serialized.
+     * @throws IOException If the bytes can't be converted.
+     */
+    public Object deserialize(byte[] data) throws IOException;
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.portlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+
+/**
+ * {@link AttributeSerializer} using Java serialization, values must be
+ * {@link Serializable}. By default classes are resolved with the context
+ * class loader of the thread reading the value, so one serializer can read
+ * back values of whichever portlet application is handling the request. A
+ * serializer created with a class loader always resolves classes with it.
+ * 
+ * @since 1.3
+ */
+public class JavaAttributeSerializer implements AttributeSerializer {
+    private final ClassLoader classLoader;
+
+    /**
+     * Resolves classes with the context class loader of the thread calling
+     * {@link #deserialize(byte[])}.
+     */
+    public JavaAttributeSerializer() {
+        this(null);
+    }
+
+    /**
+     * @param classLoader Resolves the classes of deserialized values, null for the context class loader of the reading thread.
+     */
+    public JavaAttributeSerializer(final ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.portlet.AttributeSerializer#serialize(java.lang.Object)
+     */
+    public byte[] serialize(final Object value) throws IOException {
+        if (!(value instanceof Serializable)) {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(value);
+        }
+        finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /*
+     * @see edu.wisc.my.apilayer.portlet.AttributeSerializer#deserialize(byte[])
+     */
+    public Object deserialize(final byte[] data) throws IOException {
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                final ClassLoader loader = JavaAttributeSerializer.this.classLoader != null ? JavaAttributeSerializer.this.classLoader : Thread.currentThread().getContextClassLoader();
+                if (loader == null) {
+                    return super.resolveClass(desc);
+                }
+
+                try {
+                    return Class.forName(desc.getName(), false, loader);
+                }
+                catch (ClassNotFoundException cnfe) {
+                    return super.resolveClass(desc);
+                }
+            }
+        };
+
+        try {
+            return in.readObject();
+        }
+        catch (ClassNotFoundException cnfe) {
+            throw new IOException("Class of the session attribute can't be found: " + cnfe.getMessage(), cnfe);
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.portlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Fixed size blocks of memory outside of the Java heap, either direct
+ * buffers or a memory-mapped file. A value is written to as many blocks as
+ * it needs, which don't have to be next to each other, so freed blocks can
+ * always be reused without compacting.
+ * <p>
+ * One store is meant to be shared by every {@link OffHeapSessionAttributes}
+ * of a portal. Allocating and freeing is synchronized, reading and writing
+ * allocated blocks is not.
+ * 
+ * @since 1.3
+ */
+public class OffHeapBlockStore {
+    /** Default size of a block in bytes */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /** The largest chunk a single buffer holds, a multiple of every power of two block size */
+    private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    private final ByteBuffer[] chunks;
+    private final int blockSize;
+    private final int blocksPerChunk;
+    private final int blockCount;
+    private final int[] freeBlocks;
+    private int freeCount;
+    private final AtomicLong failedAllocations = new AtomicLong();
+
+    /**
+     * Allocates the store as direct buffers.
+     * 
+     * @param capacity The size of the store in bytes, rounded down to whole blocks.
+     * @param blockSize The size of a block in bytes, a power of two.
+     */
+    public OffHeapBlockStore(final long capacity, final int blockSize) {
+        this.blockSize = checkBlockSize(blockSize);
+        this.blockCount = checkBlockCount(capacity, blockSize);
+        this.blocksPerChunk = MAX_CHUNK_SIZE / blockSize;
+        this.chunks = new ByteBuffer[(this.blockCount + this.blocksPerChunk - 1) / this.blocksPerChunk];
+        for (int index = 0; index < this.chunks.length; index++) {
+            this.chunks[index] = ByteBuffer.allocateDirect(this.getChunkSize(index));
+        }
+
+        this.freeBlocks = new int[this.blockCount];
+        this.initFreeBlocks();
+    }
+
+    /**
+     * Maps the store to a file, the file is created or resized to the
+     * capacity of the store. Its contents are not meaningful after the store
+     * is no longer used.
+     * 
+     * @param file The file to map.
+     * @param capacity The size of the store in bytes, rounded down to whole blocks.
+     * @param blockSize The size of a block in bytes, a power of two.
+     * @throws IOException If the file can't be mapped.
+     */
+    public OffHeapBlockStore(final File file, final long capacity, final int blockSize) throws IOException {
+        this.blockSize = checkBlockSize(blockSize);
+        this.blockCount = checkBlockCount(capacity, blockSize);
+        this.blocksPerChunk = MAX_CHUNK_SIZE / blockSize;
+        this.chunks = new ByteBuffer[(this.blockCount + this.blocksPerChunk - 1) / this.blocksPerChunk];
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength((long)this.blockCount * blockSize);
+            final FileChannel channel = randomAccessFile.getChannel();
+            for (int index = 0; index < this.chunks.length; index++) {
+                this.chunks[index] = channel.map(FileChannel.MapMode.READ_WRITE, (long)index * MAX_CHUNK_SIZE, this.getChunkSize(index));
+            }
+        }
+        finally {
+            //The mappings stay valid after the file is closed
+            randomAccessFile.close();
+        }
+
+        this.freeBlocks = new int[this.blockCount];
+        this.initFreeBlocks();
+    }
+
+    private static int checkBlockSize(final int blockSize) {
+        if (blockSize <= 0 || Integer.bitCount(blockSize) != 1 || blockSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("blockSize must be a power of two no larger than " + MAX_CHUNK_SIZE + ": " + blockSize);
+        }
+        return blockSize;
+    }
+
+    private static int checkBlockCount(final long capacity, final int blockSize) {
+        final long blockCount = capacity / blockSize;
+        if (blockCount <= 0 || blockCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity must hold between 1 and " + Integer.MAX_VALUE + " blocks: " + capacity);
+        }
+        return (int)blockCount;
+    }
+
+    private int getChunkSize(final int index) {
+        final int blocks = Math.min(this.blocksPerChunk, this.blockCount - index * this.blocksPerChunk);
+        return blocks * this.blockSize;
+    }
+
+    /**
+     * Lowest blocks on the top of the stack so a lightly used store touches
+     * as few pages as possible.
+     */
+    private void initFreeBlocks() {
+        for (int index = 0; index < this.blockCount; index++) {
+            this.freeBlocks[index] = this.blockCount - 1 - index;
+        }
+        this.freeCount = this.blockCount;
+    }
+
+    /**
+     * @return The size of a block in bytes.
+     */
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    /**
+     * @return The number of blocks in the store.
+     */
+    public int getBlockCount() {
+        return this.blockCount;
+    }
+
+    /**
+     * @return The number of blocks not allocated.
+     */
+    public synchronized int getFreeBlockCount() {
+        return this.freeCount;
+    }
+
+    /**
+     * @return The number of times {@link #allocate(int)} failed because the store was full.
+     */
+    public long getFailedAllocationCount() {
+        return this.failedAllocations.get();
+    }
+
+    /**
+     * Allocates enough blocks for the number of bytes.
+     * 
+     * @param length The number of bytes to store.
+     * @return The allocated blocks, null if there aren't enough free blocks.
+     */
+    public int[] allocate(final int length) {
+        final int[] blocks = new int[Math.max(1, (length + this.blockSize - 1) / this.blockSize)];
+        synchronized (this) {
+            if (blocks.length > this.freeCount) {
+                this.failedAllocations.incrementAndGet();
+                return null;
+            }
+
+            this.freeCount -= blocks.length;
+            System.arraycopy(this.freeBlocks, this.freeCount, blocks, 0, blocks.length);
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns blocks from {@link #allocate(int)} to the store, they must not
+     * be used afterwards.
+     * 
+     * @param blocks The blocks to free.
+     */
+    public synchronized void free(final int[] blocks) {
+        System.arraycopy(blocks, 0, this.freeBlocks, this.freeCount, blocks.length);
+        this.freeCount += blocks.length;
+    }
+
+    /**
+     * Writes the bytes to the blocks, in order.
+     * 
+     * @param blocks Blocks from {@link #allocate(int)} for at least <code>data.length</code> bytes.
+     * @param data The bytes to write.
+     */
+    public void write(final int[] blocks, final byte[] data) {
+        int offset = 0;
+        for (int index = 0; offset < data.length; index++) {
+            final int length = Math.min(this.blockSize, data.length - offset);
+            this.getBlock(blocks[index]).put(data, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Reads bytes written by {@link #write(int[], byte[])}.
+     * 
+     * @param blocks The blocks the bytes were written to.
+     * @param length The number of bytes written.
+     * @return The bytes.
+     */
+    public byte[] read(final int[] blocks, final int length) {
+        final byte[] data = new byte[length];
+        int offset = 0;
+        for (int index = 0; offset < length; index++) {
+            final int blockLength = Math.min(this.blockSize, length - offset);
+            this.getBlock(blocks[index]).get(data, offset, blockLength);
+            offset += blockLength;
+        }
+        return data;
+    }
+
+    /**
+     * @return A buffer positioned at the start of the block, independent of other callers.
+     */
+    private ByteBuffer getBlock(final int block) {
+        final ByteBuffer chunk = this.chunks[block / this.blocksPerChunk].duplicate();
+        chunk.position((block % this.blocksPerChunk) * this.blockSize);
+        return chunk;
+    }
+}
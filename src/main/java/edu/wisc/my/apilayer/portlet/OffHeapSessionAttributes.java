@@ -0,0 +1,296 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.portlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import javax.servlet.http.HttpSessionEvent;
+
+
+/**
+ * Attributes of one portal session whose values are serialized into an
+ * {@link OffHeapBlockStore} instead of being kept on the Java heap, so large
+ * values held for the whole session don't add to old generation garbage
+ * collection. Values that serialize to no more than the hot tier size stay on
+ * the heap as they are.
+ * <p>
+ * The portal stores one instance in its session under {@link #SESSION_ATTRIBUTE},
+ * so portlets can reach it through the session under
+ * {@link Constants#PORTAL_SESSION}:
+ * <pre>
+ * HttpSession portalSession = (HttpSession)request.getAttribute(Constants.PORTAL_SESSION);
+ * OffHeapSessionAttributes attributes = (OffHeapSessionAttributes)portalSession.getAttribute(OffHeapSessionAttributes.SESSION_ATTRIBUTE);
+ * </pre>
+ * Its blocks are freed when it is unbound from the session, including when
+ * the session is invalidated or expires, and when the session is passivated.
+ * <p>
+ * The attributes live in this JVM only, they don't survive the session being
+ * passivated, persisted across a restart or replicated to another node. The
+ * instance isn't serializable, so the container leaves it out of the stored
+ * session without unbinding it; the blocks are freed when the container
+ * announces the passivation instead. A portal using such a container must
+ * check {@link #isInvalidated()} and store a new instance when it finds an
+ * invalidated or missing one.
+ * <p>
+ * Values kept off the heap are copies: {@link #getAttribute(String)} returns
+ * a new instance each time and changes to it must be stored again with
+ * {@link #setAttribute(String, Object)}, as with a replicated session.
+ * 
+ * @since 1.3
+ */
+public class OffHeapSessionAttributes implements HttpSessionBindingListener, HttpSessionActivationListener {
+    /** Name of the portal session attribute holding the instance for the session */
+    public static final String SESSION_ATTRIBUTE = "edu.wisc.my.apilayer.portlet.OffHeapSessionAttributes";
+
+    /** Default largest serialized size in bytes of a value kept on the heap */
+    public static final int DEFAULT_HOT_TIER_SIZE = 256;
+
+    private final OffHeapBlockStore blockStore;
+    private final AttributeSerializer serializer;
+    private final int hotTierSize;
+    private final Map<String, Value> attributes = new HashMap<String, Value>();
+    private boolean invalidated = false;
+
+    /**
+     * Uses Java serialization and the default hot tier size.
+     * 
+     * @param blockStore The store values are kept in.
+     */
+    public OffHeapSessionAttributes(final OffHeapBlockStore blockStore) {
+        this(blockStore, new JavaAttributeSerializer(), DEFAULT_HOT_TIER_SIZE);
+    }
+
+    /**
+     * @param blockStore The store values are kept in.
+     * @param serializer Converts values to and from bytes.
+     * @param hotTierSize The largest serialized size in bytes of a value kept on the heap.
+     */
+    public OffHeapSessionAttributes(final OffHeapBlockStore blockStore, final AttributeSerializer serializer, final int hotTierSize) {
+        if (blockStore == null || serializer == null) {
+            throw new IllegalArgumentException("blockStore and serializer may not be null");
+        }
+
+        this.blockStore = blockStore;
+        this.serializer = serializer;
+        this.hotTierSize = hotTierSize;
+    }
+
+    /**
+     * @param name The name of the attribute.
+     * @return The value of the attribute, null if it isn't set.
+     * @throws IllegalStateException If the attributes were invalidated or the value can't be deserialized.
+     */
+    public Object getAttribute(final String name) {
+        final byte[] data;
+        synchronized (this) {
+            this.checkValid();
+
+            final Value value = this.attributes.get(name);
+            if (value == null) {
+                return null;
+            }
+            if (value.blocks == null) {
+                return value.value;
+            }
+
+            //Read under the lock so the blocks can't be freed and reused meanwhile
+            data = this.blockStore.read(value.blocks, value.length);
+        }
+
+        try {
+            return this.serializer.deserialize(data);
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Session attribute '" + name + "' can't be deserialized", ioe);
+        }
+    }
+
+    /**
+     * Sets the attribute, replacing any previous value. The value is
+     * serialized before the call returns. If the block store is full the
+     * value is kept on the heap.
+     * 
+     * @param name The name of the attribute.
+     * @param value The value of the attribute, null removes the attribute.
+     * @throws IllegalArgumentException If the value can't be serialized.
+     * @throws IllegalStateException If the attributes were invalidated.
+     */
+    public void setAttribute(final String name, final Object value) {
+        if (name == null) {
+            throw new IllegalArgumentException("name may not be null");
+        }
+        if (value == null) {
+            this.removeAttribute(name);
+            return;
+        }
+
+        final byte[] data;
+        try {
+            data = this.serializer.serialize(value);
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Session attribute '" + name + "' can't be serialized", ioe);
+        }
+
+        Value stored = null;
+        if (data.length > this.hotTierSize) {
+            final int[] blocks = this.blockStore.allocate(data.length);
+            if (blocks != null) {
+                this.blockStore.write(blocks, data);
+                stored = new Value(null, blocks, data.length);
+            }
+        }
+        if (stored == null) {
+            stored = new Value(value, null, data.length);
+        }
+
+        final Value previous;
+        synchronized (this) {
+            if (this.invalidated) {
+                this.free(stored);
+                throw new IllegalStateException("The session attributes have been invalidated");
+            }
+
+            previous = this.attributes.put(name, stored);
+            this.free(previous);
+        }
+    }
+
+    /**
+     * @param name The name of the attribute to remove.
+     * @throws IllegalStateException If the attributes were invalidated.
+     */
+    public void removeAttribute(final String name) {
+        synchronized (this) {
+            this.checkValid();
+            this.free(this.attributes.remove(name));
+        }
+    }
+
+    /**
+     * @return A snapshot of the names of the attributes.
+     * @throws IllegalStateException If the attributes were invalidated.
+     */
+    public synchronized Enumeration<String> getAttributeNames() {
+        this.checkValid();
+        return Collections.enumeration(new ArrayList<String>(this.attributes.keySet()));
+    }
+
+    /**
+     * @return The number of serialized bytes kept off the heap.
+     */
+    public synchronized long getOffHeapSize() {
+        long size = 0;
+        for (final Value value : this.attributes.values()) {
+            if (value.blocks != null) {
+                size += value.length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes every attribute and frees their blocks, the attributes can't
+     * be used afterwards. Calling it again does nothing.
+     */
+    public synchronized void invalidate() {
+        if (this.invalidated) {
+            return;
+        }
+
+        this.invalidated = true;
+        for (final Value value : this.attributes.values()) {
+            this.free(value);
+        }
+        this.attributes.clear();
+    }
+
+    /**
+     * @return true if {@link #invalidate()} has been called.
+     */
+    public synchronized boolean isInvalidated() {
+        return this.invalidated;
+    }
+
+    /*
+     * @see javax.servlet.http.HttpSessionBindingListener#valueBound(javax.servlet.http.HttpSessionBindingEvent)
+     */
+    public void valueBound(final HttpSessionBindingEvent event) {
+    }
+
+    /*
+     * @see javax.servlet.http.HttpSessionBindingListener#valueUnbound(javax.servlet.http.HttpSessionBindingEvent)
+     */
+    public void valueUnbound(final HttpSessionBindingEvent event) {
+        this.invalidate();
+    }
+
+    /**
+     * Frees the blocks, the attributes can't be written out with the session.
+     * 
+     * @see javax.servlet.http.HttpSessionActivationListener#sessionWillPassivate(javax.servlet.http.HttpSessionEvent)
+     */
+    public void sessionWillPassivate(final HttpSessionEvent event) {
+        this.invalidate();
+    }
+
+    /*
+     * @see javax.servlet.http.HttpSessionActivationListener#sessionDidActivate(javax.servlet.http.HttpSessionEvent)
+     */
+    public void sessionDidActivate(final HttpSessionEvent event) {
+    }
+
+
+    private void checkValid() {
+        if (this.invalidated) {
+            throw new IllegalStateException("The session attributes have been invalidated");
+        }
+    }
+
+    private void free(final Value value) {
+        if (value != null && value.blocks != null) {
+            this.blockStore.free(value.blocks);
+        }
+    }
+
+
+    /**
+     * A value on the heap or the blocks holding it.
+     */
+    private static final class Value {
+        private final Object value;
+        private final int[] blocks;
+        private final int length;
+
+        public Value(final Object value, final int[] blocks, final int length) {
+            this.value = value;
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.portlet;
+
+
+
+/**
+ * One of the levels of an {@link IScopeIdentifier}, from the whole system
+ * down to a single user.
+ * 
+ * @since 1.3
+ */
+public final class ScopeLevel implements Comparable<ScopeLevel> {
+    /** The {@link IScopeIdentifier#getSystemIdentifier() system} level */
+    public static final ScopeLevel SYSTEM = new ScopeLevel(0, "SYSTEM");
+    /** The {@link IScopeIdentifier#getApplicationIdentifier() application} level */
+    public static final ScopeLevel APPLICATION = new ScopeLevel(1, "APPLICATION");
+    /** The {@link IScopeIdentifier#getPublishedIdentifier() published} level */
+    public static final ScopeLevel PUBLISHED = new ScopeLevel(2, "PUBLISHED");
+    /** The {@link IScopeIdentifier#getInstanceIdentifier() instance} level */
+    public static final ScopeLevel INSTANCE = new ScopeLevel(3, "INSTANCE");
+    /** The {@link IScopeIdentifier#getUserIdentifier() user} level */
+    public static final ScopeLevel USER = new ScopeLevel(4, "USER");
+
+    private final int levelId;
+    private final String levelName;
+
+    private ScopeLevel(final int levelId, final String levelName) {
+        this.levelId = levelId;
+        this.levelName = levelName;
+    }
+
+    /**
+     * Gets the identifier of this level from the scope identifier.
+     * 
+     * @param scopeIdentifier The scope identifier to read.
+     * @return The identifier of this level.
+     */
+    public String getIdentifier(final IScopeIdentifier scopeIdentifier) {
+        switch (this.levelId) {
+            case 0:
+                return scopeIdentifier.getSystemIdentifier();
+            case 1:
+                return scopeIdentifier.getApplicationIdentifier();
+            case 2:
+                return scopeIdentifier.getPublishedIdentifier();
+            case 3:
+                return scopeIdentifier.getInstanceIdentifier();
+            default:
+                return scopeIdentifier.getUserIdentifier();
+        }
+    }
+
+    /* 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        return (obj instanceof ScopeLevel && ((ScopeLevel)obj).levelId == this.levelId);
+    }
+
+    /*
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return this.levelId;
+    }
+
+    /* 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.levelName;
+    }
+
+    /**
+     * Orders the levels from {@link #SYSTEM} to {@link #USER}.
+     * 
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    public int compareTo(final ScopeLevel other) {
+        return this.levelId - other.levelId;
+    }
+}
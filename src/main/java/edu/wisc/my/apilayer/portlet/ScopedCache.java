@@ -0,0 +1,347 @@
+/**
+ * Copyright 2012, Board of Regents of the University of
+ * Wisconsin System. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Board of Regents of the University of Wisconsin
+ * System licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.apilayer.portlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import edu.wisc.my.apilayer.cache.CacheLoader;
+import edu.wisc.my.apilayer.cache.CacheStatistics;
+import edu.wisc.my.apilayer.cache.ExpiringLruCache;
+
+
+/**
+ * A cache region whose entries belong to a scope at one level of an
+ * {@link IScopeIdentifier}, for example to the user or to the portlet
+ * instance. Entries are keyed by the scope's identifier and the caller's key
+ * together, without building a combined string, so equal keys in different
+ * scopes never collide.
+ * <p>
+ * The region holds at most its maximum number of entries, evicting the
+ * least recently used, and entries expire after the time to live. Every
+ * entry of a scope can be evicted at once with {@link #evictScope(IScopeIdentifier)},
+ * for example for a user at logout, in time proportional to the number of
+ * entries in that scope.
+ * 
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @since 1.3
+ */
+public class ScopedCache<K, V> {
+    private final ScopeLevel scopeLevel;
+    private final ConcurrentMap<String, ScopeEntries<K, V>> scopes = new ConcurrentHashMap<String, ScopeEntries<K, V>>();
+    private final ExpiringLruCache<ScopedKey<K>, V> cache;
+
+    /**
+     * @param scopeLevel The level of the scope entries belong to.
+     * @param maxSize The maximum number of entries in the region.
+     * @param timeToLive How long an entry is valid after being stored, 0 for entries that never expire.
+     * @param unit The unit of <code>timeToLive</code>.
+     */
+    public ScopedCache(final ScopeLevel scopeLevel, final int maxSize, final long timeToLive, final TimeUnit unit) {
+        if (scopeLevel == null) {
+            throw new IllegalArgumentException("scopeLevel may not be null");
+        }
+
+        this.scopeLevel = scopeLevel;
+        this.cache = new ExpiringLruCache<ScopedKey<K>, V>(maxSize, timeToLive, unit) {
+            @Override
+            protected void entryDiscarded(final ScopedKey<K> key, final V value) {
+                ScopedCache.this.unindex(key, value);
+            }
+        };
+    }
+
+    /**
+     * @return The level of the scope entries belong to.
+     */
+    public ScopeLevel getScopeLevel() {
+        return this.scopeLevel;
+    }
+
+    /**
+     * Gets the cached value for the key in the scope.
+     * 
+     * @param scopeIdentifier The scope of the entry.
+     * @param key The key to look up.
+     * @return The cached value, <code>null</code> if it isn't cached or has expired.
+     */
+    public V get(final IScopeIdentifier scopeIdentifier, final K key) {
+        return this.cache.get(this.scopedKey(scopeIdentifier, key));
+    }
+
+    /**
+     * Gets the cached value for the key in the scope, loading and caching it
+     * with the loader if it isn't cached or has expired. Loaded
+     * <code>null</code> values are not cached.
+     * 
+     * @param scopeIdentifier The scope of the entry.
+     * @param key The key to look up.
+     * @param loader Loads the value if it isn't cached.
+     * @return The cached or loaded value, may be <code>null</code>.
+     * @throws E If the loader fails.
+     */
+    public <E extends Exception> V get(final IScopeIdentifier scopeIdentifier, final K key, final CacheLoader<? super K, ? extends V, E> loader) throws E {
+        final ScopedKey<K> scopedKey = this.scopedKey(scopeIdentifier, key);
+        final V cached = this.cache.get(scopedKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        final V value = loader.load(key);
+        if (value != null) {
+            this.put(scopedKey, value);
+        }
+        return value;
+    }
+
+    /**
+     * Stores the value for the key in the scope.
+     * 
+     * @param scopeIdentifier The scope of the entry.
+     * @param key The key to store the value for.
+     * @param value The value to store, <code>null</code> removes the entry.
+     */
+    public void put(final IScopeIdentifier scopeIdentifier, final K key, final V value) {
+        final ScopedKey<K> scopedKey = this.scopedKey(scopeIdentifier, key);
+        if (value == null) {
+            this.remove(scopedKey);
+        }
+        else {
+            this.put(scopedKey, value);
+        }
+    }
+
+    /**
+     * Removes the entry for the key in the scope.
+     * 
+     * @param scopeIdentifier The scope of the entry.
+     * @param key The key to remove.
+     * @return The value that was removed, <code>null</code> if there was none.
+     */
+    public V remove(final IScopeIdentifier scopeIdentifier, final K key) {
+        return this.remove(this.scopedKey(scopeIdentifier, key));
+    }
+
+    /**
+     * Removes every entry of the scope the identifier is in at this region's level.
+     * 
+     * @param scopeIdentifier The scope to evict.
+     * @return The number of entries removed.
+     */
+    public int evictScope(final IScopeIdentifier scopeIdentifier) {
+        return this.evictScope(this.scopeLevel.getIdentifier(scopeIdentifier));
+    }
+
+    /**
+     * Removes every entry of the scope.
+     * 
+     * @param scope The identifier of the scope at this region's level.
+     * @return The number of entries removed.
+     */
+    public int evictScope(final String scope) {
+        final ScopeEntries<K, V> entries = this.scopes.remove(scope);
+        if (entries == null) {
+            return 0;
+        }
+
+        final List<ScopedKey<K>> keys;
+        synchronized (entries) {
+            entries.removed = true;
+            keys = new ArrayList<ScopedKey<K>>(entries.values.keySet());
+        }
+
+        int removed = 0;
+        for (final ScopedKey<K> key : keys) {
+            if (this.cache.containsKey(key)) {
+                removed++;
+            }
+            this.cache.remove(key);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every entry in the region.
+     */
+    public void clear() {
+        //Puts racing with the clear see their scope removed and back out
+        for (final ScopeEntries<K, V> entries : this.scopes.values()) {
+            synchronized (entries) {
+                entries.removed = true;
+            }
+        }
+        this.scopes.clear();
+        this.cache.clear();
+    }
+
+    /**
+     * @return The number of entries in the region, including expired entries not yet discarded.
+     */
+    public int size() {
+        return this.cache.size();
+    }
+
+    /**
+     * @return The number of scopes with entries in the region.
+     */
+    public int getScopeCount() {
+        return this.scopes.size();
+    }
+
+    /**
+     * @return A snapshot of the region's hit, miss and eviction counters.
+     */
+    public CacheStatistics getStatistics() {
+        return this.cache.getStatistics();
+    }
+
+
+    private ScopedKey<K> scopedKey(final IScopeIdentifier scopeIdentifier, final K key) {
+        final String scope = this.scopeLevel.getIdentifier(scopeIdentifier);
+        if (scope == null || key == null) {
+            throw new IllegalArgumentException("The " + this.scopeLevel + " scope identifier and key may not be null");
+        }
+        return new ScopedKey<K>(scope, key);
+    }
+
+    /**
+     * Indexes the key under its scope with the value, then stores the value.
+     * Indexing first means a remove or eviction of the new value always
+     * finds it, and since those only unindex the value they removed, one of
+     * an older value landing in between leaves the new one indexed. If the
+     * scope is evicted between the two the value is removed again.
+     */
+    private void put(final ScopedKey<K> key, final V value) {
+        ScopeEntries<K, V> entries;
+        while (true) {
+            entries = this.scopes.get(key.scope);
+            if (entries == null) {
+                final ScopeEntries<K, V> newEntries = new ScopeEntries<K, V>();
+                entries = this.scopes.putIfAbsent(key.scope, newEntries);
+                if (entries == null) {
+                    entries = newEntries;
+                }
+            }
+
+            synchronized (entries) {
+                if (!entries.removed) {
+                    entries.values.put(key, value);
+                    break;
+                }
+            }
+        }
+
+        this.cache.put(key, value);
+
+        final boolean scopeRemoved;
+        synchronized (entries) {
+            scopeRemoved = entries.removed;
+        }
+        if (scopeRemoved) {
+            this.cache.remove(key);
+        }
+    }
+
+    private V remove(final ScopedKey<K> key) {
+        final V removed = this.cache.remove(key);
+        if (removed != null) {
+            this.unindex(key, removed);
+        }
+        return removed;
+    }
+
+    /**
+     * Drops the key from its scope's index if it was indexed with the value,
+     * and the scope once it is empty. Called by the cache while a segment is
+     * locked, so it only ever locks the scope's entries.
+     */
+    private void unindex(final ScopedKey<K> key, final V value) {
+        final ScopeEntries<K, V> entries = this.scopes.get(key.scope);
+        if (entries == null) {
+            return;
+        }
+
+        synchronized (entries) {
+            if (entries.values.get(key) == value) {
+                entries.values.remove(key);
+                if (entries.values.isEmpty()) {
+                    entries.removed = true;
+                    this.scopes.remove(key.scope, entries);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The keys of one scope and the values they were indexed with. Once
+     * removed it is never reused, puts racing with the removal start over
+     * with a new one.
+     */
+    private static final class ScopeEntries<K, V> {
+        private final Map<ScopedKey<K>, V> values = new HashMap<ScopedKey<K>, V>();
+        private boolean removed = false;
+    }
+
+    /**
+     * A scope identifier and a key.
+     */
+    private static final class ScopedKey<K> {
+        private final String scope;
+        private final K key;
+        private final int hash;
+
+        public ScopedKey(final String scope, final K key) {
+            this.scope = scope;
+            this.key = key;
+            this.hash = 31 * scope.hashCode() + key.hashCode();
+        }
+
+        /* 
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof ScopedKey)) {
+                return false;
+            }
+
+            final ScopedKey<?> other = (ScopedKey<?>)o;
+            return this.hash == other.hash && this.scope.equals(other.scope) && this.key.equals(other.key);
+        }
+
+        /*
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
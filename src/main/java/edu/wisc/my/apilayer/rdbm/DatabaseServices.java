@@ -55,7 +55,6 @@
 package edu.wisc.my.apilayer.rdbm;
 
 import edu.wisc.my.apilayer.internal.IDatabaseServices;
-import edu.wisc.my.apilayer.internal.IPortalServices;
 import edu.wisc.my.apilayer.internal.PortalServicesLocator;
 
 
@@ -78,8 +77,7 @@ public final class DatabaseServices {
      * @return The {@link IDatabaseServer} instance representing the default database server, <code>null</code> if one doesn't exist.
      */
     public static IDatabaseServer getDefaultServer() {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IDatabaseServices ds = ps.getDatabaseServices();
+        final IDatabaseServices ds = PortalServicesLocator.getServices().getDatabaseServices();
         
         return ds.getDefaultServer();
     }
@@ -94,8 +92,7 @@ public final class DatabaseServices {
      * @return The {@link IDatabaseServer} instance representing the named database server, <code>null</code> if it doesn't exist.
      */
     public static IDatabaseServer getServer(final String name) {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IDatabaseServices ds = ps.getDatabaseServices();
+        final IDatabaseServices ds = PortalServicesLocator.getServices().getDatabaseServices();
         
         return ds.getServer(name);
     }
@@ -108,8 +105,7 @@ public final class DatabaseServices {
      * @return A list of named database servers, if no servers exist a 0 length array will be returned.
      */
     public static String[] getServerNames() {
-        final IPortalServices ps = PortalServicesLocator.getPortalServices();
-        final IDatabaseServices ds = ps.getDatabaseServices();
+        final IDatabaseServices ds = PortalServicesLocator.getServices().getDatabaseServices();
         
         return ds.getServerNames();
     }
@@ -55,13 +55,20 @@
 package edu.wisc.my.apilayer.rdbm;
 
 import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
+import edu.wisc.my.apilayer.internal.IPortalServices;
+import edu.wisc.my.apilayer.internal.PortalServicesListener;
+import edu.wisc.my.apilayer.internal.PortalServicesLocator;
+
 
 /**
  * {@link javax.sql.DataSource} backed by {@link edu.wisc.my.apilayer.rdbm.DatabaseServices}.
@@ -71,12 +78,24 @@ import javax.sql.DataSource;
  * Depending on the constructor used either the default database or a named
  * database will be used.
  * 
+ * By default the {@link DataSource} is resolved through {@link DatabaseServices}
+ * on every call. When created with <code>bindDataSource</code> set the
+ * {@link DataSource} is resolved on first use and kept until {@link #refresh()}
+ * is called, which should be done whenever the portal's database
+ * configuration changes, or until different portal services are published
+ * with {@link PortalServicesLocator#setPortalServices(edu.wisc.my.apilayer.internal.IPortalServices, boolean)}.
+ * 
  * @author Eric Dalquist <a href="mailto:edalquist@unicon.net">edalquist@unicon.net</a>
  * @version $Revision: 1.1.2.1 $
  * @since 1.0
  */
 public class DatabaseServicesDataSource implements DataSource {
     private final String name;
+    private final boolean bindDataSource;
+    private final AtomicLong resolutionCount = new AtomicLong();
+    /** Incremented by every refresh, a resolution that saw a refresh is not bound */
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicReference<DataSource> boundDataSource = new AtomicReference<DataSource>();
     
     /**
      * Creates a new {@link DataSource} wrapper which will be backed by the
@@ -85,7 +104,7 @@ public class DatabaseServicesDataSource implements DataSource {
      * @see DatabaseServices#getDefaultServer()
      */
     public DatabaseServicesDataSource() {
-        this.name = null;
+        this(null, false);
     }
 
     /**
@@ -96,7 +115,24 @@ public class DatabaseServicesDataSource implements DataSource {
      * @see DatabaseServices#getServer(String)
      */
     public DatabaseServicesDataSource(final String serverName) {
+        this(serverName, false);
+    }
+
+    /**
+     * Creates a new {@link DataSource} wrapper which will be backed by the
+     * {@link DataSource} representing the database with the specified name.
+     * 
+     * @param serverName The name of the database server to use to back this wrapper, null for the default server.
+     * @param bindDataSource If the {@link DataSource} should be resolved once and kept until {@link #refresh()} is called.
+     * @since 1.3
+     */
+    public DatabaseServicesDataSource(final String serverName, final boolean bindDataSource) {
         this.name = serverName;
+        this.bindDataSource = bindDataSource;
+
+        if (bindDataSource) {
+            PortalServicesLocator.addListener(new RefreshListener(this));
+        }
     }
     
     /**
@@ -109,6 +145,36 @@ public class DatabaseServicesDataSource implements DataSource {
         return this.name;
     }
 
+    /**
+     * @return true if the {@link DataSource} is resolved once and kept until {@link #refresh()} is called.
+     * @since 1.3
+     */
+    public boolean isBindDataSource() {
+        return this.bindDataSource;
+    }
+
+    /**
+     * @return The number of times the bound {@link DataSource} has been resolved through {@link DatabaseServices}, always 0 unless the {@link DataSource} is bound.
+     * @since 1.3
+     */
+    public long getResolutionCount() {
+        return this.resolutionCount.get();
+    }
+
+    /**
+     * Drops the bound {@link DataSource} so the next call resolves it again.
+     * Call when the portal's database configuration changes, publishing new
+     * portal services drops it without a call. A resolution that started
+     * before the refresh is never bound. Has no effect unless the
+     * {@link DataSource} is bound.
+     * 
+     * @since 1.3
+     */
+    public void refresh() {
+        this.generation.incrementAndGet();
+        this.boundDataSource.set(null);
+    }
+
     /**
      * @see javax.sql.DataSource#getLoginTimeout()
      */
@@ -173,17 +239,46 @@ public class DatabaseServicesDataSource implements DataSource {
         return ds.unwrap(iface);
     }
 
+    /**
+     * Returns the bound {@link DataSource} if there is one, otherwise resolves
+     * it and binds it if configured to.
+     * 
+     * @return The appropriate {@link DataSource} for the server name.
+     */
+    protected DataSource getDataSource() {
+        if (!this.bindDataSource) {
+            return this.resolveDataSource();
+        }
+
+        final DataSource bound = this.boundDataSource.get();
+        if (bound != null) {
+            return bound;
+        }
+
+        final long generation = this.generation.get();
+        final DataSource resolved = this.resolveDataSource();
+        this.resolutionCount.incrementAndGet();
+
+        //A refresh, or new services, while resolving unbinds what was resolved against the old configuration
+        this.boundDataSource.set(resolved);
+        if (this.generation.get() != generation) {
+            this.boundDataSource.compareAndSet(resolved, null);
+        }
+        return resolved;
+    }
+
     /**
      * Gets the appropriate {@link IDatabaseServer} for the configured
      * server name then gets a {@link DataSource} from it.
      * 
      * Note that the {@link IDatabaseServer} and {@link DataSource} are not
-     * cached on purpose. We are relying on {@link DatabaseServices} to perform
-     * any caching of these objects that is needed.
+     * cached here. Unless the {@link DataSource} is bound we are relying on
+     * {@link DatabaseServices} to perform any caching of these objects that
+     * is needed.
      * 
      * @return The appropriate {@link DataSource} for the server name.
      */
-    protected DataSource getDataSource() {
+    protected DataSource resolveDataSource() {
         if (this.name != null) {
             final IDatabaseServer server = DatabaseServices.getServer(this.name);
             if (server == null) {
@@ -205,4 +300,28 @@ public class DatabaseServicesDataSource implements DataSource {
     public Logger getParentLogger() throws SQLFeatureNotSupportedException {
         return this.getDataSource().getParentLogger();
     }
+
+
+    /**
+     * Refreshes a bound {@link DataSource} when new portal services are
+     * published. Only weakly refers to it so the locator doesn't keep it
+     * alive, once it is collected the listener removes itself.
+     */
+    private static final class RefreshListener implements PortalServicesListener {
+        private final WeakReference<DatabaseServicesDataSource> dataSourceRef;
+
+        public RefreshListener(final DatabaseServicesDataSource dataSource) {
+            this.dataSourceRef = new WeakReference<DatabaseServicesDataSource>(dataSource);
+        }
+
+        public void portalServicesChanged(final IPortalServices previous, final IPortalServices current) {
+            final DatabaseServicesDataSource dataSource = this.dataSourceRef.get();
+            if (dataSource == null) {
+                PortalServicesLocator.removeListener(this);
+            }
+            else {
+                dataSource.refresh();
+            }
+        }
+    }
 }